@@ -0,0 +1,50 @@
+package com.chrisopler.cryptoinvoices.benchmark;
+
+import com.chrisopler.cryptoinvoices.server.blockchain.BlockchainIntegration;
+import com.chrisopler.cryptoinvoices.server.blockchain.BlockchainIntegrationFactory;
+import com.chrisopler.cryptoinvoices.server.blockchain.ChainResilienceProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks the integration lookup performed for every invoice that is created or settled. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockchainIntegrationFactoryBenchmark {
+
+  private BlockchainIntegrationFactory blockchainIntegrationFactory;
+
+  @Setup
+  public void setUp() {
+    this.blockchainIntegrationFactory =
+        new BlockchainIntegrationFactory(
+            Collections.singletonList(new StubBlockchainIntegration()),
+            new SimpleMeterRegistry(),
+            // -- the application defaults, so the lookup returns the fully decorated integration.
+            new ChainResilienceProperties(
+                true, 64, 5000, 15000, 50, 20, 50, 30000, 5, Collections.emptyMap()),
+            true,
+            3500,
+            10_000);
+  }
+
+  @Benchmark
+  public BlockchainIntegration getIntegration() throws Exception {
+    return this.blockchainIntegrationFactory.getIntegration(
+        StubBlockchainIntegration.CHAIN, "default");
+  }
+}
@@ -0,0 +1,56 @@
+package com.chrisopler.cryptoinvoices.benchmark;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/** Benchmarks the JSON serialization of an {@link Invoice}, as done for every response. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InvoiceSerializationBenchmark {
+
+  private ObjectMapper objectMapper;
+  private Invoice invoice;
+
+  @Setup
+  public void setUp() {
+    // -- configured the way Spring MVC configures its own mapper.
+    this.objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    this.invoice =
+        Invoice.builder()
+            .invoiceId("2c9f80827848c65f017848c6a4f70000")
+            .invoiceAmountUnits(100_000_000L)
+            .amountPaidUnits(10_000_000L)
+            .amountRemainingUnits(90_000_000L)
+            .amountScale(6)
+            .invoiceStatus(InvoiceStatus.PARTIALLY_PAID)
+            .chain("XRPL")
+            .chainEnvironment("TESTNET")
+            .cryptoAddress("r9JuxGPccGjMGr54t4JXUDsemAcECQWXTf")
+            .currency("XRP")
+            .dueDate(Instant.parse("2021-03-17T12:42:59.663Z"))
+            .build();
+  }
+
+  @Benchmark
+  public byte[] serializeInvoice() throws Exception {
+    return this.objectMapper.writeValueAsBytes(this.invoice);
+  }
+}
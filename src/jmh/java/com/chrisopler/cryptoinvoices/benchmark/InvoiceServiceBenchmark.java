@@ -0,0 +1,173 @@
+package com.chrisopler.cryptoinvoices.benchmark;
+
+import com.chrisopler.cryptoinvoices.CryptoInvoicesApplication;
+import com.chrisopler.cryptoinvoices.server.errors.BadRequestException;
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceCreateRequest;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import com.chrisopler.cryptoinvoices.server.service.InvoiceService;
+import com.chrisopler.cryptoinvoices.server.service.InvoiceStore;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.context.request.async.DeferredResult;
+
+/**
+ * Benchmarks {@link InvoiceService} against an in-memory H2 database and a stubbed chain. The
+ * background settlement, expiry and address pool jobs are switched off so that only the request
+ * path is measured. Results are completed on the invoice executor, so each benchmark waits for its
+ * result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InvoiceServiceBenchmark {
+
+  private static final String REPLAYED_IDEMPOTENCY_KEY = "benchmark-replayed";
+
+  private ConfigurableApplicationContext context;
+  private InvoiceService invoiceService;
+  private String openInvoiceId;
+  private String paidInvoiceId;
+  private String expiredInvoiceId;
+  private InvoiceCreateRequest createRequest;
+  private InvoiceCreateRequest invalidCreateRequest;
+
+  @Configuration
+  public static class StubChainConfiguration {
+    @Bean
+    public StubBlockchainIntegration stubBlockchainIntegration() {
+      return new StubBlockchainIntegration();
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    System.setProperty("spring.devtools.restart.enabled", "false");
+    this.context =
+        new SpringApplicationBuilder(CryptoInvoicesApplication.class, StubChainConfiguration.class)
+            .web(WebApplicationType.NONE)
+            // -- passed as arguments so that they take precedence over application.properties.
+            .run(
+                "--spring.datasource.url=jdbc:h2:mem:benchmark",
+                "--invoices.settlement.interval-ms=3600000",
+                "--invoices.expiry.interval-ms=3600000",
+                "--invoices.address-pool.enabled=false",
+                "--logging.level.root=WARN");
+    this.invoiceService = this.context.getBean(InvoiceService.class);
+
+    InvoiceStore invoiceStore = this.context.getBean(InvoiceStore.class);
+    this.openInvoiceId = invoiceStore.save(invoice(InvoiceStatus.NEW)).getInvoiceId();
+    this.paidInvoiceId = invoiceStore.save(invoice(InvoiceStatus.PAID)).getInvoiceId();
+    this.expiredInvoiceId = invoiceStore.save(invoice(InvoiceStatus.EXPIRED)).getInvoiceId();
+
+    this.createRequest =
+        new InvoiceCreateRequest(
+            "100.000000", "XRP", StubBlockchainIntegration.CHAIN, null, 60, null);
+    this.invalidCreateRequest =
+        new InvoiceCreateRequest("-100", "XRP", StubBlockchainIntegration.CHAIN, null, 60, null);
+
+    DeferredResult<Invoice> replayed = new DeferredResult<>();
+    try {
+      this.invoiceService.createInvoice(this.createRequest, REPLAYED_IDEMPOTENCY_KEY, replayed);
+      await(replayed);
+    } catch (Exception e) {
+      throw new IllegalStateException("Could not create the replayed invoice", e);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.context.close();
+  }
+
+  @Benchmark
+  public Object getOpenInvoice() throws Exception {
+    return getInvoice(this.openInvoiceId);
+  }
+
+  @Benchmark
+  public Object getPaidInvoice() throws Exception {
+    return getInvoice(this.paidInvoiceId);
+  }
+
+  @Benchmark
+  public Object getExpiredInvoice() throws Exception {
+    return getInvoice(this.expiredInvoiceId);
+  }
+
+  @Benchmark
+  public Object createInvoice() throws Exception {
+    DeferredResult<Invoice> result = new DeferredResult<>();
+    this.invoiceService.createInvoice(this.createRequest, null, result);
+    return await(result);
+  }
+
+  /** A retry of a completed creation, answered from the idempotency index. */
+  @Benchmark
+  public Object replayIdempotentInvoice() throws Exception {
+    DeferredResult<Invoice> result = new DeferredResult<>();
+    this.invoiceService.createInvoice(this.createRequest, REPLAYED_IDEMPOTENCY_KEY, result);
+    return await(result);
+  }
+
+  @Benchmark
+  public Object rejectInvalidInvoice() throws Exception {
+    try {
+      this.invoiceService.createInvoice(this.invalidCreateRequest, null, new DeferredResult<>());
+      throw new IllegalStateException("The invalid request was accepted");
+    } catch (BadRequestException e) {
+      return e;
+    }
+  }
+
+  private Object getInvoice(String invoiceId) throws Exception {
+    DeferredResult<Invoice> result = new DeferredResult<>();
+    this.invoiceService.getInvoice(invoiceId, result);
+    return await(result);
+  }
+
+  private static Object await(DeferredResult<?> result) throws Exception {
+    CompletableFuture<Object> completed = new CompletableFuture<>();
+    result.setResultHandler(completed::complete);
+    return completed.get(10, TimeUnit.SECONDS);
+  }
+
+  private static Invoice invoice(InvoiceStatus status) {
+    return Invoice.builder()
+        .invoiceAmountUnits(100_000_000L)
+        .amountPaidUnits(status == InvoiceStatus.PAID ? 100_000_000L : 0)
+        .amountRemainingUnits(status == InvoiceStatus.PAID ? 0 : 100_000_000L)
+        .amountScale(6)
+        .invoiceStatus(status)
+        .chain(StubBlockchainIntegration.CHAIN)
+        .cryptoAddress("rBenchmark" + status)
+        .currency("XRP")
+        .dueDate(
+            status == InvoiceStatus.EXPIRED
+                ? Instant.now().minus(1, ChronoUnit.HOURS)
+                : Instant.now().plus(1, ChronoUnit.DAYS))
+        .build();
+  }
+}
@@ -0,0 +1,110 @@
+package com.chrisopler.cryptoinvoices.benchmark;
+
+import com.chrisopler.cryptoinvoices.CryptoInvoicesApplication;
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import com.chrisopler.cryptoinvoices.server.service.InvoiceStore;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Compares the {@link InvoiceStore}s for storing a new invoice and reading one by id: the JPA store
+ * on the in-memory H2 database and the log store on a temporary directory. A database on another
+ * host would add a network round trip to every JPA call on top of what is measured here.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InvoiceStoreBenchmark {
+
+  private static final int STORED_INVOICES = 10_000;
+
+  @Param({"jpa", "log"})
+  public String store;
+
+  private ConfigurableApplicationContext context;
+  private InvoiceStore invoiceStore;
+  private Path directory;
+  private String[] invoiceIds;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    System.setProperty("spring.devtools.restart.enabled", "false");
+    this.directory = Files.createTempDirectory("invoice-log");
+    this.context =
+        new SpringApplicationBuilder(CryptoInvoicesApplication.class)
+            .web(WebApplicationType.NONE)
+            .run(
+                "--invoices.store.type=" + this.store,
+                "--invoices.store.log.directory=" + this.directory,
+                "--spring.datasource.url=jdbc:h2:mem:store-benchmark",
+                "--invoices.settlement.interval-ms=3600000",
+                "--invoices.expiry.interval-ms=3600000",
+                "--invoices.address-pool.enabled=false",
+                "--logging.level.root=WARN");
+    this.invoiceStore = this.context.getBean(InvoiceStore.class);
+
+    this.invoiceIds = new String[STORED_INVOICES];
+    for (int i = 0; i < STORED_INVOICES; i++) {
+      this.invoiceIds[i] = this.invoiceStore.save(invoice()).getInvoiceId();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    this.context.close();
+    try (Stream<Path> files = Files.walk(this.directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach((file) -> file.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  public Object createInvoice() {
+    return this.invoiceStore.save(invoice());
+  }
+
+  @Benchmark
+  public Object getInvoice() {
+    String invoiceId = this.invoiceIds[ThreadLocalRandom.current().nextInt(STORED_INVOICES)];
+    return this.invoiceStore.findById(invoiceId).get();
+  }
+
+  private static Invoice invoice() {
+    return Invoice.builder()
+        .invoiceAmountUnits(100_000_000L)
+        .amountRemainingUnits(100_000_000L)
+        .amountScale(6)
+        .invoiceStatus(InvoiceStatus.NEW)
+        .chain(StubBlockchainIntegration.CHAIN)
+        .cryptoAddress("rBenchmark" + ThreadLocalRandom.current().nextInt())
+        .currency("XRP")
+        .dueDate(Instant.now().plus(1, ChronoUnit.DAYS))
+        .build();
+  }
+}
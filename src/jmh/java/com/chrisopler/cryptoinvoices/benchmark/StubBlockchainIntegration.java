@@ -0,0 +1,38 @@
+package com.chrisopler.cryptoinvoices.benchmark;
+
+import com.chrisopler.cryptoinvoices.server.blockchain.BlockchainIntegration;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.UUID;
+import reactor.core.publisher.Mono;
+
+/** An in-memory chain, so that the benchmarks measure the service rather than the network. */
+public class StubBlockchainIntegration implements BlockchainIntegration {
+
+  public static final String CHAIN = "BENCH";
+
+  @Override
+  public String chainKey() {
+    return CHAIN + "/default";
+  }
+
+  @Override
+  public Mono<String> createNewCryptoAddress() {
+    return Mono.fromSupplier(() -> "r" + UUID.randomUUID().toString().replace("-", ""));
+  }
+
+  @Override
+  public Mono<BigDecimal> getBalance(String cryptoAddress) {
+    return Mono.just(BigDecimal.TEN);
+  }
+
+  @Override
+  public int getDecimalPrecision() {
+    return 6;
+  }
+
+  @Override
+  public RoundingMode getRoundingMode() {
+    return RoundingMode.HALF_DOWN;
+  }
+}
@@ -0,0 +1,68 @@
+package com.chrisopler.cryptoinvoices.loadtest;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicLong;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+/** A local stand-in for the XRPL testnet faucet, handing out a new account on every request. */
+public class FaucetStub implements AutoCloseable {
+
+  private static final String ACCOUNT =
+      "{\"account\":{\"xAddress\":\"X%1$s\",\"secret\":\"s%1$s\",\"classicAddress\":\"%1$s\","
+          + "\"address\":\"%1$s\"},\"amount\":1000,\"balance\":1000}";
+
+  private final AtomicLong accounts = new AtomicLong();
+  private final DisposableServer server;
+
+  public FaucetStub(StubBehaviour behaviour) {
+    this.server =
+        HttpServer.create()
+            .host("localhost")
+            .port(0)
+            .route(
+                (routes) ->
+                    routes.post(
+                        "/accounts",
+                        (request, response) ->
+                            request
+                                .receive()
+                                .then()
+                                .then(Mono.delay(behaviour.nextLatency()))
+                                .then(
+                                    Mono.defer(
+                                        () ->
+                                            behaviour.nextFails()
+                                                ? response
+                                                    .status(HttpResponseStatus.SERVICE_UNAVAILABLE)
+                                                    .send()
+                                                    .then()
+                                                : response
+                                                    .header(
+                                                        HttpHeaderNames.CONTENT_TYPE,
+                                                        "application/json")
+                                                    .sendString(Mono.just(nextAccount()))
+                                                    .then()))))
+            .bindNow();
+  }
+
+  public URI uri() {
+    return URI.create("http://localhost:" + this.server.port() + "/accounts");
+  }
+
+  public long accountCount() {
+    return this.accounts.get();
+  }
+
+  @Override
+  public void close() {
+    this.server.disposeNow();
+  }
+
+  private String nextAccount() {
+    return String.format(ACCOUNT, String.format("rLoad%010d", this.accounts.incrementAndGet()));
+  }
+}
@@ -0,0 +1,168 @@
+package com.chrisopler.cryptoinvoices.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.ByteBufMono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.HttpClientResponse;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Sends a mix of invoice creations and reads to the service, in a closed or an open loop.
+ *
+ * <p>In the open loop, the latency of a request is measured from the time it was due to be sent
+ * rather than from when it was sent, so that a stalled service is not hidden by the driver waiting
+ * on it. Requests that would exceed the outstanding limit are dropped and counted instead.
+ */
+public class LoadDriver {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private static final String CREATE_REQUEST =
+      "{\"invoice_amount\":\"100.000000\",\"currency\":\"XRP\",\"chain\":\"XRPL\","
+          + "\"chain_environment\":\"TESTNET\",\"due_in_seconds\":3600}";
+
+  /** The most recently created invoices, which the reads are spread over. */
+  private static final int KNOWN_INVOICES = 10_000;
+
+  private final LoadTestSettings settings;
+  private final HttpClient client;
+  private final OperationStats creates = new OperationStats("create");
+  private final OperationStats reads = new OperationStats("get");
+  private final AtomicReferenceArray<String> invoiceIds =
+      new AtomicReferenceArray<>(KNOWN_INVOICES);
+  private final AtomicLong created = new AtomicLong();
+  private final AtomicInteger outstanding = new AtomicInteger();
+  private final LongAdder dropped = new LongAdder();
+
+  public LoadDriver(String baseUrl, LoadTestSettings settings) {
+    this.settings = settings;
+    int connections =
+        settings.getMode() == LoadTestSettings.Mode.CLOSED
+            ? settings.getUsers()
+            : settings.getMaxOutstanding();
+    this.client =
+        HttpClient.create(
+                ConnectionProvider.builder("loadtest")
+                    .maxConnections(connections)
+                    .pendingAcquireMaxCount(-1)
+                    .build())
+            .baseUrl(baseUrl)
+            .headers((h) -> h.set(HttpHeaderNames.CONTENT_TYPE, "application/json"));
+  }
+
+  /** Drive the service for a while, and report on the requests sent. */
+  public LoadReport run(Duration duration) {
+    long started = System.nanoTime();
+    if (this.settings.getMode() == LoadTestSettings.Mode.CLOSED) {
+      closedLoop(started + duration.toNanos());
+    } else {
+      openLoop(started, duration);
+    }
+    Duration elapsed = Duration.ofNanos(System.nanoTime() - started);
+    List<OperationStats.Interval> intervals =
+        Arrays.asList(this.creates.nextInterval(), this.reads.nextInterval());
+    return new LoadReport(this.settings, elapsed, intervals, this.dropped.sumThenReset());
+  }
+
+  private void closedLoop(long deadline) {
+    Duration thinkTime = this.settings.getThinkTime();
+    Flux.range(0, this.settings.getUsers())
+        .flatMap(
+            (user) ->
+                Mono.defer(() -> send(System.nanoTime()))
+                    .then(thinkTime.isZero() ? Mono.empty() : Mono.delay(thinkTime).then())
+                    .repeat(() -> System.nanoTime() < deadline),
+            this.settings.getUsers())
+        .blockLast();
+  }
+
+  private void openLoop(long started, Duration duration) {
+    long interval = (long) (1_000_000_000L / this.settings.getRate());
+    long requests = duration.toNanos() / interval;
+    int maxOutstanding = this.settings.getMaxOutstanding();
+    Flux.interval(Duration.ofNanos(interval))
+        .take(requests)
+        .onBackpressureDrop((tick) -> this.dropped.increment())
+        .flatMap(
+            (tick) -> {
+              if (this.outstanding.get() >= maxOutstanding) {
+                this.dropped.increment();
+                return Mono.empty();
+              }
+              this.outstanding.incrementAndGet();
+              return send(started + (tick + 1) * interval)
+                  .doFinally((s) -> this.outstanding.decrementAndGet());
+            },
+            maxOutstanding * 2)
+        .blockLast();
+  }
+
+  /** Send the next request of the mix, measuring its latency from the time given. */
+  private Mono<Void> send(long dueAt) {
+    long known = Math.min(this.created.get(), KNOWN_INVOICES);
+    if (known == 0 || ThreadLocalRandom.current().nextDouble() < this.settings.getCreateRatio()) {
+      return create(dueAt);
+    }
+    String invoiceId = this.invoiceIds.get(ThreadLocalRandom.current().nextInt((int) known));
+    // -- a slot is counted before its invoice id is set, so it may not be filled in yet.
+    return invoiceId == null ? create(dueAt) : read(invoiceId, dueAt);
+  }
+
+  private Mono<Void> create(long dueAt) {
+    return this.client
+        .post()
+        .uri("/invoices")
+        .send(ByteBufFlux.fromString(Mono.just(CREATE_REQUEST)))
+        .responseSingle(
+            (response, body) ->
+                response.status().code() == 200
+                    ? body.asString().map(LoadDriver::invoiceId)
+                    : unexpected(response, body))
+        .doOnNext(
+            (invoiceId) -> {
+              this.creates.succeeded(System.nanoTime() - dueAt);
+              long index = this.created.getAndIncrement();
+              this.invoiceIds.set((int) (index % KNOWN_INVOICES), invoiceId);
+            })
+        .doOnError((e) -> this.creates.failed())
+        .onErrorResume((e) -> Mono.empty())
+        .then();
+  }
+
+  private Mono<Void> read(String invoiceId, long dueAt) {
+    return this.client
+        .get()
+        .uri("/invoices/" + invoiceId)
+        .responseSingle(
+            (response, body) ->
+                response.status().code() == 200 ? body.asString() : unexpected(response, body))
+        .doOnNext((invoice) -> this.reads.succeeded(System.nanoTime() - dueAt))
+        .doOnError((e) -> this.reads.failed())
+        .onErrorResume((e) -> Mono.empty())
+        .then();
+  }
+
+  private static <T> Mono<T> unexpected(HttpClientResponse response, ByteBufMono body) {
+    return body.then(Mono.error(new IllegalStateException(response.status().toString())));
+  }
+
+  private static String invoiceId(String invoice) {
+    try {
+      return OBJECT_MAPPER.readTree(invoice).path("invoice_id").asText();
+    } catch (Exception e) {
+      throw new IllegalStateException("Unreadable invoice " + invoice, e);
+    }
+  }
+}
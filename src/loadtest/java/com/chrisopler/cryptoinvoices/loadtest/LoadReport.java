@@ -0,0 +1,78 @@
+package com.chrisopler.cryptoinvoices.loadtest;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.List;
+import org.HdrHistogram.Histogram;
+
+/** Throughput and latency percentiles of a load test run, per operation and overall. */
+public class LoadReport {
+
+  private static final double MICROS_PER_MILLI = 1000.0;
+
+  private final LoadTestSettings settings;
+  private final Duration elapsed;
+  private final List<OperationStats.Interval> operations;
+  private final long dropped;
+
+  public LoadReport(
+      LoadTestSettings settings,
+      Duration elapsed,
+      List<OperationStats.Interval> operations,
+      long dropped) {
+    this.settings = settings;
+    this.elapsed = elapsed;
+    this.operations = operations;
+    this.dropped = dropped;
+  }
+
+  public void print(PrintStream out) {
+    out.printf("%nLoad test: %s, over %d s%n", this.settings, this.elapsed.getSeconds());
+    out.printf(
+        "%-10s %10s %8s %12s %10s %10s %10s %10s%n",
+        "operation", "requests", "errors", "requests/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+    Histogram all = new Histogram(3);
+    long errors = 0;
+    for (OperationStats.Interval operation : this.operations) {
+      print(out, operation.getOperation(), operation.getLatencies(), operation.getErrors());
+      all.add(operation.getLatencies());
+      errors += operation.getErrors();
+    }
+    print(out, "all", all, errors);
+    if (this.dropped > 0) {
+      out.printf(
+          "%d requests were not sent, as %d were already outstanding%n",
+          this.dropped, this.settings.getMaxOutstanding());
+    }
+  }
+
+  /** Write the full latency distribution of each operation, in the HdrHistogram format. */
+  public void writeHistograms(File directory) throws FileNotFoundException {
+    directory.mkdirs();
+    for (OperationStats.Interval operation : this.operations) {
+      File file = new File(directory, operation.getOperation() + ".hgrm");
+      try (PrintStream out = new PrintStream(file)) {
+        operation.getLatencies().outputPercentileDistribution(out, MICROS_PER_MILLI);
+      }
+    }
+  }
+
+  private void print(PrintStream out, String operation, Histogram latencies, long errors) {
+    out.printf(
+        "%-10s %10d %8d %12.1f %10.2f %10.2f %10.2f %10.2f%n",
+        operation,
+        latencies.getTotalCount() + errors,
+        errors,
+        latencies.getTotalCount() * 1000.0 / Math.max(1, this.elapsed.toMillis()),
+        millis(latencies.getValueAtPercentile(50)),
+        millis(latencies.getValueAtPercentile(99)),
+        millis(latencies.getValueAtPercentile(99.9)),
+        millis(latencies.getMaxValue()));
+  }
+
+  private static double millis(long micros) {
+    return micros / MICROS_PER_MILLI;
+  }
+}
@@ -0,0 +1,71 @@
+package com.chrisopler.cryptoinvoices.loadtest;
+
+import com.chrisopler.cryptoinvoices.CryptoInvoicesApplication;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Load tests the service end to end, fully offline. The service is started with its XRPL testnet
+ * integration pointed at local faucet and rippled stubs, and then driven over HTTP, first to warm
+ * it up and then to measure it.
+ *
+ * <p>The stubs, the service and the driver share this JVM, so the results are only comparable
+ * between runs on the same machine.
+ */
+public class LoadTest {
+
+  public static void main(String[] args) throws Exception {
+    LoadTestSettings settings = new LoadTestSettings(args);
+    List<RippledStub> rippledStubs = new ArrayList<>();
+    try (FaucetStub faucet = new FaucetStub(settings.getFaucet())) {
+      for (int i = 0; i < settings.getRippledEndpoints(); i++) {
+        rippledStubs.add(new RippledStub(settings.getRippled()));
+      }
+      try (ConfigurableApplicationContext context = start(settings, faucet, rippledStubs)) {
+        String baseUrl =
+            "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+        LoadDriver driver = new LoadDriver(baseUrl, settings);
+
+        System.out.printf("Warming up for %d s%n", settings.getWarmup().getSeconds());
+        driver.run(settings.getWarmup());
+        System.out.printf("Measuring for %d s%n", settings.getDuration().getSeconds());
+        LoadReport report = driver.run(settings.getDuration());
+
+        report.print(System.out);
+        report.writeHistograms(new File(settings.getHistogramDirectory()));
+        System.out.printf(
+            "%d addresses were created by the faucet, histograms are in %s%n",
+            faucet.accountCount(), settings.getHistogramDirectory());
+      }
+    } finally {
+      rippledStubs.forEach(RippledStub::close);
+    }
+  }
+
+  private static ConfigurableApplicationContext start(
+      LoadTestSettings settings, FaucetStub faucet, List<RippledStub> rippledStubs) {
+    System.setProperty("spring.devtools.restart.enabled", "false");
+    Map<String, String> properties = new LinkedHashMap<>();
+    properties.put("server.port", "0");
+    properties.put("spring.datasource.url", "jdbc:h2:mem:loadtest");
+    properties.put("xrpl.testnet.faucet.endpoint", faucet.uri().toString());
+    properties.put(
+        "xrpl.testnet.rippled.endpoints",
+        rippledStubs.stream().map((s) -> s.uri().toString()).collect(Collectors.joining(",")));
+    properties.put("xrpl.testnet.streaming.enabled", "false");
+    properties.put("logging.level.root", "WARN");
+    properties.putAll(settings.getApplicationProperties());
+    // -- passed as arguments so that they take precedence over application.properties.
+    return new SpringApplicationBuilder(CryptoInvoicesApplication.class)
+        .run(
+            properties.entrySet().stream()
+                .map((p) -> "--" + p.getKey() + "=" + p.getValue())
+                .toArray(String[]::new));
+  }
+}
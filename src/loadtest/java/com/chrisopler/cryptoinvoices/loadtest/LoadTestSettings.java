@@ -0,0 +1,100 @@
+package com.chrisopler.cryptoinvoices.loadtest;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.Getter;
+
+/**
+ * The settings of a load test run, given as {@code --name=value} arguments. Arguments named
+ * {@code --app.<property>} set a property of the service under test instead.
+ */
+@Getter
+public class LoadTestSettings {
+
+  public enum Mode {
+    /** A fixed number of users, each sending a request once the previous one is answered. */
+    CLOSED,
+    /** Requests arrive at a fixed rate, however slowly they are answered. */
+    OPEN
+  }
+
+  private final Mode mode;
+  private final int users;
+  private final Duration thinkTime;
+  private final double rate;
+  private final int maxOutstanding;
+  private final Duration warmup;
+  private final Duration duration;
+  private final double createRatio;
+  private final StubBehaviour faucet;
+  private final StubBehaviour rippled;
+  private final int rippledEndpoints;
+  private final String histogramDirectory;
+  private final Map<String, String> applicationProperties = new LinkedHashMap<>();
+
+  public LoadTestSettings(String... args) {
+    Map<String, String> values = new HashMap<>();
+    for (String arg : args) {
+      // -- the arguments may arrive as a single string when passed through Maven.
+      for (String token : arg.trim().split("\\s+")) {
+        if (token.isEmpty()) {
+          continue;
+        }
+        if (!token.startsWith("--") || !token.contains("=")) {
+          throw new IllegalArgumentException("Expected --name=value but got " + token);
+        }
+        String name = token.substring(2, token.indexOf('='));
+        String value = token.substring(token.indexOf('=') + 1);
+        if (name.startsWith("app.")) {
+          this.applicationProperties.put(name.substring(4), value);
+        } else {
+          values.put(name, value);
+        }
+      }
+    }
+    this.mode = Mode.valueOf(value(values, "mode", "closed").toUpperCase());
+    this.users = Integer.parseInt(value(values, "users", "32"));
+    this.thinkTime = millis(values, "think-ms", "0");
+    this.rate = Double.parseDouble(value(values, "rate", "500"));
+    this.maxOutstanding = Integer.parseInt(value(values, "max-outstanding", "5000"));
+    this.warmup = Duration.ofSeconds(Long.parseLong(value(values, "warmup-s", "10")));
+    this.duration = Duration.ofSeconds(Long.parseLong(value(values, "duration-s", "60")));
+    this.createRatio = Double.parseDouble(value(values, "create-ratio", "0.2"));
+    this.faucet =
+        new StubBehaviour(
+            millis(values, "faucet-latency-ms", "200"),
+            millis(values, "faucet-latency-p99-ms", "1000"),
+            Double.parseDouble(value(values, "faucet-error-rate", "0.01")));
+    this.rippled =
+        new StubBehaviour(
+            millis(values, "rippled-latency-ms", "20"),
+            millis(values, "rippled-latency-p99-ms", "200"),
+            Double.parseDouble(value(values, "rippled-error-rate", "0.001")));
+    this.rippledEndpoints = Integer.parseInt(value(values, "rippled-endpoints", "2"));
+    this.histogramDirectory = value(values, "histogram-dir", "target/loadtest");
+    if (!values.isEmpty()) {
+      throw new IllegalArgumentException("Unknown settings " + values.keySet());
+    }
+  }
+
+  private static String value(Map<String, String> values, String name, String defaultValue) {
+    String value = values.remove(name);
+    return value != null ? value : defaultValue;
+  }
+
+  private static Duration millis(Map<String, String> values, String name, String defaultValue) {
+    return Duration.ofMillis(Long.parseLong(value(values, name, defaultValue)));
+  }
+
+  @Override
+  public String toString() {
+    return this.mode == Mode.CLOSED
+        ? String.format(
+            "closed loop, %d users, %d ms think time, %.0f%% creates",
+            this.users, this.thinkTime.toMillis(), this.createRatio * 100)
+        : String.format(
+            "open loop, %.0f requests/s, %.0f%% creates", this.rate, this.createRatio * 100);
+  }
+}
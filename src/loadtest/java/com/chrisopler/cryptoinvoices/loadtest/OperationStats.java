@@ -0,0 +1,45 @@
+package com.chrisopler.cryptoinvoices.loadtest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Value;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/** The latencies, in microseconds, of the successful requests of one operation, and its errors. */
+public class OperationStats {
+
+  private final String operation;
+  private final Recorder latencies = new Recorder(3);
+  private final LongAdder errors = new LongAdder();
+
+  public OperationStats(String operation) {
+    this.operation = operation;
+  }
+
+  public String getOperation() {
+    return this.operation;
+  }
+
+  public void succeeded(long latencyNanos) {
+    this.latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+  }
+
+  public void failed() {
+    this.errors.increment();
+  }
+
+  /** The latencies and error count since the last interval, starting a new interval. */
+  public Interval nextInterval() {
+    return new Interval(
+        this.operation, this.latencies.getIntervalHistogram(), this.errors.sumThenReset());
+  }
+
+  /** The requests of an operation over one run. */
+  @Value
+  public static class Interval {
+    String operation;
+    Histogram latencies;
+    long errors;
+  }
+}
@@ -0,0 +1,60 @@
+package com.chrisopler.cryptoinvoices.loadtest;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.net.URI;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+/**
+ * A local stand-in for a rippled JSON-RPC endpoint. Every account holds just the faucet funding,
+ * so the invoices under load stay unpaid and keep being settled.
+ */
+public class RippledStub implements AutoCloseable {
+
+  private static final String ACCOUNT_INFO =
+      "{\"result\":{\"account_data\":{\"Balance\":\"1000000000\"},\"status\":\"success\"}}";
+
+  private final DisposableServer server;
+
+  public RippledStub(StubBehaviour behaviour) {
+    this.server =
+        HttpServer.create()
+            .host("localhost")
+            .port(0)
+            .route(
+                (routes) ->
+                    routes.post(
+                        "/",
+                        (request, response) ->
+                            request
+                                .receive()
+                                .then()
+                                .then(Mono.delay(behaviour.nextLatency()))
+                                .then(
+                                    Mono.defer(
+                                        () ->
+                                            behaviour.nextFails()
+                                                ? response
+                                                    .status(HttpResponseStatus.SERVICE_UNAVAILABLE)
+                                                    .send()
+                                                    .then()
+                                                : response
+                                                    .header(
+                                                        HttpHeaderNames.CONTENT_TYPE,
+                                                        "application/json")
+                                                    .sendString(Mono.just(ACCOUNT_INFO))
+                                                    .then()))))
+            .bindNow();
+  }
+
+  public URI uri() {
+    return URI.create("http://localhost:" + this.server.port() + "/");
+  }
+
+  @Override
+  public void close() {
+    this.server.disposeNow();
+  }
+}
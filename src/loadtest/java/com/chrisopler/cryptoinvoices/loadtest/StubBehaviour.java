@@ -0,0 +1,36 @@
+package com.chrisopler.cryptoinvoices.loadtest;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How a stubbed endpoint responds: latencies drawn from a log-normal distribution fitted to a
+ * median and a 99th percentile, and a share of requests failing with a 503.
+ */
+public class StubBehaviour {
+
+  /** The 99th percentile of the standard normal distribution. */
+  private static final double Z_99 = 2.326;
+
+  private final double mu;
+  private final double sigma;
+  private final double errorRate;
+
+  public StubBehaviour(Duration median, Duration p99, double errorRate) {
+    if (p99.compareTo(median) < 0) {
+      throw new IllegalArgumentException("The p99 latency cannot be below the median");
+    }
+    this.mu = Math.log(Math.max(1, median.toNanos()));
+    this.sigma = (Math.log(Math.max(1, p99.toNanos())) - this.mu) / Z_99;
+    this.errorRate = errorRate;
+  }
+
+  public Duration nextLatency() {
+    double gaussian = ThreadLocalRandom.current().nextGaussian();
+    return Duration.ofNanos((long) Math.exp(this.mu + this.sigma * gaussian));
+  }
+
+  public boolean nextFails() {
+    return ThreadLocalRandom.current().nextDouble() < this.errorRate;
+  }
+}
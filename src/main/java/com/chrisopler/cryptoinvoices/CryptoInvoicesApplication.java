@@ -6,17 +6,37 @@ import io.swagger.v3.oas.models.info.License;
 import io.swagger.v3.oas.models.servers.Server;
 import java.util.Arrays;
 import org.springdoc.core.GroupedOpenApi;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.client.reactive.ReactorResourceFactory;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class CryptoInvoicesApplication {
 
   public static void main(String[] args) {
     SpringApplication.run(CryptoInvoicesApplication.class, args);
   }
 
+  /**
+   * Serve the reactive mode from Netty. Tomcat, which is on the classpath for the servlet mode,
+   * would otherwise be preferred.
+   */
+  @Bean
+  @ConditionalOnWebApplication(type = Type.REACTIVE)
+  public NettyReactiveWebServerFactory nettyReactiveWebServerFactory(
+      ObjectProvider<ReactorResourceFactory> reactorResourceFactory) {
+    NettyReactiveWebServerFactory factory = new NettyReactiveWebServerFactory();
+    reactorResourceFactory.ifAvailable(factory::setResourceFactory);
+    return factory;
+  }
+
   @Bean
   public GroupedOpenApi actuatorApi() {
     return GroupedOpenApi.builder().group("Invoices").pathsToMatch("/invoices/**").build();
@@ -0,0 +1,25 @@
+package com.chrisopler.cryptoinvoices.server.blockchain;
+
+import java.math.BigDecimal;
+import lombok.Value;
+
+/** The outcome of looking up the balance of one address in a batch: a balance or an error. */
+@Value
+public class AddressBalance {
+
+  String cryptoAddress;
+  BigDecimal balance;
+  Throwable error;
+
+  public static AddressBalance of(String cryptoAddress, BigDecimal balance) {
+    return new AddressBalance(cryptoAddress, balance, null);
+  }
+
+  public static AddressBalance failed(String cryptoAddress, Throwable error) {
+    return new AddressBalance(cryptoAddress, null, error);
+  }
+
+  public boolean isFailed() {
+    return this.error != null;
+  }
+}
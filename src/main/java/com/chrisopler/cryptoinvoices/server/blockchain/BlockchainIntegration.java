@@ -3,6 +3,8 @@ package com.chrisopler.cryptoinvoices.server.blockchain;
 import com.chrisopler.cryptoinvoices.server.errors.BadRequestException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.Collection;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /** Represents the contract for an integration with a blockchain. */
@@ -20,9 +22,56 @@ public interface BlockchainIntegration {
    */
   Mono<String> createNewCryptoAddress() throws BadRequestException;
 
-  BigDecimal getBalance(String cryptoAddress) throws BadRequestException;
+  /**
+   * The amount received by the address. Lookups are non-blocking, errors are signalled through the
+   * returned {@link Mono}.
+   */
+  Mono<BigDecimal> getBalance(String cryptoAddress);
+
+  /**
+   * The amounts received by several addresses, in no particular order. Lookups that fail are
+   * reported for their address, and do not fail the returned {@link Flux}, so the other balances
+   * can still be used.
+   *
+   * <p>By default, each address is looked up with {@link #getBalance}, with at most {@link
+   * #getBalanceConcurrency} lookups in flight at once, so that decorators time and guard every
+   * lookup. Integrations that can look up balances in bulk should override this.
+   */
+  default Flux<AddressBalance> getBalances(Collection<String> cryptoAddresses) {
+    return Flux.fromIterable(cryptoAddresses)
+        .flatMap(
+            (cryptoAddress) ->
+                getBalance(cryptoAddress)
+                    .map((balance) -> AddressBalance.of(cryptoAddress, balance))
+                    .onErrorResume((e) -> Mono.just(AddressBalance.failed(cryptoAddress, e))),
+            getBalanceConcurrency());
+  }
+
+  /** How many balance lookups of a batch may be in flight at once, one by default. */
+  default int getBalanceConcurrency() {
+    return 1;
+  }
 
   int getDecimalPrecision();
 
   RoundingMode getRoundingMode();
+
+  /**
+   * Whether this integration pushes payments through {@link #paymentNotifications()}. Integrations
+   * that do not are polled for their balances instead.
+   */
+  default boolean isStreamingPayments() {
+    return false;
+  }
+
+  /**
+   * Replace the set of addresses for which payments should be pushed. Ignored by integrations that
+   * do not stream payments.
+   */
+  default void watchAddresses(Collection<String> cryptoAddresses) {}
+
+  /** The watched addresses that have received a payment, as the payments land on the chain. */
+  default Flux<String> paymentNotifications() {
+    return Flux.empty();
+  }
 }
@@ -1,21 +1,50 @@
 package com.chrisopler.cryptoinvoices.server.blockchain;
 
 import com.chrisopler.cryptoinvoices.server.errors.UnknownIntegrationException;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 @Component
 public class BlockchainIntegrationFactory {
   private Map<String, BlockchainIntegration> REGISTRY = new ConcurrentHashMap<>();
 
-  public BlockchainIntegrationFactory(List<BlockchainIntegration> integrationList) {
+  public BlockchainIntegrationFactory(
+      List<BlockchainIntegration> integrationList,
+      MeterRegistry meterRegistry,
+      ChainResilienceProperties chainResilienceProperties,
+      @Value("${invoices.balance-cache.enabled:true}") boolean balanceCacheEnabled,
+      @Value("${invoices.balance-cache.ttl-ms:3500}") long balanceCacheTtlMs,
+      @Value("${invoices.balance-cache.maximum-size:10000}") int balanceCacheMaximumSize) {
     integrationList.stream()
         .forEach(
             (i) -> {
-              REGISTRY.put(i.chainKey(), i);
+              // -- metered innermost, so that balances served from the cache and calls shed by
+              //    the circuit breaker are not counted as chain requests.
+              BlockchainIntegration integration =
+                  new MeteredBlockchainIntegration(i, meterRegistry);
+              if (chainResilienceProperties.isEnabled()) {
+                integration =
+                    new ResilientBlockchainIntegration(
+                        integration,
+                        chainResilienceProperties.forChain(i.chainKey()),
+                        meterRegistry);
+              }
+              if (balanceCacheEnabled) {
+                integration =
+                    new CachingBlockchainIntegration(
+                        integration,
+                        Duration.ofMillis(balanceCacheTtlMs),
+                        balanceCacheMaximumSize,
+                        meterRegistry);
+              }
+              REGISTRY.put(i.chainKey(), integration);
             });
   }
 
@@ -30,6 +59,10 @@ public class BlockchainIntegrationFactory {
                         chain, chainEnvironment)));
   }
 
+  public Collection<BlockchainIntegration> getIntegrations() {
+    return REGISTRY.values();
+  }
+
   private String key(String chain, String chainEnvironment) {
     return String.format("%s/%s", chain, chainEnvironment);
   }
@@ -0,0 +1,247 @@
+package com.chrisopler.cryptoinvoices.server.blockchain;
+
+import com.chrisopler.cryptoinvoices.server.errors.BadRequestException;
+import com.chrisopler.cryptoinvoices.server.errors.ChainUnavailableException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Decorates an integration with a short-lived balance cache. Balances are kept for about one
+ * ledger close, in a Caffeine cache bounded by the number of addresses, and concurrent
+ * lookups of the same address share a single in-flight request. While the chain is unavailable,
+ * the last balance known for an address is served even once it has expired.
+ *
+ * <p>A pushed payment invalidates the balance of its address by moving the address on to a new
+ * generation. A lookup only caches its balance if the address is still at the generation it
+ * started in, so a lookup that was already in flight when the payment landed cannot put the
+ * balance from before the payment back.
+ */
+public class CachingBlockchainIntegration implements BlockchainIntegration {
+
+  private final BlockchainIntegration delegate;
+  private final long ttlNanos;
+  private final Cache<String, CachedBalance> balances;
+  private final Map<String, Mono<BigDecimal>> inFlight = new ConcurrentHashMap<>();
+  private final Counter hits;
+  private final Counter misses;
+  private final Counter coalesced;
+  private final Counter stale;
+
+  public CachingBlockchainIntegration(
+      BlockchainIntegration delegate, Duration ttl, int maximumSize, MeterRegistry meterRegistry) {
+    this.delegate = delegate;
+    this.ttlNanos = ttl.toNanos();
+    // -- the ttl is checked on read, as expired balances are still served while the chain is down.
+    this.balances =
+        Caffeine.newBuilder().maximumSize(maximumSize).executor(Runnable::run).build();
+    this.hits = counter(meterRegistry, "hit");
+    this.misses = counter(meterRegistry, "miss");
+    this.coalesced = counter(meterRegistry, "coalesced");
+    this.stale = counter(meterRegistry, "stale");
+  }
+
+  @Override
+  public Mono<BigDecimal> getBalance(String cryptoAddress) {
+    return Mono.defer(
+        () -> {
+          CachedBalance cached = this.balances.getIfPresent(cryptoAddress);
+          if (isFresh(cached, System.nanoTime())) {
+            this.hits.increment();
+            return Mono.just(cached.balance);
+          }
+
+          AtomicBoolean loading = new AtomicBoolean();
+          Mono<BigDecimal> lookup =
+              this.inFlight.computeIfAbsent(
+                  cryptoAddress,
+                  (a) -> {
+                    loading.set(true);
+                    return load(a);
+                  });
+          (loading.get() ? this.misses : this.coalesced).increment();
+          return lookup;
+        });
+  }
+
+  /**
+   * Only the addresses without a fresh balance are looked up, in a single batch. Batches do not
+   * share lookups with the single lookups in flight.
+   */
+  @Override
+  public Flux<AddressBalance> getBalances(Collection<String> cryptoAddresses) {
+    return Flux.defer(
+        () -> {
+          List<AddressBalance> cached = new ArrayList<>();
+          Map<String, Long> missing = new HashMap<>();
+          long now = System.nanoTime();
+          for (String cryptoAddress : cryptoAddresses) {
+            CachedBalance balance = this.balances.getIfPresent(cryptoAddress);
+            if (isFresh(balance, now)) {
+              this.hits.increment();
+              cached.add(AddressBalance.of(cryptoAddress, balance.balance));
+            } else {
+              this.misses.increment();
+              missing.put(cryptoAddress, generationOf(balance));
+            }
+          }
+          if (missing.isEmpty()) {
+            return Flux.fromIterable(cached);
+          }
+          return Flux.fromIterable(cached)
+              .concatWith(
+                  this.delegate
+                      .getBalances(missing.keySet())
+                      .map((b) -> loaded(b, missing.get(b.getCryptoAddress()))));
+        });
+  }
+
+  @Override
+  public int getBalanceConcurrency() {
+    return this.delegate.getBalanceConcurrency();
+  }
+
+  private AddressBalance loaded(AddressBalance lookup, long generation) {
+    String cryptoAddress = lookup.getCryptoAddress();
+    if (!lookup.isFailed()) {
+      store(cryptoAddress, lookup.getBalance(), generation);
+      return lookup;
+    }
+    CachedBalance cached = this.balances.getIfPresent(cryptoAddress);
+    if (cached == null
+        || cached.balance == null
+        || !(lookup.getError() instanceof ChainUnavailableException)) {
+      return lookup;
+    }
+    this.stale.increment();
+    return AddressBalance.of(cryptoAddress, cached.balance);
+  }
+
+  private Mono<BigDecimal> load(String cryptoAddress) {
+    long generation = generationOf(this.balances.getIfPresent(cryptoAddress));
+    AtomicReference<Mono<BigDecimal>> lookup = new AtomicReference<>();
+    lookup.set(
+        this.delegate
+            .getBalance(cryptoAddress)
+            .doOnNext((balance) -> store(cryptoAddress, balance, generation))
+            .onErrorResume(
+                ChainUnavailableException.class,
+                (e) -> {
+                  CachedBalance cached = this.balances.getIfPresent(cryptoAddress);
+                  if (cached == null || cached.balance == null) {
+                    return Mono.error(e);
+                  }
+                  this.stale.increment();
+                  return Mono.just(cached.balance);
+                })
+            // -- an invalidation may already have replaced this lookup with a newer one.
+            .doFinally((s) -> this.inFlight.remove(cryptoAddress, lookup.get()))
+            .cache());
+    return lookup.get();
+  }
+
+  /** Cache a balance, unless its address was invalidated since the lookup started. */
+  private void store(String cryptoAddress, BigDecimal balance, long generation) {
+    this.balances.asMap().compute(
+        cryptoAddress,
+        (a, cached) ->
+            generationOf(cached) == generation
+                ? new CachedBalance(balance, System.nanoTime(), generation, false)
+                : cached);
+  }
+
+  /**
+   * Expire the balance of an address, keeping it to serve while the chain is unavailable, and stop
+   * new lookups from sharing the ones already in flight.
+   */
+  private void invalidate(String cryptoAddress) {
+    this.balances.asMap().compute(
+        cryptoAddress,
+        (a, cached) ->
+            cached == null
+                ? new CachedBalance(null, 0, 1, true)
+                : new CachedBalance(cached.balance, cached.loadedAt, cached.generation + 1, true));
+    this.inFlight.remove(cryptoAddress);
+  }
+
+  private boolean isFresh(CachedBalance cached, long now) {
+    return cached != null
+        && cached.balance != null
+        && !cached.invalidated
+        && now - cached.loadedAt < ttlNanos;
+  }
+
+  private static long generationOf(CachedBalance cached) {
+    return cached == null ? 0 : cached.generation;
+  }
+
+  @Override
+  public String chainKey() {
+    return this.delegate.chainKey();
+  }
+
+  @Override
+  public Mono<String> createNewCryptoAddress() throws BadRequestException {
+    return this.delegate.createNewCryptoAddress();
+  }
+
+  @Override
+  public int getDecimalPrecision() {
+    return this.delegate.getDecimalPrecision();
+  }
+
+  @Override
+  public RoundingMode getRoundingMode() {
+    return this.delegate.getRoundingMode();
+  }
+
+  @Override
+  public boolean isStreamingPayments() {
+    return this.delegate.isStreamingPayments();
+  }
+
+  @Override
+  public void watchAddresses(Collection<String> cryptoAddresses) {
+    this.delegate.watchAddresses(cryptoAddresses);
+  }
+
+  @Override
+  public Flux<String> paymentNotifications() {
+    // -- a pushed payment makes the cached balance stale.
+    return this.delegate.paymentNotifications().doOnNext(this::invalidate);
+  }
+
+  private Counter counter(MeterRegistry meterRegistry, String result) {
+    return meterRegistry.counter(
+        "invoices.balance.cache", "chain", this.delegate.chainKey(), "result", result);
+  }
+
+  private static class CachedBalance {
+    // -- null for an address invalidated before any balance was cached for it.
+    private final BigDecimal balance;
+    private final long loadedAt;
+    private final long generation;
+    private final boolean invalidated;
+
+    CachedBalance(BigDecimal balance, long loadedAt, long generation, boolean invalidated) {
+      this.balance = balance;
+      this.loadedAt = loadedAt;
+      this.generation = generation;
+      this.invalidated = invalidated;
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package com.chrisopler.cryptoinvoices.server.blockchain;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * The {@link ResilienceSettings} for each chain. Every chain gets the defaults, which can be
+ * overridden setting by setting for a chain key, e.g.
+ *
+ * <pre>
+ * invoices.chain-resilience.overrides={'XRPL/TESTNET':{'balance-timeout-ms':3000}}
+ * </pre>
+ */
+@Component
+public class ChainResilienceProperties {
+
+  @Getter private final boolean enabled;
+  private final ResilienceSettings defaults;
+  private final Map<String, Map<String, Object>> overrides;
+
+  public ChainResilienceProperties(
+      @Value("${invoices.chain-resilience.enabled:true}") boolean enabled,
+      @Value("${invoices.chain-resilience.max-concurrent-calls:64}") int maxConcurrentCalls,
+      @Value("${invoices.chain-resilience.balance-timeout-ms:5000}") long balanceTimeoutMs,
+      @Value("${invoices.chain-resilience.create-address-timeout-ms:15000}")
+          long createAddressTimeoutMs,
+      @Value("${invoices.chain-resilience.sliding-window-size:50}") int slidingWindowSize,
+      @Value("${invoices.chain-resilience.minimum-calls:20}") int minimumCalls,
+      @Value("${invoices.chain-resilience.failure-rate-threshold:50}") int failureRateThreshold,
+      @Value("${invoices.chain-resilience.open-duration-ms:30000}") long openDurationMs,
+      @Value("${invoices.chain-resilience.half-open-calls:5}") int halfOpenCalls,
+      @Value("#{${invoices.chain-resilience.overrides:{:}}}")
+          Map<String, Map<String, Object>> overrides) {
+    this.enabled = enabled;
+    this.defaults =
+        ResilienceSettings.builder()
+            .maxConcurrentCalls(maxConcurrentCalls)
+            .balanceTimeout(Duration.ofMillis(balanceTimeoutMs))
+            .createAddressTimeout(Duration.ofMillis(createAddressTimeoutMs))
+            .slidingWindowSize(slidingWindowSize)
+            .minimumCalls(minimumCalls)
+            .failureRateThreshold(failureRateThreshold)
+            .openDuration(Duration.ofMillis(openDurationMs))
+            .halfOpenCalls(halfOpenCalls)
+            .build();
+    this.overrides = overrides;
+  }
+
+  public ResilienceSettings forChain(String chainKey) {
+    Map<String, Object> chain = this.overrides.getOrDefault(chainKey, Collections.emptyMap());
+    ResilienceSettings.ResilienceSettingsBuilder settings = this.defaults.toBuilder();
+    chain.forEach(
+        (name, value) -> {
+          long number = Long.parseLong(String.valueOf(value));
+          switch (name) {
+            case "max-concurrent-calls":
+              settings.maxConcurrentCalls((int) number);
+              break;
+            case "balance-timeout-ms":
+              settings.balanceTimeout(Duration.ofMillis(number));
+              break;
+            case "create-address-timeout-ms":
+              settings.createAddressTimeout(Duration.ofMillis(number));
+              break;
+            case "sliding-window-size":
+              settings.slidingWindowSize((int) number);
+              break;
+            case "minimum-calls":
+              settings.minimumCalls((int) number);
+              break;
+            case "failure-rate-threshold":
+              settings.failureRateThreshold((int) number);
+              break;
+            case "open-duration-ms":
+              settings.openDuration(Duration.ofMillis(number));
+              break;
+            case "half-open-calls":
+              settings.halfOpenCalls((int) number);
+              break;
+            default:
+              throw new IllegalArgumentException(
+                  String.format("Unknown resilience setting %s for %s", name, chainKey));
+          }
+        });
+    return settings.build();
+  }
+}
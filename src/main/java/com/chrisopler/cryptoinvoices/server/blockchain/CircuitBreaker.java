@@ -0,0 +1,127 @@
+package com.chrisopler.cryptoinvoices.server.blockchain;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A count based circuit breaker. It opens when the failure rate over the last calls reaches the
+ * threshold, rejects every call while open, and then lets a few trial calls through: the breaker
+ * closes if they all succeed and opens again on the first failure.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+  public enum State {
+    CLOSED,
+    HALF_OPEN,
+    OPEN
+  }
+
+  private final String name;
+  private final int minimumCalls;
+  private final int failureRateThreshold;
+  private final long openNanos;
+  private final int halfOpenCalls;
+  private final boolean[] window;
+  private int recorded;
+  private int failures;
+  private int next;
+  private State state = State.CLOSED;
+  private long openedAt;
+  private int trialPermits;
+  private int trialSuccesses;
+
+  public CircuitBreaker(String name, ResilienceSettings settings) {
+    this.name = name;
+    this.minimumCalls = Math.min(settings.getMinimumCalls(), settings.getSlidingWindowSize());
+    this.failureRateThreshold = settings.getFailureRateThreshold();
+    this.openNanos = settings.getOpenDuration().toNanos();
+    this.halfOpenCalls = settings.getHalfOpenCalls();
+    this.window = new boolean[settings.getSlidingWindowSize()];
+  }
+
+  /** Whether a call may go ahead. Each permitted call must be followed by one outcome. */
+  public synchronized boolean tryAcquirePermission() {
+    if (state == State.OPEN) {
+      if (System.nanoTime() - openedAt < openNanos) {
+        return false;
+      }
+      transitionTo(State.HALF_OPEN);
+      trialPermits = halfOpenCalls;
+      trialSuccesses = 0;
+    }
+    if (state == State.HALF_OPEN) {
+      if (trialPermits == 0) {
+        return false;
+      }
+      trialPermits--;
+    }
+    return true;
+  }
+
+  public synchronized void onSuccess() {
+    if (state == State.HALF_OPEN) {
+      if (++trialSuccesses >= halfOpenCalls) {
+        transitionTo(State.CLOSED);
+      }
+    } else if (state == State.CLOSED) {
+      record(false);
+    }
+  }
+
+  public synchronized void onError() {
+    if (state == State.HALF_OPEN) {
+      open();
+    } else if (state == State.CLOSED) {
+      record(true);
+      if (recorded >= minimumCalls && failures * 100 >= failureRateThreshold * recorded) {
+        open();
+      }
+    }
+  }
+
+  /** A permitted call was abandoned without an outcome. */
+  public synchronized void onCancel() {
+    if (state == State.HALF_OPEN) {
+      trialPermits++;
+    }
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  private void record(boolean failure) {
+    if (recorded == window.length) {
+      if (window[next]) {
+        failures--;
+      }
+    } else {
+      recorded++;
+    }
+    window[next] = failure;
+    if (failure) {
+      failures++;
+    }
+    next = (next + 1) % window.length;
+  }
+
+  private void open() {
+    openedAt = System.nanoTime();
+    transitionTo(State.OPEN);
+  }
+
+  private void transitionTo(State state) {
+    if (state == State.CLOSED) {
+      // -- start afresh, so that the failures which opened the breaker do not open it again.
+      recorded = 0;
+      failures = 0;
+      next = 0;
+    }
+    if (state == State.OPEN) {
+      log.warn("The circuit breaker for {} is open", name);
+    } else {
+      log.info("The circuit breaker for {} is now {}", name, state);
+    }
+    this.state = state;
+  }
+}
@@ -0,0 +1,109 @@
+package com.chrisopler.cryptoinvoices.server.blockchain;
+
+import com.chrisopler.cryptoinvoices.server.errors.BadRequestException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collection;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Decorates an integration with a timer of its chain calls, tagged by chain, operation and the
+ * type of any error, so that chain latency can be told apart from the time spent in the service.
+ */
+public class MeteredBlockchainIntegration implements BlockchainIntegration {
+
+  public static final String METRIC_NAME = "invoices.chain.requests";
+
+  private final BlockchainIntegration delegate;
+  private final MeterRegistry meterRegistry;
+
+  public MeteredBlockchainIntegration(
+      BlockchainIntegration delegate, MeterRegistry meterRegistry) {
+    this.delegate = delegate;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Timed from subscription, like the other calls, so that the time a caller holds the call before
+   * subscribing to it is not counted as chain latency.
+   */
+  @Override
+  public Mono<String> createNewCryptoAddress() {
+    return Mono.defer(
+        () -> {
+          Timer.Sample sample = Timer.start(this.meterRegistry);
+          try {
+            return timed(
+                this.delegate.createNewCryptoAddress(), "createNewCryptoAddress", sample);
+          } catch (BadRequestException | RuntimeException e) {
+            stop(sample, "createNewCryptoAddress", "ERROR", e);
+            return Mono.error(e);
+          }
+        });
+  }
+
+  @Override
+  public Mono<BigDecimal> getBalance(String cryptoAddress) {
+    return Mono.defer(
+        () ->
+            timed(
+                this.delegate.getBalance(cryptoAddress),
+                "getBalance",
+                Timer.start(this.meterRegistry)));
+  }
+
+  @Override
+  public int getBalanceConcurrency() {
+    return this.delegate.getBalanceConcurrency();
+  }
+
+  private <T> Mono<T> timed(Mono<T> call, String operation, Timer.Sample sample) {
+    return call.doOnSuccess((v) -> stop(sample, operation, "SUCCESS", null))
+        .doOnError((e) -> stop(sample, operation, "ERROR", e))
+        // -- calls cut short by a timeout are the slowest ones, so they are timed too.
+        .doOnCancel(() -> stop(sample, operation, "CANCELLED", null));
+  }
+
+  private void stop(Timer.Sample sample, String operation, String outcome, Throwable error) {
+    sample.stop(
+        Timer.builder(METRIC_NAME)
+            .tag("chain", this.delegate.chainKey())
+            .tag("operation", operation)
+            .tag("outcome", outcome)
+            .tag("exception", error == null ? "none" : error.getClass().getSimpleName())
+            .register(this.meterRegistry));
+  }
+
+  @Override
+  public String chainKey() {
+    return this.delegate.chainKey();
+  }
+
+  @Override
+  public int getDecimalPrecision() {
+    return this.delegate.getDecimalPrecision();
+  }
+
+  @Override
+  public RoundingMode getRoundingMode() {
+    return this.delegate.getRoundingMode();
+  }
+
+  @Override
+  public boolean isStreamingPayments() {
+    return this.delegate.isStreamingPayments();
+  }
+
+  @Override
+  public void watchAddresses(Collection<String> cryptoAddresses) {
+    this.delegate.watchAddresses(cryptoAddresses);
+  }
+
+  @Override
+  public Flux<String> paymentNotifications() {
+    return this.delegate.paymentNotifications();
+  }
+}
@@ -0,0 +1,33 @@
+package com.chrisopler.cryptoinvoices.server.blockchain;
+
+import java.time.Duration;
+import lombok.Builder;
+import lombok.Value;
+
+/** The bulkhead, timeouts and circuit breaker limits applied to the calls to one chain. */
+@Value
+@Builder(toBuilder = true)
+public class ResilienceSettings {
+
+  /** Calls beyond this many in flight are rejected rather than queued. */
+  int maxConcurrentCalls;
+
+  Duration balanceTimeout;
+
+  Duration createAddressTimeout;
+
+  /** The number of most recent calls the failure rate is computed over. */
+  int slidingWindowSize;
+
+  /** The breaker does not open before this many calls have been recorded. */
+  int minimumCalls;
+
+  /** The percentage of failed or timed out calls at which the breaker opens. */
+  int failureRateThreshold;
+
+  /** How long an open breaker rejects calls before letting trial calls through. */
+  Duration openDuration;
+
+  /** The number of trial calls that must succeed for a half-open breaker to close. */
+  int halfOpenCalls;
+}
@@ -0,0 +1,186 @@
+package com.chrisopler.cryptoinvoices.server.blockchain;
+
+import com.chrisopler.cryptoinvoices.server.errors.BadRequestException;
+import com.chrisopler.cryptoinvoices.server.errors.ChainUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ * Decorates an integration so that a slow or failing chain cannot tie up the service. Calls are
+ * limited by a bulkhead, which rejects rather than queues calls beyond its limit, each call is
+ * given a timeout, and a {@link CircuitBreaker} sheds all calls for a while once too many of them
+ * fail. Rejected and timed out calls fail with a {@link ChainUnavailableException}.
+ */
+public class ResilientBlockchainIntegration implements BlockchainIntegration {
+
+  private final BlockchainIntegration delegate;
+  private final ResilienceSettings settings;
+  private final Semaphore bulkhead;
+  private final CircuitBreaker circuitBreaker;
+  private final Counter bulkheadRejections;
+  private final Counter circuitRejections;
+
+  public ResilientBlockchainIntegration(
+      BlockchainIntegration delegate, ResilienceSettings settings, MeterRegistry meterRegistry) {
+    this.delegate = delegate;
+    this.settings = settings;
+    this.bulkhead = new Semaphore(settings.getMaxConcurrentCalls());
+    this.circuitBreaker = new CircuitBreaker(delegate.chainKey(), settings);
+    this.bulkheadRejections = rejections(meterRegistry, "bulkhead");
+    this.circuitRejections = rejections(meterRegistry, "circuit_open");
+    // -- 0 closed, 1 half-open, 2 open.
+    Gauge.builder(
+            "invoices.chain.circuit.state", this.circuitBreaker, (b) -> b.getState().ordinal())
+        .tag("chain", delegate.chainKey())
+        .register(meterRegistry);
+  }
+
+  @Override
+  public Mono<BigDecimal> getBalance(String cryptoAddress) {
+    return guarded(
+        () -> this.delegate.getBalance(cryptoAddress),
+        "getBalance",
+        this.settings.getBalanceTimeout());
+  }
+
+  @Override
+  public Mono<String> createNewCryptoAddress() {
+    return guarded(
+        () -> {
+          try {
+            return this.delegate.createNewCryptoAddress();
+          } catch (BadRequestException e) {
+            return Mono.error(e);
+          }
+        },
+        "createNewCryptoAddress",
+        this.settings.getCreateAddressTimeout());
+  }
+
+  public CircuitBreaker.State getCircuitState() {
+    return this.circuitBreaker.getState();
+  }
+
+  /** Each lookup of a batch is a call of its own to the bulkhead and the circuit breaker. */
+  @Override
+  public int getBalanceConcurrency() {
+    return this.delegate.getBalanceConcurrency();
+  }
+
+  /** Make the call, which the delegate only starts once admitted, within the timeout. */
+  private <T> Mono<T> guarded(Supplier<Mono<T>> call, String operation, Duration timeout) {
+    return Mono.defer(
+        () -> {
+          ChainUnavailableException rejected = admit();
+          if (rejected != null) {
+            return Mono.error(rejected);
+          }
+          return Mono.defer(call)
+              .timeout(timeout)
+              .onErrorMap(TimeoutException.class, (e) -> timedOut(operation, timeout))
+              .doOnSuccess((v) -> this.circuitBreaker.onSuccess())
+              .doOnError(
+                  (e) -> {
+                    if (isChainFailure(e)) {
+                      this.circuitBreaker.onError();
+                    } else {
+                      this.circuitBreaker.onSuccess();
+                    }
+                  })
+              .doFinally(this::release);
+        });
+  }
+
+  /**
+   * Whether the chain failed to answer, rather than answering that the request was wrong, as
+   * rippled does for an unfunded or unknown account. Only failures count towards opening the
+   * breaker.
+   */
+  private static boolean isChainFailure(Throwable error) {
+    if (error instanceof BadRequestException) {
+      return false;
+    }
+    if (error instanceof WebClientResponseException) {
+      return ((WebClientResponseException) error).getStatusCode().is5xxServerError();
+    }
+    return true;
+  }
+
+  /** Take a breaker permission and a bulkhead permit, or return why the call is rejected. */
+  private ChainUnavailableException admit() {
+    if (!this.circuitBreaker.tryAcquirePermission()) {
+      this.circuitRejections.increment();
+      return unavailable("calls are suspended after repeated failures");
+    }
+    if (!this.bulkhead.tryAcquire()) {
+      this.circuitBreaker.onCancel();
+      this.bulkheadRejections.increment();
+      return unavailable("too many calls are in progress");
+    }
+    return null;
+  }
+
+  private void release(SignalType signal) {
+    if (signal == SignalType.CANCEL) {
+      this.circuitBreaker.onCancel();
+    }
+    this.bulkhead.release();
+  }
+
+  private ChainUnavailableException timedOut(String operation, Duration timeout) {
+    return unavailable(
+        String.format("%s did not answer within %d ms", operation, timeout.toMillis()));
+  }
+
+  private ChainUnavailableException unavailable(String reason) {
+    return new ChainUnavailableException(
+        String.format("The %s chain is unavailable, %s", this.delegate.chainKey(), reason));
+  }
+
+  private Counter rejections(MeterRegistry meterRegistry, String reason) {
+    return meterRegistry.counter(
+        "invoices.chain.rejected", "chain", this.delegate.chainKey(), "reason", reason);
+  }
+
+  @Override
+  public String chainKey() {
+    return this.delegate.chainKey();
+  }
+
+  @Override
+  public int getDecimalPrecision() {
+    return this.delegate.getDecimalPrecision();
+  }
+
+  @Override
+  public RoundingMode getRoundingMode() {
+    return this.delegate.getRoundingMode();
+  }
+
+  @Override
+  public boolean isStreamingPayments() {
+    return this.delegate.isStreamingPayments();
+  }
+
+  @Override
+  public void watchAddresses(Collection<String> cryptoAddresses) {
+    this.delegate.watchAddresses(cryptoAddresses);
+  }
+
+  @Override
+  public Flux<String> paymentNotifications() {
+    return this.delegate.paymentNotifications();
+  }
+}
@@ -0,0 +1,241 @@
+package com.chrisopler.cryptoinvoices.server.blockchain.pool;
+
+import com.chrisopler.cryptoinvoices.server.blockchain.BlockchainIntegration;
+import com.chrisopler.cryptoinvoices.server.blockchain.BlockchainIntegrationFactory;
+import com.chrisopler.cryptoinvoices.server.errors.BadRequestException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * A persistent pool of crypto addresses per chain, created in the background so that creating an
+ * invoice does not have to wait on the chain.
+ *
+ * <p>The pool is refilled up to the high-water mark whenever it drops below the low-water mark.
+ * Refills run in the background, at most one per chain at a time, so a slow or failing chain never
+ * holds up the scheduler thread the other background jobs share. Claiming an address removes it
+ * from the pool in a single statement, and falls back to creating a new address if the pool for
+ * the chain is exhausted. An address claimed for an invoice that could not be stored is released
+ * back into the pool, as no invoice was ever given it.
+ */
+@Slf4j
+@Component
+public class CryptoAddressPool {
+
+  private static final int CLAIM_CANDIDATES = 8;
+
+  private final PooledCryptoAddressRepository pooledCryptoAddressRepository;
+  private final BlockchainIntegrationFactory blockchainIntegrationFactory;
+  private final MeterRegistry meterRegistry;
+  private final boolean enabled;
+  private final int lowWaterMark;
+  private final int highWaterMark;
+  private final int refillConcurrency;
+  private final Map<String, AtomicLong> depths = new ConcurrentHashMap<>();
+  private final Set<String> refilling = ConcurrentHashMap.newKeySet();
+  // -- the last refill of each chain, for shutdown to cancel.
+  private final Map<String, Disposable> lastRefills = new ConcurrentHashMap<>();
+
+  public CryptoAddressPool(
+      PooledCryptoAddressRepository pooledCryptoAddressRepository,
+      BlockchainIntegrationFactory blockchainIntegrationFactory,
+      MeterRegistry meterRegistry,
+      @Value("${invoices.address-pool.enabled:true}") boolean enabled,
+      @Value("${invoices.address-pool.low-water-mark:2}") int lowWaterMark,
+      @Value("${invoices.address-pool.high-water-mark:10}") int highWaterMark,
+      @Value("${invoices.address-pool.refill-concurrency:2}") int refillConcurrency) {
+    this.pooledCryptoAddressRepository = pooledCryptoAddressRepository;
+    this.blockchainIntegrationFactory = blockchainIntegrationFactory;
+    this.meterRegistry = meterRegistry;
+    this.enabled = enabled;
+    this.lowWaterMark = lowWaterMark;
+    this.highWaterMark = highWaterMark;
+    this.refillConcurrency = refillConcurrency;
+  }
+
+  /**
+   * Claim an address for a new invoice, creating one on the chain if the pool has none to spare.
+   */
+  public Mono<String> claim(BlockchainIntegration blockchainIntegration) {
+    if (!enabled) {
+      return createNewCryptoAddress(blockchainIntegration);
+    }
+    String chainKey = blockchainIntegration.chainKey();
+    return Mono.fromCallable(() -> Optional.ofNullable(claimPooled(chainKey)))
+        .subscribeOn(Schedulers.boundedElastic())
+        .flatMap(
+            (pooled) -> {
+              if (pooled.isPresent()) {
+                return Mono.just(pooled.get());
+              }
+              exhausted(chainKey).increment();
+              log.warn("The address pool for {} is exhausted", chainKey);
+              return createNewCryptoAddress(blockchainIntegration);
+            });
+  }
+
+  /**
+   * Return a claimed address that no invoice was stored with to the pool. A failure to do so only
+   * costs the address, so it is logged rather than passed on to the caller.
+   */
+  public Mono<Void> release(BlockchainIntegration blockchainIntegration, String cryptoAddress) {
+    if (!enabled) {
+      return Mono.empty();
+    }
+    String chainKey = blockchainIntegration.chainKey();
+    return Mono.fromRunnable(
+            () -> {
+              this.pooledCryptoAddressRepository.save(
+                  PooledCryptoAddress.builder()
+                      .cryptoAddress(cryptoAddress)
+                      .chainKey(chainKey)
+                      .createdAt(Instant.now())
+                      .build());
+              depth(chainKey).incrementAndGet();
+              released(chainKey).increment();
+            })
+        .subscribeOn(Schedulers.boundedElastic())
+        .onErrorResume(
+            (e) -> {
+              log.warn("Unable to release a {} address to the pool: {}", chainKey, e.getMessage());
+              return Mono.empty();
+            })
+        .then();
+  }
+
+  /** Start refilling the pools below their low-water mark, without waiting for the refills. */
+  @Scheduled(fixedDelayString = "${invoices.address-pool.refill-interval-ms:5000}")
+  public void refill() {
+    if (!enabled) {
+      return;
+    }
+    for (BlockchainIntegration blockchainIntegration :
+        this.blockchainIntegrationFactory.getIntegrations()) {
+      String chainKey = blockchainIntegration.chainKey();
+      // -- a refill still waiting on its chain is left to finish rather than joined by another.
+      if (!this.refilling.add(chainKey)) {
+        continue;
+      }
+      this.lastRefills.put(
+          chainKey,
+          refill(blockchainIntegration)
+              .doFinally((s) -> this.refilling.remove(chainKey))
+              .subscribe(
+                  null,
+                  (e) ->
+                      log.warn(
+                          "Unable to refill the {} address pool: {}", chainKey, e.getMessage())));
+    }
+  }
+
+  @PreDestroy
+  public void stopRefills() {
+    this.lastRefills.values().forEach(Disposable::dispose);
+  }
+
+  private Mono<Void> refill(BlockchainIntegration blockchainIntegration) {
+    String chainKey = blockchainIntegration.chainKey();
+    return Mono.fromCallable(() -> this.pooledCryptoAddressRepository.countByChainKey(chainKey))
+        .subscribeOn(Schedulers.boundedElastic())
+        .flatMap(
+            (depth) -> {
+              depth(chainKey).set(depth);
+              if (depth >= lowWaterMark) {
+                return Mono.empty();
+              }
+              return createPooledAddresses(blockchainIntegration, (int) (highWaterMark - depth));
+            });
+  }
+
+  private Mono<Void> createPooledAddresses(BlockchainIntegration blockchainIntegration, int count) {
+    String chainKey = blockchainIntegration.chainKey();
+    Counter refills = refills(chainKey);
+    return Flux.range(0, count)
+        .flatMap(
+            (i) ->
+                createNewCryptoAddress(blockchainIntegration)
+                    .onErrorResume(
+                        (e) -> {
+                          log.warn(
+                              "Unable to create a pooled {} address: {}", chainKey, e.getMessage());
+                          return Mono.empty();
+                        }),
+            refillConcurrency)
+        .publishOn(Schedulers.boundedElastic())
+        .doOnNext(
+            (cryptoAddress) -> {
+              this.pooledCryptoAddressRepository.save(
+                  PooledCryptoAddress.builder()
+                      .cryptoAddress(cryptoAddress)
+                      .chainKey(chainKey)
+                      .createdAt(Instant.now())
+                      .build());
+              depth(chainKey).incrementAndGet();
+              refills.increment();
+            })
+        .then();
+  }
+
+  private String claimPooled(String chainKey) {
+    List<PooledCryptoAddress> candidates =
+        new ArrayList<>(
+            this.pooledCryptoAddressRepository.findByChainKeyOrderByCreatedAt(
+                chainKey, PageRequest.of(0, CLAIM_CANDIDATES)));
+    // -- spread concurrent claims over the oldest few addresses so they rarely collide.
+    Collections.shuffle(candidates);
+    for (PooledCryptoAddress candidate : candidates) {
+      if (this.pooledCryptoAddressRepository.claim(candidate.getCryptoAddress()) == 1) {
+        depth(chainKey).decrementAndGet();
+        return candidate.getCryptoAddress();
+      }
+    }
+    return null;
+  }
+
+  private Mono<String> createNewCryptoAddress(BlockchainIntegration blockchainIntegration) {
+    try {
+      return blockchainIntegration.createNewCryptoAddress();
+    } catch (BadRequestException e) {
+      return Mono.error(e);
+    }
+  }
+
+  private AtomicLong depth(String chainKey) {
+    return this.depths.computeIfAbsent(
+        chainKey,
+        (k) ->
+            this.meterRegistry.gauge(
+                "invoices.address.pool.depth", Tags.of("chain", k), new AtomicLong()));
+  }
+
+  private Counter refills(String chainKey) {
+    return this.meterRegistry.counter("invoices.address.pool.refills", "chain", chainKey);
+  }
+
+  private Counter released(String chainKey) {
+    return this.meterRegistry.counter("invoices.address.pool.released", "chain", chainKey);
+  }
+
+  private Counter exhausted(String chainKey) {
+    return this.meterRegistry.counter("invoices.address.pool.exhausted", "chain", chainKey);
+  }
+}
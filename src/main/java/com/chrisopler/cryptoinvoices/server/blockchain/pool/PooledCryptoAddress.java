@@ -0,0 +1,31 @@
+package com.chrisopler.cryptoinvoices.server.blockchain.pool;
+
+import java.time.Instant;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** A crypto address created ahead of time and waiting to be assigned to an invoice. */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Builder
+@Table(name = "crypto_address_pool")
+public class PooledCryptoAddress {
+
+  @Id
+  @Column(name = "crypto_address", nullable = false)
+  private String cryptoAddress;
+
+  @Column(name = "chain_key", nullable = false)
+  private String chainKey;
+
+  @Column(name = "created_at", nullable = false)
+  private Instant createdAt;
+}
@@ -0,0 +1,29 @@
+package com.chrisopler.cryptoinvoices.server.blockchain.pool;
+
+import java.util.List;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface PooledCryptoAddressRepository extends JpaRepository<PooledCryptoAddress, String> {
+
+  List<PooledCryptoAddress> findByChainKeyOrderByCreatedAt(String chainKey, Pageable pageable);
+
+  long countByChainKey(String chainKey);
+
+  /**
+   * Remove an address from the pool. Only one caller can remove a given address, so a result of 1
+   * means the address now belongs to the caller.
+   *
+   * @return the number of addresses removed
+   */
+  @Transactional
+  @Modifying
+  @Query("delete from PooledCryptoAddress a where a.cryptoAddress = :cryptoAddress")
+  int claim(@Param("cryptoAddress") String cryptoAddress);
+}
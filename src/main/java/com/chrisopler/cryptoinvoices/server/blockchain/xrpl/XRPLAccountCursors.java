@@ -0,0 +1,72 @@
+package com.chrisopler.cryptoinvoices.server.blockchain.xrpl;
+
+import java.util.List;
+import java.util.Optional;
+import lombok.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * The cursors of the XRPL addresses scanned for payments, kept in the xrpl_account_cursors table
+ * so that scans carry on where they stopped after a restart, or on another instance.
+ */
+@Component
+public class XRPLAccountCursors {
+
+  /** The last ledger scanned, and the drops received by the address up to it. */
+  @Value
+  public static class Cursor {
+    long ledgerIndex;
+    long receivedDrops;
+  }
+
+  private final JdbcTemplate jdbcTemplate;
+
+  public XRPLAccountCursors(JdbcTemplate jdbcTemplate) {
+    this.jdbcTemplate = jdbcTemplate;
+  }
+
+  public Optional<Cursor> find(String cryptoAddress) {
+    List<Cursor> cursors =
+        this.jdbcTemplate.query(
+            "SELECT ledger_index, received_drops FROM xrpl_account_cursors"
+                + " WHERE crypto_address = ?",
+            (row, i) -> new Cursor(row.getLong("ledger_index"), row.getLong("received_drops")),
+            cryptoAddress);
+    return cursors.stream().findFirst();
+  }
+
+  /**
+   * Move the cursor of an address on, provided it has not moved since it was read. Scans of the
+   * same address racing each other therefore never count a payment twice.
+   *
+   * @param previous the cursor the scan started from, or null for the first scan
+   * @return the cursor stored, which is another scan's when that one moved it first
+   */
+  public Cursor advance(String cryptoAddress, Cursor previous, Cursor next) {
+    if (previous == null) {
+      try {
+        this.jdbcTemplate.update(
+            "INSERT INTO xrpl_account_cursors (crypto_address, ledger_index, received_drops)"
+                + " VALUES (?, ?, ?)",
+            cryptoAddress,
+            next.getLedgerIndex(),
+            next.getReceivedDrops());
+        return next;
+      } catch (DuplicateKeyException e) {
+        return find(cryptoAddress).get();
+      }
+    }
+    int updated =
+        this.jdbcTemplate.update(
+            "UPDATE xrpl_account_cursors SET ledger_index = ?, received_drops = ?"
+                + " WHERE crypto_address = ? AND ledger_index = ? AND received_drops = ?",
+            next.getLedgerIndex(),
+            next.getReceivedDrops(),
+            cryptoAddress,
+            previous.getLedgerIndex(),
+            previous.getReceivedDrops());
+    return updated == 1 ? next : find(cryptoAddress).get();
+  }
+}
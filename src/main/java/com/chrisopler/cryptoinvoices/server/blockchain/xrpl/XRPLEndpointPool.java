@@ -0,0 +1,254 @@
+package com.chrisopler.cryptoinvoices.server.blockchain.xrpl;
+
+import com.chrisopler.cryptoinvoices.server.errors.BadRequestException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+/**
+ * Spreads the rippled requests of a chain environment over several endpoints. Each request goes
+ * to the healthy endpoint with the lowest recent latency, an exponentially weighted moving average
+ * scaled by the requests already in flight to it. An endpoint failing several requests in a row is
+ * ejected for a while.
+ *
+ * <p>Balance reads can be hedged: if the first endpoint has not answered by the 95th percentile of
+ * recent latencies, or could not be reached, the same read is sent to the next best endpoint and
+ * the first answer wins. An error answered by rippled itself is not hedged.
+ */
+@Slf4j
+public class XRPLEndpointPool {
+
+  /** The weight of the latest latency in the moving average. */
+  private static final double EWMA_WEIGHT = 0.2;
+
+  /** Latencies the hedging delay is computed over, and how often it is recomputed. */
+  private static final int LATENCY_SAMPLES = 256;
+
+  private static final int HEDGE_DELAY_REFRESH = 32;
+
+  /** The hedging delay until enough latencies have been seen. */
+  private static final Duration INITIAL_HEDGE_DELAY = Duration.ofSeconds(1);
+
+  private final List<Endpoint> endpoints;
+  private final int ejectionFailures;
+  private final long ejectionNanos;
+  private final boolean hedging;
+  private final long minimumHedgeDelayNanos;
+  private final long[] latencies = new long[LATENCY_SAMPLES];
+  private long recordedLatencies;
+  private volatile long hedgeDelayNanos = INITIAL_HEDGE_DELAY.toNanos();
+  private final Counter hedges;
+
+  public XRPLEndpointPool(
+      String chainKey,
+      List<URI> endpoints,
+      int ejectionFailures,
+      Duration ejectionDuration,
+      boolean hedging,
+      Duration minimumHedgeDelay,
+      MeterRegistry meterRegistry) {
+    if (endpoints.isEmpty()) {
+      throw new IllegalArgumentException("At least one rippled endpoint is needed for " + chainKey);
+    }
+    this.endpoints = new ArrayList<>();
+    for (URI uri : endpoints) {
+      Endpoint endpoint = new Endpoint(uri);
+      this.endpoints.add(endpoint);
+      Gauge.builder("invoices.chain.endpoint.latency", endpoint, (e) -> e.ewmaNanos / 1e6)
+          .tag("chain", chainKey)
+          .tag("endpoint", uri.toString())
+          .baseUnit("milliseconds")
+          .register(meterRegistry);
+      Gauge.builder("invoices.chain.endpoint.ejected", endpoint, (e) -> e.isEjected() ? 1 : 0)
+          .tag("chain", chainKey)
+          .tag("endpoint", uri.toString())
+          .register(meterRegistry);
+    }
+    this.ejectionFailures = ejectionFailures;
+    this.ejectionNanos = ejectionDuration.toNanos();
+    this.hedging = hedging && endpoints.size() > 1;
+    this.minimumHedgeDelayNanos = minimumHedgeDelay.toNanos();
+    this.hedges = meterRegistry.counter("invoices.chain.hedges", "chain", chainKey);
+  }
+
+  /** The balance, in drops, of the account at the current ledger. */
+  public Mono<Long> accountBalance(String cryptoAddress) {
+    if (!this.hedging) {
+      return routed((client) -> client.accountBalance(cryptoAddress));
+    }
+    return Mono.defer(
+        () -> {
+          Endpoint first = choose(null);
+          Sinks.One<Throwable> firstFailed = Sinks.one();
+          // -- an error rippled answered with is the answer, and the hedge would only repeat it.
+          Mono<Long> primary =
+              call(first, (client) -> client.accountBalance(cryptoAddress))
+                  .onErrorResume(
+                      XRPLEndpointPool::isTransportError,
+                      (e) -> {
+                        firstFailed.tryEmitValue(e);
+                        return Mono.never();
+                      });
+          // -- when both fail, report why the first did rather than that neither answered.
+          Mono<Long> firstError = firstFailed.asMono().flatMap(Mono::error);
+          Mono<Long> hedge =
+              Mono.firstWithSignal(
+                      Mono.delay(Duration.ofNanos(this.hedgeDelayNanos)).then(),
+                      firstFailed.asMono().then())
+                  .then(
+                      Mono.defer(
+                          () -> {
+                            Endpoint second = choose(first);
+                            if (second == first || second.isEjected()) {
+                              return firstError;
+                            }
+                            this.hedges.increment();
+                            return call(second, (client) -> client.accountBalance(cryptoAddress))
+                                .onErrorResume(
+                                    XRPLEndpointPool::isTransportError, (e) -> firstError);
+                          }));
+          return Mono.firstWithSignal(primary, hedge);
+        });
+  }
+
+  /** Call a rippled method on the best endpoint. */
+  public Mono<JsonNode> request(String method, ObjectNode params) {
+    return routed((client) -> client.request(method, params));
+  }
+
+  private <T> Mono<T> routed(Function<XRPLJsonRpcClient, Mono<T>> request) {
+    return Mono.defer(() -> call(choose(null), request));
+  }
+
+  private <T> Mono<T> call(Endpoint endpoint, Function<XRPLJsonRpcClient, Mono<T>> request) {
+    return Mono.defer(
+        () -> {
+          endpoint.inFlight.incrementAndGet();
+          long started = System.nanoTime();
+          return request
+              .apply(endpoint.client)
+              .doOnSuccess(
+                  (v) -> {
+                    long latency = System.nanoTime() - started;
+                    endpoint.succeeded(latency);
+                    record(latency);
+                  })
+              .doOnError(
+                  (e) -> {
+                    if (isTransportError(e)) {
+                      endpoint.failed(System.nanoTime() - started, e);
+                    } else {
+                      // -- rippled answered, the request itself was at fault.
+                      endpoint.succeeded(System.nanoTime() - started);
+                    }
+                  })
+              // -- a request abandoned for a faster one was at least this slow.
+              .doOnCancel(() -> endpoint.observe(System.nanoTime() - started))
+              .doFinally((s) -> endpoint.inFlight.decrementAndGet());
+        });
+  }
+
+  /**
+   * The healthy endpoint with the lowest expected latency, other than the one given. When every
+   * endpoint has been ejected, the one due back first is used rather than failing the request.
+   */
+  private Endpoint choose(Endpoint excluded) {
+    long now = System.nanoTime();
+    Endpoint best = null;
+    double bestScore = Double.MAX_VALUE;
+    Endpoint soonestBack = null;
+    for (Endpoint endpoint : this.endpoints) {
+      if (endpoint == excluded) {
+        continue;
+      }
+      if (endpoint.ejectedUntil - now > 0) {
+        if (soonestBack == null || endpoint.ejectedUntil - soonestBack.ejectedUntil < 0) {
+          soonestBack = endpoint;
+        }
+        continue;
+      }
+      double score = endpoint.ewmaNanos * (endpoint.inFlight.get() + 1);
+      if (score < bestScore) {
+        best = endpoint;
+        bestScore = score;
+      }
+    }
+    if (best != null) {
+      return best;
+    }
+    return soonestBack != null ? soonestBack : excluded;
+  }
+
+  /** Whether the endpoint failed to answer, rather than answering with an error. */
+  private static boolean isTransportError(Throwable error) {
+    return !(error instanceof BadRequestException);
+  }
+
+  private synchronized void record(long latency) {
+    this.latencies[(int) (this.recordedLatencies % LATENCY_SAMPLES)] = latency;
+    this.recordedLatencies++;
+    if (this.recordedLatencies % HEDGE_DELAY_REFRESH == 0) {
+      long[] sorted =
+          Arrays.copyOf(this.latencies, (int) Math.min(this.recordedLatencies, LATENCY_SAMPLES));
+      Arrays.sort(sorted);
+      long p95 = sorted[(int) Math.ceil(sorted.length * 0.95) - 1];
+      this.hedgeDelayNanos = Math.max(this.minimumHedgeDelayNanos, p95);
+    }
+  }
+
+  private class Endpoint {
+    private final URI uri;
+    private final XRPLJsonRpcClient client;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double ewmaNanos;
+    private volatile long ejectedUntil;
+    private int consecutiveFailures;
+
+    Endpoint(URI uri) {
+      this.uri = uri;
+      this.client = new XRPLJsonRpcClient(uri.toString());
+      this.ejectedUntil = System.nanoTime();
+    }
+
+    boolean isEjected() {
+      return this.ejectedUntil - System.nanoTime() > 0;
+    }
+
+    synchronized void observe(long latency) {
+      // -- an endpoint that has not been measured yet is tried before any other.
+      this.ewmaNanos =
+          this.ewmaNanos == 0 ? latency : EWMA_WEIGHT * latency + (1 - EWMA_WEIGHT) * ewmaNanos;
+    }
+
+    synchronized void succeeded(long latency) {
+      observe(latency);
+      this.consecutiveFailures = 0;
+    }
+
+    synchronized void failed(long latency, Throwable error) {
+      observe(latency);
+      if (++this.consecutiveFailures >= ejectionFailures) {
+        log.warn(
+            "Ejecting rippled endpoint {} after {} failures: {}",
+            this.uri,
+            this.consecutiveFailures,
+            error.getMessage());
+        this.ejectedUntil = System.nanoTime() + ejectionNanos;
+        // -- one more failure once it is back ejects it again.
+        this.consecutiveFailures = ejectionFailures - 1;
+      }
+    }
+  }
+}
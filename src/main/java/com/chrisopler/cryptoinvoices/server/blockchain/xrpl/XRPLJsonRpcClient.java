@@ -0,0 +1,80 @@
+package com.chrisopler.cryptoinvoices.server.blockchain.xrpl;
+
+import com.chrisopler.cryptoinvoices.server.errors.BadRequestException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+/**
+ * A non-blocking client for the rippled JSON-RPC API. Requests share the pooled connections of a
+ * single {@link WebClient}.
+ */
+public class XRPLJsonRpcClient {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final WebClient webClient;
+
+  public XRPLJsonRpcClient(String endpoint) {
+    this.webClient = WebClient.create(endpoint);
+  }
+
+  /**
+   * The balance, in drops, of the account at the current ledger.
+   *
+   * @return the balance, or an {@link IllegalStateException} if rippled answered without one
+   */
+  public Mono<Long> accountBalance(String cryptoAddress) {
+    ObjectNode params = this.objectMapper.createObjectNode();
+    params.put("account", cryptoAddress);
+    params.put("ledger_index", "current");
+    return request("account_info", params)
+        .flatMap(
+            (result) -> {
+              // -- asLong() would read a missing Balance as 0, and settle a negative payment.
+              String drops = result.path("account_data").path("Balance").asText();
+              try {
+                long balance = Long.parseLong(drops);
+                if (balance >= 0) {
+                  return Mono.just(balance);
+                }
+              } catch (NumberFormatException e) {
+                // -- reported below.
+              }
+              return Mono.error(
+                  new IllegalStateException(
+                      String.format(
+                          "rippled answered account_info for %s with a Balance of '%s'",
+                          cryptoAddress, drops)));
+            });
+  }
+
+  /**
+   * Call a rippled method with a single parameter object.
+   *
+   * @return the result object, or a {@link BadRequestException} if rippled reported an error
+   */
+  public Mono<JsonNode> request(String method, ObjectNode params) {
+    ObjectNode body = this.objectMapper.createObjectNode();
+    body.put("method", method);
+    body.putArray("params").add(params);
+    return this.webClient
+        .post()
+        .contentType(MediaType.APPLICATION_JSON)
+        .bodyValue(body.toString())
+        .retrieve()
+        .bodyToMono(JsonNode.class)
+        .flatMap(
+            (response) -> {
+              JsonNode result = response.path("result");
+              if ("error".equals(result.path("status").asText())) {
+                return Mono.error(
+                    new BadRequestException(
+                        result.path("error_message").asText(result.path("error").asText())));
+              }
+              return Mono.just(result);
+            });
+  }
+}
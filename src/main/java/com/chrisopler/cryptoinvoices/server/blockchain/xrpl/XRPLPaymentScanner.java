@@ -0,0 +1,134 @@
+package com.chrisopler.cryptoinvoices.server.blockchain.xrpl;
+
+import com.chrisopler.cryptoinvoices.server.blockchain.xrpl.XRPLAccountCursors.Cursor;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.Optional;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Counts the XRP received by an address from its payments, read with account_tx from the ledger
+ * its cursor is at onwards, rather than from its balance. A scan of an address nothing was paid to
+ * since the last one reads no transactions, and the drops delivered are summed exactly.
+ *
+ * <p>The payment that funded the address from the faucet is recognised as the one creating its
+ * account, and is not counted. The cursor is only stored when a scan read transactions, so that
+ * scans of idle addresses do not write to the database either.
+ */
+@Slf4j
+class XRPLPaymentScanner {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final String ACCOUNT_ROOT = "AccountRoot";
+
+  private final XRPLEndpointPool rippledEndpoints;
+  private final XRPLAccountCursors accountCursors;
+  private final int pageSize;
+
+  XRPLPaymentScanner(
+      XRPLEndpointPool rippledEndpoints, XRPLAccountCursors accountCursors, int pageSize) {
+    this.rippledEndpoints = rippledEndpoints;
+    this.accountCursors = accountCursors;
+    this.pageSize = pageSize;
+  }
+
+  /** The drops received by the address, the faucet funding aside. */
+  Mono<Long> receivedDrops(String cryptoAddress) {
+    return Mono.fromCallable(() -> this.accountCursors.find(cryptoAddress))
+        .subscribeOn(Schedulers.boundedElastic())
+        .flatMap(
+            (cursor) -> {
+              Cursor from = cursor.orElse(null);
+              // -- the ledger of the cursor is read again, as it is known to be validated.
+              long ledgerIndexMin = from == null ? -1 : from.getLedgerIndex();
+              long receivedDrops = from == null ? 0 : from.getReceivedDrops();
+              return scan(cryptoAddress, from, ledgerIndexMin, -1, null, receivedDrops, 0)
+                  .flatMap((scanned) -> store(cryptoAddress, from, scanned));
+            })
+        .map(Cursor::getReceivedDrops);
+  }
+
+  /**
+   * Read a page of transactions and follow its marker. Every page after the first is read up to
+   * the same validated ledger as the first, so the scan ends at a ledger it read completely.
+   *
+   * @return the cursor past the transactions read, or empty when none were read
+   */
+  private Mono<Optional<Cursor>> scan(
+      String cryptoAddress,
+      Cursor from,
+      long ledgerIndexMin,
+      long ledgerIndexMax,
+      JsonNode marker,
+      long receivedDrops,
+      int transactionsRead) {
+    ObjectNode params = OBJECT_MAPPER.createObjectNode();
+    params.put("account", cryptoAddress);
+    params.put("ledger_index_min", ledgerIndexMin);
+    params.put("ledger_index_max", ledgerIndexMax);
+    params.put("forward", true);
+    params.put("limit", this.pageSize);
+    if (marker != null) {
+      params.set("marker", marker);
+    }
+    return this.rippledEndpoints
+        .request("account_tx", params)
+        .flatMap(
+            (result) -> {
+              long scannedTo = result.path("ledger_index_max").asLong();
+              long received = receivedDrops;
+              JsonNode transactions = result.path("transactions");
+              for (JsonNode transaction : transactions) {
+                received += deliveredDrops(cryptoAddress, from, transaction);
+              }
+              int read = transactionsRead + transactions.size();
+              JsonNode next = result.path("marker");
+              if (!next.isMissingNode() && !next.isNull()) {
+                return scan(cryptoAddress, from, ledgerIndexMin, scannedTo, next, received, read);
+              }
+              return Mono.just(
+                  read == 0
+                      ? Optional.<Cursor>empty()
+                      : Optional.of(new Cursor(scannedTo, received)));
+            });
+  }
+
+  private Mono<Cursor> store(String cryptoAddress, Cursor from, Optional<Cursor> scanned) {
+    // -- nothing new, or only the transactions of the cursor's ledger again within that ledger.
+    if (!scanned.isPresent() || scanned.get().equals(from)) {
+      return Mono.just(from != null ? from : new Cursor(-1, 0));
+    }
+    return Mono.fromCallable(() -> this.accountCursors.advance(cryptoAddress, from, scanned.get()))
+        .subscribeOn(Schedulers.boundedElastic());
+  }
+
+  /**
+   * The drops a transaction delivered to the address: none unless it is a successful, validated
+   * XRP payment to it that the cursor does not already count and that did not create its account.
+   */
+  private static long deliveredDrops(String cryptoAddress, Cursor from, JsonNode transaction) {
+    JsonNode tx = transaction.path("tx");
+    JsonNode meta = transaction.path("meta");
+    if (!transaction.path("validated").asBoolean()
+        || (from != null && tx.path("ledger_index").asLong() <= from.getLedgerIndex())
+        || !"Payment".equals(tx.path("TransactionType").asText())
+        || !cryptoAddress.equals(tx.path("Destination").asText())
+        || !"tesSUCCESS".equals(meta.path("TransactionResult").asText())
+        // -- issued currencies are delivered as an object, XRP as a string of drops.
+        || !meta.path("delivered_amount").isTextual()) {
+      return 0;
+    }
+    for (JsonNode node : meta.path("AffectedNodes")) {
+      JsonNode created = node.path("CreatedNode");
+      if (ACCOUNT_ROOT.equals(created.path("LedgerEntryType").asText())
+          && cryptoAddress.equals(created.path("NewFields").path("Account").asText())) {
+        log.debug("Skipping the funding of {} by {}", cryptoAddress, tx.path("hash").asText());
+        return 0;
+      }
+    }
+    return Long.parseLong(meta.path("delivered_amount").asText());
+  }
+}
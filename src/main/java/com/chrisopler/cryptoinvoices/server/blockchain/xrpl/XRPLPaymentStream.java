@@ -0,0 +1,210 @@
+package com.chrisopler.cryptoinvoices.server.blockchain.xrpl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import org.springframework.web.reactive.socket.client.ReactorNettyWebSocketClient;
+import org.springframework.web.reactive.socket.client.WebSocketClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.retry.Retry;
+
+/**
+ * Subscribes to the rippled WebSocket account stream for a set of addresses and publishes the
+ * addresses that receive a validated payment.
+ *
+ * <p>The watched addresses are sharded over a small, fixed number of connections. Each connection
+ * re-subscribes to its addresses whenever it reconnects, and only the difference is sent when the
+ * watched set changes.
+ *
+ * <p>Payments are buffered while the subscriber is busy settling earlier ones. Those that overflow
+ * the buffer are counted and left for the next reconcile poll to find.
+ */
+@Slf4j
+public class XRPLPaymentStream {
+
+  private static final Duration MIN_RECONNECT_BACKOFF = Duration.ofSeconds(1);
+  private static final Duration MAX_RECONNECT_BACKOFF = Duration.ofSeconds(30);
+  private static final int PAYMENT_BUFFER_SIZE = 1024;
+
+  private final URI endpoint;
+  private final WebSocketClient webSocketClient = new ReactorNettyWebSocketClient();
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final List<StreamConnection> connections = new ArrayList<>();
+  private final Sinks.Many<String> payments =
+      Sinks.many().multicast().onBackpressureBuffer(PAYMENT_BUFFER_SIZE, false);
+  private final Counter droppedPayments;
+
+  public XRPLPaymentStream(
+      String chainKey, URI endpoint, int connectionCount, MeterRegistry meterRegistry) {
+    this.endpoint = endpoint;
+    this.droppedPayments =
+        meterRegistry.counter("invoices.chain.stream.dropped", "chain", chainKey);
+    for (int i = 0; i < connectionCount; i++) {
+      this.connections.add(new StreamConnection(i));
+    }
+  }
+
+  public void start() {
+    this.connections.forEach(StreamConnection::connect);
+  }
+
+  public void stop() {
+    this.connections.forEach(StreamConnection::disconnect);
+  }
+
+  /** The addresses that have received a validated payment, in the order they were seen. */
+  public Flux<String> payments() {
+    return this.payments.asFlux();
+  }
+
+  /** Replace the watched addresses, subscribing to new ones and unsubscribing from the rest. */
+  public void watch(Collection<String> cryptoAddresses) {
+    List<Set<String>> shards = new ArrayList<>();
+    this.connections.forEach((c) -> shards.add(new HashSet<>()));
+    for (String cryptoAddress : cryptoAddresses) {
+      shards.get(Math.floorMod(cryptoAddress.hashCode(), shards.size())).add(cryptoAddress);
+    }
+    for (int i = 0; i < this.connections.size(); i++) {
+      this.connections.get(i).watch(shards.get(i));
+    }
+  }
+
+  private void onMessage(String message) {
+    try {
+      JsonNode json = this.objectMapper.readTree(message);
+      if (!"transaction".equals(json.path("type").asText())
+          || !json.path("validated").asBoolean()
+          || !"tesSUCCESS".equals(json.path("engine_result").asText())) {
+        return;
+      }
+      JsonNode transaction = json.path("transaction");
+      if (!"Payment".equals(transaction.path("TransactionType").asText())) {
+        return;
+      }
+      String destination = transaction.path("Destination").asText();
+      // -- account streams also report outgoing transactions, only incoming ones are payments.
+      if (isWatched(destination)) {
+        Sinks.EmitResult result;
+        synchronized (this.payments) {
+          result = this.payments.tryEmitNext(destination);
+        }
+        if (result.isFailure()) {
+          this.droppedPayments.increment();
+          log.warn("Dropped a streamed XRPL payment to {}: {}", destination, result);
+        }
+      }
+    } catch (Exception e) {
+      log.warn("Unable to parse XRPL stream message: {}", e.getMessage());
+    }
+  }
+
+  private boolean isWatched(String cryptoAddress) {
+    return this.connections.stream().anyMatch((c) -> c.isWatching(cryptoAddress));
+  }
+
+  private String command(String command, Collection<String> cryptoAddresses) {
+    ObjectNode json = this.objectMapper.createObjectNode();
+    json.put("command", command);
+    cryptoAddresses.forEach(json.putArray("accounts")::add);
+    return json.toString();
+  }
+
+  /** One WebSocket connection and the shard of addresses it is subscribed to. */
+  private class StreamConnection {
+
+    private final int index;
+    private final Set<String> cryptoAddresses = new HashSet<>();
+    private Sinks.Many<String> commands;
+    private Disposable session;
+
+    StreamConnection(int index) {
+      this.index = index;
+    }
+
+    void connect() {
+      this.session =
+          webSocketClient
+              .execute(endpoint, this::handle)
+              .doOnError(
+                  (e) -> log.warn("XRPL stream connection {} failed: {}", index, e.getMessage()))
+              // -- rippled closing the connection is treated the same as an error.
+              .then(Mono.error(new IllegalStateException("XRPL stream closed")))
+              .retryWhen(
+                  Retry.backoff(Long.MAX_VALUE, MIN_RECONNECT_BACKOFF)
+                      .maxBackoff(MAX_RECONNECT_BACKOFF))
+              .subscribe();
+    }
+
+    void disconnect() {
+      if (this.session != null) {
+        this.session.dispose();
+      }
+    }
+
+    synchronized boolean isWatching(String cryptoAddress) {
+      return this.cryptoAddresses.contains(cryptoAddress);
+    }
+
+    synchronized void watch(Set<String> watched) {
+      Set<String> added = new HashSet<>(watched);
+      added.removeAll(this.cryptoAddresses);
+      Set<String> removed = new HashSet<>(this.cryptoAddresses);
+      removed.removeAll(watched);
+
+      this.cryptoAddresses.clear();
+      this.cryptoAddresses.addAll(watched);
+
+      // -- without a live session the full set is subscribed to when the next one starts.
+      if (this.commands != null) {
+        if (!added.isEmpty()) {
+          this.commands.tryEmitNext(command("subscribe", added));
+        }
+        if (!removed.isEmpty()) {
+          this.commands.tryEmitNext(command("unsubscribe", removed));
+        }
+      }
+    }
+
+    private Mono<Void> handle(WebSocketSession webSocketSession) {
+      Flux<String> outbound;
+      synchronized (this) {
+        this.commands = Sinks.many().unicast().onBackpressureBuffer();
+        outbound = this.commands.asFlux();
+        if (!this.cryptoAddresses.isEmpty()) {
+          outbound =
+              Flux.concat(Mono.just(command("subscribe", this.cryptoAddresses)), outbound);
+        }
+      }
+      log.info("XRPL stream connection {} established", index);
+      // -- the command stream never completes, so the session ends when the inbound side does.
+      return Mono.firstWithSignal(
+              webSocketSession.send(outbound.map(webSocketSession::textMessage)),
+              webSocketSession
+                  .receive()
+                  .map(WebSocketMessage::getPayloadAsText)
+                  .doOnNext(XRPLPaymentStream.this::onMessage)
+                  .then())
+          .doFinally(
+              (s) -> {
+                synchronized (this) {
+                  this.commands = null;
+                }
+              });
+    }
+  }
+}
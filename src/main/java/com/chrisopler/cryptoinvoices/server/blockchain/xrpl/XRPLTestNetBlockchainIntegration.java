@@ -1,54 +1,123 @@
 package com.chrisopler.cryptoinvoices.server.blockchain.xrpl;
 
 import com.chrisopler.cryptoinvoices.server.blockchain.BlockchainIntegration;
-import com.chrisopler.cryptoinvoices.server.errors.BadRequestException;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import okhttp3.HttpUrl;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
-import org.xrpl.xrpl4j.client.JsonRpcClientErrorException;
-import org.xrpl.xrpl4j.client.XrplClient;
-import org.xrpl.xrpl4j.model.client.accounts.AccountInfoRequestParams;
-import org.xrpl.xrpl4j.model.client.accounts.AccountInfoResult;
-import org.xrpl.xrpl4j.model.transactions.Address;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-/** The XRP Ledger TESTNET blockchain integration */
+/**
+ * The XRP Ledger TESTNET blockchain integration. The XRP received by an address is read from its
+ * balance, less what the faucet funded it with, or with {@code xrpl.testnet.account-tx.enabled}
+ * counted from its payments by an {@link XRPLPaymentScanner}.
+ */
 @Component
 public class XRPLTestNetBlockchainIntegration implements BlockchainIntegration {
 
-  private static final String CREATE_FAUCET_ENDPOINT =
-      "https://faucet.altnet.rippletest.net/accounts";
-
-  private static final String TEST_NET_RIPPLED_ENDPOINT = "https://s.altnet.rippletest.net:51234";
   private static final String CHAIN = "XRPL";
   private static final String ENVIRONMENT = "TESTNET";
-  private static final Long INITIAL_FAUCET_AMOUNT = 1_000L;
-  private static final Long DROPS_PER_XRP = 1_000_000L;
+  private static final BigDecimal INITIAL_FAUCET_AMOUNT = BigDecimal.valueOf(1_000L);
+  // -- a drop is 1/1000000 of an XRP.
+  private static final int DROPS_SCALE = 6;
+
+  private final URI faucetEndpoint;
+  private final XRPLEndpointPool rippledEndpoints;
+  private final int balanceConcurrency;
+
+  private final XRPLPaymentStream paymentStream;
+  private final XRPLPaymentScanner paymentScanner;
+
+  public XRPLTestNetBlockchainIntegration(
+      @Value("${xrpl.testnet.streaming.enabled:false}") boolean streamingEnabled,
+      @Value("${xrpl.testnet.streaming.endpoint:wss://s.altnet.rippletest.net:51233}")
+          URI streamingEndpoint,
+      @Value("${xrpl.testnet.streaming.connections:2}") int streamingConnections,
+      @Value("${xrpl.testnet.rippled.endpoints:https://s.altnet.rippletest.net:51234}")
+          List<URI> rippledEndpoints,
+      @Value("${xrpl.testnet.rippled.ejection-failures:3}") int ejectionFailures,
+      @Value("${xrpl.testnet.rippled.ejection-ms:30000}") long ejectionMs,
+      @Value("${xrpl.testnet.rippled.hedging.enabled:false}") boolean hedging,
+      @Value("${xrpl.testnet.rippled.hedging.minimum-delay-ms:50}") long minimumHedgeDelayMs,
+      @Value("${xrpl.testnet.rippled.balance-concurrency:16}") int balanceConcurrency,
+      @Value("${xrpl.testnet.account-tx.enabled:false}") boolean accountTxEnabled,
+      @Value("${xrpl.testnet.account-tx.page-size:200}") int accountTxPageSize,
+      @Value("${xrpl.testnet.faucet.endpoint:https://faucet.altnet.rippletest.net/accounts}")
+          URI faucetEndpoint,
+      XRPLAccountCursors accountCursors,
+      MeterRegistry meterRegistry) {
+    this.faucetEndpoint = faucetEndpoint;
+    this.rippledEndpoints =
+        new XRPLEndpointPool(
+            chainKey(),
+            rippledEndpoints,
+            ejectionFailures,
+            Duration.ofMillis(ejectionMs),
+            hedging,
+            Duration.ofMillis(minimumHedgeDelayMs),
+            meterRegistry);
+    this.balanceConcurrency = balanceConcurrency;
+    this.paymentStream =
+        streamingEnabled
+            ? new XRPLPaymentStream(
+                chainKey(), streamingEndpoint, streamingConnections, meterRegistry)
+            : null;
+    this.paymentScanner =
+        accountTxEnabled
+            ? new XRPLPaymentScanner(this.rippledEndpoints, accountCursors, accountTxPageSize)
+            : null;
+  }
+
+  @PostConstruct
+  public void start() {
+    if (this.paymentStream != null) {
+      this.paymentStream.start();
+    }
+  }
 
-  private XrplClient xrplClient = new XrplClient(HttpUrl.parse(TEST_NET_RIPPLED_ENDPOINT));
+  @PreDestroy
+  public void stop() {
+    if (this.paymentStream != null) {
+      this.paymentStream.stop();
+    }
+  }
 
   @Override
   public String chainKey() {
     return String.format("%s/%s", CHAIN, ENVIRONMENT);
   }
 
-  public BigDecimal getBalance(String cryptoAddress) throws BadRequestException {
-    try {
-      AccountInfoResult result =
-          xrplClient.accountInfo(
-              AccountInfoRequestParams.builder().account(Address.of(cryptoAddress)).build());
-
-      // -- adjust the balance returned from the XRPL:
-      //    1/ is in drops, which is 1/1000000 of an XRP.
-      //    2/ test faucet accounts contain an initial 1000 XRP
-      return BigDecimal.valueOf(
-          (result.accountData().balance().value().longValue() / DROPS_PER_XRP)
-              - INITIAL_FAUCET_AMOUNT);
-    } catch (JsonRpcClientErrorException e) {
-      throw new BadRequestException(e.getMessage());
+  @Override
+  public Mono<BigDecimal> getBalance(String cryptoAddress) {
+    if (this.paymentScanner != null) {
+      return this.paymentScanner
+          .receivedDrops(cryptoAddress)
+          .map((drops) -> BigDecimal.valueOf(drops, DROPS_SCALE));
     }
+    // -- adjust the balance returned from the XRPL:
+    //    1/ is in drops, which is 1/1000000 of an XRP.
+    //    2/ test faucet accounts contain an initial 1000 XRP
+    return this.rippledEndpoints
+        .accountBalance(cryptoAddress)
+        .map((drops) -> BigDecimal.valueOf(drops, DROPS_SCALE).subtract(INITIAL_FAUCET_AMOUNT));
+  }
+
+  /**
+   * rippled has no bulk account lookup, so the lookups of a batch are pipelined over the pooled
+   * connections of the endpoints instead.
+   */
+  @Override
+  public int getBalanceConcurrency() {
+    return this.balanceConcurrency;
   }
 
   @Override
@@ -61,12 +130,29 @@ public class XRPLTestNetBlockchainIntegration implements BlockchainIntegration {
     return RoundingMode.HALF_DOWN;
   }
 
+  @Override
+  public boolean isStreamingPayments() {
+    return this.paymentStream != null;
+  }
+
+  @Override
+  public void watchAddresses(Collection<String> cryptoAddresses) {
+    if (this.paymentStream != null) {
+      this.paymentStream.watch(cryptoAddresses);
+    }
+  }
+
+  @Override
+  public Flux<String> paymentNotifications() {
+    return this.paymentStream != null ? this.paymentStream.payments() : Flux.empty();
+  }
+
   @Override
   public Mono<String> createNewCryptoAddress() {
     // -- call the test faucet to create a new account.
     return WebClient.create()
         .post()
-        .uri(CREATE_FAUCET_ENDPOINT)
+        .uri(this.faucetEndpoint)
         .retrieve()
         .bodyToMono(CreateTestNetAddressResponse.class)
         .map((a) -> a.getAccount().getAddress());
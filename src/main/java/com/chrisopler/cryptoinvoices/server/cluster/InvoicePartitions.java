@@ -0,0 +1,250 @@
+package com.chrisopler.cryptoinvoices.server.cluster;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Splits the monitoring of open invoices between the instances sharing the database. Invoices are
+ * hashed by id into a fixed number of partitions, and each instance leases an even share of them
+ * in the partition_leases table. An instance only checks the balances and expiry of the invoices
+ * in the partitions it holds, so each chain is polled once per invoice however many instances run.
+ *
+ * <p>Every instance heartbeats in the cluster_nodes table, so that the others know how many share
+ * the partitions, and renews its leases well before they lapse, on a thread of its own so that a
+ * long settlement pass or sweep on the shared scheduler cannot hold the renewals back. An instance
+ * that stops renewing loses its partitions once its leases lapse, and the others claim them on
+ * their next renewal. Leases are compared with the renewing instance's clock, so the clocks of the
+ * instances must agree to well within the lease duration.
+ *
+ * <p>Leases only divide the work: invoices are still changed with conditional updates, so two
+ * instances briefly checking the same partition is harmless. With {@code invoices.cluster.enabled}
+ * off, the default, this instance holds every partition.
+ */
+@Slf4j
+@Component
+public class InvoicePartitions implements DisposableBean {
+
+  private final JdbcTemplate jdbcTemplate;
+  private final boolean enabled;
+  private final int partitionCount;
+  private final Duration leaseDuration;
+  private final long renewIntervalMs;
+  private final String nodeId;
+  // -- the partitions held, with the time after which they are no longer trusted to be.
+  private final Map<Integer, Instant> leases = new ConcurrentHashMap<>();
+  private ScheduledExecutorService renewer;
+
+  public InvoicePartitions(
+      JdbcTemplate jdbcTemplate,
+      MeterRegistry meterRegistry,
+      @Value("${invoices.cluster.enabled:false}") boolean enabled,
+      @Value("${invoices.cluster.partitions:64}") int partitionCount,
+      @Value("${invoices.cluster.lease-duration-ms:30000}") long leaseDurationMs,
+      @Value("${invoices.cluster.renew-interval-ms:5000}") long renewIntervalMs,
+      @Value("${invoices.cluster.node-id:}") String nodeId) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.enabled = enabled;
+    this.partitionCount = partitionCount;
+    this.leaseDuration = Duration.ofMillis(leaseDurationMs);
+    this.renewIntervalMs = renewIntervalMs;
+    this.nodeId = nodeId.isEmpty() ? UUID.randomUUID().toString() : nodeId;
+    meterRegistry.gauge("invoices.cluster.partitions.owned", this.leases, Map::size);
+  }
+
+  /** Whether this instance checks the balance and expiry of an invoice. */
+  public boolean owns(String invoiceId) {
+    if (!this.enabled) {
+      return true;
+    }
+    Instant expiresAt = this.leases.get(partitionOf(invoiceId));
+    return expiresAt != null && Instant.now().isBefore(expiresAt);
+  }
+
+  /**
+   * Create the partitions missing from the lease table, claim a first share of them, and start
+   * renewing the leases.
+   */
+  @PostConstruct
+  public void createPartitions() {
+    if (!this.enabled) {
+      return;
+    }
+    Set<Integer> existing =
+        new HashSet<>(
+            this.jdbcTemplate.queryForList(
+                "SELECT partition_id FROM partition_leases", Integer.class));
+    for (int partition = 0; partition < this.partitionCount; partition++) {
+      if (existing.contains(partition)) {
+        continue;
+      }
+      try {
+        this.jdbcTemplate.update(
+            "INSERT INTO partition_leases (partition_id) VALUES (?)", partition);
+      } catch (DuplicateKeyException e) {
+        // -- created by another instance starting at the same time.
+      }
+    }
+    log.info("Monitoring invoices in {} partitions as node {}", this.partitionCount, this.nodeId);
+    renewLeases();
+    this.renewer =
+        Executors.newSingleThreadScheduledExecutor(
+            (runnable) -> {
+              Thread thread = new Thread(runnable, "invoice-partitions");
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.renewer.scheduleWithFixedDelay(
+        this::renewLeases, this.renewIntervalMs, this.renewIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Heartbeat, renew the leases held, then release the partitions beyond this instance's share or
+   * claim free ones up to it. The share is the number of partitions over the number of instances
+   * heartbeating, rounded up.
+   */
+  public synchronized void renewLeases() {
+    if (!this.enabled) {
+      return;
+    }
+    // -- taken before the leases are written, so this instance stops trusting them first.
+    Instant now = Instant.now();
+    Timestamp renewedAt = Timestamp.from(now);
+    Timestamp expiresAt = Timestamp.from(now.plus(this.leaseDuration));
+    try {
+      if (this.jdbcTemplate.update(
+              "UPDATE cluster_nodes SET expires_at = ? WHERE node_id = ?", expiresAt, this.nodeId)
+          == 0) {
+        this.jdbcTemplate.update(
+            "INSERT INTO cluster_nodes (node_id, expires_at) VALUES (?, ?)",
+            this.nodeId,
+            expiresAt);
+      }
+      this.jdbcTemplate.update("DELETE FROM cluster_nodes WHERE expires_at <= ?", renewedAt);
+      int nodes =
+          this.jdbcTemplate.queryForObject(
+              "SELECT COUNT(*) FROM cluster_nodes", Integer.class);
+      int share = (this.partitionCount + nodes - 1) / nodes;
+
+      // -- a lease taken over by another instance after it lapsed is not renewed.
+      this.jdbcTemplate.update(
+          "UPDATE partition_leases SET expires_at = ? WHERE owner = ? AND partition_id < ?",
+          expiresAt,
+          this.nodeId,
+          this.partitionCount);
+      List<Integer> held =
+          new ArrayList<>(
+              this.jdbcTemplate.queryForList(
+                  "SELECT partition_id FROM partition_leases"
+                      + " WHERE owner = ? AND partition_id < ? ORDER BY partition_id",
+                  Integer.class,
+                  this.nodeId,
+                  this.partitionCount));
+
+      while (held.size() > share) {
+        int partition = held.remove(held.size() - 1);
+        this.jdbcTemplate.update(
+            "UPDATE partition_leases SET owner = NULL, expires_at = NULL"
+                + " WHERE partition_id = ? AND owner = ?",
+            partition,
+            this.nodeId);
+      }
+      if (held.size() < share) {
+        List<Integer> free =
+            this.jdbcTemplate.queryForList(
+                "SELECT partition_id FROM partition_leases"
+                    + " WHERE (owner IS NULL OR expires_at <= ?) AND partition_id < ?"
+                    + " ORDER BY partition_id",
+                Integer.class,
+                renewedAt,
+                this.partitionCount);
+        for (int partition : free) {
+          if (held.size() == share) {
+            break;
+          }
+          // -- only one of the instances claiming a free partition at the same time gets it.
+          if (this.jdbcTemplate.update(
+                  "UPDATE partition_leases SET owner = ?, expires_at = ?"
+                      + " WHERE partition_id = ? AND (owner IS NULL OR expires_at <= ?)",
+                  this.nodeId,
+                  expiresAt,
+                  partition,
+                  renewedAt)
+              == 1) {
+            held.add(partition);
+          }
+        }
+      }
+      hold(held, now.plus(this.leaseDuration));
+    } catch (DataAccessException e) {
+      log.warn("Unable to renew the invoice partition leases: {}", e.getMessage());
+    }
+  }
+
+  /** Release the partitions held, so that the other instances take them over straight away. */
+  @Override
+  public synchronized void destroy() {
+    if (!this.enabled) {
+      return;
+    }
+    if (this.renewer != null) {
+      this.renewer.shutdownNow();
+    }
+    this.leases.clear();
+    try {
+      this.jdbcTemplate.update(
+          "UPDATE partition_leases SET owner = NULL, expires_at = NULL WHERE owner = ?",
+          this.nodeId);
+      this.jdbcTemplate.update("DELETE FROM cluster_nodes WHERE node_id = ?", this.nodeId);
+    } catch (DataAccessException e) {
+      log.warn("Unable to release the invoice partition leases: {}", e.getMessage());
+    }
+  }
+
+  /** The partitions held. */
+  Set<Integer> partitions() {
+    return new TreeSet<>(this.leases.keySet());
+  }
+
+  int partitionOf(String invoiceId) {
+    // -- String.hashCode is specified, so every instance computes the same partition.
+    return Math.floorMod(invoiceId.hashCode(), this.partitionCount);
+  }
+
+  private void hold(List<Integer> held, Instant trustedUntil) {
+    Set<Integer> acquired = new TreeSet<>(held);
+    acquired.removeAll(this.leases.keySet());
+    Set<Integer> released = new TreeSet<>(this.leases.keySet());
+    released.removeAll(held);
+
+    held.forEach((partition) -> this.leases.put(partition, trustedUntil));
+    this.leases.keySet().removeAll(released);
+    if (!acquired.isEmpty() || !released.isEmpty()) {
+      log.info(
+          "Invoice partitions acquired {}, released {}, holding {}",
+          acquired,
+          released,
+          this.leases.size());
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package com.chrisopler.cryptoinvoices.server.errors;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * The chain did not answer in time, or calls to it are being shed until it recovers. The request
+ * can be retried later.
+ */
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE)
+public class ChainUnavailableException extends Exception {
+  public ChainUnavailableException(String msg) {
+    super(msg);
+  }
+}
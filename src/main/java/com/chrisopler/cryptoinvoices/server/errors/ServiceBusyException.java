@@ -0,0 +1,12 @@
+package com.chrisopler.cryptoinvoices.server.errors;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/** More requests are waiting to be served than the service queues. The request can be retried. */
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE)
+public class ServiceBusyException extends Exception {
+  public ServiceBusyException(String msg) {
+    super(msg);
+  }
+}
@@ -1,7 +1,9 @@
 package com.chrisopler.cryptoinvoices.server.generated.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.swagger.v3.oas.annotations.media.Schema;
+import java.math.BigDecimal;
 import java.time.Instant;
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -40,32 +42,26 @@ public class Invoice {
   @Column(name = "invoice_id", nullable = false)
   private String invoiceId;
 
-  @JsonProperty("invoice_amount")
-  @Column(name = "invoice_amount", nullable = false)
-  @Schema(
-      name = "invoice_amount",
-      description = "The amount in the currency due.",
-      example = "100.000000",
-      required = true)
-  private String invoiceAmount;
+  /**
+   * The amounts are stored as a number of minor units of the currency (drops for XRP), with the
+   * number of decimal places held in {@link #amountScale}. They are formatted to decimal strings
+   * only at the API edge.
+   */
+  @JsonIgnore
+  @Column(name = "invoice_amount_units", nullable = false)
+  private long invoiceAmountUnits;
 
-  @JsonProperty("amount_paid")
-  @Column(name = "amount_paid", nullable = false)
-  @Schema(
-      name = "amount_paid",
-      description = "The amount paid to date",
-      example = "0.000000",
-      required = true)
-  private String amountPaid;
+  @JsonIgnore
+  @Column(name = "amount_paid_units", nullable = false)
+  private long amountPaidUnits;
 
-  @JsonProperty("amount_remaining")
-  @Column(name = "amount_remaining", nullable = false)
-  @Schema(
-      name = "amount_remaining",
-      description = "The amount remaining to be paid",
-      example = "100.000000",
-      required = true)
-  private String amountRemaining;
+  @JsonIgnore
+  @Column(name = "amount_remaining_units", nullable = false)
+  private long amountRemainingUnits;
+
+  @JsonIgnore
+  @Column(name = "amount_scale", nullable = false)
+  private int amountScale;
 
   @JsonProperty("crypto_address")
   @Column(name = "crypto_address", nullable = false)
@@ -120,4 +116,88 @@ public class Invoice {
       example = "2021-03-17T12:42:59.663Z",
       required = true)
   private Instant dueDate;
+
+  @JsonProperty("callback_url")
+  @Column(name = "callback_url", nullable = true, length = 2048)
+  @Schema(
+      name = "callback_url",
+      description = "The URL to which the status changes of the invoice are posted.",
+      example = "https://merchant.example.com/invoices/callback",
+      required = false)
+  private String callbackUrl;
+
+  /** The Idempotency-Key the invoice was created with, if any. It is never returned to clients. */
+  @JsonIgnore
+  @Column(name = "idempotency_key", nullable = true, unique = true)
+  private String idempotencyKey;
+
+  /**
+   * The due_in_seconds an invoice with an Idempotency-Key was requested with, to compare retries
+   * with the same key against. Null for other invoices, and for those created before it was stored.
+   */
+  @JsonIgnore
+  @Column(name = "due_in_seconds", nullable = true)
+  private Integer dueInSeconds;
+
+  @JsonProperty("invoice_amount")
+  @Schema(
+      name = "invoice_amount",
+      description = "The amount in the currency due.",
+      example = "100.000000",
+      required = true)
+  public String getInvoiceAmount() {
+    return format(invoiceAmountUnits);
+  }
+
+  @JsonProperty("invoice_amount")
+  public void setInvoiceAmount(String invoiceAmount) {
+    this.invoiceAmountUnits = parse(invoiceAmount);
+  }
+
+  @JsonProperty("amount_paid")
+  @Schema(
+      name = "amount_paid",
+      description = "The amount paid to date",
+      example = "0.000000",
+      required = true)
+  public String getAmountPaid() {
+    return format(amountPaidUnits);
+  }
+
+  @JsonProperty("amount_paid")
+  public void setAmountPaid(String amountPaid) {
+    this.amountPaidUnits = parse(amountPaid);
+  }
+
+  @JsonProperty("amount_remaining")
+  @Schema(
+      name = "amount_remaining",
+      description = "The amount remaining to be paid",
+      example = "100.000000",
+      required = true)
+  public String getAmountRemaining() {
+    return format(amountRemainingUnits);
+  }
+
+  @JsonProperty("amount_remaining")
+  public void setAmountRemaining(String amountRemaining) {
+    this.amountRemainingUnits = parse(amountRemaining);
+  }
+
+  private String format(long units) {
+    return BigDecimal.valueOf(units, amountScale).toPlainString();
+  }
+
+  /** Amounts read from JSON widen the scale of the invoice so that none of them is rounded. */
+  private long parse(String amount) {
+    BigDecimal decimal = new BigDecimal(amount);
+    if (decimal.scale() > amountScale) {
+      int shift = decimal.scale() - amountScale;
+      invoiceAmountUnits = BigDecimal.valueOf(invoiceAmountUnits, -shift).longValueExact();
+      amountPaidUnits = BigDecimal.valueOf(amountPaidUnits, -shift).longValueExact();
+      amountRemainingUnits = BigDecimal.valueOf(amountRemainingUnits, -shift).longValueExact();
+      amountScale = decimal.scale();
+    }
+    return decimal.setScale(amountScale).unscaledValue().longValueExact();
+  }
 }
@@ -0,0 +1,48 @@
+package com.chrisopler.cryptoinvoices.server.generated.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The outcome of one invoice of a batch creation: the invoice created, or the error it could not
+ * be created with. Every invoice requested gets exactly one outcome.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class InvoiceBatchResult {
+
+  @JsonProperty("index")
+  @Schema(
+      description = "The position of the invoice in the batch requested, from 0",
+      example = "3",
+      required = true)
+  private int index;
+
+  @JsonProperty("status")
+  @Schema(
+      description =
+          "The http status code the invoice would have been answered with on its own: 200 when it"
+              + " was created",
+      example = "400",
+      required = true)
+  private int status;
+
+  @JsonProperty("invoice")
+  @Schema(description = "The invoice created. Absent if it was not.", required = false)
+  private Invoice invoice;
+
+  @JsonProperty("error")
+  @Schema(
+      description = "Why the invoice was not created. Absent if it was.",
+      example = "Invalid invoiceAmount",
+      required = false)
+  private String error;
+}
@@ -54,4 +54,14 @@ public class InvoiceCreateRequest {
       defaultValue = "60",
       required = true)
   private int dueInSeconds;
+
+  @JsonProperty("callback_url")
+  @Schema(
+      name = "callback_url",
+      description =
+          "An http or https URL to which the status changes of the invoice are posted. Defaults to"
+              + " the callback URL configured for the chain, if any.",
+      example = "https://merchant.example.com/invoices/callback",
+      required = false)
+  private String callbackUrl;
 }
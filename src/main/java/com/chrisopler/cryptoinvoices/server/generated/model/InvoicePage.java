@@ -0,0 +1,30 @@
+package com.chrisopler.cryptoinvoices.server.generated.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** A page of invoices ordered by due date, and the cursor from which to read the next page. */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class InvoicePage {
+
+  @JsonProperty("invoices")
+  @ArraySchema(schema = @Schema(implementation = Invoice.class))
+  private List<Invoice> invoices;
+
+  @JsonProperty("next_cursor")
+  @Schema(
+      description =
+          "Pass as the cursor parameter to read the next page. Absent on the last page.",
+      example = "MjAyMS0wMy0xN1QxMjo0Mjo1OS42NjNafDJjOWY4MDgyNzg0OGM2NWYwMTc4NDhjNmE0Zjc=",
+      required = false)
+  private String nextCursor;
+}
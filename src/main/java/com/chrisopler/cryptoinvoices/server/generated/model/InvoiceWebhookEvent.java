@@ -0,0 +1,58 @@
+package com.chrisopler.cryptoinvoices.server.generated.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.time.Instant;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A status change of an invoice, as posted to its callback URL. Events are posted as a JSON array,
+ * as several may be delivered to the same URL at once.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class InvoiceWebhookEvent {
+
+  @JsonProperty("event_id")
+  @Schema(
+      name = "event_id",
+      description =
+          "Identifies the event. An event may be delivered more than once, use this to ignore"
+              + " repeats.",
+      example = "1a9a3c4e-0b7e-4be4-8c51-e2c9a4d1d8a6",
+      required = true)
+  private String eventId;
+
+  @JsonProperty("previous_status")
+  @Schema(
+      name = "previous_status",
+      description = "The status of the invoice before the change",
+      example = "PARTIALLY_PAID",
+      required = true)
+  private InvoiceStatus previousStatus;
+
+  @JsonProperty("status")
+  @Schema(
+      name = "status",
+      description = "The status of the invoice after the change",
+      example = "PAID",
+      required = true)
+  private InvoiceStatus status;
+
+  @JsonProperty("occurred_at")
+  @Schema(
+      name = "occurred_at",
+      description = "When the change was stored",
+      example = "2021-03-17T12:42:59.663Z",
+      required = true)
+  private Instant occurredAt;
+
+  @JsonProperty("invoice")
+  @Schema(name = "invoice", description = "The invoice after the change", required = true)
+  private Invoice invoice;
+}
@@ -0,0 +1,36 @@
+package com.chrisopler.cryptoinvoices.server.metrics;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import com.chrisopler.cryptoinvoices.server.service.InvoiceChangedEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Optional;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/** Counts the invoice status transitions, tagged by the status left and the status entered. */
+@Component
+public class InvoiceLifecycleMetrics {
+
+  public static final String METRIC_NAME = "invoices.status.transitions";
+
+  private final MeterRegistry meterRegistry;
+
+  public InvoiceLifecycleMetrics(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  @EventListener
+  public void onInvoiceChanged(InvoiceChangedEvent event) {
+    if (!event.isStatusChanged()) {
+      return;
+    }
+    this.meterRegistry
+        .counter(
+            METRIC_NAME,
+            "from",
+            Optional.ofNullable(event.getPreviousStatus()).map(InvoiceStatus::name).orElse("NONE"),
+            "to",
+            event.getStatus().name())
+        .increment();
+  }
+}
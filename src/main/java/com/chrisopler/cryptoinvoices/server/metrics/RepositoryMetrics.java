@@ -0,0 +1,49 @@
+package com.chrisopler.cryptoinvoices.server.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+import org.springframework.data.repository.core.support.RepositoryMethodInvocationListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Times every Spring Data repository call, tagged by repository, method and outcome. The listener
+ * is registered on each repository factory so that derived, query and CRUD methods are all timed
+ * without having to wrap the repositories themselves.
+ */
+@Component
+public class RepositoryMetrics implements BeanPostProcessor, RepositoryMethodInvocationListener {
+
+  public static final String METRIC_NAME = "invoices.repository.requests";
+
+  // -- resolved lazily, the registry is not yet available when the post processor is created.
+  private final ObjectProvider<MeterRegistry> meterRegistry;
+
+  public RepositoryMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  @Override
+  public Object postProcessBeforeInitialization(Object bean, String beanName) {
+    if (bean instanceof RepositoryFactoryBeanSupport) {
+      ((RepositoryFactoryBeanSupport<?, ?, ?>) bean)
+          .addRepositoryFactoryCustomizer((factory) -> factory.addInvocationListener(this));
+    }
+    return bean;
+  }
+
+  @Override
+  public void afterInvocation(RepositoryMethodInvocation invocation) {
+    Throwable error = invocation.getResult().getError();
+    Timer.builder(METRIC_NAME)
+        .tag("repository", invocation.getRepositoryInterface().getSimpleName())
+        .tag("method", invocation.getMethod().getName())
+        .tag("state", invocation.getResult().getState().name())
+        .tag("exception", error == null ? "none" : error.getClass().getSimpleName())
+        .register(this.meterRegistry.getObject())
+        .record(invocation.getDuration(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+  }
+}
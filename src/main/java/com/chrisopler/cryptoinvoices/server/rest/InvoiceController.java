@@ -5,28 +5,62 @@ import com.chrisopler.cryptoinvoices.server.errors.NotFoundException;
 import com.chrisopler.cryptoinvoices.server.errors.UnknownIntegrationException;
 import com.chrisopler.cryptoinvoices.server.generated.model.ErrorResponse;
 import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceBatchResult;
 import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceCreateRequest;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoicePage;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import com.chrisopler.cryptoinvoices.server.service.InvoiceFilter;
 import com.chrisopler.cryptoinvoices.server.service.InvoiceService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.enums.ParameterIn;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.context.request.async.DeferredResult;
+import reactor.core.publisher.Flux;
 
+/**
+ * The invoice API served by Spring MVC. Requests are completed through {@link DeferredResult}s, so
+ * no servlet thread waits on the chain. When the application runs as a reactive web application,
+ * the same API is served by the {@link ReactiveInvoiceController} instead.
+ */
 @RestController
+@ConditionalOnWebApplication(type = Type.SERVLET)
 public class InvoiceController {
 
+  public static final String DEFERRED_RESULT_METRIC_NAME = "invoices.deferred.result";
+
   private InvoiceService invoiceService;
+  private MeterRegistry meterRegistry;
+  private Duration eventsHeartbeat;
 
-  public InvoiceController(InvoiceService invoiceService) {
+  public InvoiceController(
+      InvoiceService invoiceService,
+      MeterRegistry meterRegistry,
+      @Value("${invoices.events.heartbeat-ms:15000}") long eventsHeartbeatMs) {
     this.invoiceService = invoiceService;
+    this.meterRegistry = meterRegistry;
+    this.eventsHeartbeat = Duration.ofMillis(eventsHeartbeatMs);
   }
 
   @Operation(
@@ -55,15 +89,145 @@ public class InvoiceController {
   @GetMapping("/invoices/{invoiceId}")
   public DeferredResult<Invoice> getInvoice(final @PathVariable String invoiceId)
       throws NotFoundException, UnknownIntegrationException, BadRequestException {
-    DeferredResult<Invoice> result = new DeferredResult<>();
+    DeferredResult<Invoice> result = timedDeferredResult("getInvoice");
     invoiceService.getInvoice(invoiceId, result);
     return result;
   }
 
+  @Operation(
+      method = "GET",
+      parameters = {
+        @Parameter(in = ParameterIn.PATH, name = "invoiceId", description = "Invoice Id")
+      },
+      operationId = "getInvoiceEvents",
+      summary =
+          "Follow an Invoice as Server-Sent Events. The invoice is sent when the stream opens and"
+              + " again each time its status or amount paid changes. The stream closes once the"
+              + " invoice is paid or expired, and carries a comment as a heartbeat while idle.",
+      responses = {
+        @ApiResponse(
+            description = "Successful Operation",
+            responseCode = "200",
+            content =
+                @Content(
+                    mediaType = MediaType.TEXT_EVENT_STREAM_VALUE,
+                    schema = @Schema(implementation = Invoice.class))),
+        @ApiResponse(
+            responseCode = "404",
+            description = "Not found",
+            content =
+                @Content(
+                    mediaType = "application/json",
+                    schema = @Schema(implementation = ErrorResponse.class))),
+      })
+  @GetMapping(path = "/invoices/{invoiceId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public Flux<ServerSentEvent<Invoice>> getInvoiceEvents(final @PathVariable String invoiceId) {
+    return withHeartbeats(invoiceService.followInvoice(invoiceId), eventsHeartbeat);
+  }
+
+  /**
+   * The invoices as Server-Sent Events, interleaved with a heartbeat comment at the given interval
+   * until the invoices complete.
+   */
+  static Flux<ServerSentEvent<Invoice>> withHeartbeats(Flux<Invoice> invoices, Duration heartbeat) {
+    return invoices
+        .map((invoice) -> ServerSentEvent.builder(invoice).event("invoice").build())
+        .publish(
+            (events) ->
+                Flux.merge(
+                    events,
+                    // -- heartbeats keep proxies from closing the idle stream, until it completes.
+                    Flux.interval(heartbeat)
+                        .map((i) -> ServerSentEvent.<Invoice>builder().comment("heartbeat").build())
+                        .takeUntilOther(events.ignoreElements())));
+  }
+
+  @Operation(
+      method = "GET",
+      parameters = {
+        @Parameter(
+            in = ParameterIn.QUERY,
+            name = "status",
+            description = "Only list invoices in these statuses"),
+        @Parameter(in = ParameterIn.QUERY, name = "chain", description = "Chain"),
+        @Parameter(
+            in = ParameterIn.QUERY,
+            name = "chain_environment",
+            description = "Chain environment"),
+        @Parameter(
+            in = ParameterIn.QUERY,
+            name = "due_after",
+            description = "Only list invoices due at or after this ISO-8601 instant"),
+        @Parameter(
+            in = ParameterIn.QUERY,
+            name = "due_before",
+            description = "Only list invoices due before this ISO-8601 instant"),
+        @Parameter(
+            in = ParameterIn.QUERY,
+            name = "cursor",
+            description = "The next_cursor of the previous page"),
+        @Parameter(
+            in = ParameterIn.QUERY,
+            name = "limit",
+            description = "The maximum number of invoices to return")
+      },
+      operationId = "listInvoices",
+      summary = "List Invoices in due date order, a page at a time",
+      responses = {
+        @ApiResponse(
+            description = "Successful Operation",
+            responseCode = "200",
+            content =
+                @Content(
+                    mediaType = "application/json",
+                    schema = @Schema(implementation = InvoicePage.class))),
+        @ApiResponse(
+            responseCode = "400",
+            description = "Bad request",
+            content =
+                @Content(
+                    mediaType = "application/json",
+                    schema = @Schema(implementation = ErrorResponse.class))),
+      })
+  @GetMapping("/invoices")
+  public DeferredResult<InvoicePage> listInvoices(
+      @RequestParam(name = "status", required = false) final List<InvoiceStatus> statuses,
+      @RequestParam(name = "chain", required = false) final String chain,
+      @RequestParam(name = "chain_environment", required = false) final String chainEnvironment,
+      @RequestParam(name = "due_after", required = false)
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          final Instant dueAfter,
+      @RequestParam(name = "due_before", required = false)
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          final Instant dueBefore,
+      @RequestParam(name = "cursor", required = false) final String cursor,
+      @RequestParam(name = "limit", required = false) final Integer limit)
+      throws BadRequestException {
+    InvoiceFilter filter =
+        InvoiceFilter.builder()
+            .statuses(statuses)
+            .chain(chain)
+            .chainEnvironment(chainEnvironment)
+            .dueAfter(dueAfter)
+            .dueBefore(dueBefore)
+            .build();
+    DeferredResult<InvoicePage> result = timedDeferredResult("listInvoices");
+    invoiceService.listInvoices(filter, cursor, limit, result);
+    return result;
+  }
+
   @Operation(
       method = "POST",
       operationId = "createInvoice",
-      summary = "Create a new Invoice.",
+      summary =
+          "Create a new Invoice. Retries sent with the same Idempotency-Key return the invoice"
+              + " created by the first request, rather than creating another.",
+      parameters = {
+        @Parameter(
+            in = ParameterIn.HEADER,
+            name = "Idempotency-Key",
+            description = "A unique key for this creation, of up to 255 characters")
+      },
       requestBody =
           @io.swagger.v3.oas.annotations.parameters.RequestBody(
               description = "Details of the Item to be created",
@@ -90,11 +254,77 @@ public class InvoiceController {
       })
   @PostMapping(path = "/invoices", consumes = MediaType.APPLICATION_JSON_VALUE)
   public DeferredResult<Invoice> createInvoice(
+      @RequestHeader(name = "Idempotency-Key", required = false) final String idempotencyKey,
       @org.springframework.web.bind.annotation.RequestBody
           final InvoiceCreateRequest invoiceCreateRequest)
       throws BadRequestException, UnknownIntegrationException {
-    DeferredResult<Invoice> result = new DeferredResult<>();
-    invoiceService.createInvoice(invoiceCreateRequest, result);
+    DeferredResult<Invoice> result = timedDeferredResult("createInvoice");
+    invoiceService.createInvoice(invoiceCreateRequest, idempotencyKey, result);
+    return result;
+  }
+
+  @Operation(
+      method = "POST",
+      operationId = "createInvoices",
+      summary =
+          "Create a batch of Invoices. One result per invoice, the invoice created or the error it"
+              + " failed with, is streamed back as newline delimited JSON as they are stored.",
+      requestBody =
+          @io.swagger.v3.oas.annotations.parameters.RequestBody(
+              description = "Details of the Items to be created",
+              required = true,
+              content =
+                  @Content(
+                      array =
+                          @ArraySchema(
+                              schema = @Schema(implementation = InvoiceCreateRequest.class)),
+                      mediaType = MediaType.APPLICATION_JSON_VALUE)),
+      responses = {
+        @ApiResponse(
+            description = "Successful Operation",
+            responseCode = "200",
+            content =
+                @Content(
+                    mediaType = MediaType.APPLICATION_NDJSON_VALUE,
+                    schema = @Schema(implementation = InvoiceBatchResult.class))),
+        @ApiResponse(
+            responseCode = "400",
+            description = "Bad request",
+            content =
+                @Content(
+                    mediaType = "application/json",
+                    schema = @Schema(implementation = ErrorResponse.class))),
+      })
+  @PostMapping(
+      path = "/invoices:batch",
+      consumes = MediaType.APPLICATION_JSON_VALUE,
+      produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public Flux<InvoiceBatchResult> createInvoices(
+      @org.springframework.web.bind.annotation.RequestBody
+          final List<InvoiceCreateRequest> invoiceCreateRequests)
+      throws BadRequestException {
+    return invoiceService.createInvoices(invoiceCreateRequests);
+  }
+
+  /**
+   * A deferred result that records how long it took to complete, tagged by the operation and
+   * whether it completed with a result, an error or a timeout.
+   */
+  private <T> DeferredResult<T> timedDeferredResult(String operation) {
+    Timer.Sample sample = Timer.start(meterRegistry);
+    AtomicReference<String> outcome = new AtomicReference<>("SUCCESS");
+    DeferredResult<T> result = new DeferredResult<>();
+    result.onTimeout(() -> outcome.set("TIMEOUT"));
+    result.onError((e) -> outcome.set("ERROR"));
+    result.onCompletion(
+        () -> {
+          if (result.getResult() instanceof Throwable) {
+            outcome.compareAndSet("SUCCESS", "ERROR");
+          }
+          sample.stop(
+              meterRegistry.timer(
+                  DEFERRED_RESULT_METRIC_NAME, "operation", operation, "outcome", outcome.get()));
+        });
     return result;
   }
 }
@@ -0,0 +1,132 @@
+package com.chrisopler.cryptoinvoices.server.rest;
+
+import com.chrisopler.cryptoinvoices.server.errors.BadRequestException;
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceBatchResult;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceCreateRequest;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoicePage;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import com.chrisopler.cryptoinvoices.server.service.InvoiceFilter;
+import com.chrisopler.cryptoinvoices.server.service.InvoiceService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * The invoice API served by WebFlux on Netty, when the application runs as a reactive web
+ * application ({@code spring.main.web-application-type=reactive}). It is the API of the {@link
+ * InvoiceController}, where it is documented, but invoices are read and created end to end without
+ * blocking, so a few event loop threads can serve many requests waiting on the chain at once.
+ */
+@RestController
+@ConditionalOnWebApplication(type = Type.REACTIVE)
+public class ReactiveInvoiceController {
+
+  private final InvoiceService invoiceService;
+  private final MeterRegistry meterRegistry;
+  private final Duration eventsHeartbeat;
+
+  public ReactiveInvoiceController(
+      InvoiceService invoiceService,
+      MeterRegistry meterRegistry,
+      @Value("${invoices.events.heartbeat-ms:15000}") long eventsHeartbeatMs) {
+    this.invoiceService = invoiceService;
+    this.meterRegistry = meterRegistry;
+    this.eventsHeartbeat = Duration.ofMillis(eventsHeartbeatMs);
+  }
+
+  @GetMapping("/invoices/{invoiceId}")
+  public Mono<Invoice> getInvoice(final @PathVariable String invoiceId) {
+    return timed("getInvoice", invoiceService.getInvoice(invoiceId));
+  }
+
+  @GetMapping(path = "/invoices/{invoiceId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public Flux<ServerSentEvent<Invoice>> getInvoiceEvents(final @PathVariable String invoiceId) {
+    return InvoiceController.withHeartbeats(
+        invoiceService.followInvoice(invoiceId), this.eventsHeartbeat);
+  }
+
+  @GetMapping("/invoices")
+  public Mono<InvoicePage> listInvoices(
+      @RequestParam(name = "status", required = false) final List<InvoiceStatus> statuses,
+      @RequestParam(name = "chain", required = false) final String chain,
+      @RequestParam(name = "chain_environment", required = false) final String chainEnvironment,
+      @RequestParam(name = "due_after", required = false)
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          final Instant dueAfter,
+      @RequestParam(name = "due_before", required = false)
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          final Instant dueBefore,
+      @RequestParam(name = "cursor", required = false) final String cursor,
+      @RequestParam(name = "limit", required = false) final Integer limit) {
+    InvoiceFilter filter =
+        InvoiceFilter.builder()
+            .statuses(statuses)
+            .chain(chain)
+            .chainEnvironment(chainEnvironment)
+            .dueAfter(dueAfter)
+            .dueBefore(dueBefore)
+            .build();
+    return timed("listInvoices", invoiceService.listInvoices(filter, cursor, limit));
+  }
+
+  @PostMapping(path = "/invoices", consumes = MediaType.APPLICATION_JSON_VALUE)
+  public Mono<Invoice> createInvoice(
+      @RequestHeader(name = "Idempotency-Key", required = false) final String idempotencyKey,
+      @RequestBody final InvoiceCreateRequest invoiceCreateRequest) {
+    return timed(
+        "createInvoice", invoiceService.createInvoice(invoiceCreateRequest, idempotencyKey));
+  }
+
+  @PostMapping(
+      path = "/invoices:batch",
+      consumes = MediaType.APPLICATION_JSON_VALUE,
+      produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public Flux<InvoiceBatchResult> createInvoices(
+      @RequestBody final List<InvoiceCreateRequest> invoiceCreateRequests)
+      throws BadRequestException {
+    return invoiceService.createInvoices(invoiceCreateRequests);
+  }
+
+  /**
+   * Record how long the response took to complete under the same metric as the deferred results
+   * of the {@link InvoiceController}, so both modes can be compared.
+   */
+  private <T> Mono<T> timed(String operation, Mono<T> result) {
+    return Mono.defer(
+        () -> {
+          Timer.Sample sample = Timer.start(meterRegistry);
+          return result
+              .doOnSuccess((v) -> stop(sample, operation, "SUCCESS"))
+              .doOnError((e) -> stop(sample, operation, "ERROR"))
+              .doOnCancel(() -> stop(sample, operation, "CANCELLED"));
+        });
+  }
+
+  private void stop(Timer.Sample sample, String operation, String outcome) {
+    sample.stop(
+        meterRegistry.timer(
+            InvoiceController.DEFERRED_RESULT_METRIC_NAME,
+            "operation",
+            operation,
+            "outcome",
+            outcome));
+  }
+}
@@ -0,0 +1,108 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import static com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus.EXPIRED;
+import static com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus.PAID;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Optional;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps paid and expired invoices in memory. They never change again, so they can be served
+ * without going to the database and never need invalidating.
+ *
+ * <p>Invoices are evicted by Caffeine once their estimated size in memory goes over its limit.
+ * Each invoice weighs at least its share of that limit under the maximum size, so the number of
+ * invoices stays under the maximum size too. Paid invoices are cached as they are paid, expired
+ * ones on their first read, as they are expired in bulk without being read.
+ */
+@Component
+public class CompletedInvoiceCache {
+
+  // -- object headers, references and primitive fields of an Invoice and its map entry.
+  private static final long INVOICE_WEIGHT = 160;
+  private static final long STRING_WEIGHT = 40;
+
+  private final boolean enabled;
+  private final Cache<String, Invoice> invoices;
+
+  public CompletedInvoiceCache(
+      MeterRegistry meterRegistry,
+      @Value("${invoices.completed-cache.enabled:true}") boolean enabled,
+      @Value("${invoices.completed-cache.maximum-size:100000}") int maximumSize,
+      @Value("${invoices.completed-cache.maximum-weight-bytes:33554432}") long maximumWeight) {
+    this.enabled = enabled;
+    long minimumWeight = Math.max(1, maximumWeight / Math.max(1, maximumSize));
+    this.invoices =
+        Caffeine.newBuilder()
+            .maximumWeight(maximumWeight)
+            .<String, Invoice>weigher(
+                (id, invoice) ->
+                    (int) Math.min(Integer.MAX_VALUE, Math.max(minimumWeight, weigh(invoice))))
+            // -- evicts on the writing thread rather than on the common fork join pool.
+            .executor(Runnable::run)
+            .recordStats()
+            .build();
+    FunctionCounter.builder("invoices.completed.cache", this, (c) -> c.stats().hitCount())
+        .tag("result", "hit")
+        .register(meterRegistry);
+    FunctionCounter.builder("invoices.completed.cache", this, (c) -> c.stats().missCount())
+        .tag("result", "miss")
+        .register(meterRegistry);
+    meterRegistry.gauge("invoices.completed.cache.size", this.invoices, Cache::estimatedSize);
+    meterRegistry.gauge("invoices.completed.cache.weight", this, CompletedInvoiceCache::weight);
+    meterRegistry.gauge("invoices.completed.cache.hit.ratio", this, (c) -> c.stats().hitRate());
+  }
+
+  public Optional<Invoice> get(String invoiceId) {
+    if (!enabled) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable(this.invoices.getIfPresent(invoiceId));
+  }
+
+  /** Cache the invoice if it is paid or expired, otherwise ignore it. */
+  public void put(Invoice invoice) {
+    if (!enabled || (invoice.getInvoiceStatus() != PAID && invoice.getInvoiceStatus() != EXPIRED)) {
+      return;
+    }
+    this.invoices.put(invoice.getInvoiceId(), invoice);
+  }
+
+  @EventListener
+  public void onInvoiceChanged(InvoiceChangedEvent event) {
+    if (event.getInvoice() != null) {
+      put(event.getInvoice());
+    }
+  }
+
+  private CacheStats stats() {
+    return this.invoices.stats();
+  }
+
+  private double weight() {
+    return this.invoices.policy().eviction().map((e) -> e.weightedSize().orElse(0L)).orElse(0L);
+  }
+
+  /** An estimate of the memory taken by a cached invoice. */
+  static long weigh(Invoice invoice) {
+    return INVOICE_WEIGHT
+        + weigh(invoice.getInvoiceId())
+        + weigh(invoice.getCryptoAddress())
+        + weigh(invoice.getCurrency())
+        + weigh(invoice.getChain())
+        + weigh(invoice.getChainEnvironment())
+        + weigh(invoice.getCallbackUrl());
+  }
+
+  private static long weigh(String value) {
+    return value == null ? 0 : STRING_WEIGHT + 2L * value.length();
+  }
+}
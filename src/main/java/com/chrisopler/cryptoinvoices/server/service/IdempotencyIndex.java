@@ -0,0 +1,83 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Deduplicates invoice creations by their Idempotency-Key. The unique index on the key in the
+ * invoices table is the record of which keys were used; this index sits in front of it so that
+ * retries are answered without a lookup by key, and concurrent requests with the same key share a
+ * single creation.
+ *
+ * <p>Completed keys are held against the id of their invoice in a Caffeine cache bounded by the
+ * maximum size. Evicted keys are found through the table again.
+ */
+@Component
+public class IdempotencyIndex {
+
+  private final Cache<String, String> invoiceIds;
+  private final ConcurrentMap<String, Mono<Invoice>> inFlight = new ConcurrentHashMap<>();
+  private final Counter indexed;
+  private final Counter joined;
+
+  public IdempotencyIndex(
+      MeterRegistry meterRegistry,
+      @Value("${invoices.idempotency.index.maximum-size:100000}") int maximumSize) {
+    this.invoiceIds =
+        Caffeine.newBuilder().maximumSize(maximumSize).executor(Runnable::run).build();
+    this.indexed = meterRegistry.counter("invoices.idempotency.index", "result", "indexed");
+    this.joined = meterRegistry.counter("invoices.idempotency.index", "result", "joined");
+    meterRegistry.gauge("invoices.idempotency.index.size", this.invoiceIds, Cache::estimatedSize);
+    meterRegistry.gauge("invoices.idempotency.in.flight", this.inFlight, ConcurrentMap::size);
+  }
+
+  /** The id of the invoice created with the key, if the key is still indexed. */
+  public Optional<String> invoiceId(String idempotencyKey) {
+    String invoiceId = this.invoiceIds.getIfPresent(idempotencyKey);
+    if (invoiceId != null) {
+      this.indexed.increment();
+    }
+    return Optional.ofNullable(invoiceId);
+  }
+
+  public void put(String idempotencyKey, String invoiceId) {
+    this.invoiceIds.put(idempotencyKey, invoiceId);
+  }
+
+  /**
+   * Run the creation for a key, unless one is already in flight for it, in which case the caller
+   * waits on that one instead. The creation is dropped once it completes, successfully or not, so
+   * a failed one can be retried.
+   */
+  public Mono<Invoice> once(String idempotencyKey, Supplier<Mono<Invoice>> creation) {
+    return Mono.defer(
+        () -> {
+          boolean[] first = {false};
+          Mono<Invoice> shared =
+              this.inFlight.computeIfAbsent(
+                  idempotencyKey,
+                  (key) -> {
+                    first[0] = true;
+                    return creation
+                        .get()
+                        .doOnNext((invoice) -> put(key, invoice.getInvoiceId()))
+                        .doFinally((signal) -> this.inFlight.remove(key))
+                        .cache();
+                  });
+          if (!first[0]) {
+            this.joined.increment();
+          }
+          return shared;
+        });
+  }
+}
@@ -0,0 +1,85 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Fans the stored changes of an invoice out to the clients following it. Each follower holds a
+ * sink that keeps at most the latest unsent snapshot, and nothing is kept for invoices that nobody
+ * follows.
+ */
+@Slf4j
+@Component
+public class InvoiceChangeNotifier {
+
+  private final InvoiceStore invoiceStore;
+  private final Map<String, Set<Sinks.Many<Invoice>>> followers = new ConcurrentHashMap<>();
+
+  public InvoiceChangeNotifier(InvoiceStore invoiceStore) {
+    this.invoiceStore = invoiceStore;
+  }
+
+  /**
+   * The snapshots of an invoice stored from the time of subscription on. Changes are not replayed,
+   * so read the invoice after subscribing to avoid missing one.
+   */
+  public Flux<Invoice> changes(String invoiceId) {
+    return Flux.defer(
+        () -> {
+          Sinks.Many<Invoice> sink = Sinks.many().unicast().onBackpressureBuffer();
+          this.followers
+              .computeIfAbsent(invoiceId, (id) -> new CopyOnWriteArraySet<>())
+              .add(sink);
+          return sink.asFlux()
+              // -- a slow client only ever needs the latest snapshot.
+              .onBackpressureLatest()
+              .doFinally((s) -> unfollow(invoiceId, sink));
+        });
+  }
+
+  @EventListener
+  public void onInvoiceChanged(InvoiceChangedEvent event) {
+    Set<Sinks.Many<Invoice>> sinks = this.followers.get(event.getInvoiceId());
+    if (sinks == null) {
+      return;
+    }
+    if (event.getInvoice() != null) {
+      emit(sinks, event.getInvoice());
+      return;
+    }
+    // -- bulk changes do not carry the invoice, so it is only read when someone is following.
+    Mono.fromCallable(() -> this.invoiceStore.findById(event.getInvoiceId()))
+        .subscribeOn(Schedulers.boundedElastic())
+        .subscribe(
+            (invoice) -> invoice.ifPresent((i) -> emit(sinks, i)),
+            (e) -> log.warn("Unable to read invoice {}: {}", event.getInvoiceId(), e.getMessage()));
+  }
+
+  private void emit(Set<Sinks.Many<Invoice>> sinks, Invoice invoice) {
+    for (Sinks.Many<Invoice> sink : sinks) {
+      // -- changes to one invoice can be stored from several threads at once.
+      synchronized (sink) {
+        sink.tryEmitNext(invoice);
+      }
+    }
+  }
+
+  private void unfollow(String invoiceId, Sinks.Many<Invoice> sink) {
+    this.followers.computeIfPresent(
+        invoiceId,
+        (id, sinks) -> {
+          sinks.remove(sink);
+          return sinks.isEmpty() ? null : sinks;
+        });
+  }
+}
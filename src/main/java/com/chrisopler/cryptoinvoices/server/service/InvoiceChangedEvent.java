@@ -0,0 +1,24 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import lombok.Value;
+
+/**
+ * Published once a change to an invoice has been stored: its creation, a payment or a change of
+ * status. Invoices that have just been created have no previous status.
+ */
+@Value
+public class InvoiceChangedEvent {
+
+  String invoiceId;
+  InvoiceStatus previousStatus;
+  InvoiceStatus status;
+
+  /** The invoice as stored, or null when it was changed in bulk without being read. */
+  Invoice invoice;
+
+  public boolean isStatusChanged() {
+    return previousStatus != status;
+  }
+}
@@ -0,0 +1,42 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import com.chrisopler.cryptoinvoices.server.errors.BadRequestException;
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import lombok.Value;
+
+/**
+ * The position of the last invoice of a page in the (due_date, invoice_id) order. It is handed to
+ * clients as an opaque string, so the encoding can change without breaking them.
+ */
+@Value
+public class InvoiceCursor {
+
+  private static final String SEPARATOR = "|";
+
+  Instant dueDate;
+  String invoiceId;
+
+  public static InvoiceCursor after(Invoice invoice) {
+    return new InvoiceCursor(invoice.getDueDate(), invoice.getInvoiceId());
+  }
+
+  public static InvoiceCursor decode(String cursor) throws BadRequestException {
+    try {
+      String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+      int separator = decoded.indexOf(SEPARATOR);
+      return new InvoiceCursor(
+          Instant.parse(decoded.substring(0, separator)), decoded.substring(separator + 1));
+    } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+      throw new BadRequestException("Invalid cursor");
+    }
+  }
+
+  public String encode() {
+    return Base64.getUrlEncoder()
+        .encodeToString((dueDate + SEPARATOR + invoiceId).getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,161 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import com.chrisopler.cryptoinvoices.server.errors.ServiceBusyException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Runs the blocking work of the {@link InvoiceService}, such as repository calls, so the web
+ * threads handing it over return at once and complete their deferred results later.
+ *
+ * <p>In the {@code platform} mode the work runs on a bounded pool of threads, queueing up to a
+ * limit and failing with a {@link ServiceBusyException} beyond it. In the {@code virtual} mode,
+ * on a JDK with virtual threads, each task runs on a virtual thread of its own, so thousands of
+ * requests waiting on the database or the chain do not need thousands of platform threads.
+ */
+@Slf4j
+@Component
+public class InvoiceExecutor implements DisposableBean {
+
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  public enum Mode {
+    PLATFORM,
+    VIRTUAL
+  }
+
+  private final ExecutorService executorService;
+  private final Scheduler scheduler;
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicInteger active = new AtomicInteger();
+  private final Timer queueWait;
+  private final Counter rejected;
+
+  public InvoiceExecutor(
+      MeterRegistry meterRegistry,
+      @Value("${invoices.executor.mode:platform}") String mode,
+      @Value("${invoices.executor.threads:64}") int threads,
+      @Value("${invoices.executor.queue-capacity:10000}") int queueCapacity) {
+    Mode executorMode = Mode.valueOf(mode.toUpperCase());
+    this.executorService =
+        executorMode == Mode.VIRTUAL
+            ? virtualThreadPerTask()
+            : platformPool(threads, queueCapacity);
+    this.scheduler = Schedulers.fromExecutor(this::submit);
+    meterRegistry.gauge("invoices.executor.queued", this.queued);
+    meterRegistry.gauge("invoices.executor.active", this.active);
+    this.queueWait = meterRegistry.timer("invoices.executor.queue.wait");
+    this.rejected = meterRegistry.counter("invoices.executor.rejected");
+    log.info("Running invoice service work on {} threads", mode.toLowerCase());
+  }
+
+  /**
+   * Run a task.
+   *
+   * @throws ServiceBusyException when the queue of the platform pool is full
+   */
+  public void execute(Runnable task) throws ServiceBusyException {
+    try {
+      submit(task);
+    } catch (RejectedExecutionException e) {
+      throw busy();
+    }
+  }
+
+  /**
+   * A scheduler running on this executor, for reactive pipelines. Work it cannot accept fails the
+   * pipeline with a {@link ServiceBusyException}.
+   */
+  public Scheduler scheduler() {
+    return this.scheduler;
+  }
+
+  /** Map the rejection of a task scheduled through the {@link #scheduler()}. */
+  public Throwable rejectedAsBusy(Throwable error) {
+    return error instanceof RejectedExecutionException ? busy() : error;
+  }
+
+  @Override
+  public void destroy() {
+    this.scheduler.dispose();
+    this.executorService.shutdown();
+  }
+
+  private ServiceBusyException busy() {
+    this.rejected.increment();
+    return new ServiceBusyException("Too many requests are waiting to be served, try again later");
+  }
+
+  /** Tasks are counted from when they are handed over, so the gauges cover both modes alike. */
+  private void submit(Runnable task) {
+    long submitted = System.nanoTime();
+    this.queued.incrementAndGet();
+    try {
+      this.executorService.execute(
+          () -> {
+            this.queued.decrementAndGet();
+            this.active.incrementAndGet();
+            this.queueWait.record(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+            try {
+              task.run();
+            } finally {
+              this.active.decrementAndGet();
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      this.queued.decrementAndGet();
+      throw e;
+    }
+  }
+
+  private ExecutorService platformPool(int threads, int queueCapacity) {
+    AtomicInteger count = new AtomicInteger();
+    ThreadFactory threadFactory =
+        (r) -> {
+          Thread thread = new Thread(r, "invoices-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        };
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            threadFactory);
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Virtual threads are looked up reflectively, since the service is still built for Java 8 and
+   * only gains them when run on a JDK that has them.
+   */
+  private ExecutorService virtualThreadPerTask() {
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+      throw new IllegalStateException(
+          "invoices.executor.mode=virtual needs a JDK with virtual threads, this is "
+              + System.getProperty("java.version"),
+          e);
+    }
+  }
+}
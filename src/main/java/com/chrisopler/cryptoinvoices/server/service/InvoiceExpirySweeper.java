@@ -0,0 +1,104 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import static com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus.EXPIRED;
+import static com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus.NEW;
+import static com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus.PARTIALLY_PAID;
+
+import com.chrisopler.cryptoinvoices.server.cluster.InvoicePartitions;
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Periodically expires the open invoices whose due date has passed. Overdue invoices are read in
+ * (due_date, invoice_id) order through the (invoice_status, due_date, invoice_id) index and expired
+ * in chunks, one UPDATE per chunk. Each open status is swept on its own so that the status every
+ * invoice is expired from is known.
+ *
+ * <p>Only the invoices in the {@link InvoicePartitions} this instance holds are expired. The
+ * others are skipped by seeking past them, as they stay overdue until their holder expires them.
+ */
+@Slf4j
+@Component
+public class InvoiceExpirySweeper {
+
+  private static final List<InvoiceStatus> OPEN_STATUSES = Arrays.asList(NEW, PARTIALLY_PAID);
+
+  private final InvoiceStore invoiceStore;
+  private final ApplicationEventPublisher eventPublisher;
+  private final InvoicePartitions invoicePartitions;
+  private final int chunkSize;
+
+  public InvoiceExpirySweeper(
+      InvoiceStore invoiceStore,
+      ApplicationEventPublisher eventPublisher,
+      InvoicePartitions invoicePartitions,
+      @Value("${invoices.expiry.chunk-size:1000}") int chunkSize) {
+    this.invoiceStore = invoiceStore;
+    this.eventPublisher = eventPublisher;
+    this.invoicePartitions = invoicePartitions;
+    this.chunkSize = chunkSize;
+  }
+
+  @Scheduled(fixedDelayString = "${invoices.expiry.interval-ms:1000}")
+  public void expireOverdueInvoices() {
+    Instant now = Instant.now();
+    int expired = 0;
+    for (InvoiceStatus status : OPEN_STATUSES) {
+      expired += expireOverdueInvoices(status, now);
+    }
+
+    if (expired > 0) {
+      log.info("Expired {} overdue invoices", expired);
+    }
+  }
+
+  private int expireOverdueInvoices(InvoiceStatus status, Instant now) {
+    List<InvoiceStatus> statuses = Collections.singletonList(status);
+    InvoiceFilter overdue = InvoiceFilter.builder().statuses(statuses).dueBefore(now).build();
+    int expired = 0;
+    InvoiceCursor after = null;
+    List<Invoice> chunk;
+    do {
+      chunk = this.invoiceStore.findPage(overdue, after, chunkSize);
+      if (chunk.isEmpty()) {
+        break;
+      }
+      after = InvoiceCursor.after(chunk.get(chunk.size() - 1));
+      List<String> invoiceIds =
+          chunk.stream()
+              .map(Invoice::getInvoiceId)
+              .filter(this.invoicePartitions::owns)
+              .collect(Collectors.toList());
+      if (invoiceIds.isEmpty()) {
+        continue;
+      }
+      int chunkExpired = this.invoiceStore.expire(invoiceIds, statuses, now);
+      if (chunkExpired == invoiceIds.size()) {
+        invoiceIds.forEach((invoiceId) -> expired(invoiceId, status));
+      } else {
+        // -- some were paid in the meantime, so find out which ones were actually expired.
+        this.invoiceStore.findAllById(invoiceIds).stream()
+            .filter((invoice) -> invoice.getInvoiceStatus() == EXPIRED)
+            .map(Invoice::getInvoiceId)
+            .forEach((invoiceId) -> expired(invoiceId, status));
+      }
+      expired += chunkExpired;
+    } while (chunk.size() == chunkSize);
+    return expired;
+  }
+
+  private void expired(String invoiceId, InvoiceStatus previousStatus) {
+    this.eventPublisher.publishEvent(
+        new InvoiceChangedEvent(invoiceId, previousStatus, EXPIRED, null));
+  }
+}
@@ -0,0 +1,23 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import java.time.Instant;
+import java.util.Collection;
+import lombok.Builder;
+import lombok.Data;
+
+/** Criteria for listing invoices. Criteria left null are not applied. */
+@Data
+@Builder
+public class InvoiceFilter {
+
+  private Collection<InvoiceStatus> statuses;
+  private String chain;
+  private String chainEnvironment;
+
+  /** Inclusive lower bound of the due date. */
+  private Instant dueAfter;
+
+  /** Exclusive upper bound of the due date. */
+  private Instant dueBefore;
+}
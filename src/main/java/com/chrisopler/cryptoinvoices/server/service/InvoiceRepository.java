@@ -1,8 +1,72 @@
 package com.chrisopler.cryptoinvoices.server.service;
 
 import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 @Repository
-public interface InvoiceRepository extends JpaRepository<Invoice, String> {}
+public interface InvoiceRepository
+    extends JpaRepository<Invoice, String>, InvoiceSearchRepository {
+
+  /**
+   * Seek through the invoices in the given statuses ordered by id. Pass the last id of the
+   * previous page (or an empty string for the first page) so that rows changing status between
+   * pages do not shift the window the way an OFFSET would.
+   */
+  List<Invoice> findByInvoiceStatusInAndInvoiceIdGreaterThanOrderByInvoiceId(
+      Collection<InvoiceStatus> statuses, String afterInvoiceId, Pageable pageable);
+
+  List<Invoice> findByCryptoAddress(String cryptoAddress);
+
+  Optional<Invoice> findByIdempotencyKey(String idempotencyKey);
+
+  /**
+   * Expire the given invoices in a single statement. The status and due date are re-checked so an
+   * invoice that was paid since its id was read is left alone.
+   *
+   * @return the number of invoices expired
+   */
+  @Transactional
+  @Modifying
+  @Query(
+      "update Invoice i set i.invoiceStatus = :expired"
+          + " where i.invoiceId in :invoiceIds and i.invoiceStatus in :statuses"
+          + " and i.dueDate < :now")
+  int expire(
+      @Param("invoiceIds") Collection<String> invoiceIds,
+      @Param("statuses") Collection<InvoiceStatus> statuses,
+      @Param("now") Instant now,
+      @Param("expired") InvoiceStatus expired);
+
+  /**
+   * Record a payment in a single statement, provided the invoice is still in the status and has
+   * the amount paid it was read with. Concurrent settlements of the same invoice therefore never
+   * overwrite each other, and an invoice expired in the meantime is not paid.
+   *
+   * @return 1 if the payment was recorded, 0 if the invoice had changed since it was read
+   */
+  @Transactional
+  @Modifying
+  @Query(
+      "update Invoice i set i.invoiceStatus = :status, i.amountPaidUnits = :amountPaidUnits,"
+          + " i.amountRemainingUnits = :amountRemainingUnits"
+          + " where i.invoiceId = :invoiceId and i.invoiceStatus = :expectedStatus"
+          + " and i.amountPaidUnits = :expectedAmountPaidUnits")
+  int transition(
+      @Param("invoiceId") String invoiceId,
+      @Param("expectedStatus") InvoiceStatus expectedStatus,
+      @Param("expectedAmountPaidUnits") long expectedAmountPaidUnits,
+      @Param("status") InvoiceStatus status,
+      @Param("amountPaidUnits") long amountPaidUnits,
+      @Param("amountRemainingUnits") long amountRemainingUnits);
+}
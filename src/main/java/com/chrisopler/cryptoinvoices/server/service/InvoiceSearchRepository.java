@@ -0,0 +1,16 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import java.util.List;
+
+/** Listing queries that are built from optional criteria, mixed into {@link InvoiceRepository}. */
+public interface InvoiceSearchRepository {
+
+  /**
+   * Seek to the invoices matching the filter that come after the cursor in (due_date, invoice_id)
+   * order. Seeking rather than skipping keeps the cost of a page the same however deep it is.
+   *
+   * @param after the last invoice of the previous page, or null for the first page
+   */
+  List<Invoice> findPage(InvoiceFilter filter, InvoiceCursor after, int limit);
+}
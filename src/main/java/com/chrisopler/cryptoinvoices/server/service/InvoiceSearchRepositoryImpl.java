@@ -0,0 +1,61 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+public class InvoiceSearchRepositoryImpl implements InvoiceSearchRepository {
+
+  @PersistenceContext private EntityManager entityManager;
+
+  @Override
+  public List<Invoice> findPage(InvoiceFilter filter, InvoiceCursor after, int limit) {
+    CriteriaBuilder cb = this.entityManager.getCriteriaBuilder();
+    CriteriaQuery<Invoice> query = cb.createQuery(Invoice.class);
+    Root<Invoice> invoice = query.from(Invoice.class);
+    Path<Instant> dueDate = invoice.get("dueDate");
+    Path<String> invoiceId = invoice.get("invoiceId");
+
+    List<Predicate> predicates = new ArrayList<>();
+    if (filter.getStatuses() != null && !filter.getStatuses().isEmpty()) {
+      predicates.add(invoice.get("invoiceStatus").in(filter.getStatuses()));
+    }
+    if (filter.getChain() != null) {
+      predicates.add(cb.equal(invoice.get("chain"), filter.getChain()));
+    }
+    if (filter.getChainEnvironment() != null) {
+      predicates.add(cb.equal(invoice.get("chainEnvironment"), filter.getChainEnvironment()));
+    }
+    if (filter.getDueAfter() != null) {
+      predicates.add(cb.greaterThanOrEqualTo(dueDate, filter.getDueAfter()));
+    }
+    if (filter.getDueBefore() != null) {
+      predicates.add(cb.lessThan(dueDate, filter.getDueBefore()));
+    }
+    if (after != null) {
+      // -- (due_date, invoice_id) > (:dueDate, :invoiceId), spelled out for JPQL. The redundant
+      // -- lower bound lets the database start the index range at the cursor instead of scanning.
+      predicates.add(cb.greaterThanOrEqualTo(dueDate, after.getDueDate()));
+      predicates.add(
+          cb.or(
+              cb.greaterThan(dueDate, after.getDueDate()),
+              cb.and(
+                  cb.equal(dueDate, after.getDueDate()),
+                  cb.greaterThan(invoiceId, after.getInvoiceId()))));
+    }
+
+    query
+        .select(invoice)
+        .where(predicates.toArray(new Predicate[0]))
+        .orderBy(cb.asc(dueDate), cb.asc(invoiceId));
+    return this.entityManager.createQuery(query).setMaxResults(limit).getResultList();
+  }
+}
@@ -1,17 +1,93 @@
 package com.chrisopler.cryptoinvoices.server.service;
 
+import com.chrisopler.cryptoinvoices.server.blockchain.BlockchainIntegration;
 import com.chrisopler.cryptoinvoices.server.errors.BadRequestException;
 import com.chrisopler.cryptoinvoices.server.errors.NotFoundException;
 import com.chrisopler.cryptoinvoices.server.errors.UnknownIntegrationException;
 import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceBatchResult;
 import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceCreateRequest;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoicePage;
+import java.math.BigDecimal;
+import java.util.List;
 import org.springframework.web.context.request.async.DeferredResult;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 public interface InvoiceService {
 
   void getInvoice(String invoiceId, DeferredResult<Invoice> deferredResult)
       throws NotFoundException, UnknownIntegrationException, BadRequestException;
 
-  void createInvoice(InvoiceCreateRequest request, DeferredResult<Invoice> deferredResult)
+  /**
+   * Get an invoice without blocking the calling thread, for the reactive web endpoints.
+   *
+   * @return the invoice, or a {@link NotFoundException} error
+   */
+  Mono<Invoice> getInvoice(String invoiceId);
+
+  /**
+   * Follow an invoice until it is paid or expired.
+   *
+   * @return the invoice as it is now, followed by a snapshot each time its status or amount paid
+   *     changes, completing with the snapshot in which it is paid or expired, or a {@link
+   *     NotFoundException} error if there is no such invoice
+   */
+  Flux<Invoice> followInvoice(String invoiceId);
+
+  /**
+   * List the invoices matching the filter in due date order, a page at a time.
+   *
+   * @param cursor the next_cursor of the previous page, or null for the first page
+   * @param limit the maximum number of invoices in the page, or null for the default
+   */
+  void listInvoices(
+      InvoiceFilter filter,
+      String cursor,
+      Integer limit,
+      DeferredResult<InvoicePage> deferredResult)
+      throws BadRequestException;
+
+  /**
+   * List a page of invoices for the reactive web endpoints. The page is read off the calling
+   * thread.
+   */
+  Mono<InvoicePage> listInvoices(InvoiceFilter filter, String cursor, Integer limit);
+
+  /**
+   * Create an invoice.
+   *
+   * @param idempotencyKey a key identifying the creation across retries, or null. A request with a
+   *     key already used is answered with the invoice created for it, which must have been
+   *     requested with the same details.
+   */
+  void createInvoice(
+      InvoiceCreateRequest request, String idempotencyKey, DeferredResult<Invoice> deferredResult)
       throws BadRequestException, UnknownIntegrationException;
+
+  /**
+   * Create an invoice without blocking the calling thread, for the reactive web endpoints. Invalid
+   * requests are signalled as errors of the returned {@link Mono}.
+   *
+   * @param idempotencyKey a key identifying the creation across retries, or null
+   */
+  Mono<Invoice> createInvoice(InvoiceCreateRequest request, String idempotencyKey);
+
+  /**
+   * Create a batch of invoices. An invoice that cannot be created does not stop the others.
+   *
+   * @return one result per request, the created invoice or its error, in the order they were
+   *     stored
+   * @throws BadRequestException if the batch is empty or too large
+   */
+  Flux<InvoiceBatchResult> createInvoices(List<InvoiceCreateRequest> requests)
+      throws BadRequestException;
+
+  /**
+   * Reconcile an open invoice with the balance observed on its chain, persisting the invoice when
+   * the amount paid or the status has changed.
+   *
+   * @return the reconciled invoice
+   */
+  Invoice settle(Invoice invoice, BigDecimal balance, BlockchainIntegration blockchainIntegration);
 }
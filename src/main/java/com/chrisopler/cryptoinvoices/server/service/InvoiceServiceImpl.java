@@ -1,112 +1,544 @@
 package com.chrisopler.cryptoinvoices.server.service;
 
-import static com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus.EXPIRED;
 import static com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus.PAID;
 import static com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus.PARTIALLY_PAID;
 
 import com.chrisopler.cryptoinvoices.server.blockchain.BlockchainIntegration;
 import com.chrisopler.cryptoinvoices.server.blockchain.BlockchainIntegrationFactory;
+import com.chrisopler.cryptoinvoices.server.blockchain.pool.CryptoAddressPool;
 import com.chrisopler.cryptoinvoices.server.errors.BadRequestException;
 import com.chrisopler.cryptoinvoices.server.errors.NotFoundException;
+import com.chrisopler.cryptoinvoices.server.errors.ServiceBusyException;
 import com.chrisopler.cryptoinvoices.server.errors.UnknownIntegrationException;
 import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceBatchResult;
 import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceCreateRequest;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoicePage;
 import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import com.chrisopler.cryptoinvoices.server.webhooks.CallbackUrlPolicy;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.context.request.async.DeferredResult;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @Slf4j
 @Component
 public class InvoiceServiceImpl implements InvoiceService {
 
-  private final InvoiceRepository invoiceRepository;
+  private static final Duration BATCH_INSERT_MAX_WAIT = Duration.ofMillis(100);
+  // -- the length of the idempotency_key column.
+  private static final int IDEMPOTENCY_KEY_MAXIMUM_LENGTH = 255;
+  // -- the digits of Long.MAX_VALUE, beyond which no amount fits in minor units.
+  private static final int MAXIMUM_AMOUNT_INTEGER_DIGITS = 19;
+
+  private final InvoiceStore invoiceStore;
+  private final ReactiveInvoiceRepository reactiveInvoiceRepository;
   private final BlockchainIntegrationFactory blockchainIntegrationFactory;
+  private final CryptoAddressPool cryptoAddressPool;
+  private final InvoiceChangeNotifier invoiceChangeNotifier;
+  private final CompletedInvoiceCache completedInvoiceCache;
+  private final IdempotencyIndex idempotencyIndex;
+  private final InvoiceExecutor invoiceExecutor;
+  private final ApplicationEventPublisher eventPublisher;
+  private final CallbackUrlPolicy callbackUrlPolicy;
+  private final int batchMaximumSize;
+  private final int batchAddressParallelism;
+  private final int batchInsertSize;
+  private final int listDefaultLimit;
+  private final int listMaximumLimit;
 
   public InvoiceServiceImpl(
-      InvoiceRepository invoiceRepository,
-      BlockchainIntegrationFactory blockchainIntegrationFactory) {
-    this.invoiceRepository = invoiceRepository;
+      InvoiceStore invoiceStore,
+      ObjectProvider<ReactiveInvoiceRepository> reactiveInvoiceRepository,
+      BlockchainIntegrationFactory blockchainIntegrationFactory,
+      CryptoAddressPool cryptoAddressPool,
+      InvoiceChangeNotifier invoiceChangeNotifier,
+      CompletedInvoiceCache completedInvoiceCache,
+      IdempotencyIndex idempotencyIndex,
+      InvoiceExecutor invoiceExecutor,
+      ApplicationEventPublisher eventPublisher,
+      CallbackUrlPolicy callbackUrlPolicy,
+      @Value("${invoices.batch.maximum-size:1000}") int batchMaximumSize,
+      @Value("${invoices.batch.address-parallelism:8}") int batchAddressParallelism,
+      @Value("${invoices.batch.insert-size:50}") int batchInsertSize,
+      @Value("${invoices.list.default-limit:100}") int listDefaultLimit,
+      @Value("${invoices.list.maximum-limit:1000}") int listMaximumLimit) {
+    this.invoiceStore = invoiceStore;
+    // -- only present when running as a reactive web application.
+    this.reactiveInvoiceRepository = reactiveInvoiceRepository.getIfAvailable();
     this.blockchainIntegrationFactory = blockchainIntegrationFactory;
+    this.cryptoAddressPool = cryptoAddressPool;
+    this.invoiceChangeNotifier = invoiceChangeNotifier;
+    this.completedInvoiceCache = completedInvoiceCache;
+    this.idempotencyIndex = idempotencyIndex;
+    this.invoiceExecutor = invoiceExecutor;
+    this.eventPublisher = eventPublisher;
+    this.callbackUrlPolicy = callbackUrlPolicy;
+    this.batchMaximumSize = batchMaximumSize;
+    this.batchAddressParallelism = batchAddressParallelism;
+    this.batchInsertSize = batchInsertSize;
+    this.listDefaultLimit = listDefaultLimit;
+    this.listMaximumLimit = listMaximumLimit;
   }
 
   /**
-   * Normally gets are not mutating. Future work includes adding a background scheduler to to
-   * perform expiration and paid status checks. As such this method would be a pure get.
+   * Gets are a pure read of the repository. Paid status checks are performed in the background by
+   * the {@link InvoiceSettlementEngine} and expiration by the {@link InvoiceExpirySweeper}. Paid
+   * and expired invoices never change again and are served from the {@link CompletedInvoiceCache}
+   * straight away, other invoices are read on the {@link InvoiceExecutor}.
    */
   @Override
-  public void getInvoice(String invoiceId, DeferredResult<Invoice> deferredResult)
-      throws NotFoundException, UnknownIntegrationException, BadRequestException {
-
-    Invoice invoice =
-        this.invoiceRepository
-            .findById(invoiceId)
-            .orElseThrow(() -> new NotFoundException(invoiceId));
+  public void getInvoice(String invoiceId, DeferredResult<Invoice> deferredResult) {
 
-    if (isComplete(invoice.getInvoiceStatus())) {
-      deferredResult.setResult(invoice);
+    Optional<Invoice> completed = this.completedInvoiceCache.get(invoiceId);
+    if (completed.isPresent()) {
+      deferredResult.setResult(completed.get());
       return;
     }
+    dispatch(
+        deferredResult,
+        () -> {
+          Invoice invoice =
+              this.invoiceStore
+                  .findById(invoiceId)
+                  .orElseThrow(() -> new NotFoundException(invoiceId));
+          this.completedInvoiceCache.put(invoice);
+          return invoice;
+        });
+  }
+
+  /**
+   * Read through R2DBC when running as a reactive web application on the database, and otherwise
+   * from the {@link InvoiceStore} on a thread that may block.
+   */
+  @Override
+  public Mono<Invoice> getInvoice(String invoiceId) {
+    Optional<Invoice> completed = this.completedInvoiceCache.get(invoiceId);
+    if (completed.isPresent()) {
+      return Mono.just(completed.get());
+    }
+    Mono<Invoice> invoice =
+        this.reactiveInvoiceRepository != null
+            ? this.reactiveInvoiceRepository.findById(invoiceId)
+            : onExecutor(Mono.fromCallable(() -> this.invoiceStore.findById(invoiceId)))
+                .flatMap(Mono::justOrEmpty);
+    return invoice
+        .switchIfEmpty(Mono.error(() -> new NotFoundException(invoiceId)))
+        .doOnNext(this.completedInvoiceCache::put);
+  }
 
-    if (isExpired(invoice)) {
+  /**
+   * The changes are subscribed to before the invoice is read, so that none are missed between the
+   * two. The first read only checks that the invoice exists, so a missing one fails the request.
+   * Both reads run on the {@link InvoiceExecutor}, once the stream is subscribed to.
+   */
+  @Override
+  public Flux<Invoice> followInvoice(String invoiceId) {
+    return onExecutor(Mono.fromCallable(() -> this.invoiceStore.existsById(invoiceId)))
+        .flatMapMany(
+            (exists) ->
+                exists
+                    ? Flux.merge(
+                        this.invoiceChangeNotifier.changes(invoiceId),
+                        onExecutor(Mono.fromCallable(() -> this.invoiceStore.findById(invoiceId)))
+                            .flatMap(Mono::justOrEmpty))
+                    : Flux.error(new NotFoundException(invoiceId)))
+        // -- the same change can be seen both in the read and as a notification.
+        .distinctUntilChanged(
+            (invoice) -> invoice.getInvoiceStatus() + "/" + invoice.getAmountPaidUnits())
+        .takeUntil((invoice) -> isComplete(invoice.getInvoiceStatus()));
+  }
 
-      if (invoice.getInvoiceStatus() != EXPIRED) {
-        invoice.setInvoiceStatus(InvoiceStatus.EXPIRED);
-        this.invoiceRepository.save(invoice);
-        log.info("Invoice {} has expired", invoice.getInvoiceId());
-      }
-      deferredResult.setResult(invoice);
-      return;
+  /**
+   * One more invoice than the limit is read, so that the cursor is only returned when there is a
+   * further page.
+   */
+  @Override
+  public void listInvoices(
+      InvoiceFilter filter,
+      String cursor,
+      Integer limit,
+      DeferredResult<InvoicePage> deferredResult) {
+    dispatch(deferredResult, () -> page(filter, cursor, limit));
+  }
+
+  /** Listing is still read from the {@link InvoiceStore}, on the {@link InvoiceExecutor}. */
+  @Override
+  public Mono<InvoicePage> listInvoices(InvoiceFilter filter, String cursor, Integer limit) {
+    return onExecutor(Mono.fromCallable(() -> page(filter, cursor, limit)));
+  }
+
+  private InvoicePage page(InvoiceFilter filter, String cursor, Integer limit)
+      throws BadRequestException {
+    int pageSize = Optional.ofNullable(limit).orElse(listDefaultLimit);
+    if (pageSize <= 0 || pageSize > listMaximumLimit) {
+      throw new BadRequestException(
+          String.format("limit must be between 1 and %d", listMaximumLimit));
     }
+    InvoiceCursor after = cursor == null ? null : InvoiceCursor.decode(cursor);
 
-    BlockchainIntegration blockchainIntegration =
-        this.blockchainIntegrationFactory.getIntegration(
-            invoice.getChain(),
-            Optional.ofNullable(invoice.getChainEnvironment()).orElse("default"));
-    BigDecimal b = blockchainIntegration.getBalance(invoice.getCryptoAddress());
+    List<Invoice> invoices = this.invoiceStore.findPage(filter, after, pageSize + 1);
+    InvoicePage.InvoicePageBuilder page = InvoicePage.builder();
+    if (invoices.size() > pageSize) {
+      invoices = invoices.subList(0, pageSize);
+      page.nextCursor(InvoiceCursor.after(invoices.get(pageSize - 1)).encode());
+    }
+    return page.invoices(invoices).build();
+  }
 
-    invoice.setAmountPaid(toString(b, blockchainIntegration));
-    setAmountRemaining(invoice, blockchainIntegration);
-    if (isPaid(invoice) && invoice.getInvoiceStatus() != PAID) {
-      invoice.setInvoiceStatus(PAID);
-      this.invoiceRepository.save(invoice);
+  /**
+   * The new amounts and status are written with a single conditional UPDATE. If another
+   * settlement or the expiry sweeper changed the invoice first, nothing is written and the stored
+   * invoice is returned instead.
+   */
+  @Override
+  public Invoice settle(
+      Invoice invoice, BigDecimal balance, BlockchainIntegration blockchainIntegration) {
+
+    if (isComplete(invoice.getInvoiceStatus())) {
+      return invoice;
+    }
+
+    InvoiceStatus previousStatus = invoice.getInvoiceStatus();
+    long previouslyPaid = invoice.getAmountPaidUnits();
+    long amountPaidUnits =
+        toUnits(balance, invoice.getAmountScale(), blockchainIntegration.getRoundingMode());
+    long amountRemainingUnits = Math.max(0, invoice.getInvoiceAmountUnits() - amountPaidUnits);
+    InvoiceStatus status = previousStatus;
+    if (amountPaidUnits >= invoice.getInvoiceAmountUnits()) {
+      status = PAID;
+    } else if (amountPaidUnits > 0) {
+      status = PARTIALLY_PAID;
+    }
+    if (status == previousStatus && amountPaidUnits == previouslyPaid) {
+      return invoice;
+    }
+
+    if (this.invoiceStore.transition(
+            invoice.getInvoiceId(),
+            previousStatus,
+            previouslyPaid,
+            status,
+            amountPaidUnits,
+            amountRemainingUnits)
+        == 0) {
+      log.debug("Invoice {} changed while it was being settled", invoice.getInvoiceId());
+      return this.invoiceStore.findById(invoice.getInvoiceId()).orElse(invoice);
+    }
+
+    invoice.setInvoiceStatus(status);
+    invoice.setAmountPaidUnits(amountPaidUnits);
+    invoice.setAmountRemainingUnits(amountRemainingUnits);
+    changed(invoice, previousStatus);
+    if (status == previousStatus) {
+      // -- a further partial payment does not change the status, but is still recorded.
+      return invoice;
+    }
+    if (status == PAID) {
       log.info("Invoice {} has been paid", invoice.getInvoiceId());
-      deferredResult.setResult(invoice);
-    } else if (isPartiallyPaid(invoice) && invoice.getInvoiceStatus() != PARTIALLY_PAID) {
-      invoice.setInvoiceStatus(PARTIALLY_PAID);
-      this.invoiceRepository.save(invoice);
+    } else {
       log.info(
           "Invoice {} has been partially paid.  Current amount paid {} {}",
           invoice.getInvoiceId(),
           invoice.getAmountPaid(),
           invoice.getCurrency());
-      deferredResult.setResult(invoice);
-    } else {
-      deferredResult.setResult(invoice);
     }
+    return invoice;
   }
 
-  private void setAmountRemaining(Invoice invoice, BlockchainIntegration blockchainIntegration) {
-    BigDecimal amountRemaining =
-        new BigDecimal(invoice.getInvoiceAmount())
-            .subtract(new BigDecimal(invoice.getAmountPaid()));
-    if (amountRemaining.compareTo(BigDecimal.ZERO) < 0) {
-      invoice.setAmountRemaining(toString(BigDecimal.ZERO, blockchainIntegration));
-    } else {
-      invoice.setAmountRemaining(toString(amountRemaining, blockchainIntegration));
+  @Override
+  public void createInvoice(
+      InvoiceCreateRequest request, String idempotencyKey, DeferredResult<Invoice> deferredResult)
+      throws BadRequestException, UnknownIntegrationException {
+
+    // validate the create request
+    validate(request, idempotencyKey);
+
+    // -- fetch the blockchain integration
+    BlockchainIntegration blockchainIntegration = integrationFor(request);
+    validateAmount(request, blockchainIntegration);
+
+    createOnce(request, blockchainIntegration, idempotencyKey)
+        .subscribe(
+            deferredResult::setResult,
+            // -- e.g. a ChainUnavailableException when the chain is timing out or shedding calls.
+            deferredResult::setErrorResult);
+  }
+
+  @Override
+  public Mono<Invoice> createInvoice(InvoiceCreateRequest request, String idempotencyKey) {
+    return Mono.fromCallable(
+            () -> {
+              validate(request, idempotencyKey);
+              BlockchainIntegration blockchainIntegration = integrationFor(request);
+              validateAmount(request, blockchainIntegration);
+              return blockchainIntegration;
+            })
+        .flatMap(
+            (blockchainIntegration) ->
+                createOnce(request, blockchainIntegration, idempotencyKey));
+  }
+
+  /**
+   * Create the invoice or, given an idempotency key, return the invoice created with it. Requests
+   * arriving while the key is in flight wait on that creation. A completed key is looked up in the
+   * {@link IdempotencyIndex}, then in the table, and only a key found in neither claims an address.
+   * Should another instance insert the same key first, the unique index rejects this insert and the
+   * invoice of the other instance is returned instead.
+   */
+  private Mono<Invoice> createOnce(
+      InvoiceCreateRequest request,
+      BlockchainIntegration blockchainIntegration,
+      String idempotencyKey) {
+    if (idempotencyKey == null) {
+      return create(request, blockchainIntegration, null);
     }
+    return this.idempotencyIndex
+        .once(
+            idempotencyKey,
+            () ->
+                stored(idempotencyKey)
+                    .switchIfEmpty(
+                        create(request, blockchainIntegration, idempotencyKey)
+                            .onErrorResume(
+                                DataIntegrityViolationException.class,
+                                (e) ->
+                                    findByIdempotencyKey(idempotencyKey)
+                                        .switchIfEmpty(Mono.error(e)))))
+        .flatMap((invoice) -> sameRequest(request, blockchainIntegration, invoice));
   }
 
+  /**
+   * Claim a crypto address on the chain, pre-created by the pool where possible, then insert the
+   * invoice through R2DBC when running as a reactive web application on the database, so that no
+   * thread waits on the chain or the database, and otherwise into the {@link InvoiceStore} on the
+   * {@link InvoiceExecutor}. Should the insert fail, the address goes back to the pool.
+   */
+  private Mono<Invoice> create(
+      InvoiceCreateRequest request,
+      BlockchainIntegration blockchainIntegration,
+      String idempotencyKey) {
+    return this.cryptoAddressPool
+        .claim(blockchainIntegration)
+        .map(
+            (a) -> {
+              Invoice invoice = newInvoice(request, blockchainIntegration, a);
+              if (idempotencyKey != null) {
+                invoice.setIdempotencyKey(idempotencyKey);
+                invoice.setDueInSeconds(request.getDueInSeconds());
+              }
+              return invoice;
+            })
+        .flatMap(
+            (invoice) ->
+                insert(invoice)
+                    // -- e.g. the loser of a race on the idempotency key, whose address is unused.
+                    .onErrorResume(
+                        (e) ->
+                            this.cryptoAddressPool
+                                .release(blockchainIntegration, invoice.getCryptoAddress())
+                                .then(Mono.error(e))))
+        .doOnNext((invoice) -> changed(invoice, null));
+  }
+
+  private Mono<Invoice> insert(Invoice invoice) {
+    return this.reactiveInvoiceRepository != null
+        ? this.reactiveInvoiceRepository.insert(invoice)
+        : onExecutor(Mono.fromCallable(() -> this.invoiceStore.save(invoice)));
+  }
+
+  private Mono<Invoice> stored(String idempotencyKey) {
+    return Mono.defer(
+        () ->
+            this.idempotencyIndex
+                .invoiceId(idempotencyKey)
+                .map(this::getInvoice)
+                .orElseGet(() -> findByIdempotencyKey(idempotencyKey)));
+  }
+
+  private Mono<Invoice> findByIdempotencyKey(String key) {
+    return this.reactiveInvoiceRepository != null
+        ? this.reactiveInvoiceRepository.findByIdempotencyKey(key)
+        : onExecutor(Mono.fromCallable(() -> this.invoiceStore.findByIdempotencyKey(key)))
+            .flatMap(Mono::justOrEmpty);
+  }
+
+  /** A key reused for a different invoice is a client error, rather than a retry to answer. */
+  private Mono<Invoice> sameRequest(
+      InvoiceCreateRequest request, BlockchainIntegration blockchainIntegration, Invoice invoice) {
+    long invoiceAmountUnits =
+        toUnits(
+            new BigDecimal(request.getInvoiceAmount()),
+            invoice.getAmountScale(),
+            blockchainIntegration.getRoundingMode());
+    boolean same =
+        invoiceAmountUnits == invoice.getInvoiceAmountUnits()
+            && request.getCurrency().equals(invoice.getCurrency())
+            && request.getChain().equals(invoice.getChain())
+            && Objects.equals(request.getChainEnvironment(), invoice.getChainEnvironment())
+            && Objects.equals(request.getCallbackUrl(), invoice.getCallbackUrl())
+            // -- invoices keyed before due_in_seconds was stored cannot be told apart by it.
+            && (invoice.getDueInSeconds() == null
+                || invoice.getDueInSeconds() == request.getDueInSeconds());
+    return same
+        ? Mono.just(invoice)
+        : Mono.error(
+            new BadRequestException("Idempotency-Key was already used for a different invoice"));
+  }
+
+  /**
+   * Every invoice of the batch is answered with exactly one result, so a bad request or a failed
+   * address claim fails that invoice alone and the rest of the batch carries on. Addresses are
+   * claimed with bounded parallelism and the invoices inserted in JDBC batches, each result being
+   * emitted as soon as its batch is stored.
+   */
   @Override
-  public void createInvoice(InvoiceCreateRequest request, DeferredResult<Invoice> deferredResult)
-      throws BadRequestException, UnknownIntegrationException {
+  public Flux<InvoiceBatchResult> createInvoices(List<InvoiceCreateRequest> requests)
+      throws BadRequestException {
 
-    // validate the create request
+    if (requests == null || requests.isEmpty()) {
+      throw new BadRequestException("Missing invoices");
+    }
+    if (requests.size() > batchMaximumSize) {
+      throw new BadRequestException(
+          String.format("A batch may contain at most %d invoices", batchMaximumSize));
+    }
+    return Flux.range(0, requests.size())
+        .flatMap((i) -> unsaved(i, requests.get(i)), batchAddressParallelism)
+        .bufferTimeout(batchInsertSize, BATCH_INSERT_MAX_WAIT)
+        .concatMap(this::saveAll);
+  }
+
+  /** The invoice for one request of a batch, ready to be stored, or the reason it failed. */
+  private Mono<InvoiceBatchResult> unsaved(int index, InvoiceCreateRequest request) {
+    return Mono.fromCallable(
+            () -> {
+              validate(request);
+              BlockchainIntegration blockchainIntegration = integrationFor(request);
+              validateAmount(request, blockchainIntegration);
+              return blockchainIntegration;
+            })
+        .flatMap(
+            (blockchainIntegration) ->
+                this.cryptoAddressPool
+                    .claim(blockchainIntegration)
+                    .map((a) -> newInvoice(request, blockchainIntegration, a)))
+        .map(
+            (invoice) ->
+                InvoiceBatchResult.builder()
+                    .index(index)
+                    .status(HttpStatus.OK.value())
+                    .invoice(invoice)
+                    .build())
+        .onErrorResume((e) -> Mono.just(failed(index, e)));
+  }
+
+  /**
+   * Store the invoices of a buffer in one go; should that fail, each of them fails with it and
+   * their addresses go back to the pool.
+   */
+  private Flux<InvoiceBatchResult> saveAll(List<InvoiceBatchResult> results) {
+    List<InvoiceBatchResult> unsaved =
+        results.stream().filter((r) -> r.getInvoice() != null).collect(Collectors.toList());
+    if (unsaved.isEmpty()) {
+      return Flux.fromIterable(results);
+    }
+    List<Invoice> invoices =
+        unsaved.stream().map(InvoiceBatchResult::getInvoice).collect(Collectors.toList());
+    return onExecutor(Mono.fromCallable(() -> this.invoiceStore.saveAll(invoices)))
+        .map(
+            (saved) -> {
+              for (int i = 0; i < saved.size(); i++) {
+                unsaved.get(i).setInvoice(saved.get(i));
+                changed(saved.get(i), null);
+              }
+              return results;
+            })
+        .onErrorResume(
+            (e) -> {
+              log.warn("Failed to store a batch of {} invoices", invoices.size(), e);
+              return Flux.fromIterable(invoices)
+                  .concatMap(this::release)
+                  .then(
+                      Mono.fromCallable(
+                          () ->
+                              results.stream()
+                                  .map((r) -> r.getInvoice() != null ? failed(r.getIndex(), e) : r)
+                                  .collect(Collectors.toList())));
+            })
+        .flatMapIterable((r) -> r);
+  }
+
+  /** The status is the one the error would have been answered with for a single invoice. */
+  private InvoiceBatchResult failed(int index, Throwable error) {
+    ResponseStatus responseStatus =
+        AnnotatedElementUtils.findMergedAnnotation(error.getClass(), ResponseStatus.class);
+    HttpStatus status =
+        responseStatus != null ? responseStatus.code() : HttpStatus.INTERNAL_SERVER_ERROR;
+    return InvoiceBatchResult.builder()
+        .index(index)
+        .status(status.value())
+        .error(responseStatus != null ? error.getMessage() : status.getReasonPhrase())
+        .build();
+  }
+
+  /**
+   * Complete the deferred result with the work run on the {@link InvoiceExecutor}, so the web
+   * thread returns at once. Errors, including a full executor, complete it as error results.
+   */
+  private <T> void dispatch(DeferredResult<T> deferredResult, Callable<T> work) {
+    try {
+      this.invoiceExecutor.execute(
+          () -> {
+            try {
+              deferredResult.setResult(work.call());
+            } catch (Exception e) {
+              deferredResult.setErrorResult(e);
+            }
+          });
+    } catch (ServiceBusyException e) {
+      deferredResult.setErrorResult(e);
+    }
+  }
+
+  private <T> Mono<T> onExecutor(Mono<T> work) {
+    return work.subscribeOn(this.invoiceExecutor.scheduler())
+        .onErrorMap(this.invoiceExecutor::rejectedAsBusy);
+  }
+
+  private void validate(InvoiceCreateRequest request, String idempotencyKey)
+      throws BadRequestException {
+    validate(request);
+    if (idempotencyKey != null
+        && (idempotencyKey.isEmpty() || idempotencyKey.length() > IDEMPOTENCY_KEY_MAXIMUM_LENGTH)) {
+      throw new BadRequestException(
+          String.format(
+              "Idempotency-Key must be between 1 and %d characters",
+              IDEMPOTENCY_KEY_MAXIMUM_LENGTH));
+    }
+  }
+
+  private void validate(InvoiceCreateRequest request) throws BadRequestException {
     if (request.getChain() == null) {
       throw new BadRequestException("Missing chain");
     }
@@ -126,69 +558,108 @@ public class InvoiceServiceImpl implements InvoiceService {
     } catch (NumberFormatException e) {
       throw new BadRequestException("invoice_amount must be a numeric value");
     }
+    if (request.getCallbackUrl() != null) {
+      try {
+        URI callbackUrl = new URI(request.getCallbackUrl());
+        boolean http =
+            "http".equalsIgnoreCase(callbackUrl.getScheme())
+                || "https".equalsIgnoreCase(callbackUrl.getScheme());
+        if (!http || callbackUrl.getHost() == null) {
+          throw new BadRequestException("callback_url must be an http or https URL");
+        }
+        if (!this.callbackUrlPolicy.isAcceptable(callbackUrl)) {
+          throw new BadRequestException("callback_url must not point to a local or private host");
+        }
+      } catch (URISyntaxException e) {
+        throw new BadRequestException("callback_url must be an http or https URL");
+      }
+    }
+  }
 
-    // -- fetch the blockchain integration
-    BlockchainIntegration blockchainIntegration =
-        this.blockchainIntegrationFactory.getIntegration(
-            request.getChain(),
-            Optional.ofNullable(request.getChainEnvironment()).orElse("default"));
-
-    // -- create a new crypto address on the chain
-    Mono<String> cryptoAddress = blockchainIntegration.createNewCryptoAddress();
-    cryptoAddress
-        // -- I couldn't figure out how to trigger an exception properly
-        .doOnError((e) -> new BadRequestException(e.getMessage()))
-        .subscribe(
-            (a) -> {
-              // create and save the invoice.
-              Invoice invoice =
-                  this.invoiceRepository.save(
-                      Invoice.builder()
-                          .invoiceAmount(request.getInvoiceAmount())
-                          .invoiceStatus(InvoiceStatus.NEW)
-                          .amountRemaining(request.getInvoiceAmount())
-                          .amountPaid(
-                              BigDecimal.ZERO
-                                  .setScale(
-                                      blockchainIntegration.getDecimalPrecision(),
-                                      blockchainIntegration.getRoundingMode())
-                                  .toPlainString())
-                          .chain(request.getChain())
-                          .chainEnvironment(request.getChainEnvironment())
-                          .cryptoAddress(a)
-                          .dueDate(
-                              Instant.now().plus(request.getDueInSeconds(), ChronoUnit.SECONDS))
-                          .currency(request.getCurrency())
-                          .build());
-              deferredResult.setResult(invoice);
-            });
-  }
-
-  private String toString(BigDecimal amount, BlockchainIntegration blockchainIntegration) {
-    return amount
-        .setScale(
-            blockchainIntegration.getDecimalPrecision(), blockchainIntegration.getRoundingMode())
-        .toPlainString();
+  /**
+   * The amount must be a whole, non-zero number of minor units of its chain: more decimals than the
+   * chain has are rejected rather than rounded away, as is an amount too large to count in units.
+   */
+  private void validateAmount(
+      InvoiceCreateRequest request, BlockchainIntegration blockchainIntegration)
+      throws BadRequestException {
+    BigDecimal amount = new BigDecimal(request.getInvoiceAmount());
+    int scale = blockchainIntegration.getDecimalPrecision();
+    if (amount.stripTrailingZeros().scale() > scale) {
+      throw new BadRequestException(
+          String.format("invoice_amount may have at most %d decimals", scale));
+    }
+    // -- checked before scaling, so that an exponent such as 1E999999999 is not expanded.
+    if (amount.precision() - amount.scale() > MAXIMUM_AMOUNT_INTEGER_DIGITS) {
+      throw new BadRequestException("invoice_amount is too large");
+    }
+    long invoiceAmountUnits;
+    try {
+      invoiceAmountUnits = toUnits(amount, scale, blockchainIntegration.getRoundingMode());
+    } catch (ArithmeticException e) {
+      throw new BadRequestException("invoice_amount is too large");
+    }
+    if (invoiceAmountUnits <= 0) {
+      throw new BadRequestException("invoice_amount must be at least one minor unit");
+    }
   }
 
-  private boolean isComplete(InvoiceStatus status) {
-    return status.equals(InvoiceStatus.PAID) || status.equals(InvoiceStatus.EXPIRED);
+  /** Return the address of an invoice that could not be stored to the pool it was claimed from. */
+  private Mono<Void> release(Invoice invoice) {
+    return Mono.fromCallable(
+            () -> integrationFor(invoice.getChain(), invoice.getChainEnvironment()))
+        .flatMap(
+            (blockchainIntegration) ->
+                this.cryptoAddressPool.release(blockchainIntegration, invoice.getCryptoAddress()))
+        .onErrorResume((e) -> Mono.empty());
   }
 
-  private boolean isExpired(Invoice invoice) {
-    return invoice.getDueDate().isBefore(Instant.now());
+  private BlockchainIntegration integrationFor(InvoiceCreateRequest request)
+      throws UnknownIntegrationException {
+    return integrationFor(request.getChain(), request.getChainEnvironment());
   }
 
-  private boolean isPaid(Invoice invoice) {
-    return new BigDecimal(invoice.getAmountPaid())
-            .compareTo(new BigDecimal(invoice.getInvoiceAmount()))
-        >= 0;
+  private BlockchainIntegration integrationFor(String chain, String chainEnvironment)
+      throws UnknownIntegrationException {
+    return this.blockchainIntegrationFactory.getIntegration(
+        chain, Optional.ofNullable(chainEnvironment).orElse("default"));
   }
 
-  private boolean isPartiallyPaid(Invoice invoice) {
-    return new BigDecimal(invoice.getAmountPaid())
-                .compareTo(new BigDecimal(invoice.getInvoiceAmount()))
-            < 0
-        && new BigDecimal(invoice.getAmountPaid()).compareTo(BigDecimal.ZERO) > 0;
+  private Invoice newInvoice(
+      InvoiceCreateRequest request, BlockchainIntegration blockchainIntegration, String address) {
+    int scale = blockchainIntegration.getDecimalPrecision();
+    long invoiceAmountUnits =
+        toUnits(
+            new BigDecimal(request.getInvoiceAmount()),
+            scale,
+            blockchainIntegration.getRoundingMode());
+    return Invoice.builder()
+        .invoiceAmountUnits(invoiceAmountUnits)
+        .invoiceStatus(InvoiceStatus.NEW)
+        .amountRemainingUnits(invoiceAmountUnits)
+        .amountPaidUnits(0)
+        .amountScale(scale)
+        .chain(request.getChain())
+        .chainEnvironment(request.getChainEnvironment())
+        .cryptoAddress(address)
+        .dueDate(Instant.now().plus(request.getDueInSeconds(), ChronoUnit.SECONDS))
+        .currency(request.getCurrency())
+        .callbackUrl(request.getCallbackUrl())
+        .build();
+  }
+
+  private void changed(Invoice invoice, InvoiceStatus previousStatus) {
+    this.eventPublisher.publishEvent(
+        new InvoiceChangedEvent(
+            invoice.getInvoiceId(), previousStatus, invoice.getInvoiceStatus(), invoice));
+  }
+
+  /** Convert a decimal amount into a whole number of minor units at the given scale. */
+  private long toUnits(BigDecimal amount, int scale, RoundingMode roundingMode) {
+    return amount.setScale(scale, roundingMode).unscaledValue().longValueExact();
+  }
+
+  private boolean isComplete(InvoiceStatus status) {
+    return status.equals(InvoiceStatus.PAID) || status.equals(InvoiceStatus.EXPIRED);
   }
 }
@@ -0,0 +1,242 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import static com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus.NEW;
+import static com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus.PARTIALLY_PAID;
+
+import com.chrisopler.cryptoinvoices.server.blockchain.BlockchainIntegration;
+import com.chrisopler.cryptoinvoices.server.blockchain.BlockchainIntegrationFactory;
+import com.chrisopler.cryptoinvoices.server.cluster.InvoicePartitions;
+import com.chrisopler.cryptoinvoices.server.errors.UnknownIntegrationException;
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Periodically scans the open invoices and reconciles them with their chains, so that reading an
+ * invoice never has to wait on a blockchain.
+ *
+ * <p>Open invoices are read in pages, grouped by integration and their balances looked up in one
+ * batch per integration, the results being stored with a bounded number of concurrent updates.
+ * Integrations that stream payments are told which addresses to watch instead, and are only polled
+ * every few scans to reconcile. When several instances share the database, each only settles the
+ * invoices in the {@link InvoicePartitions} it holds.
+ */
+@Slf4j
+@Component
+public class InvoiceSettlementEngine {
+
+  private static final List<InvoiceStatus> OPEN_STATUSES = Arrays.asList(NEW, PARTIALLY_PAID);
+
+  private final InvoiceStore invoiceStore;
+  private final InvoiceService invoiceService;
+  private final BlockchainIntegrationFactory blockchainIntegrationFactory;
+  private final InvoicePartitions invoicePartitions;
+  private final int batchSize;
+  private final int concurrency;
+  private final int streamReconcileEvery;
+  private final Disposable.Composite paymentSubscriptions = Disposables.composite();
+  private long scans = 0;
+
+  public InvoiceSettlementEngine(
+      InvoiceStore invoiceStore,
+      InvoiceService invoiceService,
+      BlockchainIntegrationFactory blockchainIntegrationFactory,
+      InvoicePartitions invoicePartitions,
+      @Value("${invoices.settlement.batch-size:500}") int batchSize,
+      @Value("${invoices.settlement.concurrency:8}") int concurrency,
+      @Value("${invoices.settlement.stream-reconcile-every:30}") int streamReconcileEvery) {
+    if (streamReconcileEvery < 1) {
+      throw new IllegalArgumentException(
+          "invoices.settlement.stream-reconcile-every must be at least 1, was "
+              + streamReconcileEvery);
+    }
+    this.invoiceStore = invoiceStore;
+    this.invoiceService = invoiceService;
+    this.blockchainIntegrationFactory = blockchainIntegrationFactory;
+    this.invoicePartitions = invoicePartitions;
+    this.batchSize = batchSize;
+    this.concurrency = concurrency;
+    this.streamReconcileEvery = streamReconcileEvery;
+  }
+
+  /** Settle the invoices paid to an address as soon as an integration pushes the payment. */
+  @PostConstruct
+  public void subscribeToPaymentNotifications() {
+    this.blockchainIntegrationFactory
+        .getIntegrations()
+        .forEach(
+            (blockchainIntegration) ->
+                this.paymentSubscriptions.add(
+                    blockchainIntegration
+                        .paymentNotifications()
+                        .flatMap(
+                            (cryptoAddress) -> settleAddress(blockchainIntegration, cryptoAddress),
+                            concurrency)
+                        .subscribe()));
+  }
+
+  @PreDestroy
+  public void unsubscribeFromPaymentNotifications() {
+    this.paymentSubscriptions.dispose();
+  }
+
+  @Scheduled(fixedDelayString = "${invoices.settlement.interval-ms:2000}")
+  public void settleOpenInvoices() {
+    // -- streamed integrations only need an occasional poll to catch payments missed on reconnect.
+    boolean reconcile = this.scans++ % streamReconcileEvery == 0;
+    Map<BlockchainIntegration, Set<String>> watched = new HashMap<>();
+
+    String lastInvoiceId = "";
+    List<Invoice> batch;
+    do {
+      batch = this.invoiceStore.findByStatus(OPEN_STATUSES, lastInvoiceId, batchSize);
+      if (batch.isEmpty()) {
+        break;
+      }
+      lastInvoiceId = batch.get(batch.size() - 1).getInvoiceId();
+      settleBatch(batch, reconcile, watched);
+    } while (batch.size() == batchSize);
+
+    this.blockchainIntegrationFactory.getIntegrations().stream()
+        .filter(BlockchainIntegration::isStreamingPayments)
+        .forEach(
+            (i) -> i.watchAddresses(watched.getOrDefault(i, Collections.emptySet())));
+  }
+
+  private void settleBatch(
+      List<Invoice> batch, boolean reconcile, Map<BlockchainIntegration, Set<String>> watched) {
+    Map<BlockchainIntegration, List<Invoice>> byIntegration = new HashMap<>();
+    Instant now = Instant.now();
+    for (Invoice invoice : batch) {
+      if (invoice.getDueDate().isBefore(now)) {
+        // -- overdue invoices are left to the expiry sweeper.
+        continue;
+      }
+      if (!this.invoicePartitions.owns(invoice.getInvoiceId())) {
+        continue;
+      }
+      BlockchainIntegration blockchainIntegration;
+      try {
+        blockchainIntegration = integrationFor(invoice);
+      } catch (UnknownIntegrationException e) {
+        log.warn("Unable to settle invoice {}: {}", invoice.getInvoiceId(), e.getMessage());
+        continue;
+      }
+      if (blockchainIntegration.isStreamingPayments()) {
+        watched
+            .computeIfAbsent(blockchainIntegration, (i) -> new HashSet<>())
+            .add(invoice.getCryptoAddress());
+        if (!reconcile) {
+          continue;
+        }
+      }
+      byIntegration.computeIfAbsent(blockchainIntegration, (i) -> new ArrayList<>()).add(invoice);
+    }
+
+    // -- integrations are checked side by side.
+    Mono.when(
+            byIntegration.entrySet().stream()
+                .map((e) -> settleIntegration(e.getKey(), e.getValue()))
+                .collect(Collectors.toList()))
+        .block();
+  }
+
+  private Mono<Void> settleIntegration(
+      BlockchainIntegration blockchainIntegration, List<Invoice> invoices) {
+    Map<String, List<Invoice>> byAddress =
+        invoices.stream().collect(Collectors.groupingBy(Invoice::getCryptoAddress));
+    return blockchainIntegration
+        .getBalances(byAddress.keySet())
+        .flatMap(
+            (lookup) -> {
+              if (lookup.isFailed()) {
+                log.warn(
+                    "Unable to check the balance of {}: {}",
+                    lookup.getCryptoAddress(),
+                    lookup.getError().getMessage());
+                return Mono.empty();
+              }
+              // -- only the persistence of the result blocks.
+              return Flux.fromIterable(byAddress.get(lookup.getCryptoAddress()))
+                  .publishOn(Schedulers.boundedElastic())
+                  .map(
+                      (invoice) ->
+                          this.invoiceService.settle(
+                              invoice, lookup.getBalance(), blockchainIntegration))
+                  .onErrorResume(
+                      (e) -> {
+                        log.warn(
+                            "Unable to settle the invoices for {}: {}",
+                            lookup.getCryptoAddress(),
+                            e.getMessage());
+                        return Mono.empty();
+                      })
+                  .then();
+            },
+            concurrency)
+        .then();
+  }
+
+  private Mono<Void> settleAddress(
+      BlockchainIntegration blockchainIntegration, String cryptoAddress) {
+    return Mono.fromCallable(() -> this.invoiceStore.findByCryptoAddress(cryptoAddress))
+        .subscribeOn(Schedulers.boundedElastic())
+        .flatMapMany(Flux::fromIterable)
+        .filter(
+            (invoice) ->
+                OPEN_STATUSES.contains(invoice.getInvoiceStatus())
+                    && !invoice.getDueDate().isBefore(Instant.now())
+                    && this.invoicePartitions.owns(invoice.getInvoiceId()))
+        .flatMap((invoice) -> settleInvoice(blockchainIntegration, invoice))
+        .onErrorResume(
+            (e) -> {
+              log.warn("Unable to settle the invoices for {}: {}", cryptoAddress, e.getMessage());
+              return Mono.empty();
+            })
+        .then();
+  }
+
+  private Mono<Invoice> settleInvoice(
+      BlockchainIntegration blockchainIntegration, Invoice invoice) {
+    return blockchainIntegration
+        .getBalance(invoice.getCryptoAddress())
+        // -- only the persistence of the result blocks.
+        .publishOn(Schedulers.boundedElastic())
+        .map((balance) -> this.invoiceService.settle(invoice, balance, blockchainIntegration))
+        .onErrorResume(
+            (e) -> {
+              log.warn(
+                  "Unable to check the balance of invoice {}: {}",
+                  invoice.getInvoiceId(),
+                  e.getMessage());
+              return Mono.empty();
+            });
+  }
+
+  private BlockchainIntegration integrationFor(Invoice invoice)
+      throws UnknownIntegrationException {
+    return this.blockchainIntegrationFactory.getIntegration(
+        invoice.getChain(), Optional.ofNullable(invoice.getChainEnvironment()).orElse("default"));
+  }
+}
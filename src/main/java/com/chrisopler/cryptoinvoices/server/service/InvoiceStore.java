@@ -0,0 +1,70 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Where invoices are kept. The {@link JpaInvoiceStore} keeps them in the database and is used by
+ * default, {@code invoices.store.type=log} keeps them in an append-only log on local disk instead.
+ *
+ * <p>Invoices returned are copies the caller may change, and a change only reaches the store
+ * through {@link #save}, {@link #transition} or {@link #expire}.
+ */
+public interface InvoiceStore {
+
+  Optional<Invoice> findById(String invoiceId);
+
+  List<Invoice> findAllById(Collection<String> invoiceIds);
+
+  boolean existsById(String invoiceId);
+
+  Optional<Invoice> findByIdempotencyKey(String idempotencyKey);
+
+  List<Invoice> findByCryptoAddress(String cryptoAddress);
+
+  /**
+   * Seek through the invoices in the given statuses ordered by id. Pass the last id of the
+   * previous page, or an empty string for the first page.
+   */
+  List<Invoice> findByStatus(
+      Collection<InvoiceStatus> statuses, String afterInvoiceId, int limit);
+
+  /** A page of the invoices matching the filter, in (due_date, invoice_id) order. */
+  List<Invoice> findPage(InvoiceFilter filter, InvoiceCursor after, int limit);
+
+  /**
+   * Store an invoice, giving it an id if it has none.
+   *
+   * @return the invoice as stored
+   * @throws org.springframework.dao.DataIntegrityViolationException when another invoice was
+   *     created with the same idempotency key
+   */
+  Invoice save(Invoice invoice);
+
+  List<Invoice> saveAll(List<Invoice> invoices);
+
+  /**
+   * Record a payment, provided the invoice is still in the status and has the amount paid it was
+   * read with.
+   *
+   * @return 1 if the payment was recorded, 0 if the invoice had changed since it was read
+   */
+  int transition(
+      String invoiceId,
+      InvoiceStatus expectedStatus,
+      long expectedAmountPaidUnits,
+      InvoiceStatus status,
+      long amountPaidUnits,
+      long amountRemainingUnits);
+
+  /**
+   * Expire the given invoices that are still in one of the statuses and overdue at {@code now}.
+   *
+   * @return the number of invoices expired
+   */
+  int expire(Collection<String> invoiceIds, Collection<InvoiceStatus> statuses, Instant now);
+}
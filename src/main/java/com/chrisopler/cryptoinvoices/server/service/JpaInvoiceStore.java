@@ -0,0 +1,93 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+/** Keeps invoices in the invoices table through the {@link InvoiceRepository}. */
+@Component
+@ConditionalOnProperty(name = "invoices.store.type", havingValue = "jpa", matchIfMissing = true)
+public class JpaInvoiceStore implements InvoiceStore {
+
+  private final InvoiceRepository invoiceRepository;
+
+  public JpaInvoiceStore(InvoiceRepository invoiceRepository) {
+    this.invoiceRepository = invoiceRepository;
+  }
+
+  @Override
+  public Optional<Invoice> findById(String invoiceId) {
+    return this.invoiceRepository.findById(invoiceId);
+  }
+
+  @Override
+  public List<Invoice> findAllById(Collection<String> invoiceIds) {
+    return this.invoiceRepository.findAllById(invoiceIds);
+  }
+
+  @Override
+  public boolean existsById(String invoiceId) {
+    return this.invoiceRepository.existsById(invoiceId);
+  }
+
+  @Override
+  public Optional<Invoice> findByIdempotencyKey(String idempotencyKey) {
+    return this.invoiceRepository.findByIdempotencyKey(idempotencyKey);
+  }
+
+  @Override
+  public List<Invoice> findByCryptoAddress(String cryptoAddress) {
+    return this.invoiceRepository.findByCryptoAddress(cryptoAddress);
+  }
+
+  @Override
+  public List<Invoice> findByStatus(
+      Collection<InvoiceStatus> statuses, String afterInvoiceId, int limit) {
+    return this.invoiceRepository.findByInvoiceStatusInAndInvoiceIdGreaterThanOrderByInvoiceId(
+        statuses, afterInvoiceId, PageRequest.of(0, limit));
+  }
+
+  @Override
+  public List<Invoice> findPage(InvoiceFilter filter, InvoiceCursor after, int limit) {
+    return this.invoiceRepository.findPage(filter, after, limit);
+  }
+
+  @Override
+  public Invoice save(Invoice invoice) {
+    return this.invoiceRepository.save(invoice);
+  }
+
+  @Override
+  public List<Invoice> saveAll(List<Invoice> invoices) {
+    return this.invoiceRepository.saveAll(invoices);
+  }
+
+  @Override
+  public int transition(
+      String invoiceId,
+      InvoiceStatus expectedStatus,
+      long expectedAmountPaidUnits,
+      InvoiceStatus status,
+      long amountPaidUnits,
+      long amountRemainingUnits) {
+    return this.invoiceRepository.transition(
+        invoiceId,
+        expectedStatus,
+        expectedAmountPaidUnits,
+        status,
+        amountPaidUnits,
+        amountRemainingUnits);
+  }
+
+  @Override
+  public int expire(
+      Collection<String> invoiceIds, Collection<InvoiceStatus> statuses, Instant now) {
+    return this.invoiceRepository.expire(invoiceIds, statuses, now, InvoiceStatus.EXPIRED);
+  }
+}
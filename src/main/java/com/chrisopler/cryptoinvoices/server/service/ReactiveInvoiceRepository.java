@@ -0,0 +1,193 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import com.chrisopler.cryptoinvoices.server.metrics.RepositoryMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import io.r2dbc.spi.Row;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.UUID;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.r2dbc.core.DatabaseClient.GenericExecuteSpec;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reads and writes invoices through R2DBC, so that the reactive request path never blocks a
+ * thread on the database. It works on the same schema as the JPA {@link InvoiceRepository}, which
+ * still serves the settlement engine and the expiry sweeper, and is only created when the
+ * application runs as a reactive web application with invoices in the database.
+ *
+ * <p>The connection pool is owned by the repository rather than exposed as a bean, since a
+ * connection factory in the context would stand in for the JDBC data source that JPA and Flyway
+ * need.
+ */
+@Repository
+@ConditionalOnWebApplication(type = Type.REACTIVE)
+@ConditionalOnProperty(name = "invoices.store.type", havingValue = "jpa", matchIfMissing = true)
+public class ReactiveInvoiceRepository implements DisposableBean {
+
+  private static final String COLUMNS =
+      "invoice_id, invoice_amount_units, amount_paid_units, amount_remaining_units, amount_scale,"
+          + " crypto_address, currency, chain, chain_environment, invoice_status, due_date,"
+          + " callback_url, idempotency_key, due_in_seconds";
+
+  private final ConnectionPool connectionPool;
+  private final DatabaseClient databaseClient;
+  private final MeterRegistry meterRegistry;
+
+  public ReactiveInvoiceRepository(
+      MeterRegistry meterRegistry,
+      @Value("${invoices.reactive.r2dbc.url:r2dbc:h2:mem:///testdb}") String url,
+      @Value("${invoices.reactive.r2dbc.username:${spring.datasource.username:sa}}")
+          String username,
+      @Value("${invoices.reactive.r2dbc.password:${spring.datasource.password:}}")
+          String password,
+      @Value("${invoices.reactive.r2dbc.pool-size:10}") int poolSize) {
+    this.meterRegistry = meterRegistry;
+    ConnectionFactoryOptions options =
+        ConnectionFactoryOptions.parse(url)
+            .mutate()
+            .option(ConnectionFactoryOptions.USER, username)
+            .option(ConnectionFactoryOptions.PASSWORD, password)
+            .build();
+    this.connectionPool =
+        new ConnectionPool(
+            ConnectionPoolConfiguration.builder(ConnectionFactories.get(options))
+                .initialSize(0)
+                .maxSize(poolSize)
+                .maxIdleTime(Duration.ofMinutes(30))
+                .build());
+    this.databaseClient = DatabaseClient.create(this.connectionPool);
+  }
+
+  public Mono<Invoice> findById(String invoiceId) {
+    return timed(
+        "findById",
+        this.databaseClient
+            .sql("SELECT " + COLUMNS + " FROM invoices WHERE invoice_id = :invoiceId")
+            .bind("invoiceId", invoiceId)
+            .map((row, metadata) -> toInvoice(row))
+            .one());
+  }
+
+  public Mono<Invoice> findByIdempotencyKey(String idempotencyKey) {
+    return timed(
+        "findByIdempotencyKey",
+        this.databaseClient
+            .sql("SELECT " + COLUMNS + " FROM invoices WHERE idempotency_key = :idempotencyKey")
+            .bind("idempotencyKey", idempotencyKey)
+            .map((row, metadata) -> toInvoice(row))
+            .one());
+  }
+
+  /**
+   * Insert a new invoice, giving it an id.
+   *
+   * @return the invoice as stored
+   */
+  public Mono<Invoice> insert(Invoice invoice) {
+    return Mono.defer(
+        () -> {
+          // -- the same 32 hex digit form as the ids generated by JPA.
+          invoice.setInvoiceId(UUID.randomUUID().toString().replace("-", ""));
+          GenericExecuteSpec insert =
+              this.databaseClient
+                  .sql(
+                      "INSERT INTO invoices ("
+                          + COLUMNS
+                          + ") VALUES (:invoiceId, :invoiceAmountUnits, :amountPaidUnits,"
+                          + " :amountRemainingUnits, :amountScale, :cryptoAddress, :currency,"
+                          + " :chain, :chainEnvironment, :invoiceStatus, :dueDate, :callbackUrl,"
+                          + " :idempotencyKey, :dueInSeconds)")
+                  .bind("invoiceId", invoice.getInvoiceId())
+                  .bind("invoiceAmountUnits", invoice.getInvoiceAmountUnits())
+                  .bind("amountPaidUnits", invoice.getAmountPaidUnits())
+                  .bind("amountRemainingUnits", invoice.getAmountRemainingUnits())
+                  .bind("amountScale", invoice.getAmountScale())
+                  .bind("cryptoAddress", invoice.getCryptoAddress())
+                  .bind("currency", invoice.getCurrency())
+                  .bind("chain", invoice.getChain())
+                  .bind("invoiceStatus", invoice.getInvoiceStatus().ordinal())
+                  .bind("dueDate", toTimestamp(invoice));
+          insert = bindNullable(insert, "chainEnvironment", invoice.getChainEnvironment());
+          insert = bindNullable(insert, "callbackUrl", invoice.getCallbackUrl());
+          insert = bindNullable(insert, "idempotencyKey", invoice.getIdempotencyKey());
+          insert =
+              invoice.getDueInSeconds() == null
+                  ? insert.bindNull("dueInSeconds", Integer.class)
+                  : insert.bind("dueInSeconds", invoice.getDueInSeconds());
+          return timed("insert", insert.then().thenReturn(invoice));
+        });
+  }
+
+  @Override
+  public void destroy() {
+    this.connectionPool.dispose();
+  }
+
+  private GenericExecuteSpec bindNullable(GenericExecuteSpec spec, String name, String value) {
+    return value == null ? spec.bindNull(name, String.class) : spec.bind(name, value);
+  }
+
+  /**
+   * The statuses are stored by ordinal and the due dates as local timestamps in the zone of the
+   * JVM, the way JPA maps them, so that both repositories read the same values.
+   */
+  private Invoice toInvoice(Row row) {
+    return Invoice.builder()
+        .invoiceId(row.get("invoice_id", String.class))
+        .invoiceAmountUnits(row.get("invoice_amount_units", Long.class))
+        .amountPaidUnits(row.get("amount_paid_units", Long.class))
+        .amountRemainingUnits(row.get("amount_remaining_units", Long.class))
+        .amountScale(row.get("amount_scale", Integer.class))
+        .cryptoAddress(row.get("crypto_address", String.class))
+        .currency(row.get("currency", String.class))
+        .chain(row.get("chain", String.class))
+        .chainEnvironment(row.get("chain_environment", String.class))
+        .invoiceStatus(InvoiceStatus.values()[row.get("invoice_status", Integer.class)])
+        .dueDate(
+            row.get("due_date", LocalDateTime.class).atZone(ZoneId.systemDefault()).toInstant())
+        .callbackUrl(row.get("callback_url", String.class))
+        .idempotencyKey(row.get("idempotency_key", String.class))
+        .dueInSeconds(row.get("due_in_seconds", Integer.class))
+        .build();
+  }
+
+  private LocalDateTime toTimestamp(Invoice invoice) {
+    return LocalDateTime.ofInstant(invoice.getDueDate(), ZoneId.systemDefault());
+  }
+
+  /** Time the call as {@link RepositoryMetrics} times the calls of the JPA repositories. */
+  private <T> Mono<T> timed(String method, Mono<T> call) {
+    return Mono.defer(
+        () -> {
+          Timer.Sample sample = Timer.start(this.meterRegistry);
+          return call.doOnSuccess((v) -> stop(sample, method, "SUCCESS", "none"))
+              .doOnError((e) -> stop(sample, method, "ERROR", e.getClass().getSimpleName()))
+              .doOnCancel(() -> stop(sample, method, "CANCELED", "none"));
+        });
+  }
+
+  private void stop(Timer.Sample sample, String method, String state, String exception) {
+    sample.stop(
+        Timer.builder(RepositoryMetrics.METRIC_NAME)
+            .tag("repository", getClass().getSimpleName())
+            .tag("method", method)
+            .tag("state", state)
+            .tag("exception", exception)
+            .register(this.meterRegistry));
+  }
+}
@@ -0,0 +1,222 @@
+package com.chrisopler.cryptoinvoices.server.service.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An append-only log of records, split into segment files of a fixed size that are mapped into
+ * memory. Appending is a copy into the mapped segment, which the operating system writes back to
+ * disk, so a record survives the process stopping as soon as it is appended.
+ *
+ * <p>Each record is framed by its length and a CRC32 of its content, and the length is written
+ * last. A record torn by a crash therefore reads as the end of the log, and appending resumes after
+ * the last whole record. Not thread safe, appends are serialized by the caller.
+ */
+@Slf4j
+class InvoiceLog implements Closeable {
+
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String LOCK_FILE = "log.lock";
+  // -- the length and the CRC32 of a record.
+  private static final int HEADER_SIZE = 8;
+
+  /** A position in the log, just past a record. */
+  @Value
+  static class Position {
+    long segment;
+    int offset;
+  }
+
+  private final Path directory;
+  private final int segmentSize;
+  private final FileChannel lockChannel;
+  private final NavigableSet<Long> segments = new TreeSet<>();
+  private final CRC32 crc = new CRC32();
+  private long segment;
+  private MappedByteBuffer buffer;
+
+  private InvoiceLog(Path directory, int segmentSize, FileChannel lockChannel) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.lockChannel = lockChannel;
+  }
+
+  /**
+   * Open the log in a directory, which only one process may use at a time. Segments before the
+   * position are deleted, and each record from the position on is passed to {@code replay} in the
+   * order it was appended.
+   *
+   * @param from the position to replay from, or null to replay the whole log
+   */
+  static InvoiceLog open(
+      Path directory, int segmentSize, Position from, Consumer<ByteBuffer> replay)
+      throws IOException {
+    Files.createDirectories(directory);
+    FileChannel lockChannel =
+        FileChannel.open(
+            directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    FileLock lock;
+    try {
+      lock = lockChannel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      // -- already locked by this process.
+      lock = null;
+    }
+    if (lock == null) {
+      lockChannel.close();
+      throw new IllegalStateException("The invoice log in " + directory + " is already open");
+    }
+
+    InvoiceLog invoiceLog = new InvoiceLog(directory, segmentSize, lockChannel);
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        invoiceLog.segments.add(Long.parseLong(name.substring(0, name.indexOf(SEGMENT_SUFFIX))));
+      }
+    }
+    long first = from == null ? 0 : from.getSegment();
+    invoiceLog.deleteSegmentsBefore(first);
+    if (invoiceLog.segments.isEmpty()) {
+      invoiceLog.segments.add(first);
+    }
+
+    for (long segment : new ArrayList<>(invoiceLog.segments)) {
+      boolean last = segment == invoiceLog.segments.last();
+      MappedByteBuffer buffer = invoiceLog.map(segment);
+      int offset = from != null && segment == from.getSegment() ? from.getOffset() : 0;
+      int end = replay(buffer, offset, replay);
+      if (end + HEADER_SIZE <= buffer.capacity() && buffer.getInt(end) != 0) {
+        if (!last) {
+          throw new IllegalStateException(
+              "The invoice log segment " + segment + " is corrupt at offset " + end);
+        }
+        // -- a record torn by a crash, cleared so that no part of it is read after new records.
+        log.warn("Truncating the invoice log segment {} at offset {}", segment, end);
+        for (int i = end; i < buffer.capacity(); i++) {
+          buffer.put(i, (byte) 0);
+        }
+      }
+      if (last) {
+        invoiceLog.segment = segment;
+        invoiceLog.buffer = buffer;
+        buffer.position(end);
+      }
+    }
+    return invoiceLog;
+  }
+
+  /**
+   * Append a record, moving on to a new segment when it does not fit in the current one.
+   *
+   * @return the position just past the record
+   */
+  Position append(byte[] record) throws IOException {
+    int frame = HEADER_SIZE + record.length;
+    if (frame > this.segmentSize) {
+      throw new IllegalArgumentException(
+          "A record of " + record.length + " bytes does not fit in a segment");
+    }
+    if (this.buffer.remaining() < frame) {
+      roll();
+    }
+    int offset = this.buffer.position();
+    this.crc.reset();
+    this.crc.update(record, 0, record.length);
+    this.buffer.putInt(offset + 4, (int) this.crc.getValue());
+    this.buffer.position(offset + HEADER_SIZE);
+    this.buffer.put(record);
+    this.buffer.putInt(offset, record.length);
+    return position();
+  }
+
+  /** The position just past the last record appended. */
+  Position position() {
+    return new Position(this.segment, this.buffer.position());
+  }
+
+  /** Write the appended records back to disk, so that they also survive the machine stopping. */
+  void force() {
+    this.buffer.force();
+  }
+
+  /** Delete the segments before the given one, once a snapshot covers them. */
+  void deleteSegmentsBefore(long segment) {
+    for (long old : new ArrayList<>(this.segments.headSet(segment, false))) {
+      try {
+        Files.deleteIfExists(segmentFile(old));
+        this.segments.remove(old);
+      } catch (IOException e) {
+        log.warn("Unable to delete the invoice log segment {}: {}", old, e.getMessage());
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    force();
+    this.lockChannel.close();
+  }
+
+  private void roll() throws IOException {
+    force();
+    this.segment = this.segment + 1;
+    this.buffer = map(this.segment);
+    this.segments.add(this.segment);
+  }
+
+  /** Map a segment, creating it if needed. The mapping stays valid after the channel is closed. */
+  private MappedByteBuffer map(long segment) throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(
+            segmentFile(segment),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      return channel.map(
+          FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), this.segmentSize));
+    }
+  }
+
+  private Path segmentFile(long segment) {
+    return this.directory.resolve(String.format("%020d%s", segment, SEGMENT_SUFFIX));
+  }
+
+  /** @return the offset just past the last whole record */
+  private static int replay(ByteBuffer buffer, int offset, Consumer<ByteBuffer> replay) {
+    CRC32 crc = new CRC32();
+    while (offset + HEADER_SIZE <= buffer.capacity()) {
+      int length = buffer.getInt(offset);
+      if (length <= 0 || length > buffer.capacity() - offset - HEADER_SIZE) {
+        break;
+      }
+      ByteBuffer record = buffer.duplicate();
+      record.position(offset + HEADER_SIZE);
+      record.limit(offset + HEADER_SIZE + length);
+      record = record.slice();
+      crc.reset();
+      crc.update(record.duplicate());
+      if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+        break;
+      }
+      replay.accept(record);
+      offset += HEADER_SIZE + length;
+    }
+    return offset;
+  }
+}
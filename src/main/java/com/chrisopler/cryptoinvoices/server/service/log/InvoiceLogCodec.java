@@ -0,0 +1,165 @@
+package com.chrisopler.cryptoinvoices.server.service.log;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * The binary form of the records of the {@link InvoiceLog} and of the invoices in a snapshot.
+ * Numbers are big-endian and strings are UTF-8 prefixed by their length, -1 standing for null.
+ */
+final class InvoiceLogCodec {
+
+  /** An invoice as a whole, when it is created. */
+  static final byte INVOICE_STORED = 1;
+
+  /** The new status and amounts of an invoice, when it is paid or expires. */
+  static final byte STATUS_CHANGED = 2;
+
+  private static final InvoiceStatus[] STATUSES = InvoiceStatus.values();
+
+  private InvoiceLogCodec() {}
+
+  static byte[] stored(Invoice invoice) {
+    return encode(
+        (out) -> {
+          out.writeByte(INVOICE_STORED);
+          writeInvoice(out, invoice);
+        });
+  }
+
+  static byte[] statusChanged(Invoice invoice) {
+    return encode(
+        (out) -> {
+          out.writeByte(STATUS_CHANGED);
+          writeString(out, invoice.getInvoiceId());
+          out.writeByte(invoice.getInvoiceStatus().ordinal());
+          out.writeLong(invoice.getAmountPaidUnits());
+          out.writeLong(invoice.getAmountRemainingUnits());
+        });
+  }
+
+  static byte[] invoice(Invoice invoice) {
+    return encode((out) -> writeInvoice(out, invoice));
+  }
+
+  /**
+   * Apply a {@link #STATUS_CHANGED} record, whose type has been read, to the invoice it is for.
+   *
+   * @return a changed copy of the invoice
+   */
+  static Invoice applyStatusChanged(ByteBuffer in, Invoice invoice) {
+    Invoice changed = copy(invoice);
+    changed.setInvoiceStatus(STATUSES[in.get()]);
+    changed.setAmountPaidUnits(in.getLong());
+    changed.setAmountRemainingUnits(in.getLong());
+    return changed;
+  }
+
+  static String readInvoiceId(ByteBuffer in) {
+    return readString(in);
+  }
+
+  static Invoice readInvoice(ByteBuffer in) {
+    return Invoice.builder()
+        .invoiceId(readString(in))
+        .invoiceAmountUnits(in.getLong())
+        .amountPaidUnits(in.getLong())
+        .amountRemainingUnits(in.getLong())
+        .amountScale(in.getInt())
+        .cryptoAddress(readString(in))
+        .currency(readString(in))
+        .chain(readString(in))
+        .chainEnvironment(readString(in))
+        .invoiceStatus(STATUSES[in.get()])
+        .dueDate(Instant.ofEpochSecond(in.getLong(), in.getInt()))
+        .callbackUrl(readString(in))
+        .idempotencyKey(readString(in))
+        .dueInSeconds(readInteger(in))
+        .build();
+  }
+
+  static Invoice copy(Invoice invoice) {
+    return Invoice.builder()
+        .invoiceId(invoice.getInvoiceId())
+        .invoiceAmountUnits(invoice.getInvoiceAmountUnits())
+        .amountPaidUnits(invoice.getAmountPaidUnits())
+        .amountRemainingUnits(invoice.getAmountRemainingUnits())
+        .amountScale(invoice.getAmountScale())
+        .cryptoAddress(invoice.getCryptoAddress())
+        .currency(invoice.getCurrency())
+        .chain(invoice.getChain())
+        .chainEnvironment(invoice.getChainEnvironment())
+        .invoiceStatus(invoice.getInvoiceStatus())
+        .dueDate(invoice.getDueDate())
+        .callbackUrl(invoice.getCallbackUrl())
+        .idempotencyKey(invoice.getIdempotencyKey())
+        .dueInSeconds(invoice.getDueInSeconds())
+        .build();
+  }
+
+  private static void writeInvoice(DataOutputStream out, Invoice invoice) throws IOException {
+    writeString(out, invoice.getInvoiceId());
+    out.writeLong(invoice.getInvoiceAmountUnits());
+    out.writeLong(invoice.getAmountPaidUnits());
+    out.writeLong(invoice.getAmountRemainingUnits());
+    out.writeInt(invoice.getAmountScale());
+    writeString(out, invoice.getCryptoAddress());
+    writeString(out, invoice.getCurrency());
+    writeString(out, invoice.getChain());
+    writeString(out, invoice.getChainEnvironment());
+    out.writeByte(invoice.getInvoiceStatus().ordinal());
+    out.writeLong(invoice.getDueDate().getEpochSecond());
+    out.writeInt(invoice.getDueDate().getNano());
+    writeString(out, invoice.getCallbackUrl());
+    writeString(out, invoice.getIdempotencyKey());
+    // -- due_in_seconds is positive, so -1 stands for null.
+    out.writeInt(invoice.getDueInSeconds() == null ? -1 : invoice.getDueInSeconds());
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer in) {
+    int length = in.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static Integer readInteger(ByteBuffer in) {
+    int value = in.getInt();
+    return value < 0 ? null : value;
+  }
+
+  private interface Writer {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  private static byte[] encode(Writer writer) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      writer.write(out);
+    } catch (IOException e) {
+      // -- not thrown when writing to memory.
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+}
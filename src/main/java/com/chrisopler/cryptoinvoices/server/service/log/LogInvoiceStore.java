@@ -0,0 +1,506 @@
+package com.chrisopler.cryptoinvoices.server.service.log;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import com.chrisopler.cryptoinvoices.server.service.InvoiceCursor;
+import com.chrisopler.cryptoinvoices.server.service.InvoiceFilter;
+import com.chrisopler.cryptoinvoices.server.service.InvoiceStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps invoices in an append-only log on local disk rather than in the database, with every
+ * invoice held in memory. Invoices survive a restart without a database server, and are read
+ * without a round trip to one. Enabled with {@code invoices.store.type=log}, the directory being
+ * owned by a single instance.
+ *
+ * <p>Each creation and status change is appended to the {@link InvoiceLog} before it is applied
+ * to the in-memory indexes, which answer every read. A snapshot of all the invoices is written
+ * periodically and on shutdown, after which the log segments it covers are deleted, so startup
+ * loads the latest snapshot and replays only the records appended since.
+ *
+ * <p>Writes are serialized, reads take no lock. With {@code invoices.store.log.sync} off, appended
+ * records survive the process stopping but the last of them may be lost if the machine stops.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "invoices.store.type", havingValue = "log")
+public class LogInvoiceStore implements InvoiceStore, DisposableBean {
+
+  private static final String SNAPSHOT_FILE = "snapshot";
+  private static final int SNAPSHOT_MAGIC = 0x494e5653;
+  private static final Comparator<InvoiceCursor> BY_DUE_DATE =
+      Comparator.comparing(InvoiceCursor::getDueDate).thenComparing(InvoiceCursor::getInvoiceId);
+  private static final List<InvoiceStatus> ALL_STATUSES = Arrays.asList(InvoiceStatus.values());
+
+  private final Path directory;
+  private final boolean sync;
+  private final InvoiceLog invoiceLog;
+  private final Timer snapshots;
+  // -- the stored invoices are never changed, a change replaces the invoice.
+  private final Map<String, Invoice> invoices = new ConcurrentHashMap<>();
+  private final Map<String, String> idempotencyKeys = new ConcurrentHashMap<>();
+  private final Map<String, Set<String>> byCryptoAddress = new ConcurrentHashMap<>();
+  private final Map<InvoiceStatus, NavigableSet<String>> byStatus =
+      new EnumMap<>(InvoiceStatus.class);
+  private final Map<InvoiceStatus, NavigableSet<InvoiceCursor>> byStatusDueDate =
+      new EnumMap<>(InvoiceStatus.class);
+  private final Object snapshotLock = new Object();
+  private boolean changedSinceSnapshot = false;
+
+  public LogInvoiceStore(
+      MeterRegistry meterRegistry,
+      @Value("${invoices.store.log.directory:data/invoice-log}") String directory,
+      @Value("${invoices.store.log.segment-size-bytes:67108864}") int segmentSize,
+      @Value("${invoices.store.log.sync:false}") boolean sync)
+      throws IOException {
+    this.directory = Paths.get(directory);
+    this.sync = sync;
+    for (InvoiceStatus status : InvoiceStatus.values()) {
+      this.byStatus.put(status, new ConcurrentSkipListSet<>());
+      this.byStatusDueDate.put(status, new ConcurrentSkipListSet<>(BY_DUE_DATE));
+    }
+
+    long started = System.nanoTime();
+    InvoiceLog.Position snapshot = readSnapshot();
+    int snapshotted = this.invoices.size();
+    int[] replayed = {0};
+    this.invoiceLog =
+        InvoiceLog.open(
+            this.directory,
+            segmentSize,
+            snapshot,
+            (record) -> {
+              replay(record);
+              replayed[0]++;
+            });
+    this.changedSinceSnapshot = replayed[0] > 0;
+    log.info(
+        "Recovered {} invoices from the snapshot and {} log records in {} ms",
+        snapshotted,
+        replayed[0],
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+
+    this.snapshots = meterRegistry.timer("invoices.store.log.snapshots");
+    meterRegistry.gauge("invoices.store.log.invoices", this.invoices, Map::size);
+  }
+
+  @Override
+  public Optional<Invoice> findById(String invoiceId) {
+    return Optional.ofNullable(this.invoices.get(invoiceId)).map(InvoiceLogCodec::copy);
+  }
+
+  @Override
+  public List<Invoice> findAllById(Collection<String> invoiceIds) {
+    return read(invoiceIds.stream(), (invoice) -> true);
+  }
+
+  @Override
+  public boolean existsById(String invoiceId) {
+    return this.invoices.containsKey(invoiceId);
+  }
+
+  @Override
+  public Optional<Invoice> findByIdempotencyKey(String idempotencyKey) {
+    return Optional.ofNullable(this.idempotencyKeys.get(idempotencyKey)).flatMap(this::findById);
+  }
+
+  @Override
+  public List<Invoice> findByCryptoAddress(String cryptoAddress) {
+    return read(
+        this.byCryptoAddress.getOrDefault(cryptoAddress, Collections.emptySet()).stream(),
+        (invoice) -> true);
+  }
+
+  /** The first ids of each status are merged, as the statuses are indexed apart. */
+  @Override
+  public List<Invoice> findByStatus(
+      Collection<InvoiceStatus> statuses, String afterInvoiceId, int limit) {
+    TreeSet<String> invoiceIds = new TreeSet<>();
+    for (InvoiceStatus status : statuses) {
+      this.byStatus.get(status).tailSet(afterInvoiceId, false).stream()
+          .limit(limit)
+          .forEach(invoiceIds::add);
+    }
+    return read(
+        invoiceIds.stream().limit(limit),
+        (invoice) -> statuses.contains(invoice.getInvoiceStatus()));
+  }
+
+  @Override
+  public List<Invoice> findPage(InvoiceFilter filter, InvoiceCursor after, int limit) {
+    Collection<InvoiceStatus> statuses =
+        filter.getStatuses() == null || filter.getStatuses().isEmpty()
+            ? ALL_STATUSES
+            : filter.getStatuses();
+    Predicate<Invoice> matches =
+        (invoice) ->
+            (filter.getChain() == null || filter.getChain().equals(invoice.getChain()))
+                && (filter.getChainEnvironment() == null
+                    || filter.getChainEnvironment().equals(invoice.getChainEnvironment()));
+    return read(
+        firstByDueDate(statuses, after, filter.getDueAfter(), filter.getDueBefore(), matches, limit)
+            .stream()
+            .map(InvoiceCursor::getInvoiceId),
+        (invoice) -> true);
+  }
+
+  @Override
+  public synchronized Invoice save(Invoice invoice) {
+    Invoice stored = store(invoice);
+    flush();
+    return InvoiceLogCodec.copy(stored);
+  }
+
+  @Override
+  public synchronized List<Invoice> saveAll(List<Invoice> invoices) {
+    List<Invoice> stored = new ArrayList<>(invoices.size());
+    for (Invoice invoice : invoices) {
+      stored.add(InvoiceLogCodec.copy(store(invoice)));
+    }
+    flush();
+    return stored;
+  }
+
+  @Override
+  public synchronized int transition(
+      String invoiceId,
+      InvoiceStatus expectedStatus,
+      long expectedAmountPaidUnits,
+      InvoiceStatus status,
+      long amountPaidUnits,
+      long amountRemainingUnits) {
+    Invoice invoice = this.invoices.get(invoiceId);
+    if (invoice == null
+        || invoice.getInvoiceStatus() != expectedStatus
+        || invoice.getAmountPaidUnits() != expectedAmountPaidUnits) {
+      return 0;
+    }
+    Invoice changed = InvoiceLogCodec.copy(invoice);
+    changed.setInvoiceStatus(status);
+    changed.setAmountPaidUnits(amountPaidUnits);
+    changed.setAmountRemainingUnits(amountRemainingUnits);
+    append(InvoiceLogCodec.statusChanged(changed));
+    flush();
+    index(invoice, changed);
+    return 1;
+  }
+
+  @Override
+  public synchronized int expire(
+      Collection<String> invoiceIds, Collection<InvoiceStatus> statuses, Instant now) {
+    int expired = 0;
+    for (String invoiceId : invoiceIds) {
+      Invoice invoice = this.invoices.get(invoiceId);
+      if (invoice == null
+          || !statuses.contains(invoice.getInvoiceStatus())
+          || !invoice.getDueDate().isBefore(now)) {
+        continue;
+      }
+      Invoice changed = InvoiceLogCodec.copy(invoice);
+      changed.setInvoiceStatus(InvoiceStatus.EXPIRED);
+      append(InvoiceLogCodec.statusChanged(changed));
+      index(invoice, changed);
+      expired++;
+    }
+    flush();
+    return expired;
+  }
+
+  /**
+   * Write a snapshot of every invoice, then delete the log segments it covers. The snapshot is
+   * written to a temporary file and moved into place, so a crash while writing it leaves the
+   * previous one.
+   */
+  @Scheduled(fixedDelayString = "${invoices.store.log.snapshot-interval-ms:60000}")
+  public void snapshot() {
+    synchronized (this.snapshotLock) {
+      InvoiceLog.Position position;
+      List<Invoice> invoices;
+      synchronized (this) {
+        if (!this.changedSinceSnapshot) {
+          return;
+        }
+        this.invoiceLog.force();
+        position = this.invoiceLog.position();
+        invoices = new ArrayList<>(this.invoices.values());
+        this.changedSinceSnapshot = false;
+      }
+      try {
+        this.snapshots.recordCallable(() -> writeSnapshot(position, invoices));
+        synchronized (this) {
+          this.invoiceLog.deleteSegmentsBefore(position.getSegment());
+        }
+        log.debug("Wrote a snapshot of {} invoices at {}", invoices.size(), position);
+      } catch (Exception e) {
+        log.warn("Unable to write a snapshot of the invoice log: {}", e.getMessage());
+        synchronized (this) {
+          this.changedSinceSnapshot = true;
+        }
+      }
+    }
+  }
+
+  /** A snapshot is taken on shutdown, so that the next start has nothing to replay. */
+  @Override
+  public void destroy() throws IOException {
+    snapshot();
+    synchronized (this) {
+      this.invoiceLog.close();
+    }
+  }
+
+  private Invoice store(Invoice invoice) {
+    Invoice stored = InvoiceLogCodec.copy(invoice);
+    if (stored.getInvoiceId() == null) {
+      // -- the same 32 hex digit form as the ids generated by JPA.
+      stored.setInvoiceId(UUID.randomUUID().toString().replace("-", ""));
+    }
+    String idempotencyKey = stored.getIdempotencyKey();
+    if (idempotencyKey != null) {
+      String existing = this.idempotencyKeys.get(idempotencyKey);
+      if (existing != null && !existing.equals(stored.getInvoiceId())) {
+        throw new DataIntegrityViolationException(
+            "The idempotency key of invoice " + existing + " is already used");
+      }
+    }
+    append(InvoiceLogCodec.stored(stored));
+    index(this.invoices.get(stored.getInvoiceId()), stored);
+    // -- as JPA does, the id is given to the invoice saved.
+    invoice.setInvoiceId(stored.getInvoiceId());
+    return stored;
+  }
+
+  private void append(byte[] record) {
+    try {
+      this.invoiceLog.append(record);
+      this.changedSinceSnapshot = true;
+    } catch (IOException e) {
+      throw new DataAccessResourceFailureException("Unable to append to the invoice log", e);
+    }
+  }
+
+  private void flush() {
+    if (this.sync) {
+      this.invoiceLog.force();
+    }
+  }
+
+  /**
+   * Replace an invoice in the indexes. The invoice is added to its new entries before it is removed
+   * from its old ones, so that a concurrent read finds it in at least one of them.
+   */
+  private void index(Invoice previous, Invoice invoice) {
+    String invoiceId = invoice.getInvoiceId();
+    InvoiceCursor dueDate = InvoiceCursor.after(invoice);
+    this.invoices.put(invoiceId, invoice);
+    this.byStatus.get(invoice.getInvoiceStatus()).add(invoiceId);
+    this.byStatusDueDate.get(invoice.getInvoiceStatus()).add(dueDate);
+    this.byCryptoAddress
+        .computeIfAbsent(invoice.getCryptoAddress(), (a) -> ConcurrentHashMap.newKeySet())
+        .add(invoiceId);
+    if (invoice.getIdempotencyKey() != null) {
+      this.idempotencyKeys.put(invoice.getIdempotencyKey(), invoiceId);
+    }
+    if (previous == null) {
+      return;
+    }
+
+    if (previous.getInvoiceStatus() != invoice.getInvoiceStatus()) {
+      this.byStatus.get(previous.getInvoiceStatus()).remove(invoiceId);
+    }
+    InvoiceCursor previousDueDate = InvoiceCursor.after(previous);
+    if (previous.getInvoiceStatus() != invoice.getInvoiceStatus()
+        || !previousDueDate.equals(dueDate)) {
+      this.byStatusDueDate.get(previous.getInvoiceStatus()).remove(previousDueDate);
+    }
+    if (!previous.getCryptoAddress().equals(invoice.getCryptoAddress())) {
+      this.byCryptoAddress.get(previous.getCryptoAddress()).remove(invoiceId);
+    }
+    if (previous.getIdempotencyKey() != null
+        && !previous.getIdempotencyKey().equals(invoice.getIdempotencyKey())) {
+      this.idempotencyKeys.remove(previous.getIdempotencyKey());
+    }
+  }
+
+  private void replay(ByteBuffer record) {
+    byte type = record.get();
+    switch (type) {
+      case InvoiceLogCodec.INVOICE_STORED:
+        Invoice invoice = InvoiceLogCodec.readInvoice(record);
+        index(this.invoices.get(invoice.getInvoiceId()), invoice);
+        break;
+      case InvoiceLogCodec.STATUS_CHANGED:
+        Invoice previous = this.invoices.get(InvoiceLogCodec.readInvoiceId(record));
+        if (previous != null) {
+          index(previous, InvoiceLogCodec.applyStatusChanged(record, previous));
+        }
+        break;
+      default:
+        throw new IllegalStateException("Unknown invoice log record type " + type);
+    }
+  }
+
+  /**
+   * The first invoices in (due_date, invoice_id) order among the given statuses, between the
+   * bounds. The first matches of each status are merged, as the statuses are indexed apart.
+   *
+   * @param after the exclusive lower bound, or null
+   * @param dueAfter the inclusive lower bound of the due date, or null
+   * @param dueBefore the exclusive upper bound of the due date, or null
+   */
+  private List<InvoiceCursor> firstByDueDate(
+      Collection<InvoiceStatus> statuses,
+      InvoiceCursor after,
+      Instant dueAfter,
+      Instant dueBefore,
+      Predicate<Invoice> matches,
+      int limit) {
+    // -- an empty id sorts before every invoice due at the same instant.
+    InvoiceCursor from = after;
+    boolean inclusive = false;
+    if (dueAfter != null
+        && (from == null || BY_DUE_DATE.compare(from, new InvoiceCursor(dueAfter, "")) < 0)) {
+      from = new InvoiceCursor(dueAfter, "");
+      inclusive = true;
+    }
+    InvoiceCursor to = dueBefore == null ? null : new InvoiceCursor(dueBefore, "");
+    if (from != null && to != null && BY_DUE_DATE.compare(from, to) >= 0) {
+      return Collections.emptyList();
+    }
+
+    List<InvoiceCursor> found = new ArrayList<>();
+    for (InvoiceStatus status : statuses) {
+      NavigableSet<InvoiceCursor> range = this.byStatusDueDate.get(status);
+      if (from != null && to != null) {
+        range = range.subSet(from, inclusive, to, false);
+      } else if (from != null) {
+        range = range.tailSet(from, inclusive);
+      } else if (to != null) {
+        range = range.headSet(to, false);
+      }
+      range.stream()
+          .filter(
+              (cursor) -> {
+                Invoice invoice = this.invoices.get(cursor.getInvoiceId());
+                return invoice != null
+                    && invoice.getInvoiceStatus() == status
+                    && matches.test(invoice);
+              })
+          .limit(limit)
+          .forEach(found::add);
+    }
+    found.sort(BY_DUE_DATE);
+    return found.size() > limit ? found.subList(0, limit) : found;
+  }
+
+  private List<Invoice> read(Stream<String> invoiceIds, Predicate<Invoice> matches) {
+    return invoiceIds
+        .map(this.invoices::get)
+        .filter(Objects::nonNull)
+        .filter(matches)
+        .map(InvoiceLogCodec::copy)
+        .collect(Collectors.toList());
+  }
+
+  private Void writeSnapshot(InvoiceLog.Position position, List<Invoice> invoices)
+      throws IOException {
+    Path temporary = this.directory.resolve(SNAPSHOT_FILE + ".tmp");
+    try (FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+      CheckedOutputStream checked =
+          new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), new CRC32());
+      DataOutputStream out = new DataOutputStream(checked);
+      out.writeInt(SNAPSHOT_MAGIC);
+      out.writeLong(position.getSegment());
+      out.writeInt(position.getOffset());
+      out.writeInt(invoices.size());
+      for (Invoice invoice : invoices) {
+        byte[] bytes = InvoiceLogCodec.invoice(invoice);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+      out.writeLong(checked.getChecksum().getValue());
+      out.flush();
+      file.getFD().sync();
+    }
+    Files.move(
+        temporary,
+        this.directory.resolve(SNAPSHOT_FILE),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    return null;
+  }
+
+  /** @return the position of the log the snapshot covers, or null without a snapshot */
+  private InvoiceLog.Position readSnapshot() throws IOException {
+    Path file = this.directory.resolve(SNAPSHOT_FILE);
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try (InputStream stream = Files.newInputStream(file)) {
+      CheckedInputStream checked =
+          new CheckedInputStream(new BufferedInputStream(stream, 1 << 16), new CRC32());
+      DataInputStream in = new DataInputStream(checked);
+      if (in.readInt() != SNAPSHOT_MAGIC) {
+        throw new IllegalStateException(file + " is not a snapshot of the invoice log");
+      }
+      InvoiceLog.Position position = new InvoiceLog.Position(in.readLong(), in.readInt());
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        Invoice invoice = InvoiceLogCodec.readInvoice(ByteBuffer.wrap(bytes));
+        index(null, invoice);
+      }
+      long checksum = checked.getChecksum().getValue();
+      if (in.readLong() != checksum) {
+        throw new IllegalStateException("The snapshot of the invoice log " + file + " is corrupt");
+      }
+      return position;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package com.chrisopler.cryptoinvoices.server.webhooks;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the callback URLs given with invoices from pointing webhooks into the network of the
+ * service: a URL whose host is a loopback, link-local, private or otherwise local address is
+ * refused, unless the host is listed in {@code invoices.webhooks.allowed-hosts}.
+ *
+ * <p>Creation only looks at the URL, so that no request thread waits on DNS. The host is resolved
+ * before each delivery, which also catches names pointed at a local address after creation.
+ */
+@Slf4j
+@Component
+public class CallbackUrlPolicy {
+
+  private final Set<String> allowedHosts;
+
+  public CallbackUrlPolicy(
+      @Value("${invoices.webhooks.allowed-hosts:}") List<String> allowedHosts) {
+    this.allowedHosts =
+        allowedHosts.stream()
+            .map(String::trim)
+            .filter((h) -> !h.isEmpty())
+            .map((h) -> h.toLowerCase(Locale.ROOT))
+            .collect(Collectors.toSet());
+  }
+
+  /**
+   * Whether a callback URL may be accepted, judged without resolving its host: localhost and IP
+   * literals of local addresses are refused.
+   */
+  public boolean isAcceptable(URI callbackUrl) {
+    String host = host(callbackUrl);
+    if (host == null) {
+      return false;
+    }
+    if (this.allowedHosts.contains(host)) {
+      return true;
+    }
+    if (host.equals("localhost") || host.endsWith(".localhost")) {
+      return false;
+    }
+    if (!isLiteral(host)) {
+      return true;
+    }
+    try {
+      // -- a literal is parsed rather than looked up.
+      return isPublic(InetAddress.getByName(host));
+    } catch (UnknownHostException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Whether webhooks may be delivered to a callback URL now. Resolves the host, so it blocks, and
+   * every address it resolves to must be public.
+   */
+  public boolean isDeliverable(String callbackUrl) {
+    URI uri;
+    try {
+      uri = new URI(callbackUrl);
+    } catch (URISyntaxException e) {
+      return false;
+    }
+    if (!isAcceptable(uri)) {
+      return false;
+    }
+    String host = host(uri);
+    if (this.allowedHosts.contains(host)) {
+      return true;
+    }
+    try {
+      for (InetAddress address : InetAddress.getAllByName(host)) {
+        if (!isPublic(address)) {
+          return false;
+        }
+      }
+      return true;
+    } catch (UnknownHostException e) {
+      log.debug("Unable to resolve the callback host {}", host);
+      return false;
+    }
+  }
+
+  private static String host(URI uri) {
+    String host = uri.getHost();
+    if (host == null) {
+      return null;
+    }
+    host = host.toLowerCase(Locale.ROOT);
+    // -- IPv6 literals keep their brackets in the URI.
+    return host.startsWith("[") && host.endsWith("]")
+        ? host.substring(1, host.length() - 1)
+        : host;
+  }
+
+  /** IPv6 literals, and IPv4 ones in any of the dotted or plain number forms Java accepts. */
+  private static boolean isLiteral(String host) {
+    return host.indexOf(':') >= 0 || host.chars().allMatch((c) -> c == '.' || Character.isDigit(c));
+  }
+
+  private static boolean isPublic(InetAddress address) {
+    boolean uniqueLocal =
+        address instanceof Inet6Address && (address.getAddress()[0] & 0xfe) == 0xfc;
+    return !(address.isAnyLocalAddress()
+        || address.isLoopbackAddress()
+        || address.isLinkLocalAddress()
+        || address.isSiteLocalAddress()
+        || address.isMulticastAddress()
+        || uniqueLocal);
+  }
+}
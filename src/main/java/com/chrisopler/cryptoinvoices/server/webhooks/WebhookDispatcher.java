@@ -0,0 +1,206 @@
+package com.chrisopler.cryptoinvoices.server.webhooks;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceWebhookEvent;
+import com.chrisopler.cryptoinvoices.server.service.InvoiceChangedEvent;
+import com.chrisopler.cryptoinvoices.server.service.InvoiceStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Delivers invoice status changes to the callback URL of the invoice, or failing that of its chain.
+ *
+ * <p>Changes are only queued on the thread that stored them. A small pool of workers drains the
+ * bounded queue, so a burst of changes is picked up as a batch, and each batch is grouped by URL
+ * into a single request per destination. When the queue is full, changes are dropped and counted
+ * rather than slowing down the caller. Callback URLs given with invoices are checked against the
+ * {@link CallbackUrlPolicy} before each delivery.
+ */
+@Slf4j
+@Component
+public class WebhookDispatcher {
+
+  private final WebhookSender webhookSender;
+  private final CallbackUrlPolicy callbackUrlPolicy;
+  private final InvoiceStore invoiceStore;
+  private final boolean enabled;
+  private final int workers;
+  private final int batchSize;
+  private final Map<String, String> chainCallbackUrls;
+  private final BlockingQueue<PendingEvent> queue;
+  private final Counter dropped;
+  private final Counter refused;
+  private ExecutorService executor;
+
+  public WebhookDispatcher(
+      WebhookSender webhookSender,
+      CallbackUrlPolicy callbackUrlPolicy,
+      InvoiceStore invoiceStore,
+      MeterRegistry meterRegistry,
+      @Value("${invoices.webhooks.enabled:true}") boolean enabled,
+      @Value("${invoices.webhooks.queue-capacity:10000}") int queueCapacity,
+      @Value("${invoices.webhooks.workers:4}") int workers,
+      @Value("${invoices.webhooks.batch-size:50}") int batchSize,
+      @Value("#{${invoices.webhooks.chain-callback-urls:{:}}}")
+          Map<String, String> chainCallbackUrls) {
+    this.webhookSender = webhookSender;
+    this.callbackUrlPolicy = callbackUrlPolicy;
+    this.invoiceStore = invoiceStore;
+    this.enabled = enabled;
+    this.workers = workers;
+    this.batchSize = batchSize;
+    this.chainCallbackUrls = chainCallbackUrls;
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.dropped = meterRegistry.counter("invoices.webhooks.dropped");
+    this.refused = meterRegistry.counter("invoices.webhooks.refused");
+    meterRegistry.gaugeCollectionSize("invoices.webhooks.queued", Collections.emptyList(), queue);
+  }
+
+  @PostConstruct
+  public void start() {
+    if (!enabled) {
+      return;
+    }
+    AtomicInteger threads = new AtomicInteger();
+    this.executor =
+        Executors.newFixedThreadPool(
+            workers,
+            (runnable) -> {
+              Thread thread = new Thread(runnable, "webhooks-" + threads.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    for (int i = 0; i < workers; i++) {
+      this.executor.execute(this::work);
+    }
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (this.executor != null) {
+      this.executor.shutdownNow();
+    }
+  }
+
+  @EventListener
+  public void onInvoiceChanged(InvoiceChangedEvent event) {
+    // -- creation is not a transition, the merchant already has the invoice.
+    if (!enabled || !event.isStatusChanged() || event.getPreviousStatus() == null) {
+      return;
+    }
+    if (!this.queue.offer(new PendingEvent(event, Instant.now()))) {
+      this.dropped.increment();
+      log.warn("The webhook queue is full, dropped the event for {}", event.getInvoiceId());
+    }
+  }
+
+  private void work() {
+    List<PendingEvent> batch = new ArrayList<>(batchSize);
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        batch.add(this.queue.take());
+        this.queue.drainTo(batch, batchSize - 1);
+        for (Map.Entry<String, List<InvoiceWebhookEvent>> destination :
+            byCallbackUrl(batch).entrySet()) {
+          this.webhookSender.send(destination.getKey(), destination.getValue());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (RuntimeException e) {
+        log.warn("Unable to dispatch {} webhook events: {}", batch.size(), e.getMessage());
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  private Map<String, List<InvoiceWebhookEvent>> byCallbackUrl(List<PendingEvent> batch) {
+    // -- bulk changes do not carry the invoice, so those are read together.
+    Set<String> unread =
+        batch.stream()
+            .filter((p) -> p.event.getInvoice() == null)
+            .map((p) -> p.event.getInvoiceId())
+            .collect(Collectors.toSet());
+    Map<String, Invoice> read =
+        unread.isEmpty()
+            ? Collections.emptyMap()
+            : this.invoiceStore.findAllById(unread).stream()
+                .collect(Collectors.toMap(Invoice::getInvoiceId, Function.identity()));
+
+    Map<String, List<InvoiceWebhookEvent>> byCallbackUrl = new LinkedHashMap<>();
+    Map<String, Boolean> deliverable = new HashMap<>();
+    for (PendingEvent pending : batch) {
+      Invoice invoice =
+          Optional.ofNullable(pending.event.getInvoice())
+              .orElse(read.get(pending.event.getInvoiceId()));
+      if (invoice == null) {
+        continue;
+      }
+      String callbackUrl =
+          Optional.ofNullable(invoice.getCallbackUrl())
+              .orElse(this.chainCallbackUrls.get(chainKey(invoice)));
+      if (callbackUrl == null) {
+        continue;
+      }
+      // -- the chain callback URLs are configured by the operator, so only these are checked.
+      if (invoice.getCallbackUrl() != null
+          && !deliverable.computeIfAbsent(callbackUrl, this.callbackUrlPolicy::isDeliverable)) {
+        this.refused.increment();
+        log.warn("Refused to deliver the event for {} to {}", invoice.getInvoiceId(), callbackUrl);
+        continue;
+      }
+      byCallbackUrl
+          .computeIfAbsent(callbackUrl, (url) -> new ArrayList<>())
+          .add(
+              InvoiceWebhookEvent.builder()
+                  .eventId(UUID.randomUUID().toString())
+                  .previousStatus(pending.event.getPreviousStatus())
+                  .status(pending.event.getStatus())
+                  .occurredAt(pending.occurredAt)
+                  .invoice(invoice)
+                  .build());
+    }
+    return byCallbackUrl;
+  }
+
+  private String chainKey(Invoice invoice) {
+    return String.format(
+        "%s/%s",
+        invoice.getChain(), Optional.ofNullable(invoice.getChainEnvironment()).orElse("default"));
+  }
+
+  /** A change waiting to be delivered, and when it was stored. */
+  private static class PendingEvent {
+    private final InvoiceChangedEvent event;
+    private final Instant occurredAt;
+
+    PendingEvent(InvoiceChangedEvent event, Instant occurredAt) {
+      this.event = event;
+      this.occurredAt = occurredAt;
+    }
+  }
+}
@@ -0,0 +1,275 @@
+package com.chrisopler.cryptoinvoices.server.webhooks;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceWebhookEvent;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.util.retry.Retry;
+
+/**
+ * Posts batches of webhook events over a single pooled HTTP client.
+ *
+ * <p>Each destination may only have a few requests in flight. Each attempt takes a permit of its
+ * destination and gives it back once answered, so a batch waiting out its backoff does not hold
+ * one. Batches beyond the limit wait in line for their destination without holding up a thread,
+ * so a destination that is slow or failing only holds back its own deliveries, and once too many
+ * are waiting further ones are given up on. Network errors, 429s and 5xx responses are retried
+ * with exponential backoff, any other response is final.
+ *
+ * <p>Callback URLs come with the invoices, so destinations are forgotten once idle for a while. A
+ * destination with requests in flight or waiting never expires, so its limit holds throughout.
+ */
+@Slf4j
+@Component
+public class WebhookSender {
+
+  private final WebClient webClient;
+  private final ConnectionProvider connectionProvider;
+  private final MeterRegistry meterRegistry;
+  private final int maxConcurrencyPerDestination;
+  private final int maxQueuedPerDestination;
+  private final int maxRetries;
+  private final Duration minBackoff;
+  private final Duration maxBackoff;
+  private final Cache<String, Destination> destinations;
+
+  public WebhookSender(
+      WebClient.Builder webClientBuilder,
+      MeterRegistry meterRegistry,
+      @Value("${invoices.webhooks.max-connections:200}") int maxConnections,
+      @Value("${invoices.webhooks.max-concurrency-per-destination:4}")
+          int maxConcurrencyPerDestination,
+      @Value("${invoices.webhooks.max-queued-per-destination:1000}") int maxQueuedPerDestination,
+      @Value("${invoices.webhooks.destination-idle-ms:300000}") long destinationIdleMs,
+      @Value("${invoices.webhooks.timeout-ms:5000}") long timeoutMs,
+      @Value("${invoices.webhooks.max-retries:5}") int maxRetries,
+      @Value("${invoices.webhooks.min-backoff-ms:1000}") long minBackoffMs,
+      @Value("${invoices.webhooks.max-backoff-ms:60000}") long maxBackoffMs) {
+    this.connectionProvider =
+        ConnectionProvider.builder("webhooks").maxConnections(maxConnections).build();
+    this.webClient =
+        webClientBuilder
+            .clientConnector(
+                new ReactorClientHttpConnector(
+                    HttpClient.create(this.connectionProvider)
+                        .responseTimeout(Duration.ofMillis(timeoutMs))))
+            .build();
+    this.meterRegistry = meterRegistry;
+    this.maxConcurrencyPerDestination = maxConcurrencyPerDestination;
+    this.maxQueuedPerDestination = maxQueuedPerDestination;
+    this.maxRetries = maxRetries;
+    this.minBackoff = Duration.ofMillis(minBackoffMs);
+    this.maxBackoff = Duration.ofMillis(maxBackoffMs);
+    long idleNanos = TimeUnit.MILLISECONDS.toNanos(destinationIdleMs);
+    this.destinations =
+        Caffeine.newBuilder()
+            .expireAfter(
+                new Expiry<String, Destination>() {
+                  @Override
+                  public long expireAfterCreate(
+                      String callbackUrl, Destination destination, long currentTime) {
+                    return destination.isBusy() ? Long.MAX_VALUE : idleNanos;
+                  }
+
+                  @Override
+                  public long expireAfterUpdate(
+                      String callbackUrl,
+                      Destination destination,
+                      long currentTime,
+                      long currentDuration) {
+                    return expireAfterCreate(callbackUrl, destination, currentTime);
+                  }
+
+                  @Override
+                  public long expireAfterRead(
+                      String callbackUrl,
+                      Destination destination,
+                      long currentTime,
+                      long currentDuration) {
+                    return expireAfterCreate(callbackUrl, destination, currentTime);
+                  }
+                })
+            .executor(Runnable::run)
+            .build();
+    meterRegistry.gauge(
+        "invoices.webhooks.destinations",
+        this.destinations,
+        (destinations) -> {
+          // -- expired destinations are otherwise only removed as others are used.
+          destinations.cleanUp();
+          return destinations.estimatedSize();
+        });
+  }
+
+  /**
+   * Send a batch of events to a URL, without blocking.
+   *
+   * @return completes once the batch has been delivered or given up on
+   */
+  public Mono<Void> send(String callbackUrl, List<InvoiceWebhookEvent> events) {
+    Destination destination =
+        this.destinations.get(
+            callbackUrl,
+            (url) -> new Destination(maxConcurrencyPerDestination, maxQueuedPerDestination));
+    Mono<Void> delivery =
+        Mono.usingWhen(
+                destination.acquire().doOnNext((permit) -> touch(callbackUrl)),
+                (permit) ->
+                    this.webClient
+                        .post()
+                        .uri(callbackUrl)
+                        .bodyValue(events)
+                        .retrieve()
+                        .toBodilessEntity(),
+                (permit) ->
+                    Mono.fromRunnable(
+                        () -> {
+                          destination.release();
+                          touch(callbackUrl);
+                        }))
+            .retryWhen(
+                Retry.backoff(maxRetries, minBackoff)
+                    .maxBackoff(maxBackoff)
+                    .filter(WebhookSender::isRetryable))
+            .doOnSuccess((r) -> delivered("SUCCESS", events.size()))
+            .doOnError(
+                (e) -> {
+                  delivered("FAILURE", events.size());
+                  log.warn(
+                      "Unable to deliver {} webhook events to {}: {}",
+                      events.size(),
+                      callbackUrl,
+                      e.getMessage());
+                })
+            .onErrorResume((e) -> Mono.empty())
+            .then()
+            .cache();
+    delivery.subscribe();
+    return delivery;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    this.connectionProvider.dispose();
+  }
+
+  /** Have the destination's expiry follow whether it is busy, now that it may have changed. */
+  private void touch(String callbackUrl) {
+    this.destinations.getIfPresent(callbackUrl);
+  }
+
+  private void delivered(String outcome, int events) {
+    this.meterRegistry.counter("invoices.webhooks.delivered", "outcome", outcome).increment(events);
+  }
+
+  private static boolean isRetryable(Throwable e) {
+    if (e instanceof WebClientResponseException) {
+      int status = ((WebClientResponseException) e).getRawStatusCode();
+      return status == HttpStatus.TOO_MANY_REQUESTS.value() || status >= 500;
+    }
+    return e instanceof WebClientRequestException;
+  }
+
+  /**
+   * The requests in flight to a destination and those waiting for a permit, handed one as soon as
+   * a request in flight is answered.
+   */
+  private static class Destination {
+
+    private final int maxInFlight;
+    private final int maxWaiting;
+    private final Queue<Waiter> waiting = new ArrayDeque<>();
+    private int inFlight;
+
+    Destination(int maxInFlight, int maxWaiting) {
+      this.maxInFlight = maxInFlight;
+      this.maxWaiting = maxWaiting;
+    }
+
+    synchronized boolean isBusy() {
+      return this.inFlight > 0 || !this.waiting.isEmpty();
+    }
+
+    Mono<Boolean> acquire() {
+      return Mono.create(
+          (sink) -> {
+            Waiter waiter = new Waiter(sink);
+            synchronized (this) {
+              if (this.inFlight < this.maxInFlight) {
+                this.inFlight++;
+              } else if (this.waiting.size() < this.maxWaiting) {
+                this.waiting.add(waiter);
+                // -- a waiter given up on is skipped when it reaches the front.
+                sink.onCancel(waiter::cancel);
+                return;
+              } else {
+                sink.error(
+                    new RejectedExecutionException("Too many deliveries are waiting for it"));
+                return;
+              }
+            }
+            waiter.grant();
+          });
+    }
+
+    void release() {
+      while (true) {
+        Waiter next;
+        synchronized (this) {
+          next = this.waiting.poll();
+          if (next == null) {
+            this.inFlight--;
+            return;
+          }
+        }
+        // -- the permit passes straight to the next waiter still waiting for it.
+        if (next.grant()) {
+          return;
+        }
+      }
+    }
+  }
+
+  private static class Waiter {
+
+    private final MonoSink<Boolean> sink;
+    private final AtomicBoolean settled = new AtomicBoolean();
+
+    Waiter(MonoSink<Boolean> sink) {
+      this.sink = sink;
+    }
+
+    boolean grant() {
+      if (!this.settled.compareAndSet(false, true)) {
+        return false;
+      }
+      this.sink.success(true);
+      return true;
+    }
+
+    void cancel() {
+      this.settled.set(true);
+    }
+  }
+}
@@ -0,0 +1,25 @@
+CREATE TABLE invoices (
+  invoice_id VARCHAR(255) NOT NULL,
+  invoice_amount VARCHAR(255) NOT NULL,
+  amount_paid VARCHAR(255) NOT NULL,
+  amount_remaining VARCHAR(255) NOT NULL,
+  crypto_address VARCHAR(255) NOT NULL,
+  currency VARCHAR(255) NOT NULL,
+  chain VARCHAR(255) NOT NULL,
+  chain_environment VARCHAR(255),
+  invoice_status INTEGER NOT NULL,
+  due_date TIMESTAMP NOT NULL,
+  PRIMARY KEY (invoice_id)
+);
+
+CREATE INDEX idx_invoices_status_due_date ON invoices (invoice_status, due_date);
+CREATE INDEX idx_invoices_crypto_address ON invoices (crypto_address);
+
+CREATE TABLE crypto_address_pool (
+  crypto_address VARCHAR(255) NOT NULL,
+  chain_key VARCHAR(255) NOT NULL,
+  created_at TIMESTAMP NOT NULL,
+  PRIMARY KEY (crypto_address)
+);
+
+CREATE INDEX idx_crypto_address_pool_chain_key ON crypto_address_pool (chain_key, created_at);
@@ -0,0 +1,22 @@
+-- Amounts move from decimal strings to whole minor units of the currency. Every invoice stored so
+-- far is on the XRPL, whose amounts have 6 decimal places (drops).
+ALTER TABLE invoices ADD COLUMN invoice_amount_units BIGINT;
+ALTER TABLE invoices ADD COLUMN amount_paid_units BIGINT;
+ALTER TABLE invoices ADD COLUMN amount_remaining_units BIGINT;
+ALTER TABLE invoices ADD COLUMN amount_scale INTEGER;
+
+UPDATE invoices SET
+  amount_scale = 6,
+  invoice_amount_units = CAST(ROUND(CAST(invoice_amount AS DECIMAL(38, 12)) * 1000000, 0) AS BIGINT),
+  amount_paid_units = CAST(ROUND(CAST(amount_paid AS DECIMAL(38, 12)) * 1000000, 0) AS BIGINT),
+  amount_remaining_units =
+    CAST(ROUND(CAST(amount_remaining AS DECIMAL(38, 12)) * 1000000, 0) AS BIGINT);
+
+ALTER TABLE invoices ALTER COLUMN invoice_amount_units SET NOT NULL;
+ALTER TABLE invoices ALTER COLUMN amount_paid_units SET NOT NULL;
+ALTER TABLE invoices ALTER COLUMN amount_remaining_units SET NOT NULL;
+ALTER TABLE invoices ALTER COLUMN amount_scale SET NOT NULL;
+
+ALTER TABLE invoices DROP COLUMN invoice_amount;
+ALTER TABLE invoices DROP COLUMN amount_paid;
+ALTER TABLE invoices DROP COLUMN amount_remaining;
@@ -0,0 +1,6 @@
+-- Listing seeks through (due_date, invoice_id), optionally narrowed by status or chain, so every
+-- index ends with those two columns and a page is read as one contiguous index range.
+DROP INDEX idx_invoices_status_due_date;
+CREATE INDEX idx_invoices_status_due_date ON invoices (invoice_status, due_date, invoice_id);
+CREATE INDEX idx_invoices_due_date ON invoices (due_date, invoice_id);
+CREATE INDEX idx_invoices_chain_due_date ON invoices (chain, chain_environment, due_date, invoice_id);
@@ -0,0 +1 @@
+ALTER TABLE invoices ADD COLUMN callback_url VARCHAR(2048);
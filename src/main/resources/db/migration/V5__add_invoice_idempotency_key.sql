@@ -0,0 +1,4 @@
+-- The Idempotency-Key a client created the invoice with. Retries of the same creation find the
+-- invoice through the unique index instead of creating a second one.
+ALTER TABLE invoices ADD COLUMN idempotency_key VARCHAR(255);
+CREATE UNIQUE INDEX idx_invoices_idempotency_key ON invoices (idempotency_key);
@@ -0,0 +1,15 @@
+-- Instances sharing the database split the monitoring of open invoices by leasing partitions of
+-- them. Each instance heartbeats in cluster_nodes, so the others know how many share the work, and
+-- holds the partitions it claimed in partition_leases until its lease lapses or it releases them.
+CREATE TABLE cluster_nodes (
+  node_id VARCHAR(64) NOT NULL,
+  expires_at TIMESTAMP NOT NULL,
+  PRIMARY KEY (node_id)
+);
+
+CREATE TABLE partition_leases (
+  partition_id INTEGER NOT NULL,
+  owner VARCHAR(64),
+  expires_at TIMESTAMP,
+  PRIMARY KEY (partition_id)
+);
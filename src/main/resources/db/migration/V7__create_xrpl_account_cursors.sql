@@ -0,0 +1,8 @@
+-- How far the transactions of each XRPL address have been scanned for payments, and the drops
+-- they delivered up to that ledger, so that a scan only reads the transactions added since.
+CREATE TABLE xrpl_account_cursors (
+  crypto_address VARCHAR(255) NOT NULL,
+  ledger_index BIGINT NOT NULL,
+  received_drops BIGINT NOT NULL,
+  PRIMARY KEY (crypto_address)
+);
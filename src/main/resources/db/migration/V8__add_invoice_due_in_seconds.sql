@@ -0,0 +1,3 @@
+-- The due_in_seconds an invoice was requested with. A retry with the same Idempotency-Key has to
+-- ask for the same term, which the due date alone cannot tell once time has passed.
+ALTER TABLE invoices ADD COLUMN due_in_seconds INT;
@@ -0,0 +1,200 @@
+package com.chrisopler.cryptoinvoices.server.blockchain;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.chrisopler.cryptoinvoices.server.errors.ChainUnavailableException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+class CachingBlockchainIntegrationTest {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final CountingIntegration delegate = new CountingIntegration();
+
+  @Test
+  public void concurrentMissesShareOneLookup() {
+    CachingBlockchainIntegration caching =
+        new CachingBlockchainIntegration(delegate, Duration.ofMinutes(1), 10, meterRegistry);
+
+    Sinks.One<BigDecimal> pending = Sinks.one();
+    delegate.next = pending.asMono();
+    Mono<BigDecimal> first = caching.getBalance("rA").cache();
+    Mono<BigDecimal> second = caching.getBalance("rA").cache();
+    first.subscribe();
+    second.subscribe();
+    pending.tryEmitValue(BigDecimal.TEN);
+
+    assertEquals(BigDecimal.TEN, first.block());
+    assertEquals(BigDecimal.TEN, second.block());
+    assertEquals(BigDecimal.TEN, caching.getBalance("rA").block());
+    assertEquals(1, delegate.lookups.get());
+    assertEquals(1, count("miss"));
+    assertEquals(1, count("coalesced"));
+    assertEquals(1, count("hit"));
+  }
+
+  @Test
+  public void balancesExpireAndAreEvicted() throws Exception {
+    CachingBlockchainIntegration caching =
+        new CachingBlockchainIntegration(delegate, Duration.ofMillis(50), 1, meterRegistry);
+
+    caching.getBalance("rA").block();
+    caching.getBalance("rA").block();
+    assertEquals(1, delegate.lookups.get());
+
+    Thread.sleep(100);
+    caching.getBalance("rA").block();
+    assertEquals(2, delegate.lookups.get());
+
+    // -- only one address fits, so one of rA and rB is looked up again.
+    caching.getBalance("rB").block();
+    caching.getBalance("rA").block();
+    caching.getBalance("rB").block();
+    assertTrue(delegate.lookups.get() > 3);
+  }
+
+  @Test
+  public void failedLookupsAreNotCached() {
+    CachingBlockchainIntegration caching =
+        new CachingBlockchainIntegration(delegate, Duration.ofMinutes(1), 10, meterRegistry);
+
+    delegate.next = Mono.error(new IllegalStateException("rippled unavailable"));
+    caching.getBalance("rA").onErrorResume((e) -> Mono.empty()).block();
+    assertEquals(BigDecimal.ONE, caching.getBalance("rA").block());
+    assertEquals(2, delegate.lookups.get());
+  }
+
+  @Test
+  public void lastKnownBalancesAreServedWhileTheChainIsUnavailable() throws Exception {
+    CachingBlockchainIntegration caching =
+        new CachingBlockchainIntegration(delegate, Duration.ofMillis(50), 10, meterRegistry);
+
+    caching.getBalance("rA").block();
+    Thread.sleep(100);
+    delegate.next = Mono.error(new ChainUnavailableException("The TEST/default chain timed out"));
+    assertEquals(BigDecimal.ONE, caching.getBalance("rA").block());
+    assertEquals(1, count("stale"));
+
+    delegate.next = Mono.error(new ChainUnavailableException("The TEST/default chain timed out"));
+    assertThrows(RuntimeException.class, () -> caching.getBalance("rB").block());
+  }
+
+  @Test
+  public void batchesOnlyLookUpTheAddressesNotCached() {
+    CachingBlockchainIntegration caching =
+        new CachingBlockchainIntegration(delegate, Duration.ofMinutes(1), 10, meterRegistry);
+
+    caching.getBalance("rA").block();
+    List<AddressBalance> balances =
+        caching.getBalances(Arrays.asList("rA", "rB", "rC")).collectList().block();
+    assertEquals(3, balances.size());
+    assertEquals(3, delegate.lookups.get());
+
+    caching.getBalances(Arrays.asList("rB", "rC")).blockLast();
+    assertEquals(3, delegate.lookups.get());
+    assertEquals(3, count("hit"));
+  }
+
+  @Test
+  public void lookupsInFlightWhenAPaymentIsPushedDoNotCacheTheOldBalance() {
+    CachingBlockchainIntegration caching =
+        new CachingBlockchainIntegration(delegate, Duration.ofMinutes(1), 10, meterRegistry);
+    caching.paymentNotifications().subscribe();
+
+    Sinks.One<BigDecimal> beforePayment = Sinks.one();
+    delegate.next = beforePayment.asMono();
+    Mono<BigDecimal> late = caching.getBalance("rA").cache();
+    late.subscribe();
+    delegate.payments.tryEmitNext("rA");
+
+    // -- a lookup after the payment does not share the one started before it.
+    delegate.next = Mono.just(BigDecimal.TEN);
+    assertEquals(BigDecimal.TEN, caching.getBalance("rA").block());
+    beforePayment.tryEmitValue(BigDecimal.ONE);
+    assertEquals(BigDecimal.ONE, late.block());
+
+    assertEquals(BigDecimal.TEN, caching.getBalance("rA").block());
+    assertEquals(
+        BigDecimal.TEN, caching.getBalances(Arrays.asList("rA")).blockLast().getBalance());
+    assertEquals(2, delegate.lookups.get());
+  }
+
+  @Test
+  public void batchLookupsInFlightWhenAPaymentIsPushedDoNotCacheTheOldBalance() {
+    CachingBlockchainIntegration caching =
+        new CachingBlockchainIntegration(delegate, Duration.ofMinutes(1), 10, meterRegistry);
+    caching.paymentNotifications().subscribe();
+
+    Sinks.One<BigDecimal> beforePayment = Sinks.one();
+    delegate.next = beforePayment.asMono();
+    Mono<List<AddressBalance>> late =
+        caching.getBalances(Arrays.asList("rA")).collectList().cache();
+    late.subscribe();
+    delegate.payments.tryEmitNext("rA");
+    beforePayment.tryEmitValue(BigDecimal.ONE);
+    assertEquals(BigDecimal.ONE, late.block().get(0).getBalance());
+
+    delegate.next = Mono.just(BigDecimal.TEN);
+    assertEquals(BigDecimal.TEN, caching.getBalance("rA").block());
+    assertEquals(2, delegate.lookups.get());
+  }
+
+  private double count(String result) {
+    return meterRegistry.get("invoices.balance.cache").tag("result", result).counter().count();
+  }
+
+  private static class CountingIntegration implements BlockchainIntegration {
+
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final Sinks.Many<String> payments = Sinks.many().multicast().directBestEffort();
+    private Mono<BigDecimal> next;
+
+    @Override
+    public String chainKey() {
+      return "TEST/default";
+    }
+
+    @Override
+    public Mono<String> createNewCryptoAddress() {
+      return Mono.just("rNew");
+    }
+
+    @Override
+    public Mono<BigDecimal> getBalance(String cryptoAddress) {
+      return Mono.defer(
+          () -> {
+            lookups.incrementAndGet();
+            Mono<BigDecimal> result = next != null ? next : Mono.just(BigDecimal.ONE);
+            next = null;
+            return result;
+          });
+    }
+
+    @Override
+    public Flux<String> paymentNotifications() {
+      return payments.asFlux();
+    }
+
+    @Override
+    public int getDecimalPrecision() {
+      return 6;
+    }
+
+    @Override
+    public RoundingMode getRoundingMode() {
+      return RoundingMode.HALF_DOWN;
+    }
+  }
+}
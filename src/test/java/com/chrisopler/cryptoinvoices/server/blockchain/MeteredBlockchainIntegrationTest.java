@@ -0,0 +1,97 @@
+package com.chrisopler.cryptoinvoices.server.blockchain;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+class MeteredBlockchainIntegrationTest {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final StubIntegration delegate = new StubIntegration();
+  private final MeteredBlockchainIntegration metered =
+      new MeteredBlockchainIntegration(delegate, meterRegistry);
+
+  @Test
+  public void callsAreTimedWhenTheyComplete() throws Exception {
+    Mono<BigDecimal> balance = metered.getBalance("rA");
+    Mono<String> address = metered.createNewCryptoAddress();
+    assertEquals(0, meterRegistry.find(MeteredBlockchainIntegration.METRIC_NAME).timers().size());
+
+    balance.block();
+    address.block();
+    assertEquals(1, timer("getBalance", "none").count());
+    assertEquals(1, timer("createNewCryptoAddress", "none").count());
+  }
+
+  @Test
+  public void callsAreTimedFromSubscription() throws Exception {
+    Mono<String> address = metered.createNewCryptoAddress();
+    Thread.sleep(200);
+
+    address.block();
+    assertTrue(timer("createNewCryptoAddress", "none").totalTime(TimeUnit.MILLISECONDS) < 200);
+  }
+
+  @Test
+  public void eachLookupOfABatchIsTimed() {
+    delegate.balance = Mono.just(BigDecimal.ONE);
+    metered.getBalances(Arrays.asList("rA", "rB", "rC")).blockLast();
+    assertEquals(3, timer("getBalance", "none").count());
+  }
+
+  @Test
+  public void failedCallsAreTaggedWithTheirError() {
+    delegate.balance = Mono.error(new IllegalStateException("rippled unavailable"));
+    assertThrows(IllegalStateException.class, () -> metered.getBalance("rA").block());
+    assertEquals(1, timer("getBalance", "IllegalStateException").count());
+  }
+
+  private Timer timer(String operation, String exception) {
+    return meterRegistry
+        .get(MeteredBlockchainIntegration.METRIC_NAME)
+        .tag("chain", "XRPL/TESTNET")
+        .tag("operation", operation)
+        .tag("exception", exception)
+        .timer();
+  }
+
+  private static class StubIntegration implements BlockchainIntegration {
+
+    private Mono<BigDecimal> balance = Mono.just(BigDecimal.ONE);
+
+    @Override
+    public String chainKey() {
+      return "XRPL/TESTNET";
+    }
+
+    @Override
+    public Mono<String> createNewCryptoAddress() {
+      return Mono.just("rA");
+    }
+
+    @Override
+    public Mono<BigDecimal> getBalance(String cryptoAddress) {
+      return balance;
+    }
+
+    @Override
+    public int getDecimalPrecision() {
+      return 6;
+    }
+
+    @Override
+    public RoundingMode getRoundingMode() {
+      return RoundingMode.HALF_DOWN;
+    }
+  }
+}
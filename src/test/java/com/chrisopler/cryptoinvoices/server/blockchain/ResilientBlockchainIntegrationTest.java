@@ -0,0 +1,220 @@
+package com.chrisopler.cryptoinvoices.server.blockchain;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.chrisopler.cryptoinvoices.server.errors.BadRequestException;
+import com.chrisopler.cryptoinvoices.server.errors.ChainUnavailableException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+class ResilientBlockchainIntegrationTest {
+
+  private static final ResilienceSettings SETTINGS =
+      ResilienceSettings.builder()
+          .maxConcurrentCalls(2)
+          .balanceTimeout(Duration.ofMillis(100))
+          .createAddressTimeout(Duration.ofSeconds(1))
+          .slidingWindowSize(4)
+          .minimumCalls(4)
+          .failureRateThreshold(50)
+          .openDuration(Duration.ofMillis(200))
+          .halfOpenCalls(2)
+          .build();
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final StubIntegration delegate = new StubIntegration();
+  private final ResilientBlockchainIntegration resilient =
+      new ResilientBlockchainIntegration(delegate, SETTINGS, meterRegistry);
+
+  @Test
+  public void callsBeyondTheBulkheadAreRejected() {
+    Sinks.One<BigDecimal> pending = Sinks.one();
+    delegate.balance = pending.asMono();
+    resilient.getBalance("rA").subscribe();
+    resilient.getBalance("rB").subscribe();
+
+    assertUnavailable(resilient.getBalance("rC"));
+    assertEquals(1, rejected("bulkhead"));
+
+    pending.tryEmitValue(BigDecimal.TEN);
+    delegate.balance = Mono.just(BigDecimal.ONE);
+    assertEquals(BigDecimal.ONE, resilient.getBalance("rC").block());
+  }
+
+  @Test
+  public void eachLookupOfABatchTakesItsOwnPermit() {
+    Sinks.One<BigDecimal> pending = Sinks.one();
+    delegate.balance = pending.asMono();
+    delegate.balanceConcurrency = 3;
+    Mono<List<AddressBalance>> balances =
+        resilient.getBalances(Arrays.asList("rA", "rB", "rC")).collectList().cache();
+    balances.subscribe();
+
+    assertEquals(1, rejected("bulkhead"));
+    pending.tryEmitValue(BigDecimal.TEN);
+    List<AddressBalance> looked = balances.block();
+    assertEquals(2, looked.stream().filter((b) -> !b.isFailed()).count());
+    assertEquals(
+        ChainUnavailableException.class,
+        looked.stream().filter(AddressBalance::isFailed).findFirst().get().getError().getClass());
+  }
+
+  @Test
+  public void slowCallsTimeOut() {
+    delegate.balance = Mono.never();
+    assertUnavailable(resilient.getBalance("rA"));
+    // -- the timed out call gave back its bulkhead permit.
+    delegate.balance = Mono.just(BigDecimal.ONE);
+    resilient.getBalance("rA").block();
+    resilient.getBalance("rB").block();
+  }
+
+  @Test
+  public void theBreakerOpensOnFailuresAndClosesOnceTheChainRecovers() throws Exception {
+    delegate.balance = Mono.just(BigDecimal.ONE);
+    resilient.getBalance("rA").block();
+    resilient.getBalance("rA").block();
+    delegate.balance = Mono.error(new IllegalStateException("rippled unavailable"));
+    assertThrows(IllegalStateException.class, () -> resilient.getBalance("rA").block());
+    assertEquals(CircuitBreaker.State.CLOSED, resilient.getCircuitState());
+    assertThrows(IllegalStateException.class, () -> resilient.getBalance("rA").block());
+    assertEquals(CircuitBreaker.State.OPEN, resilient.getCircuitState());
+
+    // -- while open, calls fail fast without reaching the chain.
+    int calls = delegate.calls.get();
+    assertUnavailable(resilient.getBalance("rA"));
+    assertEquals(calls, delegate.calls.get());
+    assertEquals(1, rejected("circuit_open"));
+    assertEquals(2, gauge());
+
+    Thread.sleep(250);
+    delegate.balance = Mono.just(BigDecimal.ONE);
+    resilient.getBalance("rA").block();
+    assertEquals(CircuitBreaker.State.HALF_OPEN, resilient.getCircuitState());
+    resilient.getBalance("rA").block();
+    assertEquals(CircuitBreaker.State.CLOSED, resilient.getCircuitState());
+    assertEquals(0, gauge());
+  }
+
+  @Test
+  public void aFailedTrialCallOpensTheBreakerAgain() throws Exception {
+    delegate.balance = Mono.error(new IllegalStateException("rippled unavailable"));
+    for (int i = 0; i < 4; i++) {
+      assertThrows(IllegalStateException.class, () -> resilient.getBalance("rA").block());
+    }
+    assertEquals(CircuitBreaker.State.OPEN, resilient.getCircuitState());
+
+    Thread.sleep(250);
+    assertThrows(IllegalStateException.class, () -> resilient.getBalance("rA").block());
+    assertEquals(CircuitBreaker.State.OPEN, resilient.getCircuitState());
+    assertUnavailable(resilient.getBalance("rA"));
+  }
+
+  @Test
+  public void answersOfTheChainDoNotOpenTheBreaker() {
+    // -- rippled answers so for an unfunded or unknown account.
+    delegate.balance = Mono.error(new BadRequestException("Account not found."));
+    for (int i = 0; i < 4; i++) {
+      assertFails(BadRequestException.class, resilient.getBalance("rA"));
+    }
+    delegate.balance = Mono.error(httpError(404));
+    assertFails(WebClientResponseException.NotFound.class, resilient.getBalance("rA"));
+    assertEquals(CircuitBreaker.State.CLOSED, resilient.getCircuitState());
+
+    delegate.balance = Mono.error(httpError(503));
+    for (int i = 0; i < 2; i++) {
+      assertFails(WebClientResponseException.ServiceUnavailable.class, resilient.getBalance("rA"));
+    }
+    assertEquals(CircuitBreaker.State.OPEN, resilient.getCircuitState());
+  }
+
+  @Test
+  public void theChainIsNotCalledWhileTheBreakerIsOpen() {
+    delegate.balance = Mono.error(new IllegalStateException("rippled unavailable"));
+    for (int i = 0; i < 4; i++) {
+      assertFails(IllegalStateException.class, resilient.getBalance("rA"));
+    }
+    int requested = delegate.requested.get();
+
+    assertUnavailable(resilient.getBalance("rA"));
+    assertEquals(requested, delegate.requested.get());
+  }
+
+  private void assertUnavailable(Mono<BigDecimal> balance) {
+    assertFails(ChainUnavailableException.class, balance);
+  }
+
+  private void assertFails(Class<? extends Throwable> error, Mono<BigDecimal> balance) {
+    RuntimeException e = assertThrows(RuntimeException.class, balance::block);
+    assertEquals(error, Exceptions.unwrap(e).getClass());
+  }
+
+  private static WebClientResponseException httpError(int status) {
+    return WebClientResponseException.create(status, "", HttpHeaders.EMPTY, new byte[0], null);
+  }
+
+  private double rejected(String reason) {
+    return meterRegistry.get("invoices.chain.rejected").tag("reason", reason).counter().count();
+  }
+
+  private double gauge() {
+    return meterRegistry.get("invoices.chain.circuit.state").gauge().value();
+  }
+
+  private static class StubIntegration implements BlockchainIntegration {
+
+    private final AtomicInteger requested = new AtomicInteger();
+    private final AtomicInteger calls = new AtomicInteger();
+    private Mono<BigDecimal> balance = Mono.just(BigDecimal.ONE);
+    private int balanceConcurrency = 1;
+
+    @Override
+    public String chainKey() {
+      return "XRPL/TESTNET";
+    }
+
+    @Override
+    public Mono<String> createNewCryptoAddress() {
+      return Mono.just("rA");
+    }
+
+    @Override
+    public Mono<BigDecimal> getBalance(String cryptoAddress) {
+      requested.incrementAndGet();
+      Mono<BigDecimal> result = balance;
+      return Mono.defer(
+          () -> {
+            calls.incrementAndGet();
+            return result;
+          });
+    }
+
+    @Override
+    public int getBalanceConcurrency() {
+      return balanceConcurrency;
+    }
+
+    @Override
+    public int getDecimalPrecision() {
+      return 6;
+    }
+
+    @Override
+    public RoundingMode getRoundingMode() {
+      return RoundingMode.HALF_DOWN;
+    }
+  }
+}
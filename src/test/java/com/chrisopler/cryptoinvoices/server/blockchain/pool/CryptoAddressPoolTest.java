@@ -0,0 +1,142 @@
+package com.chrisopler.cryptoinvoices.server.blockchain.pool;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.chrisopler.cryptoinvoices.server.blockchain.BlockchainIntegration;
+import com.chrisopler.cryptoinvoices.server.blockchain.BlockchainIntegrationFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import reactor.core.publisher.Mono;
+
+class CryptoAddressPoolTest {
+
+  private static final String CHAIN_KEY = "TEST/default";
+
+  // -- the pooled addresses, standing in for the crypto_address_pool table.
+  private final Map<String, PooledCryptoAddress> pooled = new ConcurrentHashMap<>();
+  private final AtomicInteger created = new AtomicInteger();
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final BlockchainIntegration integration = mock(BlockchainIntegration.class);
+  private volatile Duration faucetDelay = Duration.ZERO;
+  private CryptoAddressPool pool;
+
+  @BeforeEach
+  public void start() throws Exception {
+    PooledCryptoAddressRepository repository = mock(PooledCryptoAddressRepository.class);
+    when(repository.countByChainKey(CHAIN_KEY)).thenAnswer((i) -> (long) pooled.size());
+    when(repository.save(any()))
+        .thenAnswer(
+            (i) -> {
+              PooledCryptoAddress address = i.getArgument(0);
+              pooled.put(address.getCryptoAddress(), address);
+              return address;
+            });
+    when(repository.findByChainKeyOrderByCreatedAt(anyString(), any()))
+        .thenAnswer(
+            (i) ->
+                pooled.values().stream()
+                    .sorted(Comparator.comparing(PooledCryptoAddress::getCreatedAt))
+                    .limit(i.<Pageable>getArgument(1).getPageSize())
+                    .collect(Collectors.toList()));
+    when(repository.claim(anyString()))
+        .thenAnswer((i) -> pooled.remove(i.<String>getArgument(0)) != null ? 1 : 0);
+
+    when(integration.chainKey()).thenReturn(CHAIN_KEY);
+    when(integration.createNewCryptoAddress())
+        .thenAnswer(
+            (i) ->
+                Mono.delay(faucetDelay).map((t) -> "created-" + created.incrementAndGet()));
+    BlockchainIntegrationFactory factory = mock(BlockchainIntegrationFactory.class);
+    when(factory.getIntegrations()).thenReturn(Collections.singletonList(integration));
+
+    // -- refilled below 2 addresses, up to 4.
+    this.pool = new CryptoAddressPool(repository, factory, meterRegistry, true, 2, 4, 2);
+  }
+
+  @AfterEach
+  public void stop() {
+    this.pool.stopRefills();
+  }
+
+  @Test
+  public void claimsTakeAPooledAddress() {
+    pool("a", "b");
+
+    String claimed = pool.claim(integration).block();
+
+    assertTrue(claimed.equals("a") || claimed.equals("b"), claimed);
+    assertEquals(1, pooled.size());
+    assertEquals(0, created.get());
+  }
+
+  @Test
+  public void anExhaustedPoolFallsBackToCreatingAnAddress() {
+    assertEquals("created-1", pool.claim(integration).block());
+    assertEquals(1, meterRegistry.get("invoices.address.pool.exhausted").counter().count());
+  }
+
+  @Test
+  public void aReleasedAddressIsClaimedAgain() {
+    pool.release(integration, "a").block();
+
+    assertEquals("a", pool.claim(integration).block());
+    assertEquals(0, pooled.size());
+    assertEquals(0, created.get());
+    assertEquals(1, meterRegistry.get("invoices.address.pool.released").counter().count());
+  }
+
+  @Test
+  public void poolsAreRefilledUpToTheHighWaterMark() {
+    pool("a");
+
+    pool.refill();
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> pooled.size() == 4);
+    assertEquals(3, created.get());
+  }
+
+  @Test
+  public void aSlowChainDoesNotHoldUpTheRefillCall() {
+    faucetDelay = Duration.ofSeconds(1);
+
+    long started = System.nanoTime();
+    pool.refill();
+    // -- a second run while the first is still waiting on the chain leaves it be.
+    pool.refill();
+    assertTrue(Duration.ofNanos(System.nanoTime() - started).toMillis() < 500);
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> pooled.size() == 4);
+    assertEquals(4, created.get());
+  }
+
+  private void pool(String... cryptoAddresses) {
+    for (String cryptoAddress : cryptoAddresses) {
+      pooled.put(
+          cryptoAddress,
+          PooledCryptoAddress.builder()
+              .cryptoAddress(cryptoAddress)
+              .chainKey(CHAIN_KEY)
+              .createdAt(Instant.now())
+              .build());
+    }
+  }
+}
@@ -0,0 +1,244 @@
+package com.chrisopler.cryptoinvoices.server.blockchain.xrpl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+/**
+ * A local stand-in for a rippled JSON-RPC endpoint, answering account_info requests with the same
+ * balance for every account but the unknown ones and those given account data of their own, and
+ * account_tx requests with the payments made through it, each validated in a ledger of its own. It
+ * can be made to respond slowly or fail, and stand-ins sharing a stall counter take turns stalling
+ * the next few requests, whichever of them receives those requests.
+ */
+public class RippledJsonRpcStandIn implements AutoCloseable {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private static final String ACCOUNT_INFO =
+      "{\"result\":{\"account_data\":{\"Balance\":\"%d\"},\"status\":\"success\"}}";
+
+  private static final String ACCOUNT_DATA =
+      "{\"result\":{\"account_data\":%s,\"status\":\"success\"}}";
+
+  private static final String ACCOUNT_NOT_FOUND =
+      "{\"result\":{\"error\":\"actNotFound\",\"error_message\":\"Account not found.\","
+          + "\"status\":\"error\"}}";
+
+  private static final Duration STALL = Duration.ofSeconds(5);
+
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger maxInFlight = new AtomicInteger();
+  private final Set<String> unknownAccounts = ConcurrentHashMap.newKeySet();
+  private final Map<String, String> accountData = new ConcurrentHashMap<>();
+  private final Map<String, List<ObjectNode>> transactions = new ConcurrentHashMap<>();
+  private final AtomicLong validatedLedger = new AtomicLong(1_000);
+  private final AtomicInteger transactionsSent = new AtomicInteger();
+  private final AtomicInteger stallsLeft;
+  private volatile Duration delay = Duration.ZERO;
+  private volatile boolean failing;
+  private final DisposableServer server;
+
+  public RippledJsonRpcStandIn(long balance, AtomicInteger stallsLeft) {
+    this.stallsLeft = stallsLeft;
+    this.server =
+        HttpServer.create()
+            .host("localhost")
+            .port(0)
+            .route(
+                (routes) ->
+                    routes.post(
+                        "/",
+                        (request, response) ->
+                            request
+                                .receive()
+                                .aggregate()
+                                .asString()
+                                .flatMap(
+                                    (body) -> {
+                                      this.requests.incrementAndGet();
+                                      int current = this.inFlight.incrementAndGet();
+                                      this.maxInFlight.accumulateAndGet(current, Math::max);
+                                      Duration delay =
+                                          this.stallsLeft.getAndDecrement() > 0
+                                              ? STALL
+                                              : this.delay;
+                                      return Mono.delay(delay)
+                                          .thenReturn(answer(body, balance))
+                                          // -- a batch lookup may send its next request as soon
+                                          // -- as it reads this answer, before doFinally runs.
+                                          .doOnTerminate(this.inFlight::decrementAndGet);
+                                    })
+                                .flatMap(
+                                    (answer) ->
+                                        this.failing
+                                            ? response
+                                                .status(HttpResponseStatus.SERVICE_UNAVAILABLE)
+                                                .send()
+                                                .then()
+                                            : response
+                                                .header(
+                                                    HttpHeaderNames.CONTENT_TYPE,
+                                                    "application/json")
+                                                .sendString(Mono.just(answer))
+                                                .then())))
+            .bindNow();
+  }
+
+  public URI uri() {
+    return URI.create("http://localhost:" + this.server.port() + "/");
+  }
+
+  public void respondAfter(Duration delay) {
+    this.delay = delay;
+  }
+
+  /** Respond to every request with a 503. */
+  public void fail(boolean failing) {
+    this.failing = failing;
+  }
+
+  /** Answer account_info requests for the account as rippled does for an unfunded account. */
+  public void unknownAccount(String account) {
+    this.unknownAccounts.add(account);
+  }
+
+  /** Answer account_info requests for the account with the account_data given, as JSON. */
+  public void accountData(String account, String accountData) {
+    this.accountData.put(account, accountData);
+  }
+
+  /** Fund an account from the faucet, with the payment that creates it. */
+  public void fund(String account, long drops) {
+    pay(account, drops, true);
+  }
+
+  /** Pay an account in the next ledger. */
+  public void pay(String account, long drops) {
+    pay(account, drops, false);
+  }
+
+  /** Validate a ledger without any payment in it. */
+  public void closeLedger() {
+    this.validatedLedger.incrementAndGet();
+  }
+
+  /** The transactions sent in answer to account_tx requests. */
+  public int transactionsSent() {
+    return this.transactionsSent.get();
+  }
+
+  public int requestCount() {
+    return this.requests.get();
+  }
+
+  public int maxInFlight() {
+    return this.maxInFlight.get();
+  }
+
+  @Override
+  public void close() {
+    this.server.disposeNow();
+  }
+
+  private synchronized void pay(String account, long drops, boolean creates) {
+    long ledgerIndex = this.validatedLedger.incrementAndGet();
+    ObjectNode transaction = OBJECT_MAPPER.createObjectNode();
+    ObjectNode tx = transaction.putObject("tx");
+    tx.put("TransactionType", "Payment");
+    tx.put("Account", creates ? "rFaucet" : "rPayer");
+    tx.put("Destination", account);
+    tx.put("Amount", String.valueOf(drops));
+    tx.put("ledger_index", ledgerIndex);
+    ObjectNode meta = transaction.putObject("meta");
+    meta.put("TransactionResult", "tesSUCCESS");
+    meta.put("delivered_amount", String.valueOf(drops));
+    ObjectNode node = meta.putArray("AffectedNodes").addObject();
+    if (creates) {
+      node.putObject("CreatedNode")
+          .put("LedgerEntryType", "AccountRoot")
+          .putObject("NewFields")
+          .put("Account", account);
+    } else {
+      node.putObject("ModifiedNode").put("LedgerEntryType", "AccountRoot");
+    }
+    transaction.put("validated", true);
+    this.transactions
+        .computeIfAbsent(account, (a) -> new CopyOnWriteArrayList<>())
+        .add(transaction);
+  }
+
+  private String answer(String body, long balance) {
+    JsonNode request;
+    try {
+      request = OBJECT_MAPPER.readTree(body);
+    } catch (Exception e) {
+      throw new IllegalArgumentException(body, e);
+    }
+    JsonNode params = request.path("params").path(0);
+    String account = params.path("account").asText();
+    if (this.unknownAccounts.contains(account)) {
+      return ACCOUNT_NOT_FOUND;
+    }
+    if ("account_tx".equals(request.path("method").asText())) {
+      return accountTx(account, params);
+    }
+    if (this.accountData.containsKey(account)) {
+      return String.format(ACCOUNT_DATA, this.accountData.get(account));
+    }
+    return String.format(ACCOUNT_INFO, balance);
+  }
+
+  /** The transactions of the account between the ledgers, a page at a time. */
+  private String accountTx(String account, JsonNode params) {
+    long ledgerIndexMin = Math.max(0, params.path("ledger_index_min").asLong());
+    long ledgerIndexMax = params.path("ledger_index_max").asLong();
+    if (ledgerIndexMax < 0) {
+      ledgerIndexMax = this.validatedLedger.get();
+    }
+    long max = ledgerIndexMax;
+    List<ObjectNode> matching =
+        this.transactions.getOrDefault(account, Collections.emptyList()).stream()
+            .filter(
+                (t) -> {
+                  long ledgerIndex = t.path("tx").path("ledger_index").asLong();
+                  return ledgerIndex >= ledgerIndexMin && ledgerIndex <= max;
+                })
+            .collect(Collectors.toList());
+    int offset = params.path("marker").path("offset").asInt();
+    int limit = params.path("limit").asInt(200);
+    List<ObjectNode> page = matching.subList(offset, Math.min(matching.size(), offset + limit));
+    this.transactionsSent.addAndGet(page.size());
+
+    ObjectNode response = OBJECT_MAPPER.createObjectNode();
+    ObjectNode result = response.putObject("result");
+    result.put("account", account);
+    result.put("ledger_index_min", ledgerIndexMin);
+    result.put("ledger_index_max", ledgerIndexMax);
+    ArrayNode transactions = result.putArray("transactions");
+    page.forEach(transactions::add);
+    if (offset + limit < matching.size()) {
+      result.putObject("marker").put("offset", offset + limit);
+    }
+    result.put("status", "success");
+    return response.toString();
+  }
+}
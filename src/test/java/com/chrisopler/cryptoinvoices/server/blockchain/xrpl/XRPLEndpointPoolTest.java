@@ -0,0 +1,127 @@
+package com.chrisopler.cryptoinvoices.server.blockchain.xrpl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.chrisopler.cryptoinvoices.server.errors.BadRequestException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+
+class XRPLEndpointPoolTest {
+
+  private static final long BALANCE = 1_005_000_000L;
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final AtomicInteger stalls = new AtomicInteger();
+  private final RippledJsonRpcStandIn slow = new RippledJsonRpcStandIn(BALANCE, stalls);
+  private final RippledJsonRpcStandIn fast = new RippledJsonRpcStandIn(BALANCE, stalls);
+
+  @AfterEach
+  public void tearDown() {
+    slow.close();
+    fast.close();
+  }
+
+  @Test
+  public void readsGoToTheEndpointWithTheLowestLatency() {
+    slow.respondAfter(Duration.ofMillis(100));
+    XRPLEndpointPool pool = pool(false, 2);
+
+    for (int i = 0; i < 30; i++) {
+      assertEquals(BALANCE, pool.accountBalance("rA").block());
+    }
+    // -- both are tried first, after which the slow endpoint is only tried again under load.
+    assertEquals(1, slow.requestCount());
+    assertEquals(29, fast.requestCount());
+  }
+
+  @Test
+  public void failingEndpointsAreEjected() {
+    slow.fail(true);
+    XRPLEndpointPool pool = pool(false, 1);
+
+    int failures = 0;
+    for (int i = 0; i < 10; i++) {
+      Long balance = pool.accountBalance("rA").onErrorResume((e) -> Mono.empty()).block();
+      failures += balance == null ? 1 : 0;
+    }
+    // -- a 503 is answered quickly, so only ejection keeps the failing endpoint from being chosen.
+    assertEquals(1, failures);
+    assertEquals(1, slow.requestCount());
+    assertEquals(1.0, gauge("invoices.chain.endpoint.ejected", slow));
+  }
+
+  @Test
+  public void stalledReadsAreHedged() {
+    XRPLEndpointPool pool = pool(true, 2);
+    for (int i = 0; i < 64; i++) {
+      pool.accountBalance("rA").block();
+    }
+
+    stalls.set(1);
+    long started = System.nanoTime();
+    assertEquals(BALANCE, pool.accountBalance("rA").block());
+    long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+    assertTrue(elapsedMs < 1_000, elapsedMs + " ms");
+    assertEquals(1, meterRegistry.get("invoices.chain.hedges").counter().count());
+  }
+
+  @Test
+  public void unreachableEndpointsAreHedgedAtOnce() {
+    // -- so that the read is not timed with the first connections the client makes.
+    XRPLEndpointPool warmed = pool(false, 1);
+    warmed.accountBalance("rA").block();
+    warmed.accountBalance("rA").block();
+    slow.fail(true);
+    XRPLEndpointPool pool = pool(true, 1);
+
+    // -- neither endpoint is measured by this pool, so the read goes to the failing one first.
+    long started = System.nanoTime();
+    assertEquals(BALANCE, pool.accountBalance("rA").block());
+    long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+    // -- rather than after the hedging delay of a second used until latencies are known.
+    assertTrue(elapsedMs < 500, elapsedMs + " ms");
+    assertEquals(2, slow.requestCount());
+    assertEquals(1, meterRegistry.get("invoices.chain.hedges").counter().count());
+  }
+
+  @Test
+  public void errorsAnsweredByRippledAreNotHedged() {
+    XRPLEndpointPool pool = pool(true, 2);
+    for (int i = 0; i < 64; i++) {
+      pool.accountBalance("rA").block();
+    }
+    slow.unknownAccount("rB");
+    fast.unknownAccount("rB");
+
+    Throwable error =
+        Exceptions.unwrap(
+            assertThrows(RuntimeException.class, () -> pool.accountBalance("rB").block()));
+
+    assertTrue(error instanceof BadRequestException, error.toString());
+    assertEquals(0, meterRegistry.get("invoices.chain.hedges").counter().count());
+  }
+
+  private XRPLEndpointPool pool(boolean hedging, int ejectionFailures) {
+    return new XRPLEndpointPool(
+        "XRPL/TESTNET",
+        Arrays.asList(slow.uri(), fast.uri()),
+        ejectionFailures,
+        Duration.ofMinutes(1),
+        hedging,
+        Duration.ofMillis(50),
+        meterRegistry);
+  }
+
+  private double gauge(String name, RippledJsonRpcStandIn standIn) {
+    return meterRegistry.get(name).tag("endpoint", standIn.uri().toString()).gauge().value();
+  }
+}
@@ -0,0 +1,58 @@
+package com.chrisopler.cryptoinvoices.server.blockchain.xrpl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.chrisopler.cryptoinvoices.server.errors.BadRequestException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+
+class XRPLJsonRpcClientTest {
+
+  private static final long BALANCE = 1_005_000_000L;
+
+  private final RippledJsonRpcStandIn rippled =
+      new RippledJsonRpcStandIn(BALANCE, new AtomicInteger());
+  private final XRPLJsonRpcClient client = new XRPLJsonRpcClient(rippled.uri().toString());
+
+  @AfterEach
+  public void tearDown() {
+    rippled.close();
+  }
+
+  @Test
+  public void theBalanceIsReadFromAccountInfo() {
+    assertEquals(BALANCE, client.accountBalance("rA").block());
+  }
+
+  @Test
+  public void anUnknownAccountIsABadRequest() {
+    rippled.unknownAccount("rA");
+
+    assertFails(BadRequestException.class, client.accountBalance("rA"));
+  }
+
+  @Test
+  public void anAnswerWithoutABalanceFails() {
+    rippled.accountData("rA", "{}");
+
+    assertFails(IllegalStateException.class, client.accountBalance("rA"));
+  }
+
+  @Test
+  public void anAnswerWithABalanceThatIsNotANumberOfDropsFails() {
+    rippled.accountData("rA", "{\"Balance\":\"1000.5\"}");
+    rippled.accountData("rB", "{\"Balance\":\"-1\"}");
+
+    assertFails(IllegalStateException.class, client.accountBalance("rA"));
+    assertFails(IllegalStateException.class, client.accountBalance("rB"));
+  }
+
+  private static void assertFails(Class<? extends Throwable> error, Mono<Long> balance) {
+    RuntimeException e = assertThrows(RuntimeException.class, balance::block);
+    assertEquals(error, Exceptions.unwrap(e).getClass());
+  }
+}
@@ -0,0 +1,136 @@
+package com.chrisopler.cryptoinvoices.server.blockchain.xrpl;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+
+class XRPLPaymentStreamTest {
+
+  private XRPLStreamStandIn standIn;
+  private XRPLPaymentStream paymentStream;
+  private Disposable subscription;
+  private final List<String> payments = new CopyOnWriteArrayList<>();
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @BeforeEach
+  public void setUp() {
+    standIn = new XRPLStreamStandIn();
+    paymentStream = new XRPLPaymentStream("XRPL/TESTNET", standIn.uri(), 2, meterRegistry);
+    subscription = paymentStream.payments().subscribe(payments::add);
+    paymentStream.start();
+    await().atMost(5, TimeUnit.SECONDS).until(() -> standIn.connectionCount() == 2);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    subscription.dispose();
+    paymentStream.stop();
+    standIn.close();
+  }
+
+  @Test
+  public void incomingPaymentsAreReported() {
+    paymentStream.watch(Arrays.asList("rInvoiceA", "rInvoiceB", "rInvoiceC"));
+    await()
+        .atMost(5, TimeUnit.SECONDS)
+        .until(
+            () ->
+                standIn.isSubscribed("rInvoiceA")
+                    && standIn.isSubscribed("rInvoiceB")
+                    && standIn.isSubscribed("rInvoiceC"));
+
+    // -- not validated yet, outgoing from a watched address and to an unwatched address.
+    standIn.emitPayment("rPayer", "rInvoiceA", 10_000_000L, false);
+    standIn.emitPayment("rInvoiceB", "rSomeoneElse", 1_000L);
+    standIn.emitPayment("rPayer", "rUnwatched", 10_000_000L);
+    standIn.emitPayment("rPayer", "rInvoiceB", 10_000_000L);
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> payments.size() == 1);
+    assertEquals(Collections.singletonList("rInvoiceB"), payments);
+  }
+
+  @Test
+  public void paymentsAreBufferedWhileTheSubscriberIsBusy() {
+    subscription.dispose();
+    List<String> settled = new CopyOnWriteArrayList<>();
+    BaseSubscriber<String> busy =
+        new BaseSubscriber<String>() {
+          @Override
+          protected void hookOnSubscribe(Subscription s) {
+            request(1);
+          }
+
+          @Override
+          protected void hookOnNext(String cryptoAddress) {
+            settled.add(cryptoAddress);
+          }
+        };
+    paymentStream.payments().subscribe(busy);
+    subscription = busy;
+    paymentStream.watch(Arrays.asList("rInvoiceA", "rInvoiceB", "rInvoiceC"));
+    await()
+        .atMost(5, TimeUnit.SECONDS)
+        .until(
+            () ->
+                standIn.isSubscribed("rInvoiceA")
+                    && standIn.isSubscribed("rInvoiceB")
+                    && standIn.isSubscribed("rInvoiceC"));
+
+    standIn.emitPayment("rPayer", "rInvoiceA", 10_000_000L);
+    standIn.emitPayment("rPayer", "rInvoiceB", 10_000_000L);
+    standIn.emitPayment("rPayer", "rInvoiceC", 10_000_000L);
+    await().atMost(5, TimeUnit.SECONDS).until(() -> settled.size() == 1);
+
+    // -- the subscriber is done settling the first payment.
+    busy.request(2);
+    await().atMost(5, TimeUnit.SECONDS).until(() -> settled.size() == 3);
+    assertEquals(
+        new HashSet<>(Arrays.asList("rInvoiceA", "rInvoiceB", "rInvoiceC")),
+        new HashSet<>(settled));
+    assertEquals(0, meterRegistry.get("invoices.chain.stream.dropped").counter().count());
+  }
+
+  @Test
+  public void unwatchedAddressesAreUnsubscribed() {
+    paymentStream.watch(Arrays.asList("rInvoiceA", "rInvoiceB"));
+    await().atMost(5, TimeUnit.SECONDS).until(() -> standIn.isSubscribed("rInvoiceB"));
+
+    paymentStream.watch(Collections.singletonList("rInvoiceA"));
+    await().atMost(5, TimeUnit.SECONDS).until(() -> !standIn.isSubscribed("rInvoiceB"));
+    assertFalse(standIn.isSubscribed("rInvoiceB"));
+  }
+
+  @Test
+  public void subscriptionsAreRestoredAfterReconnecting() {
+    paymentStream.watch(Arrays.asList("rInvoiceA", "rInvoiceB"));
+    await().atMost(5, TimeUnit.SECONDS).until(() -> standIn.isSubscribed("rInvoiceA"));
+
+    standIn.disconnectAll();
+    await()
+        .atMost(10, TimeUnit.SECONDS)
+        .until(
+            () ->
+                standIn.acceptedConnectionCount() == 4
+                    && standIn.connectionCount() == 2
+                    && standIn.isSubscribed("rInvoiceA")
+                    && standIn.isSubscribed("rInvoiceB"));
+
+    standIn.emitPayment("rPayer", "rInvoiceA", 5_000_000L);
+    await().atMost(5, TimeUnit.SECONDS).until(() -> payments.contains("rInvoiceA"));
+  }
+}
@@ -0,0 +1,142 @@
+package com.chrisopler.cryptoinvoices.server.blockchain.xrpl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+/**
+ * A local stand-in for the rippled WebSocket API. It honours subscribe and unsubscribe commands
+ * for accounts and emits synthetic ledger transactions to the sessions subscribed to them.
+ */
+public class XRPLStreamStandIn implements AutoCloseable {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private final CopyOnWriteArrayList<Session> sessions = new CopyOnWriteArrayList<>();
+  private final AtomicInteger sequence = new AtomicInteger();
+  private final AtomicInteger acceptedConnections = new AtomicInteger();
+  private final DisposableServer server;
+
+  public XRPLStreamStandIn() {
+    this.server =
+        HttpServer.create()
+            .host("localhost")
+            .port(0)
+            .route(
+                (routes) ->
+                    routes.ws(
+                        "/",
+                        (in, out) -> {
+                          Session session = new Session();
+                          this.sessions.add(session);
+                          this.acceptedConnections.incrementAndGet();
+                          return Mono.firstWithSignal(
+                                  out.sendString(session.outbound.asFlux()).then(),
+                                  in.aggregateFrames()
+                                      .receive()
+                                      .asString()
+                                      .doOnNext(session::onCommand)
+                                      .then())
+                              .doFinally((s) -> this.sessions.remove(session));
+                        }))
+            .bindNow();
+  }
+
+  public URI uri() {
+    return URI.create("ws://localhost:" + this.server.port() + "/");
+  }
+
+  public int connectionCount() {
+    return this.sessions.size();
+  }
+
+  /** The number of connections accepted since the stand-in started, including closed ones. */
+  public int acceptedConnectionCount() {
+    return this.acceptedConnections.get();
+  }
+
+  public boolean isSubscribed(String account) {
+    return this.sessions.stream().anyMatch((s) -> s.accounts.contains(account));
+  }
+
+  /** Emit a validated, successful payment to the sessions subscribed to either account. */
+  public void emitPayment(String from, String to, long drops) {
+    emitPayment(from, to, drops, true);
+  }
+
+  public void emitPayment(String from, String to, long drops, boolean validated) {
+    String message =
+        OBJECT_MAPPER
+            .createObjectNode()
+            .put("type", "transaction")
+            .put("engine_result", "tesSUCCESS")
+            .put("engine_result_code", 0)
+            .put("ledger_index", 1000 + sequence.incrementAndGet())
+            .put("validated", validated)
+            .set(
+                "transaction",
+                OBJECT_MAPPER
+                    .createObjectNode()
+                    .put("TransactionType", "Payment")
+                    .put("Account", from)
+                    .put("Destination", to)
+                    .put("Amount", Long.toString(drops))
+                    .put("hash", String.format("%064d", sequence.get())))
+            .toString();
+    this.sessions.stream()
+        .filter((s) -> s.accounts.contains(from) || s.accounts.contains(to))
+        .forEach((s) -> s.send(message));
+  }
+
+  /** Drop every open connection, as rippled does when it restarts. */
+  public void disconnectAll() {
+    this.sessions.forEach((s) -> s.outbound.tryEmitComplete());
+  }
+
+  @Override
+  public void close() {
+    this.server.disposeNow();
+  }
+
+  private static class Session {
+
+    private final Set<String> accounts = ConcurrentHashMap.newKeySet();
+    private final Sinks.Many<String> outbound = Sinks.many().unicast().onBackpressureBuffer();
+
+    void onCommand(String command) {
+      try {
+        JsonNode json = OBJECT_MAPPER.readTree(command);
+        String name = json.path("command").asText();
+        json.path("accounts")
+            .forEach(
+                (a) -> {
+                  if ("subscribe".equals(name)) {
+                    this.accounts.add(a.asText());
+                  } else if ("unsubscribe".equals(name)) {
+                    this.accounts.remove(a.asText());
+                  }
+                });
+        send(
+            OBJECT_MAPPER
+                .createObjectNode()
+                .put("type", "response")
+                .put("status", "success")
+                .toString());
+      } catch (Exception e) {
+        throw new IllegalArgumentException(e);
+      }
+    }
+
+    synchronized void send(String message) {
+      this.outbound.tryEmitNext(message);
+    }
+  }
+}
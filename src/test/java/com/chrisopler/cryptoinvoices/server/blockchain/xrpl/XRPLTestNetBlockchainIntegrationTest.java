@@ -0,0 +1,166 @@
+package com.chrisopler.cryptoinvoices.server.blockchain.xrpl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.chrisopler.cryptoinvoices.server.blockchain.AddressBalance;
+import com.chrisopler.cryptoinvoices.server.errors.BadRequestException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+
+class XRPLTestNetBlockchainIntegrationTest {
+
+  private final RippledJsonRpcStandIn rippled =
+      new RippledJsonRpcStandIn(1_005_000_000L, new AtomicInteger());
+  private XRPLAccountCursors accountCursors;
+
+  @BeforeEach
+  public void migrate() {
+    DriverManagerDataSource dataSource =
+        new DriverManagerDataSource(
+            "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+    Flyway.configure().dataSource(dataSource).load().migrate();
+    accountCursors = new XRPLAccountCursors(new JdbcTemplate(dataSource));
+  }
+
+  @AfterEach
+  public void tearDown() {
+    rippled.close();
+  }
+
+  @Test
+  public void balancesAreLookedUpWithinTheConcurrencyWindow() {
+    rippled.respondAfter(Duration.ofMillis(20));
+    rippled.unknownAccount("r7");
+    XRPLTestNetBlockchainIntegration integration = integration(rippled.uri(), 4);
+
+    List<String> cryptoAddresses = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      cryptoAddresses.add("r" + i);
+    }
+    Map<String, AddressBalance> balances =
+        integration.getBalances(cryptoAddresses).collectList().block().stream()
+            .collect(Collectors.toMap(AddressBalance::getCryptoAddress, Function.identity()));
+
+    assertEquals(40, balances.size());
+    assertEquals(new BigDecimal("5.000000"), balances.get("r0").getBalance());
+    assertEquals(BadRequestException.class, balances.get("r7").getError().getClass());
+    assertEquals(39, balances.values().stream().filter((b) -> !b.isFailed()).count());
+    assertEquals(4, rippled.maxInFlight());
+  }
+
+  @Test
+  public void unreachableEndpointsFailEveryAddress() {
+    XRPLTestNetBlockchainIntegration integration =
+        integration(URI.create("http://localhost:1/"), 4);
+
+    List<AddressBalance> balances =
+        integration.getBalances(Collections.singletonList("rA")).collectList().block();
+    assertEquals(1, balances.size());
+    assertTrue(balances.get(0).isFailed());
+  }
+
+  @Test
+  public void paymentsAreCountedToTheDropWithoutTheFaucetFunding() {
+    XRPLTestNetBlockchainIntegration integration = accountTxIntegration(200);
+    rippled.fund("rA", 1_000_000_000L);
+    rippled.pay("rA", 1_234_567L);
+    rippled.pay("rA", 2L);
+
+    // -- scans racing each other from the same cursor count each payment once.
+    List<BigDecimal> balances =
+        Flux.range(0, 8).flatMap((i) -> integration.getBalance("rA")).collectList().block();
+    balances.forEach((balance) -> assertEquals(new BigDecimal("1.234569"), balance));
+  }
+
+  @Test
+  public void scansOnlyReadTheTransactionsSinceTheLastOne() {
+    XRPLTestNetBlockchainIntegration integration = accountTxIntegration(200);
+    rippled.fund("rA", 1_000_000_000L);
+    rippled.pay("rA", 5_000_000L);
+    assertEquals(new BigDecimal("5.000000"), integration.getBalance("rA").block());
+    // -- the ledger of the cursor is read once more after it has been validated.
+    rippled.closeLedger();
+    integration.getBalance("rA").block();
+
+    int transactionsSent = rippled.transactionsSent();
+    assertEquals(new BigDecimal("5.000000"), integration.getBalance("rA").block());
+    assertEquals(transactionsSent, rippled.transactionsSent());
+
+    rippled.pay("rA", 1L);
+    assertEquals(new BigDecimal("5.000001"), integration.getBalance("rA").block());
+    assertEquals(transactionsSent + 1, rippled.transactionsSent());
+  }
+
+  @Test
+  public void scansCarryOnFromTheStoredCursorAcrossPages() {
+    rippled.fund("rA", 1_000_000_000L);
+    for (int i = 0; i < 5; i++) {
+      rippled.pay("rA", 1_000_000L);
+    }
+    rippled.closeLedger();
+    assertEquals(new BigDecimal("5.000000"), accountTxIntegration(2).getBalance("rA").block());
+
+    // -- another instance, or this one after a restart.
+    int transactionsSent = rippled.transactionsSent();
+    rippled.pay("rA", 500_000L);
+    assertEquals(new BigDecimal("5.500000"), accountTxIntegration(2).getBalance("rA").block());
+    assertEquals(transactionsSent + 1, rippled.transactionsSent());
+  }
+
+  @Test
+  public void unknownAccountsFailTheirScan() {
+    rippled.unknownAccount("rA");
+    XRPLTestNetBlockchainIntegration integration = accountTxIntegration(200);
+
+    RuntimeException e =
+        assertThrows(RuntimeException.class, () -> integration.getBalance("rA").block());
+    assertEquals(BadRequestException.class, Exceptions.unwrap(e).getClass());
+  }
+
+  private XRPLTestNetBlockchainIntegration accountTxIntegration(int pageSize) {
+    return integration(rippled.uri(), 4, true, pageSize);
+  }
+
+  private XRPLTestNetBlockchainIntegration integration(URI rippledEndpoint, int concurrency) {
+    return integration(rippledEndpoint, concurrency, false, 200);
+  }
+
+  private XRPLTestNetBlockchainIntegration integration(
+      URI rippledEndpoint, int concurrency, boolean accountTx, int pageSize) {
+    return new XRPLTestNetBlockchainIntegration(
+        false,
+        URI.create("ws://localhost:1/"),
+        1,
+        Collections.singletonList(rippledEndpoint),
+        3,
+        30_000,
+        false,
+        50,
+        concurrency,
+        accountTx,
+        pageSize,
+        URI.create("http://localhost:1/accounts"),
+        accountCursors,
+        new SimpleMeterRegistry());
+  }
+}
@@ -0,0 +1,180 @@
+package com.chrisopler.cryptoinvoices.server.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/** Several instances sharing one file-based H2 database, each with its own connection pool. */
+class InvoicePartitionsTest {
+
+  private static final int PARTITIONS = 12;
+  private static final long LEASE_DURATION_MS = 1000;
+
+  /** Longer than the tests run, so that they renew the leases themselves. */
+  private static final long RENEW_INTERVAL_MS = 60_000;
+
+  @TempDir Path directory;
+
+  private final List<HikariDataSource> dataSources = new ArrayList<>();
+  private String url;
+
+  @BeforeEach
+  public void migrate() {
+    this.url = "jdbc:h2:file:" + directory.resolve("invoices");
+    Flyway.configure().dataSource(this.url, "sa", "").load().migrate();
+  }
+
+  @AfterEach
+  public void closeDataSources() {
+    this.dataSources.forEach(HikariDataSource::close);
+  }
+
+  @Test
+  public void instancesShareThePartitionsEvenly() {
+    InvoicePartitions a = start("a");
+    InvoicePartitions b = start("b");
+    InvoicePartitions c = start("c");
+    renew(a, b, c);
+
+    assertEquals(4, a.partitions().size());
+    assertEquals(4, b.partitions().size());
+    assertEquals(4, c.partitions().size());
+    assertEachInvoiceOwnedOnce(a, b, c);
+  }
+
+  @Test
+  public void theLeasesOfAnInstanceThatStopsAreTakenOverOnceTheyLapse() throws Exception {
+    InvoicePartitions a = start("a");
+    InvoicePartitions b = start("b");
+    InvoicePartitions c = start("c");
+    renew(a, b, c);
+
+    // -- a stops renewing, as if it had crashed.
+    Thread.sleep(LEASE_DURATION_MS + 100);
+    renew(b, c);
+
+    assertTrue(
+        a.partitions().stream()
+            .allMatch((p) -> b.partitions().contains(p) || c.partitions().contains(p)));
+    assertEquals(PARTITIONS, b.partitions().size() + c.partitions().size());
+    assertEachInvoiceOwnedOnce(a, b, c);
+  }
+
+  @Test
+  public void anInstanceStoppingReleasesItsPartitionsStraightAway() {
+    InvoicePartitions a = start("a");
+    InvoicePartitions b = start("b");
+    renew(a, b);
+    assertEquals(6, b.partitions().size());
+
+    a.destroy();
+    renew(b);
+
+    assertEquals(PARTITIONS, b.partitions().size());
+    assertEachInvoiceOwnedOnce(a, b);
+  }
+
+  @Test
+  public void aJoiningInstanceIsHandedItsShare() {
+    InvoicePartitions a = start("a");
+    assertEquals(PARTITIONS, a.partitions().size());
+
+    InvoicePartitions b = start("b");
+    renew(a, b);
+
+    assertEquals(6, a.partitions().size());
+    assertEquals(6, b.partitions().size());
+    assertEachInvoiceOwnedOnce(a, b);
+  }
+
+  @Test
+  public void leasesAreRenewedWhileALongSettlementPassHoldsTheScheduler() throws Exception {
+    InvoicePartitions a = start("a", LEASE_DURATION_MS / 4);
+    // -- the scheduler of the settlement engine and the expiry sweeper has a single thread.
+    ExecutorService scheduler = Executors.newSingleThreadExecutor();
+    try {
+      CountDownLatch passing = new CountDownLatch(1);
+      Future<?> pass =
+          scheduler.submit(
+              () -> {
+                passing.countDown();
+                Thread.sleep(LEASE_DURATION_MS * 3);
+                return null;
+              });
+      passing.await();
+
+      Thread.sleep(LEASE_DURATION_MS * 2);
+      assertEquals(PARTITIONS, a.partitions().size());
+      assertEachInvoiceOwnedOnce(a);
+      pass.get();
+    } finally {
+      scheduler.shutdownNow();
+      a.destroy();
+    }
+  }
+
+  @Test
+  public void aSingleInstanceOwnsEveryInvoiceWhenDisabled() {
+    InvoicePartitions partitions =
+        new InvoicePartitions(null, new SimpleMeterRegistry(), false, PARTITIONS, 500, 100, "");
+    partitions.createPartitions();
+    partitions.renewLeases();
+
+    assertTrue(partitions.owns(UUID.randomUUID().toString()));
+  }
+
+  private InvoicePartitions start(String nodeId) {
+    return start(nodeId, RENEW_INTERVAL_MS);
+  }
+
+  private InvoicePartitions start(String nodeId, long renewIntervalMs) {
+    HikariDataSource dataSource = new HikariDataSource();
+    dataSource.setJdbcUrl(this.url);
+    dataSource.setUsername("sa");
+    dataSource.setMaximumPoolSize(2);
+    this.dataSources.add(dataSource);
+    InvoicePartitions partitions =
+        new InvoicePartitions(
+            new JdbcTemplate(dataSource),
+            new SimpleMeterRegistry(),
+            true,
+            PARTITIONS,
+            LEASE_DURATION_MS,
+            renewIntervalMs,
+            nodeId);
+    partitions.createPartitions();
+    return partitions;
+  }
+
+  /** Two rounds, the first one releasing what the second one claims. */
+  private static void renew(InvoicePartitions... instances) {
+    for (int round = 0; round < 2; round++) {
+      Arrays.stream(instances).forEach(InvoicePartitions::renewLeases);
+    }
+  }
+
+  private static void assertEachInvoiceOwnedOnce(InvoicePartitions... instances) {
+    for (int i = 0; i < 1000; i++) {
+      String invoiceId = UUID.randomUUID().toString().replace("-", "");
+      long owners = Arrays.stream(instances).filter((p) -> p.owns(invoiceId)).count();
+      assertEquals(1, owners, invoiceId);
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package com.chrisopler.cryptoinvoices.server.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.chrisopler.cryptoinvoices.CryptoInvoicesApplication;
+import com.chrisopler.cryptoinvoices.server.blockchain.BlockchainIntegration;
+import com.chrisopler.cryptoinvoices.server.errors.ChainUnavailableException;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceBatchResult;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceCreateRequest;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import com.chrisopler.cryptoinvoices.server.service.InvoiceRepository;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+
+@SpringBootTest(
+    classes = {CryptoInvoicesApplication.class, InvoiceControllerTest.StubChains.class},
+    webEnvironment = WebEnvironment.RANDOM_PORT,
+    properties = {
+      "spring.datasource.url=jdbc:h2:mem:controller",
+      "invoices.address-pool.enabled=false",
+      "invoices.settlement.interval-ms=3600000"
+    })
+class InvoiceControllerTest {
+
+  @Autowired private WebTestClient webTestClient;
+  @Autowired private InvoiceRepository invoiceRepository;
+
+  @Test
+  public void aBadInvoiceInABatchFailsAloneAndTheRestAreCreated() {
+    List<InvoiceBatchResult> results =
+        webTestClient
+            .post()
+            .uri("/invoices:batch")
+            .accept(MediaType.APPLICATION_NDJSON)
+            .bodyValue(
+                Arrays.asList(
+                    request("OK", "1"),
+                    request("OK", "-1"),
+                    request("DOWN", "2"),
+                    request("UNKNOWN", "3"),
+                    request("OK", "4")))
+            .exchange()
+            .expectStatus()
+            .isOk()
+            .returnResult(InvoiceBatchResult.class)
+            .getResponseBody()
+            .collectList()
+            .block();
+
+    // -- one result per invoice requested, in whatever order they were stored.
+    results.sort(Comparator.comparingInt(InvoiceBatchResult::getIndex));
+    assertEquals(5, results.size());
+    for (int i = 0; i < results.size(); i++) {
+      assertEquals(i, results.get(i).getIndex());
+    }
+    assertCreated(results.get(0), "1.000000");
+    assertFailed(results.get(1), 400);
+    assertFailed(results.get(2), 503);
+    assertFailed(results.get(3), 400);
+    assertCreated(results.get(4), "4.000000");
+  }
+
+  @Test
+  public void emptyBatchesAreRejected() {
+    webTestClient
+        .post()
+        .uri("/invoices:batch")
+        .accept(MediaType.APPLICATION_NDJSON)
+        .bodyValue(Arrays.asList())
+        .exchange()
+        .expectStatus()
+        .isBadRequest();
+  }
+
+  @Test
+  public void followingAnUnknownInvoiceIsNotFound() {
+    webTestClient
+        .get()
+        .uri("/invoices/unknown/events")
+        .accept(MediaType.TEXT_EVENT_STREAM)
+        .exchange()
+        .expectStatus()
+        .isNotFound();
+  }
+
+  private void assertCreated(InvoiceBatchResult result, String invoiceAmount) {
+    assertEquals(200, result.getStatus());
+    assertNull(result.getError());
+    assertEquals(InvoiceStatus.NEW, result.getInvoice().getInvoiceStatus());
+    assertEquals(invoiceAmount, result.getInvoice().getInvoiceAmount());
+    assertEquals(
+        result.getInvoice(), invoiceRepository.findById(result.getInvoice().getInvoiceId()).get());
+  }
+
+  private void assertFailed(InvoiceBatchResult result, int status) {
+    assertEquals(status, result.getStatus());
+    assertNotNull(result.getError());
+    assertNull(result.getInvoice());
+  }
+
+  private InvoiceCreateRequest request(String chainEnvironment, String amount) {
+    InvoiceCreateRequest request = new InvoiceCreateRequest();
+    request.setChain("TEST");
+    request.setChainEnvironment(chainEnvironment);
+    request.setCurrency("XRP");
+    request.setInvoiceAmount(amount);
+    request.setDueInSeconds(60);
+    return request;
+  }
+
+  /**
+   * Registered through the test rather than as a test configuration, so that the benchmarks and
+   * the load test, which scan the test classes, do not pick it up.
+   */
+  static class StubChains {
+
+    @Bean
+    BlockchainIntegration okBlockchainIntegration() {
+      AtomicInteger addresses = new AtomicInteger();
+      return new StubIntegration(
+          "TEST/OK", () -> Mono.just("address-" + addresses.incrementAndGet()));
+    }
+
+    @Bean
+    BlockchainIntegration downBlockchainIntegration() {
+      return new StubIntegration(
+          "TEST/DOWN", () -> Mono.error(new ChainUnavailableException("The chain is down")));
+    }
+  }
+
+  private static class StubIntegration implements BlockchainIntegration {
+
+    private final String chainKey;
+    private final Supplier<Mono<String>> addresses;
+
+    StubIntegration(String chainKey, Supplier<Mono<String>> addresses) {
+      this.chainKey = chainKey;
+      this.addresses = addresses;
+    }
+
+    @Override
+    public String chainKey() {
+      return chainKey;
+    }
+
+    @Override
+    public Mono<String> createNewCryptoAddress() {
+      return Mono.defer(addresses);
+    }
+
+    @Override
+    public Mono<BigDecimal> getBalance(String cryptoAddress) {
+      return Mono.just(BigDecimal.ZERO);
+    }
+
+    @Override
+    public int getDecimalPrecision() {
+      return 6;
+    }
+
+    @Override
+    public RoundingMode getRoundingMode() {
+      return RoundingMode.HALF_DOWN;
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package com.chrisopler.cryptoinvoices.server.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import com.chrisopler.cryptoinvoices.CryptoInvoicesApplication;
+import com.chrisopler.cryptoinvoices.server.blockchain.BlockchainIntegration;
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceCreateRequest;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import com.chrisopler.cryptoinvoices.server.service.InvoiceRepository;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+
+@SpringBootTest(
+    classes = {CryptoInvoicesApplication.class, ReactiveInvoiceControllerTest.StubChain.class},
+    webEnvironment = WebEnvironment.RANDOM_PORT,
+    properties = {
+      "spring.main.web-application-type=reactive",
+      "spring.datasource.url=jdbc:h2:mem:reactive",
+      "invoices.reactive.r2dbc.url=r2dbc:h2:mem:///reactive",
+      "invoices.address-pool.enabled=false",
+      "invoices.settlement.interval-ms=3600000"
+    })
+class ReactiveInvoiceControllerTest {
+
+  @Autowired private WebTestClient webTestClient;
+  @Autowired private InvoiceRepository invoiceRepository;
+
+  @Test
+  public void invoicesAreCreatedAndReadThroughR2dbc() {
+    Invoice created =
+        webTestClient
+            .post()
+            .uri("/invoices")
+            .bodyValue(request("12.5"))
+            .exchange()
+            .expectStatus()
+            .isOk()
+            .expectBody(Invoice.class)
+            .returnResult()
+            .getResponseBody();
+    assertNotNull(created.getInvoiceId());
+    assertEquals(InvoiceStatus.NEW, created.getInvoiceStatus());
+    assertEquals("12.500000", created.getInvoiceAmount());
+
+    Invoice read =
+        webTestClient
+            .get()
+            .uri("/invoices/{invoiceId}", created.getInvoiceId())
+            .exchange()
+            .expectStatus()
+            .isOk()
+            .expectBody(Invoice.class)
+            .returnResult()
+            .getResponseBody();
+    assertEquals(created, read);
+
+    // -- the settlement engine and the expiry sweeper read the same row through JPA.
+    assertEquals(created, invoiceRepository.findById(created.getInvoiceId()).get());
+  }
+
+  @Test
+  public void retriesWithAnIdempotencyKeyReturnTheFirstInvoice() {
+    Invoice created = createWithKey("retried", request("3"));
+    Invoice retried = createWithKey("retried", request("3"));
+    assertEquals(created.getInvoiceId(), retried.getInvoiceId());
+    assertEquals(created.getCryptoAddress(), retried.getCryptoAddress());
+    assertEquals(
+        "retried",
+        invoiceRepository.findById(created.getInvoiceId()).get().getIdempotencyKey());
+
+    webTestClient
+        .post()
+        .uri("/invoices")
+        .header("Idempotency-Key", "retried")
+        .bodyValue(request("4"))
+        .exchange()
+        .expectStatus()
+        .isBadRequest();
+  }
+
+  @Test
+  public void errorsAreMappedToTheirStatus() {
+    webTestClient.get().uri("/invoices/unknown").exchange().expectStatus().isNotFound();
+    webTestClient
+        .get()
+        .uri("/invoices/unknown/events")
+        .accept(MediaType.TEXT_EVENT_STREAM)
+        .exchange()
+        .expectStatus()
+        .isNotFound();
+    webTestClient
+        .post()
+        .uri("/invoices")
+        .bodyValue(request("-1"))
+        .exchange()
+        .expectStatus()
+        .isBadRequest();
+  }
+
+  private Invoice createWithKey(String idempotencyKey, InvoiceCreateRequest request) {
+    return webTestClient
+        .post()
+        .uri("/invoices")
+        .header("Idempotency-Key", idempotencyKey)
+        .bodyValue(request)
+        .exchange()
+        .expectStatus()
+        .isOk()
+        .expectBody(Invoice.class)
+        .returnResult()
+        .getResponseBody();
+  }
+
+  private InvoiceCreateRequest request(String amount) {
+    InvoiceCreateRequest request = new InvoiceCreateRequest();
+    request.setChain("TEST");
+    request.setChainEnvironment("REACTIVE");
+    request.setCurrency("XRP");
+    request.setInvoiceAmount(amount);
+    request.setDueInSeconds(60);
+    return request;
+  }
+
+  /**
+   * Registered through the test rather than as a test configuration, so that the benchmarks and
+   * the load test, which scan the test classes, do not pick it up.
+   */
+  static class StubChain {
+
+    @Bean
+    BlockchainIntegration stubBlockchainIntegration() {
+      AtomicInteger addresses = new AtomicInteger();
+      return new BlockchainIntegration() {
+        @Override
+        public String chainKey() {
+          return "TEST/REACTIVE";
+        }
+
+        @Override
+        public Mono<String> createNewCryptoAddress() {
+          return Mono.fromCallable(() -> "address-" + addresses.incrementAndGet());
+        }
+
+        @Override
+        public Mono<BigDecimal> getBalance(String cryptoAddress) {
+          return Mono.just(BigDecimal.ZERO);
+        }
+
+        @Override
+        public int getDecimalPrecision() {
+          return 6;
+        }
+
+        @Override
+        public RoundingMode getRoundingMode() {
+          return RoundingMode.HALF_DOWN;
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class CompletedInvoiceCacheTest {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Test
+  public void onlyCompletedInvoicesAreCached() {
+    CompletedInvoiceCache cache = new CompletedInvoiceCache(meterRegistry, true, 10, 1 << 20);
+
+    cache.put(invoice("a", InvoiceStatus.PARTIALLY_PAID));
+    Invoice paid = invoice("b", InvoiceStatus.PAID);
+    cache.onInvoiceChanged(
+        new InvoiceChangedEvent("b", InvoiceStatus.PARTIALLY_PAID, InvoiceStatus.PAID, paid));
+    cache.put(invoice("c", InvoiceStatus.EXPIRED));
+
+    assertFalse(cache.get("a").isPresent());
+    assertTrue(cache.get("b").isPresent());
+    assertTrue(cache.get("c").isPresent());
+    assertEquals(2.0 / 3, meterRegistry.get("invoices.completed.cache.hit.ratio").gauge().value());
+  }
+
+  @Test
+  public void invoicesAreEvictedBySize() {
+    CompletedInvoiceCache cache = new CompletedInvoiceCache(meterRegistry, true, 2, 1 << 20);
+
+    cache.put(invoice("a", InvoiceStatus.PAID));
+    cache.put(invoice("b", InvoiceStatus.PAID));
+    cache.get("a");
+    cache.put(invoice("c", InvoiceStatus.PAID));
+
+    assertEquals(2, cached(cache, "a", "b", "c"));
+    assertEquals(2, meterRegistry.get("invoices.completed.cache.size").gauge().value());
+  }
+
+  @Test
+  public void invoicesAreEvictedByWeight() {
+    long weight = CompletedInvoiceCache.weigh(invoice("a", InvoiceStatus.PAID));
+    CompletedInvoiceCache cache =
+        new CompletedInvoiceCache(meterRegistry, true, 10, weight * 5 / 2);
+
+    cache.put(invoice("a", InvoiceStatus.PAID));
+    cache.put(invoice("b", InvoiceStatus.PAID));
+    cache.put(invoice("c", InvoiceStatus.PAID));
+
+    assertEquals(2, cached(cache, "a", "b", "c"));
+    assertEquals(weight * 2, meterRegistry.get("invoices.completed.cache.weight").gauge().value());
+  }
+
+  private static long cached(CompletedInvoiceCache cache, String... invoiceIds) {
+    return Arrays.stream(invoiceIds).filter((id) -> cache.get(id).isPresent()).count();
+  }
+
+  private static Invoice invoice(String invoiceId, InvoiceStatus status) {
+    return Invoice.builder()
+        .invoiceId(invoiceId)
+        .invoiceStatus(status)
+        .cryptoAddress("r9JuxGPccGjMGr54t4JXUDsemAcECQWXTf")
+        .currency("XRP")
+        .chain("XRPL")
+        .chainEnvironment("TESTNET")
+        .build();
+  }
+}
@@ -0,0 +1,81 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+class IdempotencyIndexTest {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Test
+  public void concurrentRequestsShareTheCreationInFlight() throws Exception {
+    IdempotencyIndex index = new IdempotencyIndex(meterRegistry, 10);
+    Sinks.One<Invoice> created = Sinks.one();
+    AtomicInteger creations = new AtomicInteger();
+
+    CompletableFuture<Invoice> first =
+        index
+            .once(
+                "key",
+                () -> {
+                  creations.incrementAndGet();
+                  return created.asMono();
+                })
+            .toFuture();
+    CompletableFuture<Invoice> second =
+        index.once("key", () -> Mono.error(new IllegalStateException())).toFuture();
+
+    Invoice invoice = Invoice.builder().invoiceId("a").build();
+    created.tryEmitValue(invoice);
+
+    assertSame(invoice, first.get(5, TimeUnit.SECONDS));
+    assertSame(invoice, second.get(5, TimeUnit.SECONDS));
+    assertEquals(1, creations.get());
+    assertEquals(
+        1,
+        meterRegistry.get("invoices.idempotency.index").tag("result", "joined").counter().count());
+    assertEquals(Optional.of("a"), index.invoiceId("key"));
+    assertEquals(0, meterRegistry.get("invoices.idempotency.in.flight").gauge().value());
+  }
+
+  @Test
+  public void aFailedCreationCanBeRetried() {
+    IdempotencyIndex index = new IdempotencyIndex(meterRegistry, 10);
+
+    assertThrows(
+        IllegalStateException.class,
+        () -> index.once("key", () -> Mono.error(new IllegalStateException())).block());
+    assertFalse(index.invoiceId("key").isPresent());
+
+    Invoice invoice = Invoice.builder().invoiceId("a").build();
+    assertSame(invoice, index.once("key", () -> Mono.just(invoice)).block());
+  }
+
+  @Test
+  public void keysAreEvictedOverTheMaximumSize() {
+    IdempotencyIndex index = new IdempotencyIndex(meterRegistry, 2);
+
+    index.put("a", "1");
+    index.put("b", "2");
+    index.invoiceId("a");
+    index.put("c", "3");
+
+    assertEquals(
+        2, Stream.of("a", "b", "c").filter((key) -> index.invoiceId(key).isPresent()).count());
+    assertEquals(2, meterRegistry.get("invoices.idempotency.index.size").gauge().value());
+  }
+}
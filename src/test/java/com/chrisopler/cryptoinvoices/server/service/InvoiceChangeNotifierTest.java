@@ -0,0 +1,68 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+class InvoiceChangeNotifierTest {
+
+  private final InvoiceStore invoiceStore = mock(InvoiceStore.class);
+  private final InvoiceChangeNotifier notifier = new InvoiceChangeNotifier(invoiceStore);
+
+  @Test
+  public void followersReceiveTheChangesOfTheirInvoiceOnly() {
+    Mono<List<Invoice>> followed = notifier.changes("a").take(2).collectList().cache();
+    followed.subscribe();
+
+    notifier.onInvoiceChanged(changed("b", InvoiceStatus.PAID));
+    notifier.onInvoiceChanged(changed("a", InvoiceStatus.PARTIALLY_PAID));
+    notifier.onInvoiceChanged(changed("a", InvoiceStatus.PAID));
+
+    List<Invoice> changes = followed.block(Duration.ofSeconds(5));
+    assertEquals(InvoiceStatus.PARTIALLY_PAID, changes.get(0).getInvoiceStatus());
+    assertEquals(InvoiceStatus.PAID, changes.get(1).getInvoiceStatus());
+  }
+
+  @Test
+  public void bulkChangesAreReadWhenFollowed() {
+    when(invoiceStore.findById("a"))
+        .thenReturn(Optional.of(invoice("a", InvoiceStatus.EXPIRED)));
+    Mono<Invoice> followed = notifier.changes("a").next().cache();
+    followed.subscribe();
+
+    notifier.onInvoiceChanged(
+        new InvoiceChangedEvent("a", InvoiceStatus.NEW, InvoiceStatus.EXPIRED, null));
+
+    assertEquals(InvoiceStatus.EXPIRED, followed.block(Duration.ofSeconds(5)).getInvoiceStatus());
+  }
+
+  @Test
+  public void unfollowedInvoicesAreForgotten() {
+    Disposable following = notifier.changes("a").subscribe();
+    following.dispose();
+
+    // -- with nobody following, a bulk change does not need to read the invoice.
+    notifier.onInvoiceChanged(
+        new InvoiceChangedEvent("a", InvoiceStatus.NEW, InvoiceStatus.EXPIRED, null));
+    verifyNoInteractions(invoiceStore);
+  }
+
+  private static InvoiceChangedEvent changed(String invoiceId, InvoiceStatus status) {
+    return new InvoiceChangedEvent(
+        invoiceId, InvoiceStatus.NEW, status, invoice(invoiceId, status));
+  }
+
+  private static Invoice invoice(String invoiceId, InvoiceStatus status) {
+    return Invoice.builder().invoiceId(invoiceId).invoiceStatus(status).build();
+  }
+}
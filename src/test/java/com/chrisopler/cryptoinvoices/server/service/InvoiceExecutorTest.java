@@ -0,0 +1,100 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.chrisopler.cryptoinvoices.server.errors.ServiceBusyException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+
+class InvoiceExecutorTest {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Test
+  public void workBeyondTheQueueIsRejectedAsBusy() throws Exception {
+    InvoiceExecutor executor = new InvoiceExecutor(meterRegistry, "platform", 1, 1);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      executor.execute(
+          () -> {
+            started.countDown();
+            await(release);
+          });
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+      executor.execute(() -> {});
+
+      assertThrows(ServiceBusyException.class, () -> executor.execute(() -> {}));
+      Mono<String> scheduled =
+          Mono.fromCallable(() -> "read")
+              .subscribeOn(executor.scheduler())
+              .onErrorMap(executor::rejectedAsBusy);
+      RuntimeException error =
+          assertThrows(RuntimeException.class, () -> scheduled.block(Duration.ofSeconds(5)));
+      assertTrue(Exceptions.unwrap(error) instanceof ServiceBusyException);
+
+      assertEquals(1, meterRegistry.get("invoices.executor.active").gauge().value());
+      assertEquals(1, meterRegistry.get("invoices.executor.queued").gauge().value());
+      assertEquals(2, meterRegistry.get("invoices.executor.rejected").counter().count());
+    } finally {
+      release.countDown();
+      executor.destroy();
+    }
+  }
+
+  /** Virtual threads are only available on a JDK that has them, and refused on any other. */
+  @Test
+  public void eachTaskRunsOnAVirtualThread() throws Exception {
+    Method isVirtual;
+    try {
+      isVirtual = Thread.class.getMethod("isVirtual");
+    } catch (NoSuchMethodException e) {
+      assertThrows(
+          IllegalStateException.class,
+          () -> new InvoiceExecutor(meterRegistry, "virtual", 1, 1));
+      return;
+    }
+
+    InvoiceExecutor executor = new InvoiceExecutor(meterRegistry, "virtual", 1, 1);
+    int tasks = 1000;
+    CountDownLatch running = new CountDownLatch(tasks);
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      // -- far more blocked tasks than the pool size, which only bounds the platform mode.
+      for (int i = 0; i < tasks; i++) {
+        executor.execute(
+            () -> {
+              running.countDown();
+              await(release);
+            });
+      }
+      assertTrue(running.await(10, TimeUnit.SECONDS));
+      assertEquals(tasks, meterRegistry.get("invoices.executor.active").gauge().value());
+      Object virtual =
+          Mono.fromCallable(() -> isVirtual.invoke(Thread.currentThread()))
+              .subscribeOn(executor.scheduler())
+              .block(Duration.ofSeconds(5));
+      assertEquals(Boolean.TRUE, virtual);
+    } finally {
+      release.countDown();
+      executor.destroy();
+    }
+  }
+
+  private void await(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.chrisopler.cryptoinvoices.server.cluster.InvoicePartitions;
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/** Runs each statement in a transaction of its own, so the sweep is read back from the table. */
+@DataJpaTest
+@Import(JpaInvoiceStore.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class InvoiceExpirySweeperTest {
+
+  @Autowired private InvoiceRepository invoiceRepository;
+  @Autowired private JpaInvoiceStore invoiceStore;
+  private final List<InvoiceChangedEvent> events = new ArrayList<>();
+  private InvoiceExpirySweeper sweeper;
+
+  @BeforeEach
+  public void start() {
+    // -- chunks of two, so that the overdue invoices take several.
+    this.sweeper =
+        new InvoiceExpirySweeper(
+            invoiceStore,
+            (event) -> this.events.add((InvoiceChangedEvent) event),
+            new InvoicePartitions(null, new SimpleMeterRegistry(), false, 64, 500, 100, ""),
+            2);
+  }
+
+  @AfterEach
+  public void stop() {
+    this.invoiceRepository.deleteAllInBatch();
+  }
+
+  @Test
+  public void overdueOpenInvoicesAreExpired() {
+    Map<String, InvoiceStatus> overdue = new HashMap<>();
+    for (int i = 0; i < 3; i++) {
+      overdue.put(save(InvoiceStatus.NEW, -60 - i).getInvoiceId(), InvoiceStatus.NEW);
+    }
+    Invoice partiallyPaid = save(InvoiceStatus.PARTIALLY_PAID, -60);
+    overdue.put(partiallyPaid.getInvoiceId(), InvoiceStatus.PARTIALLY_PAID);
+    Invoice paid = save(InvoiceStatus.PAID, -60);
+    Invoice due = save(InvoiceStatus.NEW, 60);
+
+    sweeper.expireOverdueInvoices();
+
+    overdue.keySet().forEach((invoiceId) -> assertEquals(InvoiceStatus.EXPIRED, status(invoiceId)));
+    assertEquals(InvoiceStatus.PAID, status(paid.getInvoiceId()));
+    assertEquals(InvoiceStatus.NEW, status(due.getInvoiceId()));
+
+    Map<String, InvoiceStatus> expiredFrom = new HashMap<>();
+    for (InvoiceChangedEvent event : this.events) {
+      assertEquals(InvoiceStatus.EXPIRED, event.getStatus());
+      expiredFrom.put(event.getInvoiceId(), event.getPreviousStatus());
+    }
+    assertEquals(overdue, expiredFrom);
+    assertEquals(overdue.size(), this.events.size());
+  }
+
+  @Test
+  public void aSecondSweepFindsNothingLeftToExpire() {
+    save(InvoiceStatus.NEW, -60);
+    sweeper.expireOverdueInvoices();
+    this.events.clear();
+
+    sweeper.expireOverdueInvoices();
+
+    assertEquals(0, this.events.size());
+  }
+
+  @Test
+  public void anInvoicePaidSinceItsIdWasReadIsLeftAlone() {
+    Invoice invoice = save(InvoiceStatus.NEW, -60);
+    // -- paid after the sweeper read its id as overdue.
+    invoice.setInvoiceStatus(InvoiceStatus.PAID);
+    invoiceStore.save(invoice);
+
+    int expired =
+        invoiceStore.expire(
+            Collections.singletonList(invoice.getInvoiceId()),
+            Arrays.asList(InvoiceStatus.NEW, InvoiceStatus.PARTIALLY_PAID),
+            Instant.now());
+
+    assertEquals(0, expired);
+    assertEquals(InvoiceStatus.PAID, status(invoice.getInvoiceId()));
+  }
+
+  private InvoiceStatus status(String invoiceId) {
+    return invoiceStore.findById(invoiceId).get().getInvoiceStatus();
+  }
+
+  private Invoice save(InvoiceStatus status, long dueInSeconds) {
+    return invoiceStore.save(
+        Invoice.builder()
+            .invoiceAmountUnits(100)
+            .amountRemainingUnits(100)
+            .amountScale(6)
+            .invoiceStatus(status)
+            .chain("TEST")
+            .cryptoAddress("address")
+            .currency("XRP")
+            .dueDate(Instant.now().plusSeconds(dueInSeconds))
+            .build());
+  }
+}
@@ -0,0 +1,151 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Runs the conditional updates against the Flyway schema, each in a transaction of its own, so
+ * that what they changed is read back from the table.
+ */
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class InvoiceRepositoryTest {
+
+  private static final Collection<InvoiceStatus> OPEN =
+      Arrays.asList(InvoiceStatus.NEW, InvoiceStatus.PARTIALLY_PAID);
+
+  @Autowired private InvoiceRepository invoiceRepository;
+
+  @AfterEach
+  public void stop() {
+    this.invoiceRepository.deleteAllInBatch();
+  }
+
+  @Test
+  public void overdueOpenInvoicesAreExpired() {
+    Invoice fresh = save(InvoiceStatus.NEW, -60);
+    Invoice partiallyPaid = save(InvoiceStatus.PARTIALLY_PAID, -60);
+    Invoice notGiven = save(InvoiceStatus.NEW, -60);
+
+    assertEquals(2, expire(Arrays.asList(fresh, partiallyPaid)));
+
+    assertEquals(InvoiceStatus.EXPIRED, status(fresh));
+    assertEquals(InvoiceStatus.EXPIRED, status(partiallyPaid));
+    assertEquals(InvoiceStatus.NEW, status(notGiven));
+  }
+
+  @Test
+  public void anInvoicePaidSinceItsIdWasReadIsLeftAlone() {
+    Invoice paid = save(InvoiceStatus.PAID, -60);
+
+    assertEquals(0, expire(Arrays.asList(paid)));
+    assertEquals(InvoiceStatus.PAID, status(paid));
+  }
+
+  @Test
+  public void anInvoiceNotYetDueIsLeftAlone() {
+    // -- open, but only the due date tells it from an overdue invoice.
+    Invoice due = save(InvoiceStatus.NEW, 60);
+
+    assertEquals(0, expire(Arrays.asList(due)));
+    assertEquals(InvoiceStatus.NEW, status(due));
+  }
+
+  @Test
+  public void aPaymentIsRecordedOnTheInvoiceAsItWasRead() {
+    Invoice read = save(InvoiceStatus.NEW, 60);
+
+    assertEquals(1, transition(read, InvoiceStatus.PARTIALLY_PAID, 30));
+
+    Invoice stored = stored(read);
+    assertEquals(InvoiceStatus.PARTIALLY_PAID, stored.getInvoiceStatus());
+    assertEquals(30, stored.getAmountPaidUnits());
+    assertEquals(70, stored.getAmountRemainingUnits());
+  }
+
+  @Test
+  public void aPaymentOnAStaleStatusUpdatesNothing() {
+    Invoice read = save(InvoiceStatus.NEW, 60);
+    // -- expired by the sweeper after settlement read it.
+    assertEquals(1, expire(Arrays.asList(stored(read)), Instant.now().plusSeconds(120)));
+
+    assertEquals(0, transition(read, InvoiceStatus.PAID, 100));
+
+    Invoice stored = stored(read);
+    assertEquals(InvoiceStatus.EXPIRED, stored.getInvoiceStatus());
+    assertEquals(0, stored.getAmountPaidUnits());
+    assertEquals(100, stored.getAmountRemainingUnits());
+  }
+
+  @Test
+  public void aPaymentOnAStaleAmountPaidUpdatesNothing() {
+    Invoice read = save(InvoiceStatus.PARTIALLY_PAID, 60);
+    // -- a concurrent settlement recorded a payment in the same status after this one read it.
+    assertEquals(1, transition(read, InvoiceStatus.PARTIALLY_PAID, 50));
+
+    assertEquals(0, transition(read, InvoiceStatus.PARTIALLY_PAID, 30));
+
+    Invoice stored = stored(read);
+    assertEquals(InvoiceStatus.PARTIALLY_PAID, stored.getInvoiceStatus());
+    assertEquals(50, stored.getAmountPaidUnits());
+    assertEquals(50, stored.getAmountRemainingUnits());
+  }
+
+  private int expire(List<Invoice> invoices) {
+    return expire(invoices, Instant.now());
+  }
+
+  private int expire(List<Invoice> invoices, Instant now) {
+    return invoiceRepository.expire(
+        invoices.stream().map(Invoice::getInvoiceId).collect(Collectors.toList()),
+        OPEN,
+        now,
+        InvoiceStatus.EXPIRED);
+  }
+
+  /** Record a payment bringing the amount paid to the given units, from the invoice as read. */
+  private int transition(Invoice read, InvoiceStatus status, long amountPaidUnits) {
+    return invoiceRepository.transition(
+        read.getInvoiceId(),
+        read.getInvoiceStatus(),
+        read.getAmountPaidUnits(),
+        status,
+        amountPaidUnits,
+        read.getInvoiceAmountUnits() - amountPaidUnits);
+  }
+
+  private Invoice stored(Invoice invoice) {
+    return invoiceRepository.findById(invoice.getInvoiceId()).get();
+  }
+
+  private InvoiceStatus status(Invoice invoice) {
+    return stored(invoice).getInvoiceStatus();
+  }
+
+  private Invoice save(InvoiceStatus status, long dueInSeconds) {
+    return invoiceRepository.save(
+        Invoice.builder()
+            .invoiceAmountUnits(100)
+            .amountRemainingUnits(100)
+            .amountScale(6)
+            .invoiceStatus(status)
+            .chain("TEST")
+            .cryptoAddress("address")
+            .currency("XRP")
+            .dueDate(Instant.now().plusSeconds(dueInSeconds))
+            .build());
+  }
+}
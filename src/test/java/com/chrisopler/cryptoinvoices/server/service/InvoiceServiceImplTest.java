@@ -0,0 +1,268 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.chrisopler.cryptoinvoices.server.blockchain.BlockchainIntegration;
+import com.chrisopler.cryptoinvoices.server.blockchain.BlockchainIntegrationFactory;
+import com.chrisopler.cryptoinvoices.server.blockchain.pool.CryptoAddressPool;
+import com.chrisopler.cryptoinvoices.server.errors.BadRequestException;
+import com.chrisopler.cryptoinvoices.server.errors.NotFoundException;
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceBatchResult;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceCreateRequest;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import com.chrisopler.cryptoinvoices.server.webhooks.CallbackUrlPolicy;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/** Runs each statement in a transaction of its own, so that settlements can race each other. */
+@DataJpaTest
+@Import(JpaInvoiceStore.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class InvoiceServiceImplTest {
+
+  @Autowired private InvoiceRepository invoiceRepository;
+  @Autowired private JpaInvoiceStore invoiceStore;
+  @Autowired private ObjectProvider<ReactiveInvoiceRepository> reactiveInvoiceRepository;
+  private final List<Object> events = new ArrayList<>();
+  private final AtomicInteger addresses = new AtomicInteger();
+  private final List<String> released = Collections.synchronizedList(new ArrayList<>());
+  private final BlockchainIntegration integration = mock(BlockchainIntegration.class);
+  private InvoiceExecutor invoiceExecutor;
+  private InvoiceServiceImpl invoiceService;
+
+  @BeforeEach
+  public void start() throws Exception {
+    when(integration.chainKey()).thenReturn("TEST/default");
+    when(integration.getDecimalPrecision()).thenReturn(6);
+    when(integration.getRoundingMode()).thenReturn(RoundingMode.HALF_DOWN);
+    BlockchainIntegrationFactory factory = mock(BlockchainIntegrationFactory.class);
+    when(factory.getIntegration("TEST", "default")).thenReturn(integration);
+    CryptoAddressPool cryptoAddressPool = mock(CryptoAddressPool.class);
+    when(cryptoAddressPool.claim(any()))
+        .thenAnswer((i) -> Mono.fromCallable(() -> "address-" + addresses.incrementAndGet()));
+    when(cryptoAddressPool.release(any(), anyString()))
+        .thenAnswer((i) -> Mono.fromRunnable(() -> released.add(i.getArgument(1))));
+    this.invoiceExecutor = new InvoiceExecutor(new SimpleMeterRegistry(), "platform", 2, 100);
+    this.invoiceService =
+        new InvoiceServiceImpl(
+            invoiceStore,
+            reactiveInvoiceRepository,
+            factory,
+            cryptoAddressPool,
+            new InvoiceChangeNotifier(invoiceStore),
+            new CompletedInvoiceCache(new SimpleMeterRegistry(), true, 10, 1 << 20),
+            new IdempotencyIndex(new SimpleMeterRegistry(), 10),
+            invoiceExecutor,
+            this.events::add,
+            new CallbackUrlPolicy(Collections.emptyList()),
+            10,
+            2,
+            10,
+            100,
+            1000);
+  }
+
+  @AfterEach
+  public void stop() {
+    this.invoiceExecutor.destroy();
+    this.invoiceRepository.deleteAllInBatch();
+  }
+
+  @Test
+  public void anInvoiceExpiredWhileItWasReadIsNotSettled() {
+    Invoice read = save();
+    // -- the expiry sweeper gets to the invoice, once overdue, after it was read for settlement.
+    assertEquals(
+        1,
+        invoiceStore.expire(
+            Collections.singleton(read.getInvoiceId()),
+            Arrays.asList(InvoiceStatus.NEW, InvoiceStatus.PARTIALLY_PAID),
+            read.getDueDate().plusSeconds(1)));
+
+    Invoice settled = invoiceService.settle(read, BigDecimal.ONE, integration);
+
+    assertEquals(InvoiceStatus.EXPIRED, settled.getInvoiceStatus());
+    Invoice stored = invoiceStore.findById(read.getInvoiceId()).get();
+    assertEquals(InvoiceStatus.EXPIRED, stored.getInvoiceStatus());
+    assertEquals(0, stored.getAmountPaidUnits());
+    assertEquals(100, stored.getAmountRemainingUnits());
+    assertEquals(0, this.events.size());
+  }
+
+  @Test
+  public void aSettlementFromAStaleReadDoesNotOverwriteALaterPayment() {
+    Invoice first = save();
+    Invoice stale = invoiceStore.findById(first.getInvoiceId()).get();
+    invoiceService.settle(first, new BigDecimal("0.00005"), integration);
+    this.events.clear();
+
+    Invoice settled = invoiceService.settle(stale, new BigDecimal("0.00003"), integration);
+
+    assertEquals(InvoiceStatus.PARTIALLY_PAID, settled.getInvoiceStatus());
+    assertEquals(50, settled.getAmountPaidUnits());
+    Invoice stored = invoiceStore.findById(first.getInvoiceId()).get();
+    assertEquals(50, stored.getAmountPaidUnits());
+    assertEquals(50, stored.getAmountRemainingUnits());
+    assertEquals(0, this.events.size());
+  }
+
+  @Test
+  public void amountsAreStoredInMinorUnits() {
+    Invoice invoice = invoiceService.createInvoice(request("1.2500000"), null).block();
+
+    assertEquals(1_250_000, invoice.getInvoiceAmountUnits());
+    assertEquals(6, invoice.getAmountScale());
+  }
+
+  @Test
+  public void amountsWithMoreDecimalsThanTheChainAreRejected() {
+    assertBadRequest("1.0000001");
+    // -- rounded, this would have been an invoice for nothing.
+    assertBadRequest("0.0000001");
+  }
+
+  @Test
+  public void amountsTooLargeForMinorUnitsAreRejected() {
+    assertBadRequest("10000000000000");
+    assertBadRequest("1E999999999");
+  }
+
+  @Test
+  public void aBadAmountFailsOnlyItsOwnInvoiceOfABatch() throws Exception {
+    List<InvoiceBatchResult> results =
+        invoiceService
+            .createInvoices(
+                Arrays.asList(request("1"), request("0.0000001"), request("10000000000000")))
+            .collectList()
+            .block();
+
+    results.sort(Comparator.comparingInt(InvoiceBatchResult::getIndex));
+    assertEquals(200, results.get(0).getStatus());
+    assertEquals(400, results.get(1).getStatus());
+    assertEquals(400, results.get(2).getStatus());
+    assertEquals(1, addresses.get());
+  }
+
+  @Test
+  public void callbackUrlsOfLocalHostsAreRejected() {
+    InvoiceCreateRequest request = request("1");
+    request.setCallbackUrl("http://169.254.169.254/latest/meta-data");
+
+    Mono<Invoice> created = invoiceService.createInvoice(request, null);
+    Throwable error = Exceptions.unwrap(assertThrows(RuntimeException.class, created::block));
+    assertTrue(error instanceof BadRequestException, error.toString());
+    assertEquals(0, addresses.get());
+  }
+
+  @Test
+  public void anIdempotencyKeyReusedWithAnotherTermIsRejected() {
+    Invoice created = invoiceService.createInvoice(request("1"), "key").block();
+    Invoice retried = invoiceService.createInvoice(request("1"), "key").block();
+    assertEquals(created.getInvoiceId(), retried.getInvoiceId());
+
+    InvoiceCreateRequest longer = request("1");
+    longer.setDueInSeconds(120);
+    Mono<Invoice> reused = invoiceService.createInvoice(longer, "key");
+    Throwable error = Exceptions.unwrap(assertThrows(RuntimeException.class, reused::block));
+    assertTrue(error instanceof BadRequestException, error.toString());
+    assertEquals(1, addresses.get());
+  }
+
+  @Test
+  public void theAddressOfAnInvoiceThatCannotBeStoredGoesBackToThePool() {
+    Mono<Invoice> created = invoiceService.createInvoice(unstorable(), null);
+
+    assertThrows(RuntimeException.class, created::block);
+    assertEquals(Collections.singletonList("address-1"), released);
+    assertEquals(0, invoiceRepository.count());
+  }
+
+  @Test
+  public void theAddressesOfABatchThatCannotBeStoredGoBackToThePool() throws Exception {
+    List<InvoiceBatchResult> results =
+        invoiceService
+            .createInvoices(Arrays.asList(unstorable(), unstorable(), request("0.0000001")))
+            .collectList()
+            .block();
+
+    results.sort(Comparator.comparingInt(InvoiceBatchResult::getIndex));
+    assertEquals(500, results.get(0).getStatus());
+    assertEquals(500, results.get(1).getStatus());
+    assertEquals(400, results.get(2).getStatus());
+    released.sort(Comparator.naturalOrder());
+    assertEquals(Arrays.asList("address-1", "address-2"), released);
+  }
+
+  @Test
+  public void followingAnUnknownInvoiceFailsOnceSubscribed() {
+    // -- nothing is read until the stream is subscribed to.
+    Flux<Invoice> followed = invoiceService.followInvoice("unknown");
+
+    Throwable error = Exceptions.unwrap(assertThrows(RuntimeException.class, followed::blockFirst));
+    assertTrue(error instanceof NotFoundException, error.toString());
+  }
+
+  private void assertBadRequest(String invoiceAmount) {
+    Mono<Invoice> created = invoiceService.createInvoice(request(invoiceAmount), null);
+    Throwable error = Exceptions.unwrap(assertThrows(RuntimeException.class, created::block));
+    assertTrue(error instanceof BadRequestException, error.toString());
+    assertEquals(0, addresses.get());
+  }
+
+  private InvoiceCreateRequest request(String invoiceAmount) {
+    InvoiceCreateRequest request = new InvoiceCreateRequest();
+    request.setChain("TEST");
+    request.setCurrency("XRP");
+    request.setInvoiceAmount(invoiceAmount);
+    request.setDueInSeconds(60);
+    return request;
+  }
+
+  /** A request the table rejects, its currency being longer than the column. */
+  private InvoiceCreateRequest unstorable() {
+    InvoiceCreateRequest request = request("1");
+    request.setCurrency(String.join("", Collections.nCopies(256, "X")));
+    return request;
+  }
+
+  private Invoice save() {
+    return invoiceStore.save(
+        Invoice.builder()
+            .invoiceAmountUnits(100)
+            .amountRemainingUnits(100)
+            .amountScale(6)
+            .invoiceStatus(InvoiceStatus.NEW)
+            .chain("TEST")
+            .cryptoAddress("address")
+            .currency("XRP")
+            .dueDate(Instant.now().plusSeconds(60))
+            .build());
+  }
+}
@@ -0,0 +1,189 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.chrisopler.cryptoinvoices.server.blockchain.BlockchainIntegration;
+import com.chrisopler.cryptoinvoices.server.blockchain.BlockchainIntegrationFactory;
+import com.chrisopler.cryptoinvoices.server.cluster.InvoicePartitions;
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+class InvoiceSettlementEngineTest {
+
+  private static final int BATCH_SIZE = 2;
+
+  private final StubIntegration integration = new StubIntegration();
+  private final InvoiceStore invoiceStore = mock(InvoiceStore.class);
+  private final InvoiceService invoiceService = mock(InvoiceService.class);
+  private final BlockchainIntegrationFactory factory = mock(BlockchainIntegrationFactory.class);
+  private final List<Invoice> invoices = new ArrayList<>();
+  private final List<String> settled = Collections.synchronizedList(new ArrayList<>());
+  private InvoiceSettlementEngine engine;
+
+  @BeforeEach
+  public void start() throws Exception {
+    // -- answers the seek query from the saved invoices, the way the store would.
+    when(invoiceStore.findByStatus(anyCollection(), anyString(), anyInt()))
+        .thenAnswer(
+            (i) -> {
+              Collection<InvoiceStatus> statuses = i.getArgument(0);
+              String afterInvoiceId = i.getArgument(1);
+              int limit = i.getArgument(2);
+              return this.invoices.stream()
+                  .filter((invoice) -> statuses.contains(invoice.getInvoiceStatus()))
+                  .filter((invoice) -> invoice.getInvoiceId().compareTo(afterInvoiceId) > 0)
+                  .limit(limit)
+                  .collect(Collectors.toList());
+            });
+    when(invoiceService.settle(any(), any(), any()))
+        .thenAnswer(
+            (i) -> {
+              Invoice invoice = i.getArgument(0);
+              this.settled.add(invoice.getInvoiceId());
+              return invoice;
+            });
+    when(factory.getIntegration("TEST", "default")).thenReturn(integration);
+    when(factory.getIntegrations()).thenReturn(Collections.singletonList(integration));
+    this.engine =
+        new InvoiceSettlementEngine(
+            invoiceStore,
+            invoiceService,
+            factory,
+            invoicePartitions(),
+            BATCH_SIZE,
+            4,
+            1);
+  }
+
+  @Test
+  public void openInvoicesAreSettledAcrossBatches() {
+    Set<String> open = new HashSet<>();
+    for (int i = 0; i < 2 * BATCH_SIZE + 1; i++) {
+      open.add(save("address-" + i, InvoiceStatus.NEW, 60).getInvoiceId());
+    }
+    open.add(save("address-partial", InvoiceStatus.PARTIALLY_PAID, 60).getInvoiceId());
+    save("address-paid", InvoiceStatus.PAID, 60);
+
+    engine.settleOpenInvoices();
+
+    assertEquals(open, settled());
+    assertEquals(open.size(), integration.lookedUp.size());
+  }
+
+  @Test
+  public void failedLookupsAreSkipped() {
+    Invoice failing = save("address-failing", InvoiceStatus.NEW, 60);
+    Invoice first = save("address-a", InvoiceStatus.NEW, 60);
+    Invoice second = save("address-b", InvoiceStatus.NEW, 60);
+    integration.failing.add(failing.getCryptoAddress());
+
+    engine.settleOpenInvoices();
+
+    assertEquals(
+        new HashSet<>(Arrays.asList(first.getInvoiceId(), second.getInvoiceId())), settled());
+  }
+
+  @Test
+  public void overdueInvoicesAreLeftToTheExpirySweeper() {
+    save("address-overdue", InvoiceStatus.NEW, -60);
+    Invoice due = save("address-due", InvoiceStatus.NEW, 60);
+
+    engine.settleOpenInvoices();
+
+    assertEquals(Collections.singleton(due.getInvoiceId()), settled());
+    assertEquals(Collections.singleton(due.getCryptoAddress()), integration.lookedUp);
+  }
+
+  @Test
+  public void aStreamReconcileIntervalBelowOneIsRejected() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            new InvoiceSettlementEngine(
+                invoiceStore, invoiceService, factory, invoicePartitions(), BATCH_SIZE, 4, 0));
+  }
+
+  private Set<String> settled() {
+    // -- each invoice is settled once per scan.
+    assertEquals(new HashSet<>(this.settled).size(), this.settled.size());
+    return new HashSet<>(this.settled);
+  }
+
+  private static InvoicePartitions invoicePartitions() {
+    return new InvoicePartitions(null, new SimpleMeterRegistry(), false, 64, 500, 100, "");
+  }
+
+  private Invoice save(String cryptoAddress, InvoiceStatus status, long dueInSeconds) {
+    Invoice invoice =
+        Invoice.builder()
+            .invoiceId(String.format("invoice-%03d", this.invoices.size()))
+            .invoiceAmountUnits(100)
+            .amountRemainingUnits(100)
+            .amountScale(6)
+            .invoiceStatus(status)
+            .chain("TEST")
+            .cryptoAddress(cryptoAddress)
+            .currency("XRP")
+            .dueDate(Instant.now().plusSeconds(dueInSeconds))
+            .build();
+    this.invoices.add(invoice);
+    return invoice;
+  }
+
+  private static class StubIntegration implements BlockchainIntegration {
+
+    private final Set<String> failing = ConcurrentHashMap.newKeySet();
+    private final Set<String> lookedUp = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public String chainKey() {
+      return "TEST/default";
+    }
+
+    @Override
+    public Mono<String> createNewCryptoAddress() {
+      return Mono.error(new UnsupportedOperationException());
+    }
+
+    @Override
+    public Mono<BigDecimal> getBalance(String cryptoAddress) {
+      this.lookedUp.add(cryptoAddress);
+      return this.failing.contains(cryptoAddress)
+          ? Mono.error(new IllegalStateException("lookup failed"))
+          : Mono.just(BigDecimal.ONE);
+    }
+
+    @Override
+    public int getDecimalPrecision() {
+      return 6;
+    }
+
+    @Override
+    public RoundingMode getRoundingMode() {
+      return RoundingMode.HALF_DOWN;
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The keyset paging every {@link InvoiceStore} has to get right, run against each of them: pages
+ * pick up exactly where their cursor left off, filters still apply past the first page, and the
+ * last page ends the walk.
+ */
+public abstract class InvoiceStorePagingTest {
+
+  // -- whole seconds, so that due dates compare equal after a round trip through the database.
+  private static final Instant NOW = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+
+  protected abstract InvoiceStore invoiceStore();
+
+  @Test
+  public void pagesFollowOnFromTheirCursors() {
+    // -- invoices sharing a due date are ordered by their id.
+    List<Invoice> saved = new ArrayList<>();
+    for (int i = 0; i < 7; i++) {
+      saved.add(save("TEST", InvoiceStatus.NEW, NOW.plusSeconds(60 * (i % 3))));
+    }
+
+    List<List<Invoice>> pages = walk(InvoiceFilter.builder().build(), 3);
+
+    assertEquals(Arrays.asList(3, 3, 1), sizes(pages));
+    assertEquals(ids(inPageOrder(saved)), ids(flatten(pages)));
+  }
+
+  @Test
+  public void filtersApplyAlongWithTheCursor() {
+    List<Invoice> matching = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      matching.add(save("TEST", InvoiceStatus.NEW, NOW.plusSeconds(60 * i)));
+      save("OTHER", InvoiceStatus.NEW, NOW.plusSeconds(60 * i));
+      save("TEST", InvoiceStatus.PAID, NOW.plusSeconds(60 * i));
+    }
+    save("TEST", InvoiceStatus.NEW, NOW.plusSeconds(3600));
+
+    List<List<Invoice>> pages =
+        walk(
+            InvoiceFilter.builder()
+                .statuses(Collections.singletonList(InvoiceStatus.NEW))
+                .chain("TEST")
+                .dueBefore(NOW.plusSeconds(300))
+                .build(),
+            2);
+
+    assertEquals(Arrays.asList(2, 2, 1), sizes(pages));
+    assertEquals(ids(inPageOrder(matching)), ids(flatten(pages)));
+  }
+
+  @Test
+  public void thePageAfterAFullLastPageIsEmpty() {
+    for (int i = 0; i < 4; i++) {
+      save("TEST", InvoiceStatus.NEW, NOW.plusSeconds(60 * i));
+    }
+    InvoiceFilter all = InvoiceFilter.builder().build();
+
+    List<Invoice> last = invoiceStore().findPage(all, null, 4);
+
+    assertEquals(4, last.size());
+    assertTrue(invoiceStore().findPage(all, InvoiceCursor.after(last.get(3)), 4).isEmpty());
+  }
+
+  @Test
+  public void openInvoicesAreSeekedThroughById() {
+    List<Invoice> open = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      open.add(
+          save(
+              "TEST",
+              i % 2 == 0 ? InvoiceStatus.NEW : InvoiceStatus.PARTIALLY_PAID,
+              NOW.plusSeconds(60)));
+      save("TEST", InvoiceStatus.PAID, NOW.plusSeconds(60));
+    }
+    List<InvoiceStatus> statuses = Arrays.asList(InvoiceStatus.NEW, InvoiceStatus.PARTIALLY_PAID);
+
+    List<String> seeked = new ArrayList<>();
+    List<Integer> sizes = new ArrayList<>();
+    String after = "";
+    List<Invoice> page;
+    do {
+      page = invoiceStore().findByStatus(statuses, after, 2);
+      sizes.add(page.size());
+      page.forEach((invoice) -> seeked.add(invoice.getInvoiceId()));
+      after = page.isEmpty() ? after : page.get(page.size() - 1).getInvoiceId();
+    } while (page.size() == 2);
+
+    assertEquals(Arrays.asList(2, 2, 1), sizes);
+    assertEquals(
+        open.stream().map(Invoice::getInvoiceId).sorted().collect(Collectors.toList()), seeked);
+  }
+
+  /** Every page of the filter, following the cursor of each full page. */
+  private List<List<Invoice>> walk(InvoiceFilter filter, int limit) {
+    List<List<Invoice>> pages = new ArrayList<>();
+    InvoiceCursor after = null;
+    List<Invoice> page;
+    do {
+      page = invoiceStore().findPage(filter, after, limit);
+      pages.add(page);
+      after = page.isEmpty() ? after : InvoiceCursor.after(page.get(page.size() - 1));
+    } while (page.size() == limit);
+    return pages;
+  }
+
+  private Invoice save(String chain, InvoiceStatus status, Instant dueDate) {
+    return invoiceStore()
+        .save(
+            Invoice.builder()
+                .invoiceAmountUnits(100)
+                .amountRemainingUnits(100)
+                .amountScale(6)
+                .invoiceStatus(status)
+                .chain(chain)
+                .cryptoAddress("address")
+                .currency("XRP")
+                .dueDate(dueDate)
+                .build());
+  }
+
+  private static List<Invoice> inPageOrder(List<Invoice> invoices) {
+    return invoices.stream()
+        .sorted(Comparator.comparing(Invoice::getDueDate).thenComparing(Invoice::getInvoiceId))
+        .collect(Collectors.toList());
+  }
+
+  private static List<Invoice> flatten(List<List<Invoice>> pages) {
+    return pages.stream().flatMap(List::stream).collect(Collectors.toList());
+  }
+
+  private static List<Integer> sizes(List<List<Invoice>> pages) {
+    return pages.stream().map(List::size).collect(Collectors.toList());
+  }
+
+  private static List<String> ids(List<Invoice> invoices) {
+    return invoices.stream().map(Invoice::getInvoiceId).collect(Collectors.toList());
+  }
+}
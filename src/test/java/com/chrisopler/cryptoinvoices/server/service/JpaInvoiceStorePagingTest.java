@@ -0,0 +1,25 @@
+package com.chrisopler.cryptoinvoices.server.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+/** Runs against the Flyway schema, so the queries are checked with the indexes they rely on. */
+@DataJpaTest
+@Import(JpaInvoiceStore.class)
+class JpaInvoiceStorePagingTest extends InvoiceStorePagingTest {
+
+  @Autowired private InvoiceRepository invoiceRepository;
+  @Autowired private JpaInvoiceStore invoiceStore;
+
+  @AfterEach
+  public void stop() {
+    this.invoiceRepository.deleteAllInBatch();
+  }
+
+  @Override
+  protected InvoiceStore invoiceStore() {
+    return this.invoiceStore;
+  }
+}
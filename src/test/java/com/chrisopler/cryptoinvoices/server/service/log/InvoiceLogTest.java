@@ -0,0 +1,118 @@
+package com.chrisopler.cryptoinvoices.server.service.log;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class InvoiceLogTest {
+
+  @TempDir Path directory;
+
+  @Test
+  public void recordsAreReplayedAcrossSegmentsInOrder() throws Exception {
+    InvoiceLog.Position end;
+    try (InvoiceLog log = InvoiceLog.open(directory, 64, null, (r) -> {})) {
+      for (int i = 0; i < 10; i++) {
+        log.append(record("record-" + i));
+      }
+      end = log.position();
+      assertEquals(2, end.getSegment());
+    }
+
+    List<String> replayed = new ArrayList<>();
+    try (InvoiceLog log = InvoiceLog.open(directory, 64, null, (r) -> replayed.add(text(r)))) {
+      assertEquals(end, log.position());
+      assertEquals(10, replayed.size());
+      assertEquals("record-0", replayed.get(0));
+      assertEquals("record-9", replayed.get(9));
+    }
+  }
+
+  @Test
+  public void aTornRecordIsDroppedAndAppendingResumesBeforeIt() throws Exception {
+    InvoiceLog.Position end;
+    try (InvoiceLog log = InvoiceLog.open(directory, 1024, null, (r) -> {})) {
+      log.append(record("whole"));
+      end = log.position();
+    }
+    // -- a record whose length was written but whose content does not match its CRC.
+    try (FileChannel segment =
+        FileChannel.open(directory.resolve(segmentName(0)), StandardOpenOption.WRITE)) {
+      ByteBuffer torn = ByteBuffer.allocate(12).putInt(4).putInt(42).putInt(7);
+      torn.flip();
+      segment.write(torn, end.getOffset());
+    }
+
+    List<String> replayed = new ArrayList<>();
+    try (InvoiceLog log = InvoiceLog.open(directory, 1024, null, (r) -> replayed.add(text(r)))) {
+      assertEquals(1, replayed.size());
+      assertEquals(end, log.position());
+      log.append(record("next"));
+      end = log.position();
+    }
+
+    replayed.clear();
+    try (InvoiceLog log = InvoiceLog.open(directory, 1024, null, (r) -> replayed.add(text(r)))) {
+      assertEquals(end, log.position());
+      assertArrayEquals(new Object[] {"whole", "next"}, replayed.toArray());
+    }
+  }
+
+  @Test
+  public void replayStartsFromAPositionAndDropsTheSegmentsBeforeIt() throws Exception {
+    InvoiceLog.Position from;
+    InvoiceLog.Position end;
+    try (InvoiceLog log = InvoiceLog.open(directory, 64, null, (r) -> {})) {
+      for (int i = 0; i < 5; i++) {
+        log.append(record("record-" + i));
+      }
+      from = log.position();
+      log.append(record("record-5"));
+      end = log.position();
+    }
+
+    List<String> replayed = new ArrayList<>();
+    try (InvoiceLog log = InvoiceLog.open(directory, 64, from, (r) -> replayed.add(text(r)))) {
+      assertEquals(end, log.position());
+      assertArrayEquals(new Object[] {"record-5"}, replayed.toArray());
+    }
+    assertFalse(Files.exists(directory.resolve(segmentName(0))));
+  }
+
+  @Test
+  public void onlyOneLogIsOpenOnADirectory() throws Exception {
+    try (InvoiceLog log = InvoiceLog.open(directory, 64, null, (r) -> {})) {
+      assertThrows(
+          IllegalStateException.class,
+          () -> InvoiceLog.open(directory, 64, null, (r) -> {}).close());
+      // -- the refused open leaves the log that holds the directory working.
+      log.append(record("still-open"));
+    }
+  }
+
+  private static byte[] record(String text) {
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String text(ByteBuffer record) {
+    byte[] bytes = new byte[record.remaining()];
+    record.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static String segmentName(long segment) {
+    return String.format("%020d.log", segment);
+  }
+}
@@ -0,0 +1,32 @@
+package com.chrisopler.cryptoinvoices.server.service.log;
+
+import com.chrisopler.cryptoinvoices.server.service.InvoiceStore;
+import com.chrisopler.cryptoinvoices.server.service.InvoiceStorePagingTest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+
+class LogInvoiceStorePagingTest extends InvoiceStorePagingTest {
+
+  @TempDir Path directory;
+
+  private LogInvoiceStore invoiceStore;
+
+  @BeforeEach
+  public void start() throws Exception {
+    this.invoiceStore =
+        new LogInvoiceStore(new SimpleMeterRegistry(), directory.toString(), 4096, false);
+  }
+
+  @AfterEach
+  public void stop() throws Exception {
+    this.invoiceStore.destroy();
+  }
+
+  @Override
+  protected InvoiceStore invoiceStore() {
+    return this.invoiceStore;
+  }
+}
@@ -0,0 +1,169 @@
+package com.chrisopler.cryptoinvoices.server.service.log;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import com.chrisopler.cryptoinvoices.server.service.InvoiceCursor;
+import com.chrisopler.cryptoinvoices.server.service.InvoiceFilter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataIntegrityViolationException;
+
+class LogInvoiceStoreTest {
+
+  private static final Instant NOW = Instant.now();
+
+  @TempDir Path directory;
+
+  @Test
+  public void invoicesAreRecoveredFromTheSnapshotAndTheLogAfterIt() throws Exception {
+    Path stopped = this.directory.resolve("stopped");
+    Path crashed = this.directory.resolve("crashed");
+    LogInvoiceStore store = open(stopped);
+    Invoice paid = store.save(invoice("a", NOW.plusSeconds(60)));
+    Invoice unpaid = store.save(invoice("b", NOW.plusSeconds(120)));
+    store.snapshot();
+    assertEquals(
+        1, store.transition(paid.getInvoiceId(), InvoiceStatus.NEW, 0, InvoiceStatus.PAID, 100, 0));
+    Invoice later = store.save(invoice("c", NOW.plusSeconds(180)));
+    // -- a copy of the directory as a crash would leave it, with the last records only in the log.
+    Files.createDirectories(crashed);
+    try (Stream<Path> files = Files.list(stopped)) {
+      for (Path file : files.collect(Collectors.toList())) {
+        Files.copy(file, crashed.resolve(file.getFileName()));
+      }
+    }
+    store.destroy();
+
+    for (Path recoveredFrom : Arrays.asList(stopped, crashed)) {
+      LogInvoiceStore recovered = open(recoveredFrom);
+      Invoice recoveredPaid = recovered.findById(paid.getInvoiceId()).get();
+      assertEquals(InvoiceStatus.PAID, recoveredPaid.getInvoiceStatus());
+      assertEquals(100, recoveredPaid.getAmountPaidUnits());
+      assertEquals(unpaid, recovered.findById(unpaid.getInvoiceId()).get());
+      assertEquals(later, recovered.findById(later.getInvoiceId()).get());
+      assertEquals(
+          later.getInvoiceId(), recovered.findByIdempotencyKey("key-c").get().getInvoiceId());
+      recovered.destroy();
+    }
+  }
+
+  @Test
+  public void invoicesAreReadThroughTheirIndexes() throws Exception {
+    LogInvoiceStore store = open();
+    Invoice overdue = store.save(invoice("a", NOW.minusSeconds(60)));
+    Invoice first = store.save(invoice("b", NOW.plusSeconds(60)));
+    Invoice second = store.save(invoice("c", NOW.plusSeconds(120)));
+    store.transition(
+        second.getInvoiceId(), InvoiceStatus.NEW, 0, InvoiceStatus.PARTIALLY_PAID, 10, 90);
+
+    assertEquals(
+        Collections.singletonList(overdue.getInvoiceId()),
+        ids(
+            store.findPage(
+                InvoiceFilter.builder()
+                    .statuses(Collections.singletonList(InvoiceStatus.NEW))
+                    .dueBefore(NOW)
+                    .build(),
+                null,
+                10)));
+    assertEquals(
+        1,
+        store.expire(
+            Collections.singletonList(overdue.getInvoiceId()),
+            Collections.singletonList(InvoiceStatus.NEW),
+            NOW));
+    assertEquals(
+        InvoiceStatus.EXPIRED, store.findById(overdue.getInvoiceId()).get().getInvoiceStatus());
+
+    List<Invoice> open =
+        store.findByStatus(Arrays.asList(InvoiceStatus.NEW, InvoiceStatus.PARTIALLY_PAID), "", 10);
+    assertEquals(
+        Stream.of(first, second).map(Invoice::getInvoiceId).sorted().collect(Collectors.toList()),
+        open.stream().map(Invoice::getInvoiceId).collect(Collectors.toList()));
+    assertEquals(
+        Collections.singletonList(first.getInvoiceId()),
+        ids(store.findByCryptoAddress("address-b")));
+
+    InvoiceFilter all = InvoiceFilter.builder().build();
+    List<Invoice> page = store.findPage(all, null, 2);
+    assertEquals(Arrays.asList(overdue.getInvoiceId(), first.getInvoiceId()), ids(page));
+    assertEquals(
+        Collections.singletonList(second.getInvoiceId()),
+        ids(store.findPage(all, InvoiceCursor.after(page.get(1)), 2)));
+    InvoiceFilter partiallyPaid =
+        InvoiceFilter.builder()
+            .statuses(Collections.singletonList(InvoiceStatus.PARTIALLY_PAID))
+            .dueAfter(NOW)
+            .build();
+    assertEquals(
+        Collections.singletonList(second.getInvoiceId()),
+        ids(store.findPage(partiallyPaid, null, 10)));
+    store.destroy();
+  }
+
+  @Test
+  public void storedInvoicesAreCopies() throws Exception {
+    LogInvoiceStore store = open();
+    Invoice invoice = invoice("a", NOW.plusSeconds(60));
+    Invoice saved = store.save(invoice);
+    assertNotNull(invoice.getInvoiceId());
+
+    saved.setInvoiceStatus(InvoiceStatus.PAID);
+    invoice.setInvoiceStatus(InvoiceStatus.PAID);
+    assertEquals(
+        InvoiceStatus.NEW, store.findById(saved.getInvoiceId()).get().getInvoiceStatus());
+    store.destroy();
+  }
+
+  @Test
+  public void anIdempotencyKeyIsOnlyUsedOnce() throws Exception {
+    LogInvoiceStore store = open();
+    store.save(invoice("a", NOW.plusSeconds(60)));
+    Invoice duplicate = invoice("a", NOW.plusSeconds(60));
+
+    assertThrows(DataIntegrityViolationException.class, () -> store.save(duplicate));
+    assertFalse(store.existsById(String.valueOf(duplicate.getInvoiceId())));
+    store.destroy();
+  }
+
+  private LogInvoiceStore open() throws Exception {
+    return open(this.directory);
+  }
+
+  private static LogInvoiceStore open(Path directory) throws Exception {
+    // -- small segments, so that the log rolls over to new ones.
+    return new LogInvoiceStore(new SimpleMeterRegistry(), directory.toString(), 512, false);
+  }
+
+  private static List<String> ids(List<Invoice> invoices) {
+    return invoices.stream().map(Invoice::getInvoiceId).collect(Collectors.toList());
+  }
+
+  private static Invoice invoice(String name, Instant dueDate) {
+    return Invoice.builder()
+        .invoiceAmountUnits(100)
+        .amountRemainingUnits(100)
+        .amountScale(6)
+        .invoiceStatus(InvoiceStatus.NEW)
+        .chain("TEST")
+        .cryptoAddress("address-" + name)
+        .currency("XRP")
+        .dueDate(dueDate)
+        .idempotencyKey("key-" + name)
+        .build();
+  }
+}
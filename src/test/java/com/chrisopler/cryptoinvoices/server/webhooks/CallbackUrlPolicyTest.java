@@ -0,0 +1,55 @@
+package com.chrisopler.cryptoinvoices.server.webhooks;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+
+class CallbackUrlPolicyTest {
+
+  private final CallbackUrlPolicy policy = new CallbackUrlPolicy(Collections.emptyList());
+
+  @Test
+  public void localAndPrivateHostsAreRefused() {
+    for (String url :
+        Arrays.asList(
+            "http://localhost/hook",
+            "http://api.localhost/hook",
+            "http://127.0.0.1/hook",
+            "http://2130706433/hook",
+            "http://0.0.0.0/hook",
+            "http://10.1.2.3/hook",
+            "http://172.16.0.1/hook",
+            "http://192.168.1.1/hook",
+            // -- the metadata endpoint of most clouds.
+            "http://169.254.169.254/latest/meta-data",
+            "http://[::1]/hook",
+            "http://[fe80::1]/hook",
+            "http://[fd00::1]/hook",
+            "http://[::ffff:127.0.0.1]/hook")) {
+      assertFalse(policy.isAcceptable(URI.create(url)), url);
+      assertFalse(policy.isDeliverable(url), url);
+    }
+  }
+
+  @Test
+  public void publicHostsAreAccepted() {
+    assertTrue(policy.isAcceptable(URI.create("https://merchant.example.com/hook")));
+    assertTrue(policy.isAcceptable(URI.create("http://93.184.216.34/hook")));
+    assertTrue(policy.isDeliverable("http://93.184.216.34/hook"));
+  }
+
+  @Test
+  public void allowedHostsAreAcceptedWhereverTheyPoint() {
+    CallbackUrlPolicy allowing =
+        new CallbackUrlPolicy(Arrays.asList("localhost", " Billing.Internal "));
+
+    assertTrue(allowing.isAcceptable(URI.create("http://localhost:8080/hook")));
+    assertTrue(allowing.isDeliverable("http://localhost:8080/hook"));
+    assertTrue(allowing.isAcceptable(URI.create("http://billing.internal/hook")));
+    assertFalse(allowing.isAcceptable(URI.create("http://127.0.0.1/hook")));
+  }
+}
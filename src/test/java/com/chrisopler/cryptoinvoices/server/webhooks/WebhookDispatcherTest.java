@@ -0,0 +1,248 @@
+package com.chrisopler.cryptoinvoices.server.webhooks;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.chrisopler.cryptoinvoices.server.generated.model.Invoice;
+import com.chrisopler.cryptoinvoices.server.generated.model.InvoiceStatus;
+import com.chrisopler.cryptoinvoices.server.service.InvoiceChangedEvent;
+import com.chrisopler.cryptoinvoices.server.service.InvoiceStore;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+
+class WebhookDispatcherTest {
+
+  private final WebhookReceiverStandIn receiver = new WebhookReceiverStandIn();
+  private final WebhookReceiverStandIn hanging = new WebhookReceiverStandIn();
+  private final InvoiceStore invoiceStore = mock(InvoiceStore.class);
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  // -- the stand-ins listen on localhost.
+  private CallbackUrlPolicy callbackUrlPolicy =
+      new CallbackUrlPolicy(Collections.singletonList("localhost"));
+  private long minBackoffMs = 50;
+  private long destinationIdleMs = 60_000;
+  private WebhookSender sender;
+  private WebhookDispatcher dispatcher;
+
+  @AfterEach
+  public void tearDown() {
+    dispatcher.stop();
+    sender.shutdown();
+    receiver.close();
+    hanging.close();
+  }
+
+  @Test
+  public void failedDeliveriesAreRetriedWithTheSameEvent() {
+    start(1, 50, 4, Collections.emptyMap(), false);
+    receiver.failNext(2);
+
+    dispatcher.onInvoiceChanged(paid("a", receiver.url()));
+
+    await().atMost(10, TimeUnit.SECONDS).until(() -> receiver.requests().size() == 3);
+    String eventId = receiver.requests().get(0).get(0).get("event_id").asText();
+    receiver.requests().forEach((r) -> assertEquals(eventId, r.get(0).get("event_id").asText()));
+    JsonNode event = receiver.requests().get(2).get(0);
+    assertEquals("PARTIALLY_PAID", event.get("previous_status").asText());
+    assertEquals("PAID", event.get("status").asText());
+    assertEquals("a", event.get("invoice").get("invoice_id").asText());
+  }
+
+  @Test
+  public void queuedEventsForTheSameUrlAreBatched() {
+    start(1, 50, 4, Collections.emptyMap(), true);
+    for (int i = 0; i < 10; i++) {
+      dispatcher.onInvoiceChanged(paid("i" + i, receiver.url()));
+    }
+
+    dispatcher.start();
+
+    await().atMost(10, TimeUnit.SECONDS).until(() -> events() == 10);
+    assertEquals(1, receiver.requests().size());
+  }
+
+  @Test
+  public void concurrentDeliveriesAreLimitedPerDestination() {
+    start(4, 1, 2, Collections.emptyMap(), false);
+    receiver.respondAfter(Duration.ofMillis(200));
+
+    for (int i = 0; i < 8; i++) {
+      dispatcher.onInvoiceChanged(paid("i" + i, receiver.url()));
+    }
+
+    await().atMost(10, TimeUnit.SECONDS).until(() -> events() == 8);
+    assertTrue(receiver.maxInFlight() <= 2, "max in flight " + receiver.maxInFlight());
+  }
+
+  @Test
+  public void aHangingDestinationDoesNotHoldUpTheOthers() {
+    start(1, 1, 1, Collections.emptyMap(), false);
+    hanging.respondAfter(Duration.ofSeconds(30));
+
+    for (int i = 0; i < 3; i++) {
+      dispatcher.onInvoiceChanged(paid("h" + i, hanging.url()));
+    }
+    dispatcher.onInvoiceChanged(paid("a", receiver.url()));
+
+    await().atMost(3, TimeUnit.SECONDS).until(() -> events() == 1);
+    // -- the batches behind the first wait for its permit, not for a request of their own.
+    assertEquals(1, hanging.requests().size());
+  }
+
+  @Test
+  public void aBatchWaitingToBeRetriedDoesNotHoldItsPermit() {
+    minBackoffMs = 2000;
+    start(1, 1, 1, Collections.emptyMap(), false);
+    receiver.failNext(1);
+
+    dispatcher.onInvoiceChanged(paid("a", receiver.url()));
+    await().atMost(3, TimeUnit.SECONDS).until(() -> receiver.requests().size() == 1);
+    dispatcher.onInvoiceChanged(paid("b", receiver.url()));
+
+    await().atMost(1, TimeUnit.SECONDS).until(() -> receiver.requests().size() == 2);
+    assertEquals("b", receiver.requests().get(1).get(0).get("invoice").get("invoice_id").asText());
+    await().atMost(10, TimeUnit.SECONDS).until(() -> receiver.requests().size() == 3);
+  }
+
+  @Test
+  public void idleDestinationsAreForgotten() {
+    destinationIdleMs = 200;
+    start(1, 1, 1, Collections.emptyMap(), false);
+
+    dispatcher.onInvoiceChanged(paid("a", receiver.url()));
+    await().atMost(3, TimeUnit.SECONDS).until(() -> events() == 1);
+
+    await().atMost(3, TimeUnit.SECONDS).until(() -> destinations() == 0);
+  }
+
+  @Test
+  public void aBusyDestinationIsNotForgotten() throws Exception {
+    destinationIdleMs = 200;
+    start(1, 1, 1, Collections.emptyMap(), false);
+    hanging.respondAfter(Duration.ofSeconds(2));
+
+    dispatcher.onInvoiceChanged(paid("h0", hanging.url()));
+    await().atMost(3, TimeUnit.SECONDS).until(() -> hanging.requests().size() == 1);
+    Thread.sleep(500);
+    assertEquals(1, destinations());
+
+    // -- a forgotten destination would have let this one through alongside the first.
+    dispatcher.onInvoiceChanged(paid("h1", hanging.url()));
+    await().atMost(10, TimeUnit.SECONDS).until(() -> hanging.requests().size() == 2);
+    assertEquals(1, hanging.maxInFlight());
+  }
+
+  @Test
+  public void callbackUrlsOfLocalHostsAreRefused() {
+    callbackUrlPolicy = new CallbackUrlPolicy(Collections.emptyList());
+    start(1, 50, 4, Collections.singletonMap("XRPL/TESTNET", receiver.url()), false);
+
+    dispatcher.onInvoiceChanged(paid("a", receiver.url()));
+    // -- the chain callback URL is configured, so it is trusted.
+    dispatcher.onInvoiceChanged(paid("b", null));
+
+    await().atMost(10, TimeUnit.SECONDS).until(() -> events() == 1);
+    assertEquals("b", receiver.requests().get(0).get(0).get("invoice").get("invoice_id").asText());
+    assertEquals(1, meterRegistry.get("invoices.webhooks.refused").counter().count());
+  }
+
+  @Test
+  public void bulkChangesAreDeliveredToTheChainCallbackUrl() {
+    start(1, 50, 4, Collections.singletonMap("XRPL/TESTNET", receiver.url()), false);
+    when(invoiceStore.findAllById(Collections.singleton("a")))
+        .thenReturn(Collections.singletonList(invoice("a", InvoiceStatus.EXPIRED, null)));
+
+    dispatcher.onInvoiceChanged(
+        new InvoiceChangedEvent("a", InvoiceStatus.NEW, InvoiceStatus.EXPIRED, null));
+
+    await().atMost(10, TimeUnit.SECONDS).until(() -> events() == 1);
+    assertEquals("EXPIRED", receiver.requests().get(0).get(0).get("status").asText());
+  }
+
+  @Test
+  public void creationIsNotDelivered() {
+    start(1, 50, 4, Collections.emptyMap(), false);
+
+    Invoice invoice = invoice("a", InvoiceStatus.NEW, receiver.url());
+    dispatcher.onInvoiceChanged(new InvoiceChangedEvent("a", null, InvoiceStatus.NEW, invoice));
+    dispatcher.onInvoiceChanged(paid("b", receiver.url()));
+
+    await().atMost(10, TimeUnit.SECONDS).until(() -> events() == 1);
+    assertEquals("b", receiver.requests().get(0).get(0).get("invoice").get("invoice_id").asText());
+  }
+
+  private void start(
+      int workers,
+      int batchSize,
+      int maxConcurrencyPerDestination,
+      Map<String, String> chainCallbackUrls,
+      boolean deferred) {
+    sender =
+        new WebhookSender(
+            WebClient.builder(),
+            meterRegistry,
+            10,
+            maxConcurrencyPerDestination,
+            100,
+            destinationIdleMs,
+            5000,
+            3,
+            minBackoffMs,
+            Math.max(200, minBackoffMs));
+    dispatcher =
+        new WebhookDispatcher(
+            sender,
+            callbackUrlPolicy,
+            invoiceStore,
+            meterRegistry,
+            true,
+            100,
+            workers,
+            batchSize,
+            chainCallbackUrls);
+    if (!deferred) {
+      dispatcher.start();
+    }
+  }
+
+  private double destinations() {
+    return meterRegistry.get("invoices.webhooks.destinations").gauge().value();
+  }
+
+  private long events() {
+    return receiver.requests().stream()
+        .mapToLong((r) -> StreamSupport.stream(r.spliterator(), false).count())
+        .sum();
+  }
+
+  private static InvoiceChangedEvent paid(String invoiceId, String callbackUrl) {
+    return new InvoiceChangedEvent(
+        invoiceId,
+        InvoiceStatus.PARTIALLY_PAID,
+        InvoiceStatus.PAID,
+        invoice(invoiceId, InvoiceStatus.PAID, callbackUrl));
+  }
+
+  private static Invoice invoice(String invoiceId, InvoiceStatus status, String callbackUrl) {
+    return Invoice.builder()
+        .invoiceId(invoiceId)
+        .invoiceStatus(status)
+        .chain("XRPL")
+        .chainEnvironment("TESTNET")
+        .callbackUrl(callbackUrl)
+        .amountScale(6)
+        .build();
+  }
+}
@@ -0,0 +1,100 @@
+package com.chrisopler.cryptoinvoices.server.webhooks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+/**
+ * A local merchant endpoint receiving webhooks. It records every request, can be made to fail the
+ * first few and to respond slowly, and tracks how many requests were in flight at once.
+ */
+public class WebhookReceiverStandIn implements AutoCloseable {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private final List<JsonNode> requests = new CopyOnWriteArrayList<>();
+  private final AtomicInteger failuresLeft = new AtomicInteger();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger maxInFlight = new AtomicInteger();
+  private volatile Duration delay = Duration.ZERO;
+  private final DisposableServer server;
+
+  public WebhookReceiverStandIn() {
+    this.server =
+        HttpServer.create()
+            .host("localhost")
+            .port(0)
+            .route(
+                (routes) ->
+                    routes.post(
+                        "/hook",
+                        (request, response) ->
+                            request
+                                .receive()
+                                .aggregate()
+                                .asString()
+                                .flatMap(
+                                    (body) -> {
+                                      int current = this.inFlight.incrementAndGet();
+                                      this.maxInFlight.accumulateAndGet(current, Math::max);
+                                      this.requests.add(parse(body));
+                                      // -- doFinally only runs once the response is written, by
+                                      // -- when the dispatcher may have sent its next request.
+                                      return Mono.delay(this.delay)
+                                          .doOnTerminate(this.inFlight::decrementAndGet);
+                                    })
+                                .then(
+                                    Mono.defer(
+                                        () ->
+                                            response
+                                                .status(
+                                                    this.failuresLeft.getAndDecrement() > 0
+                                                        ? HttpResponseStatus.SERVICE_UNAVAILABLE
+                                                        : HttpResponseStatus.NO_CONTENT)
+                                                .send()
+                                                .then()))))
+            .bindNow();
+  }
+
+  public String url() {
+    return "http://localhost:" + this.server.port() + "/hook";
+  }
+
+  /** Respond with a 503 to the next few requests. */
+  public void failNext(int requests) {
+    this.failuresLeft.set(requests);
+  }
+
+  public void respondAfter(Duration delay) {
+    this.delay = delay;
+  }
+
+  /** The JSON array of events posted by each request, in the order they were received. */
+  public List<JsonNode> requests() {
+    return this.requests;
+  }
+
+  public int maxInFlight() {
+    return this.maxInFlight.get();
+  }
+
+  @Override
+  public void close() {
+    this.server.disposeNow();
+  }
+
+  private static JsonNode parse(String body) {
+    try {
+      return OBJECT_MAPPER.readTree(body);
+    } catch (Exception e) {
+      throw new IllegalArgumentException(body, e);
+    }
+  }
+}